@@ -0,0 +1,76 @@
+package com.solacesystems.demo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of matching orders in the sample's {@link OrderBook}, over a repeatable stream of
+ * orders a few ticks either side of one price, so that about half of them trade and the rest rest in the
+ * book. Each operation submits an order and cancels the one submitted {@link #RESTING} orders before it if
+ * it is still resting, which holds the book at a steady depth. Run with <code>-prof gc</code> to check a
+ * warmed-up book allocates nothing per order.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderBookBenchmark {
+    private static final int ORDERS = 1 << 16;
+    private static final long MID = 5000;
+    /** Most orders resting in the book at once */
+    private static final int RESTING = 1 << 10;
+
+    @Param({ "10", "100" })
+    public int spreadTicks;
+
+    private final boolean[] _buys = new boolean[ORDERS];
+    private final long[] _prices = new long[ORDERS];
+    private final long[] _quantities = new long[ORDERS];
+    private OrderBook _book;
+    private long _orderId;
+    private Blackhole _bh;
+    private final OrderBook.FillListener _fills = new OrderBook.FillListener() {
+        public void OnFill(long makerOrderId, long price, long quantity) {
+            _bh.consume(makerOrderId);
+            _bh.consume(quantity);
+        }
+    };
+
+    @Setup
+    public void setup(Blackhole bh) {
+        _bh = bh;
+        Random rand = new Random(42);
+        for (int i = 0; i < ORDERS; i++) {
+            _buys[i] = rand.nextBoolean();
+            _prices[i] = MID + rand.nextInt(2 * spreadTicks + 1) - spreadTicks;
+            _quantities[i] = 1 + rand.nextInt(100);
+        }
+        _book = new OrderBook("MSFT", RESTING);
+        // Start from a book in steady state
+        for (int i = 0; i < ORDERS; i++)
+            submit();
+    }
+
+    private long submit() {
+        int i = (int) (_orderId & (ORDERS - 1));
+        _book.Cancel(_orderId - RESTING);
+        return _book.Submit(_orderId++, _buys[i], _prices[i], _quantities[i], _fills);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long submit_throughput() {
+        return submit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long submit_latency() {
+        return submit();
+    }
+}
@@ -0,0 +1,131 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message serialization costs of the sample application's {@link SampleSerializer}, and of reading
+ * the same messages through the {@link FlyweightSampleSerializer} and the annotation-generated
+ * {@link GeneratedSampleSerializer}; run with <code>-prof gc</code> to compare allocation per input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleSerializerBenchmark {
+    private final SampleSerializer _serializer = new SampleSerializer();
+    private final FlyweightSampleSerializer _flyweights = new FlyweightSampleSerializer();
+    private final GeneratedSampleSerializer _generated = new GeneratedSampleSerializer();
+    private final GeneratedSampleSerializer _ids = new GeneratedSampleSerializer(false, Instruments.Dictionary());
+    private ClientOrder _order;
+    private AppState _state;
+    private BytesXMLMessage _orderMsg;
+    private BytesXMLMessage _stateMsg;
+    private BytesXMLMessage _orderIdMsg;
+
+    @Setup
+    public void setup() {
+        _order = new ClientOrder(42);
+        _order.setIsBuy(true);
+        _order.setQuantity(100);
+        _order.setPrice(42.42);
+        _order.setInstrument("MSFT");
+        _state = new AppState("MSFT");
+        _state.setSequenceId(42);
+
+        _orderMsg = wrap(_serializer.SerializeInput(_order));
+        _stateMsg = wrap(_serializer.SerializeOutput(_state));
+        ByteBuffer orderIds = _ids.SerializeInput(_order);
+        orderIds.flip();
+        _orderIdMsg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        _orderIdMsg.writeAttachment(orderIds.array(), 0, orderIds.limit());
+    }
+
+    private static BytesXMLMessage wrap(ByteBuffer data) {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(data.array());
+        return msg;
+    }
+
+    @Benchmark
+    public ClientOrder deserializeInput() {
+        return _serializer.DeserializeInput(_orderMsg);
+    }
+
+    /**
+     * Every field of the input read through the reused flyweight, for comparison with
+     * {@link #deserializeInput()}, which populates every field up front
+     */
+    @Benchmark
+    public void deserializeInputFlyweight(Blackhole bh) {
+        ClientOrderFlyweight order = _flyweights.DeserializeInput(_orderMsg);
+        bh.consume(order.getSequenceId());
+        bh.consume(order.isBuy());
+        bh.consume(order.getQuantity());
+        bh.consume(order.getPrice());
+        bh.consume(order.getInstrument());
+    }
+
+    /**
+     * What fast catch-up pays for an input instead of {@link #deserializeInput()}
+     */
+    @Benchmark
+    public long peekInputSequence() {
+        return _serializer.PeekInputSequence(_orderMsg);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeInput() {
+        return _serializer.SerializeInput(_order);
+    }
+
+    @Benchmark
+    public AppState deserializeOutput() {
+        return _serializer.DeserializeOutput(_stateMsg);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeOutput() {
+        return _serializer.SerializeOutput(_state);
+    }
+
+    @Benchmark
+    public ClientOrder deserializeInputGenerated() {
+        return _generated.DeserializeInput(_orderMsg);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeInputGenerated() {
+        return _generated.SerializeInput(_order);
+    }
+
+    @Benchmark
+    public AppState deserializeOutputGenerated() {
+        return _generated.DeserializeOutput(_stateMsg);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeOutputGenerated() {
+        return _generated.SerializeOutput(_state);
+    }
+
+    /**
+     * An input whose instrument is sent as its id in the {@link Instruments#Dictionary()}
+     */
+    @Benchmark
+    public ClientOrder deserializeInputIds() {
+        return _ids.DeserializeInput(_orderIdMsg);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeInputIds() {
+        return _ids.SerializeInput(_order);
+    }
+}
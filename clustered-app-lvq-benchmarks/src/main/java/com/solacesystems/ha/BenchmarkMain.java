@@ -0,0 +1,29 @@
+package com.solacesystems.ha;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the benchmark suites with the GC profiler always attached, so every result reports
+ * allocation rate (gc.alloc.rate.norm is bytes allocated per operation) next to ops/s.</p>
+ * <p>Build with <code>mvn package</code> and run all suites, or only those matching a regex;
+ * any other JMH command line option is passed through:
+ * <pre>
+ *     java -jar clustered-app-lvq-benchmarks/target/benchmarks.jar [regex] [jmh options]
+ * </pre>
+ * </p>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options opts = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opts).run();
+    }
+}
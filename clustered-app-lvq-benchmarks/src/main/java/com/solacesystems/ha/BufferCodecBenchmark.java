@@ -0,0 +1,130 @@
+package com.solacesystems.ha;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same encode/decode operations through {@link BufferCodec} and {@link ByteBufferSerializer}, over heap
+ * and direct buffers, with and without the <code>Unsafe</code> path; run with <code>-prof gc</code> to
+ * compare allocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BufferCodecBenchmark {
+    @Param({ "false", "true" })
+    public boolean direct;
+
+    @Param({ "true", "false" })
+    public boolean unsafe;
+
+    private ByteBuffer _out;
+    private ByteBuffer _in;
+    private BufferCodec _codec;
+    private final StringBuilder _builder = new StringBuilder();
+    private final long[] _longs = new long[64];
+
+    @Setup
+    public void setup() {
+        _out = direct ? ByteBuffer.allocateDirect(1024) : ByteBuffer.allocate(1024);
+        _in = direct ? ByteBuffer.allocateDirect(1024) : ByteBuffer.allocate(1024);
+        _codec = new BufferCodec(unsafe);
+        for (int i = 0; i < _longs.length; i++)
+            _longs[i] = i * 31L;
+        // An order: sequence header, side, quantity, price and instrument, then an array of longs
+        ByteBufferSerializer.SerializeSequence(_in, 42);
+        ByteBufferSerializer.SerializeBool(_in, true);
+        ByteBufferSerializer.SerializeDouble(_in, 100);
+        ByteBufferSerializer.SerializeDouble(_in, 42.42);
+        ByteBufferSerializer.SerializeString(_in, "MSFT");
+        for (long l : _longs)
+            ByteBufferSerializer.SerializeLong(_in, l);
+        _in.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer serializeOrder() {
+        _out.clear();
+        ByteBufferSerializer.SerializeSequence(_out, 42);
+        ByteBufferSerializer.SerializeBool(_out, true);
+        ByteBufferSerializer.SerializeDouble(_out, 100);
+        ByteBufferSerializer.SerializeDouble(_out, 42.42);
+        return ByteBufferSerializer.SerializeString(_out, "MSFT");
+    }
+
+    @Benchmark
+    public ByteBuffer serializeOrderCodec() {
+        _out.clear();
+        return _codec.Wrap(_out)
+                .PutSequence(42)
+                .PutBool(true)
+                .PutDouble(100)
+                .PutDouble(42.42)
+                .PutString("MSFT")
+                .Finish();
+    }
+
+    @Benchmark
+    public void deserializeOrder(Blackhole bh) throws UnsupportedEncodingException {
+        _in.position(0);
+        bh.consume(ByteBufferSerializer.DeserializeSequence(_in));
+        bh.consume(ByteBufferSerializer.DeserializeBool(_in));
+        bh.consume(ByteBufferSerializer.DeserializeDouble(_in));
+        bh.consume(ByteBufferSerializer.DeserializeDouble(_in));
+        bh.consume(ByteBufferSerializer.DeserializeString(_in));
+    }
+
+    @Benchmark
+    public void deserializeOrderCodec(Blackhole bh) {
+        _in.position(0);
+        BufferCodec codec = _codec.Wrap(_in);
+        bh.consume(codec.GetSequence());
+        bh.consume(codec.GetBool());
+        bh.consume(codec.GetDouble());
+        bh.consume(codec.GetDouble());
+        bh.consume(codec.GetString());
+    }
+
+    /**
+     * Decoding the instrument into a reused builder instead of a new String
+     */
+    @Benchmark
+    public void deserializeOrderCodecNoString(Blackhole bh) {
+        _in.position(0);
+        BufferCodec codec = _codec.Wrap(_in);
+        bh.consume(codec.GetSequence());
+        bh.consume(codec.GetBool());
+        bh.consume(codec.GetDouble());
+        bh.consume(codec.GetDouble());
+        _builder.setLength(0);
+        bh.consume(codec.GetString(_builder));
+    }
+
+    @Benchmark
+    public ByteBuffer serializeLongs() {
+        _out.clear();
+        for (long l : _longs)
+            ByteBufferSerializer.SerializeLong(_out, l);
+        return _out;
+    }
+
+    @Benchmark
+    public ByteBuffer serializeLongsCodec() {
+        _out.clear();
+        return _codec.Wrap(_out).PutLongs(_longs, 0, _longs.length).Finish();
+    }
+
+    @Benchmark
+    public long[] deserializeLongsCodec() {
+        _in.position(ByteBufferSerializer.SEQUENCE_HEADER_SIZE + 1 + 8 + 8 + 4 + 4);
+        _codec.Wrap(_in).GetLongs(_longs, 0, _longs.length);
+        return _longs;
+    }
+}
@@ -0,0 +1,64 @@
+package com.solacesystems.ha;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primitive encode/decode costs of the {@link ByteBufferSerializer} used by application serializers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteBufferSerializerBenchmark {
+    private final ByteBuffer _out = ByteBuffer.allocate(64);
+    private final ByteBuffer _in = ByteBuffer.allocate(64);
+
+    @Setup
+    public void setup() {
+        ByteBufferSerializer.SerializeInt(_in, 42);
+        ByteBufferSerializer.SerializeDouble(_in, 42.42);
+        ByteBufferSerializer.SerializeString(_in, "MSFT");
+    }
+
+    @Benchmark
+    public ByteBuffer serializeInt() {
+        _out.clear();
+        return ByteBufferSerializer.SerializeInt(_out, 42);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeDouble() {
+        _out.clear();
+        return ByteBufferSerializer.SerializeDouble(_out, 42.42);
+    }
+
+    @Benchmark
+    public ByteBuffer serializeString() {
+        _out.clear();
+        return ByteBufferSerializer.SerializeString(_out, "MSFT");
+    }
+
+    @Benchmark
+    public int deserializeInt() {
+        _in.position(0);
+        return ByteBufferSerializer.DeserializeInt(_in);
+    }
+
+    @Benchmark
+    public double deserializeDouble() {
+        _in.position(4);
+        return ByteBufferSerializer.DeserializeDouble(_in);
+    }
+
+    @Benchmark
+    public String deserializeString() throws UnsupportedEncodingException {
+        _in.position(12);
+        return ByteBufferSerializer.DeserializeString(_in);
+    }
+}
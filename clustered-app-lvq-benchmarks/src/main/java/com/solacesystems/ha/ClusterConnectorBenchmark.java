@@ -0,0 +1,73 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.demo.AppState;
+import com.solacesystems.demo.ClientOrder;
+import com.solacesystems.demo.SampleSerializer;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cost of an input through {@link ClusterConnector#processInputMsg} and
+ * {@link ClusterModel#UpdateApplicationState} into an application that produces an output
+ * state and sends it through the connector, using the sample order and state types.</p>
+ * <p>The BACKUP member stops at the output gate, the ACTIVE member serializes and publishes
+ * into a {@link NullProducer}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClusterConnectorBenchmark {
+
+    @Param({"BACKUP", "ACTIVE"})
+    public HAState haState;
+
+    private ClusterModel<ClientOrder, AppState> _model;
+    private ClusterConnector<ClientOrder, AppState> _connector;
+    private ClientOrder _input;
+
+    @Setup
+    public void setup() throws JCSMPException {
+        App app = new App();
+        _model = new ClusterModel<ClientOrder, AppState>(app);
+        _connector = new ClusterConnector<ClientOrder, AppState>(_model, new SampleSerializer(),
+                new SolaceConnector(new NullProducer().session()));
+        app.connector = _connector;
+        _model.SetHAStatus(haState);
+        _model.SetSequenceStatus(SeqState.UPTODATE);
+
+        _input = new ClientOrder(1);
+        _input.setIsBuy(true);
+        _input.setQuantity(100);
+        _input.setPrice(42.42);
+        _input.setInstrument("MSFT");
+    }
+
+    @Benchmark
+    public long processInput() {
+        _connector.processInputMsg(_input);
+        return _model.GetLastOutputSequence();
+    }
+
+    /**
+     * Does what the sample matching engine does with every input, minus logging and monitor updates
+     */
+    private static class App implements ClusterEventListener<ClientOrder, AppState> {
+        public AppState UpdateApplicationState(ClientOrder input) {
+            AppState output = new AppState(input.getInstrument());
+            output.setSequenceId(input.getSequenceId());
+            connector.SendOutput("trade/app1/new", output);
+            return output;
+        }
+        public void OnHAStateChange(HAState oldState, HAState newState) {}
+        public void OnSeqStateChange(SeqState oldState, SeqState newState) {}
+        public void OnInitialStateMessage(AppState initialState) {}
+        public void OnApplicationMessage(ClientOrder input) {}
+
+        ClusterConnector<ClientOrder, AppState> connector;
+    }
+}
@@ -0,0 +1,128 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.demo.ClientOrder;
+import com.solacesystems.demo.SampleSerializer;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Journaling sample {@link ClientOrder} inputs to an {@link InputJournal}, and replaying a journal of
+ * {@link #RECORDS} inputs straight from disk, both raw and through the sample serializer.</p>
+ * <p>The <code>bytes</code> secondary result of the replay benchmarks is the rate of input bytes read from
+ * the journal.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputJournalBenchmark {
+    static final int RECORDS = 100000;
+    static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Replayed {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private final SampleSerializer _serializer = new SampleSerializer();
+    private File _appendDir;
+    private File _replayDir;
+    private InputJournal _journal;
+    private BytesXMLMessage _input;
+    private long _seq;
+
+    @Setup
+    public void setup() throws IOException {
+        ClientOrder order = new ClientOrder(42);
+        order.setIsBuy(true);
+        order.setQuantity(100);
+        order.setPrice(42.42);
+        order.setInstrument("MSFT");
+        ByteBuffer serialized = _serializer.SerializeInput(order);
+        serialized.flip();
+        byte[] data = new byte[serialized.remaining()];
+        serialized.get(data);
+        _input = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        _input.writeAttachment(data);
+
+        _appendDir = tempDir("append");
+        _journal = new InputJournal(_appendDir, SEGMENT_SIZE, 2);
+
+        _replayDir = tempDir("replay");
+        InputJournal journal = new InputJournal(_replayDir, SEGMENT_SIZE, 0);
+        for (int seq = 1; seq <= RECORDS; seq++)
+            journal.Append(seq, _input);
+        journal.Close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        _journal.Close();
+        delete(_appendDir);
+        delete(_replayDir);
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        _journal.Append(++_seq, _input);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long replayRaw(final Replayed replayed) throws IOException {
+        return InputJournal.Replay(_replayDir, ClusterState.NO_SEQUENCE, new LocalStore.JournalListener() {
+            public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                replayed.bytes += payload.remaining();
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public double replayDeserialized() throws IOException {
+        final double[] checksum = new double[1];
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final ByteBufferInputStream stream = new ByteBufferInputStream();
+        InputJournal.Replay(_replayDir, ClusterState.NO_SEQUENCE, new LocalStore.JournalListener() {
+            public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                try {
+                    msg.writeAttachment(stream.reset(payload));
+                }
+                catch(IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                checksum[0] += _serializer.DeserializeInput(msg).getQuantity();
+            }
+        });
+        return checksum[0];
+    }
+
+    private static File tempDir(String name) throws IOException {
+        File dir = File.createTempFile("journal-" + name, "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Cannot create " + dir);
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,126 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Producer stub that accepts and discards every message, so the output path
+ * can be measured without a session; it only counts what it was given and
+ * acknowledges every message straight back to the streaming publish handler.
+ */
+@SuppressWarnings("deprecation")
+class NullProducer implements XMLMessageProducer {
+
+    /**
+     * @return a stub session handing out this producer, bound to the handler it is requested with
+     */
+    JCSMPSession session() {
+        return (JCSMPSession) Proxy.newProxyInstance(
+                JCSMPSession.class.getClassLoader(),
+                new Class<?>[] { JCSMPSession.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("getMessageProducer"))
+                            throw new UnsupportedOperationException(method.getName());
+                        _handler = (JCSMPStreamingPublishEventHandler) args[0];
+                        return NullProducer.this;
+                    }
+                });
+    }
+
+    public void send(XMLMessage msg) {
+        messages++;
+        bytes += msg.getAttachmentContentLength();
+        if (_handler instanceof JCSMPStreamingPublishCorrelatingEventHandler)
+            ((JCSMPStreamingPublishCorrelatingEventHandler) _handler).responseReceivedEx(msg.getCorrelationKey());
+    }
+
+    public void send(XMLMessage msg, Destination destination) {
+        send(msg);
+    }
+
+    public int sendMultiple(JCSMPSendMultipleEntry[] entries, int offset, int length, int flags) {
+        for (int i = offset; i < offset + length; i++)
+            send(entries[i].getMessage());
+        return length;
+    }
+
+    public void sendReply(XMLMessage request, XMLMessage reply) {
+        send(reply);
+    }
+
+    public void setStreamingCallbackHandler(JCSMPStreamingPublishEventHandler handler) {
+        _handler = handler;
+    }
+
+    public JCSMPStreamingPublishEventHandler getStreamingCallbackHandler() {
+        return _handler;
+    }
+
+    public TextXMLMessage createTextXMLMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(TextXMLMessage.class);
+    }
+
+    public TextXMLMessage createTextXMLMessage(String text) {
+        TextXMLMessage msg = createTextXMLMessage();
+        msg.setText(text);
+        return msg;
+    }
+
+    public BytesXMLMessage createBytesXMLMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+    }
+
+    public BytesXMLMessage createBytesXMLMessage(byte[] data) {
+        BytesXMLMessage msg = createBytesXMLMessage();
+        msg.writeAttachment(data);
+        return msg;
+    }
+
+    public StreamXMLMessage createStreamXMLMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(StreamXMLMessage.class);
+    }
+
+    public StreamXMLMessage createStreamXMLMessage(InputStream stream) {
+        return createStreamXMLMessage();
+    }
+
+    public SDTMap createMap() {
+        return JCSMPFactory.onlyInstance().createMap();
+    }
+
+    public SDTStream createStream() {
+        return JCSMPFactory.onlyInstance().createStream();
+    }
+
+    public BytesMessage createBytesMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);
+    }
+
+    public XMLContentMessage createXMLContentMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(XMLContentMessage.class);
+    }
+
+    public MapMessage createMapMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(MapMessage.class);
+    }
+
+    public StreamMessage createStreamMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(StreamMessage.class);
+    }
+
+    public TextMessage createTextMessage() {
+        return JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+    }
+
+    public void close() {
+    }
+
+    private JCSMPStreamingPublishEventHandler _handler;
+    long messages;
+    long bytes;
+}
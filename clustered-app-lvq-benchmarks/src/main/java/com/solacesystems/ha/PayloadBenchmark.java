@@ -0,0 +1,76 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.demo.ClientOrder;
+import com.solacesystems.demo.SampleSerializer;
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Bytes put on the wire by {@link SolaceConnector#SendOutput} for a sample {@link ClientOrder},
+ * sending only the serialized region versus the whole backing array of the serializer's fixed-size
+ * buffer as the output path used to, from heap and direct buffers.</p>
+ * <p>The <code>bytes</code> and <code>messages</code> secondary results are rates; their ratio is the
+ * payload size per message.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    public enum Region { SERIALIZED, WHOLE_ARRAY }
+
+    @Param({"SERIALIZED", "WHOLE_ARRAY"})
+    public Region region;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Wire {
+        public long messages;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+            bytes = 0;
+        }
+    }
+
+    private final NullProducer _producer = new NullProducer();
+    private SolaceConnector _connector;
+    private ByteBuffer _payload;
+
+    @Setup
+    public void setup() throws JCSMPException {
+        _connector = new SolaceConnector(_producer.session());
+        ClientOrder order = new ClientOrder(42);
+        order.setIsBuy(true);
+        order.setQuantity(100);
+        order.setPrice(42.42);
+        order.setInstrument("MSFT");
+        ByteBuffer serialized = new SampleSerializer().SerializeInput(order);
+        if (region == Region.SERIALIZED)
+            serialized.flip();
+        else
+            serialized.clear();
+        _payload = direct ? ByteBuffer.allocateDirect(serialized.capacity()) : ByteBuffer.allocate(serialized.capacity());
+        _payload.put(serialized).flip();
+    }
+
+    @Benchmark
+    public boolean sendOutput(Wire wire) throws JCSMPException {
+        long before = _producer.bytes;
+        boolean sent = _connector.SendOutput("order/app1/new", _payload);
+        wire.messages++;
+        wire.bytes += _producer.bytes - before;
+        return sent;
+    }
+}
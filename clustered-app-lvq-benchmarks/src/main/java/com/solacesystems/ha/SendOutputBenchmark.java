@@ -0,0 +1,44 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.JCSMPException;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link SolaceConnector#SendOutput} up to the producer, i.e. filling the output message,
+ * topic lookup and attachment copy, publishing into a {@link NullProducer}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendOutputBenchmark {
+    private static final String TOPIC = "trade/app1/new";
+
+    private final NullProducer _producer = new NullProducer();
+    private final ByteBuffer _payload = ByteBuffer.allocate(20);
+    private SolaceConnector _connector;
+
+    @Setup
+    public void setup() throws JCSMPException {
+        _connector = new SolaceConnector(_producer.session());
+        ByteBufferSerializer.SerializeInt(_payload, 42);
+        ByteBufferSerializer.SerializeString(_payload, "MSFT");
+        _payload.flip();
+    }
+
+    @Benchmark
+    public boolean sendOutput() throws JCSMPException {
+        return _connector.SendOutput(TOPIC, _payload);
+    }
+
+    @Benchmark
+    public long sendText() throws JCSMPException {
+        _connector.SendText(TOPIC, "{ \"Instance\":1 }");
+        return _producer.messages;
+    }
+}
@@ -0,0 +1,419 @@
+package com.solacesystems.ha;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Annotation processor generating the {@link ClusteredAppSerializer} implementations requested with
+ * {@link GenerateSerializer}, and a codec class named <code>&lt;Type&gt;Codec</code> next to every input and
+ * output type they serialize.</p>
+ * <p>A codec has static methods to compute the exact serialized size of a message, encode it into any heap or
+ * direct buffer and decode it, reading and writing the {@link SequenceId} and {@link SerializedField} fields
+ * directly. The generated serializer sizes its reusable buffers from the codecs, growing them only for a
+ * larger message than any before, so no message can overflow them.</p>
+ * <p>Symbol fields make the codec's methods take a {@link SymbolTable}, and the serializer decode them through
+ * tables over an optional sealed dictionary whose symbols are sent as ids.</p>
+ */
+public class SerializerProcessor extends AbstractProcessor {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        // Claim the field annotations too, which this processor reads through the types it generates codecs for
+        return new HashSet<String>(Arrays.asList(GenerateSerializer.class.getCanonicalName(),
+            SerializedField.class.getCanonicalName(), SequenceId.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(GenerateSerializer.class)) {
+            try {
+                generateSerializer((TypeElement) element);
+            }
+            catch(InvalidType ex) {
+                messager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), ex.element);
+            }
+            catch(IOException ex) {
+                messager().printMessage(Diagnostic.Kind.ERROR, "Cannot write generated source: " + ex, element);
+            }
+        }
+        return true;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Serializer                                 /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    private void generateSerializer(TypeElement spec) throws IOException, InvalidType {
+        if (spec.getKind() != ElementKind.INTERFACE)
+            throw new InvalidType(spec, "@GenerateSerializer must annotate an interface");
+        DeclaredType serializer = null;
+        for (TypeMirror parent : spec.getInterfaces()) {
+            DeclaredType declared = (DeclaredType) parent;
+            if (((TypeElement) declared.asElement()).getQualifiedName().contentEquals(ClusteredAppSerializer.class.getCanonicalName()))
+                serializer = declared;
+        }
+        if (serializer == null || serializer.getTypeArguments().size() != 2)
+            throw new InvalidType(spec, "@GenerateSerializer interface must extend ClusteredAppSerializer<InputType, OutputType>");
+        TypeElement input = (TypeElement) ((DeclaredType) serializer.getTypeArguments().get(0)).asElement();
+        TypeElement output = (TypeElement) ((DeclaredType) serializer.getTypeArguments().get(1)).asElement();
+        String inputCodec = generateCodec(input);
+        String outputCodec = generateCodec(output);
+        String inputSymbols = _symbolCodecs.contains(inputCodec) ? ", _inputSymbols" : "";
+        String outputSymbols = _symbolCodecs.contains(outputCodec) ? ", _outputSymbols" : "";
+        boolean symbols = !inputSymbols.isEmpty() || !outputSymbols.isEmpty();
+
+        String pkg = packageOf(spec);
+        String name = spec.getAnnotation(GenerateSerializer.class).value();
+        String in = input.getQualifiedName().toString();
+        String out = output.getQualifiedName().toString();
+        StringBuilder src = new StringBuilder();
+        header(src, pkg);
+        src.append("import com.solacesystems.ha.ByteBufferSerializer;\n");
+        if (symbols)
+            src.append("import com.solacesystems.ha.SymbolTable;\n");
+        src.append("import com.solacesystems.jcsmp.BytesXMLMessage;\n\n");
+        src.append("import java.nio.ByteBuffer;\n\n");
+        src.append("/**\n * Serializer for {@link ").append(in).append("} inputs and {@link ").append(out)
+           .append("} outputs, generated from {@link ").append(spec.getSimpleName()).append("}.\n */\n");
+        src.append("public class ").append(name).append(" implements ").append(spec.getSimpleName()).append(" {\n");
+        src.append("    public ").append(name).append("() {\n        this(false);\n    }\n\n");
+        src.append("    /**\n     * @param direct serialize into direct rather than heap buffers\n     */\n");
+        src.append("    public ").append(name).append("(boolean direct) {\n");
+        if (symbols) {
+            src.append("        this(direct, null);\n    }\n\n");
+            src.append("    /**\n     * @param direct serialize into direct rather than heap buffers\n");
+            src.append("     * @param dictionary sealed symbol table whose symbols are sent as ids, or null to always send symbols as strings\n     */\n");
+            src.append("    public ").append(name).append("(boolean direct, SymbolTable dictionary) {\n");
+            if (!inputSymbols.isEmpty())
+                src.append("        _inputSymbols = symbols(dictionary);\n");
+            if (!outputSymbols.isEmpty())
+                src.append("        _outputSymbols = symbols(dictionary);\n");
+        }
+        src.append("        _direct = direct;\n");
+        src.append("        _inmsgbuf = allocate(INITIAL_CAPACITY);\n");
+        src.append("        _outmsgbuf = allocate(INITIAL_CAPACITY);\n    }\n\n");
+        src.append("    public ").append(in).append(" DeserializeInput(BytesXMLMessage msg) {\n");
+        src.append("        _inreadbuf = read(msg, _inreadbuf);\n");
+        src.append("        return ").append(inputCodec).append(".Decode(_inreadbuf").append(inputSymbols).append(");\n    }\n\n");
+        src.append("    public ByteBuffer SerializeInput(").append(in).append(" input) {\n");
+        src.append("        int size = ").append(inputCodec).append(".SizeOf(input").append(inputSymbols).append(");\n");
+        src.append("        if (_inmsgbuf.capacity() < size)\n            _inmsgbuf = allocate(size);\n");
+        src.append("        _inmsgbuf.clear();\n");
+        src.append("        return ").append(inputCodec).append(".Encode(input, _inmsgbuf").append(inputSymbols).append(");\n    }\n\n");
+        src.append("    public ").append(out).append(" DeserializeOutput(BytesXMLMessage msg) {\n");
+        src.append("        _outreadbuf = read(msg, _outreadbuf);\n");
+        src.append("        return ").append(outputCodec).append(".Decode(_outreadbuf").append(outputSymbols).append(");\n    }\n\n");
+        src.append("    public ByteBuffer SerializeOutput(").append(out).append(" output) {\n");
+        src.append("        int size = ").append(outputCodec).append(".SizeOf(output").append(outputSymbols).append(");\n");
+        src.append("        if (_outmsgbuf.capacity() < size)\n            _outmsgbuf = allocate(size);\n");
+        src.append("        _outmsgbuf.clear();\n");
+        src.append("        return ").append(outputCodec).append(".Encode(output, _outmsgbuf").append(outputSymbols).append(");\n    }\n\n");
+        src.append("    public long PeekInputSequence(BytesXMLMessage msg) {\n");
+        src.append("        return ByteBufferSerializer.PeekSequence(msg, _peekbuf);\n    }\n\n");
+        src.append("    /**\n     * Copies the attachment into a reusable read buffer, which only grows for a larger message than any before;\n");
+        src.append("     * inputs and outputs may be decoded on different threads, so each has its own\n     *\n");
+        src.append("     * @return the buffer holding the attachment, which is a new one if it grew\n     */\n");
+        src.append("    private static ByteBuffer read(BytesXMLMessage msg, ByteBuffer buffer) {\n");
+        src.append("        int length = msg.getAttachmentContentLength();\n");
+        src.append("        if (buffer.capacity() < length)\n");
+        src.append("            buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));\n");
+        src.append("        msg.readAttachmentBytes(0, buffer.array(), buffer.arrayOffset(), length);\n");
+        src.append("        buffer.clear();\n        buffer.limit(length);\n        return buffer;\n    }\n\n");
+        src.append("    private ByteBuffer allocate(int size) {\n");
+        src.append("        return _direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);\n    }\n\n");
+        if (symbols) {
+            src.append("    /**\n     * Inputs and outputs may be decoded on different threads, so each has its own table over the dictionary\n     */\n");
+            src.append("    private static SymbolTable symbols(SymbolTable dictionary) {\n");
+            src.append("        return dictionary == null ? new SymbolTable(EXPECTED_SYMBOLS) : new SymbolTable(dictionary, EXPECTED_SYMBOLS);\n    }\n\n");
+        }
+        src.append("    private static final int INITIAL_CAPACITY = 256;\n");
+        if (symbols)
+            src.append("    private static final int EXPECTED_SYMBOLS = 1024;\n");
+        src.append("\n");
+        src.append("    private final boolean _direct;\n");
+        if (!inputSymbols.isEmpty())
+            src.append("    private final SymbolTable _inputSymbols;\n");
+        if (!outputSymbols.isEmpty())
+            src.append("    private final SymbolTable _outputSymbols;\n");
+        src.append("    private final ByteBuffer _peekbuf = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);\n");
+        src.append("    private ByteBuffer _inreadbuf = ByteBuffer.allocate(INITIAL_CAPACITY);\n");
+        src.append("    private ByteBuffer _outreadbuf = ByteBuffer.allocate(INITIAL_CAPACITY);\n");
+        src.append("    private ByteBuffer _inmsgbuf;\n");
+        src.append("    private ByteBuffer _outmsgbuf;\n");
+        src.append("}\n");
+        write(qualify(pkg, name), src, spec);
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Codecs                                     /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Generates the codec of a message type, once per compilation.
+     *
+     * @return qualified name of the codec
+     */
+    private String generateCodec(TypeElement type) throws IOException, InvalidType {
+        String pkg = packageOf(type);
+        String name = type.getSimpleName() + "Codec";
+        String codec = qualify(pkg, name);
+        if (!_generated.add(codec))
+            return codec;
+
+        VariableElement sequence = null;
+        List<VariableElement> fields = new ArrayList<VariableElement>();
+        boolean constructor = false;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR) {
+                ExecutableElement ctor = (ExecutableElement) member;
+                constructor |= ctor.getParameters().isEmpty() && !ctor.getModifiers().contains(Modifier.PRIVATE);
+            }
+            if (member.getKind() != ElementKind.FIELD)
+                continue;
+            boolean isSequence = member.getAnnotation(SequenceId.class) != null;
+            boolean isField = member.getAnnotation(SerializedField.class) != null;
+            if (!isSequence && !isField)
+                continue;
+            if (member.getModifiers().contains(Modifier.PRIVATE) || member.getModifiers().contains(Modifier.FINAL)
+                    || member.getModifiers().contains(Modifier.STATIC))
+                throw new InvalidType(member, "Serialized field " + member.getSimpleName() + " must not be private, final or static");
+            if (isSequence) {
+                if (sequence != null || member.asType().getKind() != TypeKind.LONG)
+                    throw new InvalidType(member, "A message type has exactly one @SequenceId field, of type long");
+                sequence = (VariableElement) member;
+            }
+            else {
+                Kind kind = kind(member.asType());
+                if (kind == null)
+                    throw new InvalidType(member, "Unsupported serialized field type " + member.asType());
+                if (member.getAnnotation(SerializedField.class).symbol() && kind != Kind.STRING)
+                    throw new InvalidType(member, "Symbol field " + member.getSimpleName() + " must be a String");
+                fields.add((VariableElement) member);
+            }
+        }
+        if (sequence == null)
+            throw new InvalidType(type, type.getSimpleName() + " has no @SequenceId field");
+        if (!constructor)
+            throw new InvalidType(type, type.getSimpleName() + " needs a non-private no-argument constructor");
+
+        String t = type.getQualifiedName().toString();
+        int fixedSize = 0;
+        List<String> strings = new ArrayList<String>();
+        List<String> symbols = new ArrayList<String>();
+        for (VariableElement field : fields) {
+            Kind kind = kind(field);
+            if (kind == Kind.STRING)
+                strings.add(field.getSimpleName().toString());
+            else if (kind == Kind.SYMBOL)
+                symbols.add(field.getSimpleName().toString());
+            else
+                fixedSize += kind.size;
+        }
+        String symbolParam = "";
+        if (!symbols.isEmpty()) {
+            _symbolCodecs.add(codec);
+            symbolParam = ", SymbolTable symbols";
+        }
+
+        StringBuilder src = new StringBuilder();
+        header(src, pkg);
+        src.append("import com.solacesystems.ha.ByteBufferSerializer;\n");
+        if (!symbols.isEmpty())
+            src.append("import com.solacesystems.ha.SymbolTable;\n");
+        src.append("\n");
+        if (!strings.isEmpty())
+            src.append("import java.io.UnsupportedEncodingException;\n");
+        src.append("import java.nio.ByteBuffer;\n");
+        src.append("import java.nio.ByteOrder;\n\n");
+        src.append("/**\n * Serialized form of {@link ").append(t).append("}: a sequence header, then");
+        for (VariableElement field : fields)
+            src.append(' ').append(field.getSimpleName());
+        src.append(".\n */\n");
+        src.append("public final class ").append(name).append(" {\n");
+        src.append("    /** Size of everything but the variable-size fields' contents */\n");
+        src.append("    public static final int FIXED_SIZE = ByteBufferSerializer.SEQUENCE_HEADER_SIZE + ")
+           .append(fixedSize + 4 * (strings.size() + symbols.size())).append(";\n\n");
+        src.append("    private ").append(name).append("() {\n    }\n\n");
+
+        String symbolDoc = symbols.isEmpty() ? ""
+                : "     * @param symbols table whose sealed dictionary supplies the ids symbols are sent as\n";
+        src.append("    /**\n").append(symbolDoc);
+        src.append("     * @return exact number of bytes {@link #Encode} writes for the message\n     */\n");
+        src.append("    public static int SizeOf(").append(t).append(" msg").append(symbolParam).append(") {\n");
+        src.append("        return FIXED_SIZE");
+        for (String string : strings)
+            src.append("\n            + ByteBufferSerializer.SerializedSize(msg.").append(string).append(") - 4");
+        for (String symbol : symbols)
+            src.append("\n            + ByteBufferSerializer.SerializedSize(symbols, msg.").append(symbol).append(") - 4");
+        src.append(";\n    }\n\n");
+
+        src.append("    /**\n     * Write the message at the buffer's position, which must have {@link #SizeOf} bytes remaining.\n");
+        src.append("     *\n").append(symbolDoc);
+        src.append("     * @return the buffer, positioned after the message; flip it to send it\n     */\n");
+        src.append("    public static ByteBuffer Encode(").append(t).append(" msg, ByteBuffer buffer").append(symbolParam).append(") {\n");
+        src.append("        buffer.order(ByteOrder.LITTLE_ENDIAN);\n");
+        src.append("        buffer.putInt(ByteBufferSerializer.SEQUENCE_HEADER_MARKER | ByteBufferSerializer.SEQUENCE_HEADER_VERSION);\n");
+        src.append("        buffer.putLong(msg.").append(sequence.getSimpleName()).append(");\n");
+        for (VariableElement field : fields) {
+            String f = "msg." + field.getSimpleName();
+            switch (kind(field)) {
+                case BOOLEAN: src.append("        buffer.put((byte) (").append(f).append(" ? 1 : 0));\n"); break;
+                case BYTE:    src.append("        buffer.put(").append(f).append(");\n"); break;
+                case SHORT:   src.append("        buffer.putShort(").append(f).append(");\n"); break;
+                case INT:     src.append("        buffer.putInt(").append(f).append(");\n"); break;
+                case LONG:    src.append("        buffer.putLong(").append(f).append(");\n"); break;
+                case FLOAT:   src.append("        buffer.putFloat(").append(f).append(");\n"); break;
+                case DOUBLE:  src.append("        buffer.putDouble(").append(f).append(");\n"); break;
+                case STRING:  src.append("        ByteBufferSerializer.SerializeString(buffer, ").append(f).append(");\n"); break;
+                case SYMBOL:  src.append("        ByteBufferSerializer.SerializeSymbol(buffer, symbols, ").append(f).append(");\n"); break;
+            }
+        }
+        src.append("        return buffer;\n    }\n\n");
+
+        boolean versioned = false;
+        for (VariableElement field : fields)
+            versioned |= !field.getAnnotation(SerializedField.class).legacy();
+        src.append("    /**\n     * Read a message from the buffer's position, accepting legacy 32-bit sequence headers");
+        src.append(versioned ? ",\n     * which are followed only by the fields legacy messages carry.\n" : ".\n");
+        if (!symbols.isEmpty())
+            src.append("     *\n     * @param symbols table symbols are decoded through, which must know any ids they are sent as\n");
+        src.append("     */\n");
+        src.append("    public static ").append(t).append(" Decode(ByteBuffer buffer").append(symbolParam).append(") {\n");
+        src.append("        ").append(t).append(" msg = new ").append(t).append("();\n");
+        if (versioned)
+            src.append("        boolean versioned = ByteBufferSerializer.HasSequenceHeader(buffer);\n");
+        src.append("        msg.").append(sequence.getSimpleName()).append(" = ByteBufferSerializer.DeserializeSequence(buffer);\n");
+        for (VariableElement field : fields) {
+            String f = "        msg." + field.getSimpleName() + " = ";
+            if (!field.getAnnotation(SerializedField.class).legacy()) {
+                src.append("        if (versioned)\n");
+                f = "    " + f;
+            }
+            switch (kind(field)) {
+                case BOOLEAN: src.append(f).append("buffer.get() == 1;\n"); break;
+                case BYTE:    src.append(f).append("buffer.get();\n"); break;
+                case SHORT:   src.append(f).append("buffer.getShort();\n"); break;
+                case INT:     src.append(f).append("buffer.getInt();\n"); break;
+                case LONG:    src.append(f).append("buffer.getLong();\n"); break;
+                case FLOAT:   src.append(f).append("buffer.getFloat();\n"); break;
+                case DOUBLE:  src.append(f).append("buffer.getDouble();\n"); break;
+                case STRING:  src.append(f).append("decodeString(buffer);\n"); break;
+                case SYMBOL:  src.append(f).append("ByteBufferSerializer.DeserializeSymbol(buffer, symbols);\n"); break;
+            }
+        }
+        src.append("        return msg;\n    }\n");
+        if (!strings.isEmpty()) {
+            src.append("\n    private static String decodeString(ByteBuffer buffer) {\n");
+            src.append("        try {\n            return ByteBufferSerializer.DeserializeString(buffer);\n        }\n");
+            src.append("        catch(UnsupportedEncodingException ex) {\n");
+            src.append("            throw new IllegalStateException(\"UTF-8 is not supported\", ex);\n        }\n    }\n");
+        }
+        src.append("}\n");
+        write(codec, src, type);
+        return codec;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Helpers                                    /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    private enum Kind {
+        BOOLEAN(1), BYTE(1), SHORT(2), INT(4), LONG(8), FLOAT(4), DOUBLE(8), STRING(0), SYMBOL(0);
+
+        Kind(int size) {
+            this.size = size;
+        }
+
+        final int size;
+    }
+
+    private static Kind kind(VariableElement field) {
+        Kind kind = kind(field.asType());
+        return kind == Kind.STRING && field.getAnnotation(SerializedField.class).symbol() ? Kind.SYMBOL : kind;
+    }
+
+    private static Kind kind(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return Kind.BOOLEAN;
+            case BYTE:    return Kind.BYTE;
+            case SHORT:   return Kind.SHORT;
+            case INT:     return Kind.INT;
+            case LONG:    return Kind.LONG;
+            case FLOAT:   return Kind.FLOAT;
+            case DOUBLE:  return Kind.DOUBLE;
+            case DECLARED:
+                if (((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.lang.String"))
+                    return Kind.STRING;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private static String qualify(String pkg, String name) {
+        return pkg.isEmpty() ? name : pkg + "." + name;
+    }
+
+    private static void header(StringBuilder src, String pkg) {
+        src.append("// Generated by com.solacesystems.ha.SerializerProcessor; do not edit.\n");
+        if (!pkg.isEmpty())
+            src.append("package ").append(pkg).append(";\n\n");
+    }
+
+    private void write(String name, StringBuilder src, Element origin) throws IOException {
+        Writer out = processingEnv.getFiler().createSourceFile(name, origin).openWriter();
+        try {
+            out.write(src.toString());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private Messager messager() {
+        return processingEnv.getMessager();
+    }
+
+    private static class InvalidType extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        InvalidType(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+        final transient Element element;
+    }
+
+    private final Set<String> _generated = new HashSet<String>();
+    private final Set<String> _symbolCodecs = new HashSet<String>();
+}
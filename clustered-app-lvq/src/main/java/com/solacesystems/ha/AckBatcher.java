@@ -0,0 +1,121 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Collects processed input messages and acknowledges them in batches: once a batch holds the maximum
+ * number of messages, or its oldest message has waited for the maximum delay, whichever comes first.</p>
+ * <p>Inputs are added from the consumer dispatcher, or from the publisher's acknowledgement thread when
+ * acknowledgement waits for output confirmation. The delay is enforced on every add, and by a shared timer
+ * so a batch never waits longer than roughly the maximum delay when the input stream goes quiet.</p>
+ * <p>A batch size of 1 acknowledges every input as soon as it is added, without a timer. So does a closed
+ * batcher, so that an input added by a thread that fetched the batcher just before it was replaced and
+ * closed is still acknowledged.</p>
+ */
+class AckBatcher {
+    final static Logger log = Logger.getLogger(AckBatcher.class);
+
+    /** Shortest period of the idle-flush timer; shorter delays are still enforced as inputs arrive */
+    static final long MIN_TIMER_MICROS = 100;
+
+    /**
+     * @param maxMessages number of inputs acknowledged together
+     * @param maxDelayMicros longest time an input waits for acknowledgement; must be positive when batching
+     */
+    AckBatcher(int maxMessages, long maxDelayMicros) {
+        if (maxMessages < 1)
+            throw new IllegalArgumentException("Ack batch size must be positive: " + maxMessages);
+        if (maxMessages > 1 && maxDelayMicros <= 0)
+            throw new IllegalArgumentException("Batched acknowledgement requires a positive maximum delay: " + maxDelayMicros);
+        _pending = new BytesXMLMessage[maxMessages];
+        _maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        if (maxMessages > 1) {
+            long period = Math.max(maxDelayMicros, MIN_TIMER_MICROS);
+            _timer = timer().scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    flushIfDue();
+                }
+            }, period, period, TimeUnit.MICROSECONDS);
+        }
+        else {
+            _timer = null;
+        }
+    }
+
+    /**
+     * Add a processed input to the current batch, acknowledging the batch if it is full or due.
+     */
+    synchronized void add(BytesXMLMessage input) {
+        if (_closed) {
+            input.ackMessage();
+            return;
+        }
+        if (_count == 0)
+            _oldestNanos = System.nanoTime();
+        _pending[_count++] = input;
+        if (_count == _pending.length || System.nanoTime() - _oldestNanos >= _maxDelayNanos)
+            flush();
+    }
+
+    /**
+     * Acknowledge every pending input now.
+     */
+    synchronized void flush() {
+        if (_count > 0 && log.isDebugEnabled())
+            log.debug(String.format("AckBatcher::flush(count:%d)", _count));
+        for (int i = 0; i < _count; i++) {
+            _pending[i].ackMessage();
+            _pending[i] = null;
+        }
+        _count = 0;
+    }
+
+    synchronized void flushIfDue() {
+        if (_count > 0 && System.nanoTime() - _oldestNanos >= _maxDelayNanos)
+            flush();
+    }
+
+    /**
+     * Acknowledge every pending input and stop the idle-flush timer; inputs added from now on are
+     * acknowledged immediately.
+     */
+    synchronized void close() {
+        _closed = true;
+        if (_timer != null)
+            _timer.cancel(false);
+        flush();
+    }
+
+    synchronized int pending() {
+        return _count;
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (_sharedTimer == null) {
+            _sharedTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AckBatcherTimer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _sharedTimer;
+    }
+
+    private static ScheduledExecutorService _sharedTimer;
+
+    private final BytesXMLMessage[] _pending;
+    private final long _maxDelayNanos;
+    private final ScheduledFuture<?> _timer;
+    private int _count;
+    private long _oldestNanos;
+    private boolean _closed;
+}
@@ -0,0 +1,617 @@
+package com.solacesystems.ha;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Reusable cursor for encoding and decoding messages in the same little-endian wire format as
+ * {@link ByteBufferSerializer}, built for serializers on the hot path.</p>
+ * <p>The byte order of a buffer is set once when it is {@link #Wrap wrapped}, and the codec keeps its own
+ * position, so each field costs one bounds check rather than one per <code>order</code>,
+ * <code>put</code> and position update. Strings are encoded straight from their characters and decoded
+ * through a reused scratch array, with no intermediate <code>byte[]</code> or charset lookup. Varints,
+ * zigzag varints and bulk copies of primitive arrays are also supported.</p>
+ * <p>Where the platform allows it, writable heap and direct buffers are read and written through
+ * <code>sun.misc.Unsafe</code>; otherwise, or when constructed with <code>allowUnsafe</code> false, the
+ * codec falls back to the buffer's absolute get and put methods. Both produce identical bytes. Unsafe is
+ * reached through {@link UnsafeAccess}, and every offset and length is checked before it is used.</p>
+ * <p>As with {@link ByteBufferSerializer}, a null string and an empty one share the same encoding, and
+ * both decode to null. A codec is not thread-safe.</p>
+ */
+public class BufferCodec {
+    /**
+     * Maximum number of bytes a varint takes
+     */
+    public static final int MAX_VARINT_SIZE = 10;
+
+    public BufferCodec() {
+        this(true);
+    }
+
+    /**
+     * @param allowUnsafe whether buffers may be accessed through <code>sun.misc.Unsafe</code> when the
+     *                    platform supports it
+     */
+    public BufferCodec(boolean allowUnsafe) {
+        _allowUnsafe = allowUnsafe && UnsafeAccess.IsAvailable();
+    }
+
+    /**
+     * Starts encoding or decoding at the buffer's position, up to its limit. The buffer's byte order is
+     * set to little-endian; its position is only updated by {@link #Finish}. Wrapping the same buffer
+     * again is cheaper than wrapping a different one.
+     *
+     * @return this codec
+     */
+    public BufferCodec Wrap(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        _position = buffer.position();
+        _limit = buffer.limit();
+        // Serializers wrap the same buffer for every message; how to access it cannot have changed
+        if (buffer == _buffer)
+            return this;
+        _buffer = buffer;
+        _unsafe = false;
+        _array = null;
+        _address = 0;
+        if (_allowUnsafe && !buffer.isReadOnly()) {
+            if (buffer.isDirect()) {
+                _address = UnsafeAccess.Address(buffer);
+                _unsafe = _address != 0;
+            }
+            else if (buffer.hasArray()) {
+                _array = buffer.array();
+                _address = UnsafeAccess.BYTE_ARRAY_BASE + buffer.arrayOffset();
+                _unsafe = true;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Moves the wrapped buffer's position to the end of what was encoded or decoded.
+     *
+     * @return the wrapped buffer
+     */
+    public ByteBuffer Finish() {
+        _buffer.position(_position);
+        return _buffer;
+    }
+
+    public int Position() {
+        return _position;
+    }
+
+    public int Remaining() {
+        return _limit - _position;
+    }
+
+    /**
+     * @return whether the wrapped buffer is accessed through <code>sun.misc.Unsafe</code>
+     */
+    public boolean IsUnsafe() {
+        return _unsafe;
+    }
+
+    public BufferCodec PutBool(boolean b) {
+        return PutByte((byte) (b ? 0x01 : 0x00));
+    }
+
+    public boolean GetBool() {
+        return GetByte() == (byte) 0x01;
+    }
+
+    public BufferCodec PutByte(byte b) {
+        putByteAt(claim(1), b);
+        return this;
+    }
+
+    public byte GetByte() {
+        return getByteAt(consume(1));
+    }
+
+    public BufferCodec PutInt(int i) {
+        putIntAt(claim(4), i);
+        return this;
+    }
+
+    public int GetInt() {
+        return getIntAt(consume(4));
+    }
+
+    public BufferCodec PutLong(long l) {
+        putLongAt(claim(8), l);
+        return this;
+    }
+
+    public long GetLong() {
+        return getLongAt(consume(8));
+    }
+
+    public BufferCodec PutDouble(double d) {
+        return PutLong(Double.doubleToRawLongBits(d));
+    }
+
+    public double GetDouble() {
+        return Double.longBitsToDouble(GetLong());
+    }
+
+    /**
+     * Writes a versioned sequence header, as {@link ByteBufferSerializer#SerializeSequence} does
+     */
+    public BufferCodec PutSequence(long sequenceId) {
+        int index = claim(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        putIntAt(index, ByteBufferSerializer.SEQUENCE_HEADER_MARKER | ByteBufferSerializer.SEQUENCE_HEADER_VERSION);
+        putLongAt(index + 4, sequenceId);
+        return this;
+    }
+
+    /**
+     * Reads a versioned or legacy sequence header, as {@link ByteBufferSerializer#DeserializeSequence} does.
+     *
+     * @throws IllegalArgumentException if the header is from a newer version or is not a sequence header
+     */
+    public long GetSequence() {
+        int lead = GetInt();
+        if (lead >= 0)
+            return lead;
+        if ((lead & 0xFFFF0000) != ByteBufferSerializer.SEQUENCE_HEADER_MARKER)
+            throw new IllegalArgumentException(String.format("Not a sequence header: 0x%08X", lead));
+        int version = lead & 0xFFFF;
+        if (version > ByteBufferSerializer.SEQUENCE_HEADER_VERSION)
+            throw new IllegalArgumentException("Unsupported sequence header version " + version);
+        return GetLong();
+    }
+
+    /**
+     * Number of bytes {@link #PutVarLong} writes for a value
+     */
+    public static int SizeOfVarLong(long l) {
+        return (64 - Long.numberOfLeadingZeros(l | 1) + 6) / 7;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint: seven bits per byte, least significant first, with the top bit of
+     * every byte but the last set. Negative values take the full {@link #MAX_VARINT_SIZE} bytes; use
+     * {@link #PutZigZagLong} for signed values.
+     */
+    public BufferCodec PutVarLong(long l) {
+        int index = claim(SizeOfVarLong(l));
+        while ((l & ~0x7FL) != 0) {
+            putByteAt(index++, (byte) ((l & 0x7F) | 0x80));
+            l >>>= 7;
+        }
+        putByteAt(index, (byte) l);
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the varint is longer than {@link #MAX_VARINT_SIZE} bytes
+     */
+    public long GetVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = GetByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return result;
+        }
+        throw new IllegalArgumentException("Malformed varint at " + (_position - MAX_VARINT_SIZE));
+    }
+
+    public BufferCodec PutVarInt(int i) {
+        return PutVarLong(i & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the varint is malformed or does not fit in 32 bits
+     */
+    public int GetVarInt() {
+        long l = GetVarLong();
+        if ((l >>> 32) != 0)
+            throw new IllegalArgumentException("Varint too large for an int: " + l);
+        return (int) l;
+    }
+
+    /**
+     * Writes a signed value as a zigzag varint, so values close to zero take few bytes whatever their sign
+     */
+    public BufferCodec PutZigZagLong(long l) {
+        return PutVarLong((l << 1) ^ (l >> 63));
+    }
+
+    public long GetZigZagLong() {
+        long l = GetVarLong();
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes, as
+     * {@link ByteBufferSerializer#SerializeString} does, encoding directly from the characters.
+     * Unpaired surrogates are written as <code>'?'</code>.
+     */
+    public BufferCodec PutString(CharSequence s) {
+        if (s == null)
+            return PutInt(0);
+        int length = s.length();
+        // Three bytes per char is the most UTF-8 ever takes; only size exactly when that might not fit
+        int remaining = Remaining();
+        if (remaining < 4 + 3 * length && remaining < ByteBufferSerializer.SerializedSize(s.toString()))
+            throw new BufferOverflowException();
+        int start = _position + 4;
+        int index = start;
+        int i = 0;
+        // Runs of ASCII are copied with the buffer access hoisted out of the loop, since a store through
+        // Unsafe stops the compiler from keeping this codec's fields in registers
+        if (_unsafe) {
+            byte[] array = _array;
+            long address = _address + start;
+            for (; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80)
+                    break;
+                if (array != null)
+                    UnsafeAccess.PutByte(array, address + i, (byte) c);
+                else
+                    UnsafeAccess.PutByte(null, address + i, (byte) c);
+            }
+            index += i;
+        }
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                putByteAt(index++, (byte) c);
+            }
+            else if (c < 0x800) {
+                putByteAt(index++, (byte) (0xC0 | (c >> 6)));
+                putByteAt(index++, (byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                putByteAt(index++, (byte) (0xF0 | (cp >> 18)));
+                putByteAt(index++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                putByteAt(index++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                putByteAt(index++, (byte) (0x80 | (cp & 0x3F)));
+            }
+            else if (Character.isSurrogate(c)) {
+                putByteAt(index++, (byte) '?');
+            }
+            else {
+                putByteAt(index++, (byte) (0xE0 | (c >> 12)));
+                putByteAt(index++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                putByteAt(index++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        _position = index;
+        putIntAt(start - 4, index - start);
+        return this;
+    }
+
+    /**
+     * Writes a string known to be ASCII in the same format as {@link #PutString}, one byte per character
+     * without checking for multi-byte characters; characters above <code>0x7F</code> are written as
+     * <code>'?'</code>.
+     */
+    public BufferCodec PutAscii(CharSequence s) {
+        if (s == null)
+            return PutInt(0);
+        int length = s.length();
+        int index = claim(4 + length);
+        putIntAt(index, length);
+        index += 4;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            putByteAt(index + i, (byte) (c < 0x80 ? c : '?'));
+        }
+        return this;
+    }
+
+    /**
+     * Reads a string written by {@link #PutString}, {@link #PutAscii} or
+     * {@link ByteBufferSerializer#SerializeString}.
+     *
+     * @return the string, or null if it was null or empty
+     */
+    public String GetString() {
+        int chars = decodeString();
+        return chars < 0 ? null : new String(_chars, 0, chars);
+    }
+
+    /**
+     * Reads a string like {@link #GetString()}, appending it to a reusable builder instead of creating a String
+     *
+     * @return the builder
+     */
+    public StringBuilder GetString(StringBuilder dest) {
+        int chars = decodeString();
+        if (chars > 0)
+            dest.append(_chars, 0, chars);
+        return dest;
+    }
+
+    /**
+     * Writes a symbol as its id in the table's sealed dictionary, or as a string when it is not in the
+     * dictionary, as {@link ByteBufferSerializer#SerializeSymbol} does
+     *
+     * @param symbols table whose sealed dictionary supplies the ids, or null to always write the string
+     */
+    public BufferCodec PutSymbol(SymbolTable symbols, String s) {
+        int id = symbols == null ? SymbolTable.NO_ID : symbols.WireId(s);
+        return id == SymbolTable.NO_ID ? PutString(s) : PutInt(-1 - id);
+    }
+
+    /**
+     * Reads a symbol written by {@link #PutSymbol} or {@link #PutString}, returning the table's canonical
+     * String for it, as {@link ByteBufferSerializer#DeserializeSymbol} does
+     *
+     * @return the symbol, or null if it was null or empty
+     */
+    public String GetSymbol(SymbolTable symbols) {
+        int length = GetInt();
+        if (length < 0)
+            return symbols.WireSymbol(-1 - length);
+        if (length == 0)
+            return null;
+        return symbols.Lookup(_buffer, consume(length), length);
+    }
+
+    public BufferCodec PutBytes(byte[] src, int offset, int length) {
+        checkRange(src.length, offset, length);
+        int index = claim(length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(src, UnsafeAccess.BYTE_ARRAY_BASE + offset, _array, _address + index, length);
+        else
+            for (int i = 0; i < length; i++)
+                _buffer.put(index + i, src[offset + i]);
+        return this;
+    }
+
+    public BufferCodec GetBytes(byte[] dest, int offset, int length) {
+        checkRange(dest.length, offset, length);
+        int index = consume(length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(_array, _address + index, dest, UnsafeAccess.BYTE_ARRAY_BASE + offset, length);
+        else
+            for (int i = 0; i < length; i++)
+                dest[offset + i] = _buffer.get(index + i);
+        return this;
+    }
+
+    public BufferCodec PutInts(int[] src, int offset, int length) {
+        checkRange(src.length, offset, length);
+        int index = claim(4L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(src, UnsafeAccess.INT_ARRAY_BASE + 4L * offset, _array, _address + index, 4L * length);
+        else
+            for (int i = 0; i < length; i++)
+                _buffer.putInt(index + 4 * i, src[offset + i]);
+        return this;
+    }
+
+    public BufferCodec GetInts(int[] dest, int offset, int length) {
+        checkRange(dest.length, offset, length);
+        int index = consume(4L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(_array, _address + index, dest, UnsafeAccess.INT_ARRAY_BASE + 4L * offset, 4L * length);
+        else
+            for (int i = 0; i < length; i++)
+                dest[offset + i] = _buffer.getInt(index + 4 * i);
+        return this;
+    }
+
+    public BufferCodec PutLongs(long[] src, int offset, int length) {
+        checkRange(src.length, offset, length);
+        int index = claim(8L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(src, UnsafeAccess.LONG_ARRAY_BASE + 8L * offset, _array, _address + index, 8L * length);
+        else
+            for (int i = 0; i < length; i++)
+                _buffer.putLong(index + 8 * i, src[offset + i]);
+        return this;
+    }
+
+    public BufferCodec GetLongs(long[] dest, int offset, int length) {
+        checkRange(dest.length, offset, length);
+        int index = consume(8L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(_array, _address + index, dest, UnsafeAccess.LONG_ARRAY_BASE + 8L * offset, 8L * length);
+        else
+            for (int i = 0; i < length; i++)
+                dest[offset + i] = _buffer.getLong(index + 8 * i);
+        return this;
+    }
+
+    public BufferCodec PutDoubles(double[] src, int offset, int length) {
+        checkRange(src.length, offset, length);
+        int index = claim(8L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(src, UnsafeAccess.DOUBLE_ARRAY_BASE + 8L * offset, _array, _address + index, 8L * length);
+        else
+            for (int i = 0; i < length; i++)
+                _buffer.putDouble(index + 8 * i, src[offset + i]);
+        return this;
+    }
+
+    public BufferCodec GetDoubles(double[] dest, int offset, int length) {
+        checkRange(dest.length, offset, length);
+        int index = consume(8L * length);
+        if (_unsafe)
+            UnsafeAccess.CopyMemory(_array, _address + index, dest, UnsafeAccess.DOUBLE_ARRAY_BASE + 8L * offset, 8L * length);
+        else
+            for (int i = 0; i < length; i++)
+                dest[offset + i] = _buffer.getDouble(index + 8 * i);
+        return this;
+    }
+
+    /**
+     * Decodes a length-prefixed UTF-8 string into the scratch array. Malformed sequences decode to U+FFFD.
+     *
+     * @return the number of chars decoded, or -1 for a null string
+     */
+    private int decodeString() {
+        int length = GetInt();
+        if (length == 0)
+            return -1;
+        if (length < 0)
+            throw new IllegalArgumentException("Negative string length " + length);
+        int index = consume(length);
+        int end = index + length;
+        if (_chars.length < length)
+            _chars = new char[Math.max(length, 2 * _chars.length)];
+        char[] chars = _chars;
+        int count = 0;
+        while (index < end) {
+            int b = getByteAt(index++);
+            if (b >= 0) {
+                chars[count++] = (char) b;
+            }
+            else if ((b & 0xE0) == 0xC0 && index < end) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (getByteAt(index++) & 0x3F));
+            }
+            else if ((b & 0xF0) == 0xE0 && index + 1 < end) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((getByteAt(index) & 0x3F) << 6)
+                        | (getByteAt(index + 1) & 0x3F));
+                index += 2;
+            }
+            else if ((b & 0xF8) == 0xF0 && index + 2 < end) {
+                int cp = ((b & 0x07) << 18) | ((getByteAt(index) & 0x3F) << 12)
+                        | ((getByteAt(index + 1) & 0x3F) << 6) | (getByteAt(index + 2) & 0x3F);
+                index += 3;
+                if (Character.isSupplementaryCodePoint(cp)) {
+                    chars[count++] = Character.highSurrogate(cp);
+                    chars[count++] = Character.lowSurrogate(cp);
+                }
+                else {
+                    chars[count++] = '\uFFFD';
+                }
+            }
+            else {
+                chars[count++] = '\uFFFD';
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reserves space to write at the current position, failing before anything is written if it does not fit
+     *
+     * @return the buffer index to write at
+     */
+    private int claim(int length) {
+        int index = _position;
+        if (length > _limit - index)
+            throw new BufferOverflowException();
+        _position = index + length;
+        return index;
+    }
+
+    /**
+     * Reserves space for a bulk copy, whose size in bytes may not fit an int
+     *
+     * @return the buffer index to write at
+     */
+    private int claim(long length) {
+        if (length > _limit - _position)
+            throw new BufferOverflowException();
+        return claim((int) length);
+    }
+
+    /**
+     * Consumes bytes to read at the current position
+     *
+     * @return the buffer index to read from
+     */
+    private int consume(int length) {
+        int index = _position;
+        if (length > _limit - index)
+            throw new BufferUnderflowException();
+        _position = index + length;
+        return index;
+    }
+
+    /**
+     * Consumes bytes for a bulk copy, whose size in bytes may not fit an int
+     *
+     * @return the buffer index to read from
+     */
+    private int consume(long length) {
+        if (length > _limit - _position)
+            throw new BufferUnderflowException();
+        return consume((int) length);
+    }
+
+    /**
+     * Checks a bulk copy stays inside its array, since an unchecked copy would read or write past it
+     */
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + arrayLength);
+    }
+
+    /*
+     * Heap and direct buffers are accessed through separate Unsafe calls: an access whose base may be
+     * either an array or null is compiled with memory barriers around it.
+     */
+
+    private void putByteAt(int index, byte b) {
+        if (!_unsafe)
+            _buffer.put(index, b);
+        else if (_array != null)
+            UnsafeAccess.PutByte(_array, _address + index, b);
+        else
+            UnsafeAccess.PutByte(null, _address + index, b);
+    }
+
+    private byte getByteAt(int index) {
+        if (!_unsafe)
+            return _buffer.get(index);
+        if (_array != null)
+            return UnsafeAccess.GetByte(_array, _address + index);
+        return UnsafeAccess.GetByte(null, _address + index);
+    }
+
+    private void putIntAt(int index, int i) {
+        if (!_unsafe)
+            _buffer.putInt(index, i);
+        else if (_array != null)
+            UnsafeAccess.PutInt(_array, _address + index, i);
+        else
+            UnsafeAccess.PutInt(null, _address + index, i);
+    }
+
+    private int getIntAt(int index) {
+        if (!_unsafe)
+            return _buffer.getInt(index);
+        if (_array != null)
+            return UnsafeAccess.GetInt(_array, _address + index);
+        return UnsafeAccess.GetInt(null, _address + index);
+    }
+
+    private void putLongAt(int index, long l) {
+        if (!_unsafe)
+            _buffer.putLong(index, l);
+        else if (_array != null)
+            UnsafeAccess.PutLong(_array, _address + index, l);
+        else
+            UnsafeAccess.PutLong(null, _address + index, l);
+    }
+
+    private long getLongAt(int index) {
+        if (!_unsafe)
+            return _buffer.getLong(index);
+        if (_array != null)
+            return UnsafeAccess.GetLong(_array, _address + index);
+        return UnsafeAccess.GetLong(null, _address + index);
+    }
+
+    private final boolean _allowUnsafe;
+    private ByteBuffer _buffer;
+    private int _position;
+    private int _limit;
+    private boolean _unsafe;
+    private byte[] _array;
+    private long _address;
+    private char[] _chars = new char[64];
+}
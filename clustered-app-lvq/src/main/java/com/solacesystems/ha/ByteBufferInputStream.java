@@ -0,0 +1,59 @@
+package com.solacesystems.ha;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable stream over the readable region of a ByteBuffer, used to hand buffers without an accessible
+ * backing array (direct or read-only buffers) to the JCSMP API, which copies attachments from a stream
+ * straight into the message. Reading never moves the source buffer's position.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    /**
+     * Point the stream at the position..limit region of a buffer
+     *
+     * @param source buffer to read; its position and limit are captured now
+     * @return this stream
+     */
+    ByteBufferInputStream reset(ByteBuffer source) {
+        _source = source;
+        _next = source.position();
+        _limit = source.limit();
+        return this;
+    }
+
+    /**
+     * Release the source buffer
+     */
+    void clear() {
+        _source = null;
+    }
+
+    @Override
+    public int read() {
+        return (_next < _limit) ? _source.get(_next++) & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] dest, int offset, int length) {
+        if (_next >= _limit)
+            return -1;
+        int count = Math.min(length, _limit - _next);
+        int position = _source.position();
+        _source.position(_next);
+        _source.get(dest, offset, count);
+        _source.position(position);
+        _next += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return _limit - _next;
+    }
+
+    private ByteBuffer _source;
+    private int _next;
+    private int _limit;
+}
@@ -1,6 +1,9 @@
 package com.solacesystems.ha;
 
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
@@ -40,6 +43,100 @@ public class ByteBufferSerializer {
                 .getInt();
     }
 
+    public static ByteBuffer SerializeLong(ByteBuffer buffer, long l)
+    {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(l);
+    }
+    public static long DeserializeLong(ByteBuffer data)
+    {
+        return data
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .getLong();
+    }
+
+    /**
+     * Marker in the upper 16 bits of a versioned sequence header; it makes the leading int negative,
+     * which a legacy 32-bit sequence ID never is.
+     */
+    public static final int SEQUENCE_HEADER_MARKER = 0x8C1A0000;
+    /**
+     * Current version of the sequence header
+     */
+    public static final int SEQUENCE_HEADER_VERSION = 1;
+    /**
+     * Size of a versioned sequence header: marker and version, then the 64-bit sequence ID
+     */
+    public static final int SEQUENCE_HEADER_SIZE = 4 + 8;
+
+    /**
+     * Writes a versioned sequence header: an int holding the header marker and version, followed
+     * by the 64-bit sequence ID.
+     */
+    public static ByteBuffer SerializeSequence(ByteBuffer buffer, long sequenceId)
+    {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(SEQUENCE_HEADER_MARKER | SEQUENCE_HEADER_VERSION)
+                .putLong(sequenceId);
+    }
+
+    /**
+     * Tells a message written with {@link #SerializeSequence} from a legacy message that starts with a bare
+     * 32-bit sequence ID, without moving the buffer's position. Legacy messages may have been published
+     * with trailing padding, so a decoder uses this rather than the bytes remaining to tell the layouts
+     * apart.
+     *
+     * @return whether the data at the buffer's position starts with a versioned sequence header
+     */
+    public static boolean HasSequenceHeader(ByteBuffer data)
+    {
+        return data.order(ByteOrder.LITTLE_ENDIAN).getInt(data.position()) < 0;
+    }
+
+    /**
+     * Reads a sequence header written by {@link #SerializeSequence}, or a legacy message that starts with
+     * a bare non-negative 32-bit sequence ID.
+     *
+     * @throws IllegalArgumentException if the header is from a newer version or is not a sequence header
+     */
+    public static long DeserializeSequence(ByteBuffer data)
+    {
+        int lead = data
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .getInt();
+        if (lead >= 0)
+            return lead;
+        if ((lead & 0xFFFF0000) != SEQUENCE_HEADER_MARKER)
+            throw new IllegalArgumentException(String.format("Not a sequence header: 0x%08X", lead));
+        int version = lead & 0xFFFF;
+        if (version > SEQUENCE_HEADER_VERSION)
+            throw new IllegalArgumentException("Unsupported sequence header version " + version);
+        return data.getLong();
+    }
+
+    /**
+     * Reads the sequence header at the start of a message's attachment without copying the rest of the
+     * attachment or deserializing anything else.
+     *
+     * @param msg message whose attachment starts with a sequence header or a legacy 32-bit sequence ID
+     * @param scratch reusable buffer of at least {@link #SEQUENCE_HEADER_SIZE} bytes, backed by an array
+     * @return the sequence ID, or {@link ClusterState#NO_SEQUENCE} if the attachment is too short to hold one
+     * @throws IllegalArgumentException if the header is from a newer version or is not a sequence header
+     */
+    public static long PeekSequence(BytesXMLMessage msg, ByteBuffer scratch)
+    {
+        int length = Math.min(msg.getAttachmentContentLength(), SEQUENCE_HEADER_SIZE);
+        if (length < 4)
+            return ClusterState.NO_SEQUENCE;
+        scratch.clear();
+        msg.readAttachmentBytes(0, scratch.array(), scratch.arrayOffset(), length);
+        scratch.limit(length);
+        int lead = scratch.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+        if (lead >= 0 || length == SEQUENCE_HEADER_SIZE)
+            return DeserializeSequence(scratch);
+        return ClusterState.NO_SEQUENCE;
+    }
+
     public static ByteBuffer SerializeDouble(ByteBuffer buffer, double d)
     {
         return buffer.order(ByteOrder.LITTLE_ENDIAN)
@@ -61,6 +158,34 @@ public class ByteBufferSerializer {
                 .put(bytes);
         return buffer;
     }
+    /**
+     * Computes how many bytes {@link #SerializeString} writes for a string, without encoding it.
+     *
+     * @return the length prefix plus the string's length in UTF-8
+     */
+    public static int SerializedSize(String s) {
+        if (s == null)
+            return 4;
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                }
+                else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+                // An unpaired surrogate is encoded as a single '?'
+            }
+        }
+        return 4 + bytes;
+    }
     public static String DeserializeString(ByteBuffer data) throws UnsupportedEncodingException {
         int len =  data
                 .order(ByteOrder.LITTLE_ENDIAN)
@@ -72,4 +197,50 @@ public class ByteBufferSerializer {
         return new String(sbytes, "UTF-8");
     }
 
+    /**
+     * Writes a symbol as the negative int <code>-1 - id</code> when it is in the table's sealed dictionary,
+     * where the id is the symbol's {@link SymbolTable#WireId wire id},
+     * and otherwise exactly as {@link #SerializeString} does. Only readers using
+     * {@link #DeserializeSymbol} with the same dictionary can read symbols written as ids.
+     *
+     * @param symbols table whose sealed dictionary supplies the ids, or null to always write the string
+     */
+    public static ByteBuffer SerializeSymbol(ByteBuffer buffer, SymbolTable symbols, String s) {
+        int id = symbols == null ? SymbolTable.NO_ID : symbols.WireId(s);
+        if (id == SymbolTable.NO_ID)
+            return SerializeString(buffer, s);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(-1 - id);
+    }
+
+    /**
+     * Computes how many bytes {@link #SerializeSymbol} writes for a symbol, without encoding it.
+     */
+    public static int SerializedSize(SymbolTable symbols, String s) {
+        if (symbols != null && symbols.SharedId(s) != SymbolTable.NO_ID)
+            return 4;
+        return SerializedSize(s);
+    }
+
+    /**
+     * Reads a symbol written by {@link #SerializeSymbol} or {@link #SerializeString}, returning the
+     * table's canonical String for it; a symbol seen before is decoded without allocating.
+     *
+     * @return the symbol, or null if it was null or empty
+     * @throws IllegalArgumentException if the symbol was written as an id that is not in the table's sealed
+     *         dictionary, or with a different dictionary
+     */
+    public static String DeserializeSymbol(ByteBuffer data, SymbolTable symbols) {
+        int len = data
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .getInt();
+        if (len < 0)
+            return symbols.WireSymbol(-1 - len);
+        if (len == 0)
+            return null;
+        if (len > data.remaining())
+            throw new BufferUnderflowException();
+        int offset = data.position();
+        data.position(offset + len);
+        return symbols.Lookup(data, offset, len);
+    }
 }
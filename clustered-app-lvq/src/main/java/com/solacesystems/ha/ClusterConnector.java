@@ -3,6 +3,13 @@ package com.solacesystems.ha;
 import com.solacesystems.jcsmp.*;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>A ClusterConnector is the main actor providing Solace HA Clustering for applications that consume
  * input messages of type InputType from an application queue and produce output messages of type
@@ -35,6 +42,13 @@ import org.apache.log4j.Logger;
 public class ClusterConnector<InputType extends Ordered, OutputType extends Ordered> {
     final static Logger log = Logger.getLogger(ClusterConnector.class);
 
+    /** Inputs skipped in fast catch-up mode are acknowledged in batches of this size... */
+    static final int STALE_ACK_BATCH = 256;
+    /** ...or after this long, whichever comes first */
+    static final long STALE_ACK_DELAY_MICROS = 1000;
+    /** How long recovery waits for the last message of an LVQ that may be empty */
+    static final long LVQ_BROWSE_TIMEOUT_MILLIS = 100;
+
     /**
      * Constructor for a Solace connector in application-HA clustering mode.
      *
@@ -51,9 +65,307 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      */
     public ClusterConnector(ClusterModel<InputType, OutputType> model,
                             ClusteredAppSerializer<InputType, OutputType> serializer) {
+        this(model, serializer, new SolaceConnector());
+    }
+
+    /**
+     * Constructor for a cluster connector over a specific messaging transport, e.g. an
+     * {@link InProcessTransport} to run a cluster within a single process for testing and benchmarking.
+     *
+     * @param model simple application model for an instance in the cluster
+     * @param serializer ByteBufferSerializer implementation for the InputType and OutputType specified
+     *              to the ClusterConnector.
+     * @param transport the messaging transport providing queues, browsing and publishing
+     */
+    public ClusterConnector(ClusterModel<InputType, OutputType> model,
+                            ClusteredAppSerializer<InputType, OutputType> serializer,
+                            ClusterTransport transport) {
         _model = model;
         _serializer = serializer;
-        _connector = new SolaceConnector();
+        _connector = transport;
+        _metrics = new FailoverMetrics(model);
+        _pipelineMetrics = new PipelineMetrics();
+        _connector.SetMetrics(_pipelineMetrics);
+        _connector.SetInputAcknowledger(new InputAcknowledger() {
+            public void AcknowledgeInput(BytesXMLMessage input) {
+                releaseInput(input, false);
+            }
+        });
+    }
+
+    /**
+     * <p>Acknowledge processed inputs in batches rather than one at a time: a batch is acknowledged once
+     * it holds maxMessages inputs or its oldest input has waited maxDelayMicros, whichever comes first.
+     * Pending acknowledgements are always flushed when the input flow goes inactive and on every HA
+     * state transition.</p>
+     * <p>Batching trades redelivery of a few already-processed inputs after a failure, which the
+     * sequence check ignores, for far fewer acknowledgements to the broker.</p>
+     *
+     * @param maxMessages number of inputs acknowledged together; 1 acknowledges each input immediately
+     * @param maxDelayMicros longest time a processed input waits to be acknowledged; must be positive
+     *                       when maxMessages is greater than 1
+     */
+    public void SetInputAckBatching(int maxMessages, long maxDelayMicros) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("ClusterConnector::SetInputAckBatching(maxMessages:%d, maxDelayMicros:%d)",
+                maxMessages, maxDelayMicros));
+        AckBatcher previous = _acks;
+        _acks = new AckBatcher(maxMessages, maxDelayMicros);
+        // An input still being added to the previous batcher by another thread is acknowledged as it is added
+        previous.close();
+    }
+
+    /**
+     * <p>Choose whether the active member acknowledges an input only once the broker has accepted the
+     * output produced from it (the default), or as soon as the input has been processed.</p>
+     * <p>Without output confirmation an input can be removed from its queue while its output is still
+     * in flight, so a failure at that moment loses the output.</p>
+     *
+     * @param ackOnOutputConfirm true to hold each input until its output is accepted
+     */
+    public void SetAckOnOutputConfirm(boolean ackOnOutputConfirm) {
+        _ackOnOutputConfirm = ackOnOutputConfirm;
+    }
+
+    /**
+     * <p>Choose what happens to an input whose deserialization or processing throws. By default it is left
+     * unacknowledged, so the broker delivers it again once the input flow is rebound, e.g. after a failover
+     * or restart, which retries a failure that was only transient.</p>
+     * <p>Acknowledging failed inputs instead drops them, so an input that fails every time cannot hold up
+     * the queue after every failover; the sequence ID of each dropped input is logged.</p>
+     *
+     * @param acknowledgeFailedInputs true to drop inputs that fail processing
+     */
+    public void SetAcknowledgeFailedInputs(boolean acknowledgeFailedInputs) {
+        _acknowledgeFailedInputs = acknowledgeFailedInputs;
+    }
+
+    /**
+     * <p>In fast catch-up mode, the sequence ID of every input is first peeked with
+     * {@link ClusteredAppSerializer#PeekInputSequence}; inputs behind the recovered cluster state are
+     * acknowledged in bulk without being deserialized, so a member restarting after a long outage
+     * skips through its backlog at the rate it can peek headers.</p>
+     * <p>Skipped inputs are not passed to {@link ClusterEventListener#OnApplicationMessage}; only the
+     * model's last input sequence is updated. Inputs whose sequence cannot be peeked are processed
+     * as usual.</p>
+     * <p>The batcher that acknowledges skipped inputs, and its flush timer, are only created once fast
+     * catch-up is first enabled.</p>
+     *
+     * @param enabled true to skip stale inputs without deserializing them
+     */
+    public synchronized void SetFastCatchUp(boolean enabled) {
+        if (enabled && _staleAcks == null)
+            _staleAcks = new AckBatcher(STALE_ACK_BATCH, STALE_ACK_DELAY_MICROS);
+        _fastCatchUp = enabled;
+    }
+
+    /**
+     * <p>Persist the application state locally so this member recovers its complete state on restart,
+     * rather than only the last output on the LVQ; must be called before binding queues.</p>
+     * <p>Every input applied to the application is first journaled to the store, and every snapshotInterval
+     * inputs the application's state is snapshotted through {@link ClusterEventListener#TakeSnapshot()},
+     * which truncates the journal. Snapshots are written to disk by the store's background writer, so the
+     * processing thread only pays for taking and copying the snapshot; if the previous snapshot is still
+     * being written, the next one is put off until it is. When binding queues, the last snapshot is restored through
+     * {@link ClusterEventListener#RestoreSnapshot} and the journaled inputs since are replayed through
+     * {@link ClusterEventListener#UpdateApplicationState}. Inputs still spooled on the application queue up to
+     * the last restored input are then skipped, and the member carries on from its own state instead of
+     * jumping ahead to the LVQ output.</p>
+     *
+     * @param store local store owned by this member instance
+     * @param snapshotInterval number of inputs between snapshots; bounds the journal replayed on restart
+     */
+    public void EnableLocalPersistence(LocalStore store, int snapshotInterval) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("ClusterConnector::EnableLocalPersistence(snapshotInterval:%d)", snapshotInterval));
+        if (snapshotInterval < 1)
+            throw new IllegalArgumentException("Snapshot interval must be positive: " + snapshotInterval);
+        if (_appflow != null || _lvqflow != null)
+            throw new IllegalStateException("Local persistence must be enabled before binding queues");
+        _store = store;
+        _snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * <p>Recover the last output of every key from its own Last Value Queue, for applications that shard
+     * their outputs by key onto one topic, and one LVQ, per key; must be called before binding queues.</p>
+     * <p>When the application queue becomes active, every keyed LVQ is browsed in bulk along with the LVQ
+     * given to {@link #BindQueues}. Each recovered output that is ahead of this member is passed to
+     * {@link ClusterModel#SetLastOutput(String, Ordered)} keyed by the topic it was published on, and is
+     * available from {@link ClusterModel#GetLastOutputs()}; outputs sent afterwards keep that map current.</p>
+     *
+     * @param lvqs Last Value Queues holding the last output of each key
+     */
+    public void SetKeyedLastValueQueues(String... lvqs) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("ClusterConnector::SetKeyedLastValueQueues(count:%d)", lvqs.length));
+        if (_appflow != null || _lvqflow != null)
+            throw new IllegalStateException("Keyed LVQs must be set before binding queues");
+        _keyedLvqs = lvqs.clone();
+    }
+
+    /**
+     * <p>Record every input received on the application queue, exactly as received, to a journal that can
+     * later be replayed through the application with
+     * {@link InputJournal#Replay(java.io.File, ClusteredAppSerializer, ClusterEventListener)}.</p>
+     * <p>Inputs are journaled on receipt, before they are deserialized or acknowledged, including inputs
+     * skipped as stale; the journal is therefore the complete input stream of this member. If appending fails
+     * the error is logged and journaling stops.</p>
+     *
+     * @param journal journal owned by this member instance; null stops journaling
+     */
+    public void SetInputJournal(InputJournal journal) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("ClusterConnector::SetInputJournal(journal:%s)", journal));
+        _journal = journal;
+    }
+
+    /**
+     * <p>Process inputs on a dedicated thread rather than on the JCSMP consumer dispatcher; must be called
+     * before binding queues.</p>
+     * <p>The dispatcher only enqueues each input and flow event into a pre-allocated ring; a single
+     * processing thread drains the ring in order, deserializing inputs, updating the application state and
+     * publishing outputs. A slow {@link ClusterEventListener} then no longer stalls receiving; once the
+     * ring is full, the dispatcher waits for the processing thread to catch up.</p>
+     *
+     * @param ringSize number of inputs and events that may be queued for the processing thread;
+     *                 rounded up to a power of two
+     * @param waitStrategy how the processing thread waits for inputs, and the dispatcher for ring space
+     */
+    public void SetPipelined(int ringSize, WaitStrategy waitStrategy) {
+        setPipelined(ringSize, waitStrategy, "ClusterPipeline");
+    }
+
+    void setPipelined(int ringSize, WaitStrategy waitStrategy, String threadName) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("ClusterConnector::SetPipelined(ringSize:%d, waitStrategy:%s)",
+                ringSize, waitStrategy));
+        if (_appflow != null || _lvqflow != null)
+            throw new IllegalStateException("Pipelined mode must be configured before binding queues");
+        if (_pipeline != null)
+            _pipeline.stop();
+        _pipeline = new InputPipeline(ringSize, waitStrategy, new InputPipeline.Handler() {
+            public void onAppMessage(BytesXMLMessage msg) {
+                processAppMessage(msg);
+            }
+            public void onAppFlowEvent(FlowEvent event) {
+                processAppFlowEvent(event);
+            }
+            public void onLVQFlowEvent(FlowEvent event) {
+                processLVQFlowEvent(event);
+            }
+            public void onHandOff() {
+                processHandOff();
+            }
+        });
+        _pipeline.start(threadName);
+    }
+
+    /**
+     * @return failover and recovery instrumentation of this member
+     */
+    public FailoverMetrics GetMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * @return steady-state counters and stage latencies of this member's input-to-output pipeline
+     */
+    public PipelineMetrics GetPipelineMetrics() {
+        return _pipelineMetrics;
+    }
+
+    /**
+     * Measure the time taken to process every input into {@link FailoverMetrics#GetInputLatencyHistogram()},
+     * and the time spent in each stage of the pipeline into {@link PipelineMetrics}; this costs a few clock
+     * reads per input and output.
+     *
+     * @param enabled true to measure input latency
+     */
+    public void SetInputLatencyTracking(boolean enabled) {
+        _trackInputLatency = enabled;
+    }
+
+    /**
+     * <p>Publish this member's HA and sequence state for monitoring as coalesced, rate-limited direct
+     * messages; must be called after connecting. See {@link StateTelemetry}.</p>
+     *
+     * @param topic topic to publish the state on, e.g. {@link StateTelemetry#DEFAULT_TOPIC}
+     * @param instance instance number of this member, identifying it to the monitor
+     * @param maxUpdatesPerSecond most updates published per second
+     * @return the running publisher
+     */
+    public StateTelemetry EnableStateTelemetry(String topic, int instance, int maxUpdatesPerSecond) {
+        if (_telemetry != null)
+            _telemetry.Stop();
+        _telemetry = new StateTelemetry(_model, _connector, topic, instance);
+        _telemetry.Start(maxUpdatesPerSecond);
+        return _telemetry;
+    }
+
+    /**
+     * <p>Compare this member's application state with the active member's through the hash the application
+     * keeps in {@link ClusterEventListener#GetStateHash()}; must be called after connecting. See
+     * {@link StateVerifier}.</p>
+     *
+     * @param topic topic the cluster's hashes are published on, e.g. {@link StateVerifier#DEFAULT_TOPIC}
+     * @param instance instance number of this member, unique in the cluster
+     * @param maxChecksPerSecond most hashes the active member publishes per second
+     * @return the running verifier
+     * @throws JCSMPException if the verifier cannot subscribe to the topic
+     */
+    public StateVerifier EnableStateVerification(String topic, int instance, int maxChecksPerSecond) throws JCSMPException {
+        if (_verifier != null)
+            _verifier.Stop();
+        StateVerifier verifier = new StateVerifier(_model, _connector, topic, instance);
+        if (_hashBase != ClusterState.NO_SEQUENCE)
+            verifier.rebase(_hashBase);
+        _verifier = verifier;
+        verifier.Start(maxChecksPerSecond);
+        return verifier;
+    }
+
+    /**
+     * <p>Record every input, output, flow event and recovered LVQ message into the given binary event ring
+     * instead of logging them; see {@link EventRecorder}.</p>
+     *
+     * @param recorder ring to record into; null stops recording
+     */
+    public void SetEventRecorder(EventRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    ClusterModel<InputType, OutputType> model() {
+        return _model;
+    }
+
+    /**
+     * Stop the pipelined processing thread, if any, once it has processed every queued input, and
+     * acknowledge any inputs still waiting in an acknowledgement batch. State telemetry and verification, if
+     * enabled, stop, and a local snapshot still being written is finished.
+     */
+    public void Close() {
+        if (log.isDebugEnabled())
+            log.debug("ClusterConnector::Close()");
+        if (_telemetry != null)
+            _telemetry.Stop();
+        if (_verifier != null)
+            _verifier.Stop();
+        if (_pipeline != null)
+            _pipeline.stop();
+        LocalStore store = _store;
+        if (store != null) {
+            try {
+                store.AwaitSnapshot();
+            }
+            catch(IOException ex) {
+                log.error("Exception waiting for a local snapshot to be written", ex);
+            }
+        }
+        AckBatcher staleAcks = _staleAcks;
+        if (staleAcks != null)
+            staleAcks.close();
+        _acks.close();
     }
 
     /**
@@ -100,10 +412,18 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     public void BindQueues(final String appq, final String lvq) throws JCSMPException {
         if (log.isDebugEnabled())
             log.debug(String.format("ClusterConnector::BindQueues(appq:%s, lvq:%s)", appq, lvq));
+        if (_store != null && !_restored)
+            restoreLocalState();
         // The order of instantiation matters; lvqflow is used for active-flow indication
         // which triggers recovering state via browser, then starts appflow after
         // recovery completes
-        if (_lvqBrowser == null) _lvqBrowser = _connector.BrowseQueue(lvq);
+        if (_lvqBrowsers == null) {
+            Browser[] browsers = new Browser[1 + _keyedLvqs.length];
+            browsers[0] = _connector.BrowseQueue(lvq);
+            for (int i = 0; i < _keyedLvqs.length; i++)
+                browsers[i + 1] = _connector.BrowseQueue(_keyedLvqs[i]);
+            _lvqBrowsers = browsers;
+        }
         if (_appflow == null)
             _appflow = _connector.BindQueue(appq,
                 new XMLMessageListener() {
@@ -117,30 +437,85 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
                 },
                 new FlowEventHandler() {
                     public void handleEvent(Object o, FlowEventArgs args) {
+                        // The first flow event can be dispatched before BindQueue returns the flow
+                        if (_appflow == null)
+                            _appflow = (FlowReceiver) o;
                         onAppFlowEvent(args);
                     }
                 });
+        _lvq = lvq;
         if (_lvqflow == null)
-            _lvqflow = _connector.BindQueue(lvq,
-                new XMLMessageListener() {
-                    public void onReceive(BytesXMLMessage msg) {
-                        log.error("BAD BEHAVIOR!!! Should not consume LVQ ");
-                    }
-                    public void onException(JCSMPException e) {
-                        log.error("Exception trying to bind to LV-queue " + lvq, e);
-                        e.printStackTrace();
-                    }
-                },
-                new FlowEventHandler() {
-                    public void handleEvent(Object o, FlowEventArgs args) {
+            bindLVQFlow();
+    }
+
+    /**
+     * <p>Hand leadership of the cluster to another member, if this member is ACTIVE: the member becomes
+     * BACKUP, then unbinds and rebinds its LVQ flow so the broker makes the next member bound to the LVQ
+     * active.</p>
+     * <p>Used to spread leadership of partitions across members, e.g. by a {@link LeadershipBalancer}, or to
+     * move leadership away from a member before maintenance. There must be another member bound to the LVQ,
+     * otherwise this member is made active again.</p>
+     * <p>When pipelined, the handoff is posted to the processing thread like a flow event, so it happens in
+     * order with the inputs and flow events queued before it rather than on the calling thread.</p>
+     *
+     * @return true if this member was ACTIVE and has given up leadership, or when pipelined, has been asked to
+     */
+    public boolean HandOffLeadership() {
+        if (log.isDebugEnabled())
+            log.debug("ClusterConnector::HandOffLeadership()");
+        if (_lvqflow == null || _model.GetHAStatus() != HAState.ACTIVE)
+            return false;
+        if (_pipeline != null) {
+            _pipeline.publish(InputPipeline.HAND_OFF, null, null);
+            return true;
+        }
+        return processHandOff();
+    }
+
+    private boolean processHandOff() {
+        FlowReceiver lvqflow = _lvqflow;
+        // Leadership may have moved on while the handoff was queued
+        if (lvqflow == null || _model.GetHAStatus() != HAState.ACTIVE)
+            return false;
+        becomeBackup();
+        _metrics.record("HANDOFF");
+        _metrics.lvqInactive();
+        _lvqflow = null;
+        lvqflow.close();
+        try {
+            bindLVQFlow();
+        }
+        catch(JCSMPException ex) {
+            log.error("Exception trying to rebind to LV-queue " + _lvq, ex);
+        }
+        return true;
+    }
+
+    private void bindLVQFlow() throws JCSMPException {
+        final String lvq = _lvq;
+        final int generation = ++_lvqGeneration;
+        _lvqflow = _connector.BindQueue(lvq,
+            new XMLMessageListener() {
+                public void onReceive(BytesXMLMessage msg) {
+                    log.error("BAD BEHAVIOR!!! Should not consume LVQ ");
+                }
+                public void onException(JCSMPException e) {
+                    log.error("Exception trying to bind to LV-queue " + lvq, e);
+                    e.printStackTrace();
+                }
+            },
+            new FlowEventHandler() {
+                public void handleEvent(Object o, FlowEventArgs args) {
+                    // Events from a flow closed to hand off leadership are stale
+                    if (generation == _lvqGeneration)
                         onLVQFlowEvent(args);
-                    }
-                });
+                }
+            });
     }
 
     /**
      * <p>Send an output text message.</p>
-     * <p>HACK: just used to send JSON updates to a separate, standalone web-gui to display internal state</p>
+     * <p>To publish this member's state to a monitor, use {@link #EnableStateTelemetry(String, int, int)} instead.</p>
      * @param topic The topic on which to send the output text message
      * @param payload Text payload string to send
      */
@@ -157,26 +532,136 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     }
 
     /**
-     * Send an output based upon whatever the latest state change from input messages.
+     * <p>Send an output based upon whatever the latest state change from input messages.</p>
+     * <p>Outputs are pipelined: this returns once the output is handed to the transport, without waiting
+     * for the broker to accept it. When called from within
+     * {@link ClusterEventListener#UpdateApplicationState(Ordered)}, the input message being processed is
+     * only acknowledged once the broker has accepted this and every other output produced from it. If the window of unacknowledged outputs
+     * is full, the call is held until earlier outputs are acknowledged, slowing consumption of inputs down
+     * to the rate the broker accepts outputs; it keeps waiting past the transport's publish timeout for as
+     * long as this member remains the up-to-date active member. When pipelined, it gives up as soon as the
+     * LVQ flow goes inactive, without waiting for that event to reach the processing thread queued behind
+     * it.</p>
+     * <p>An input whose output could not be handed to the transport is never acknowledged, so the broker
+     * delivers it again to whichever member next binds the input queue.</p>
      *
      * @param topic The topic on which to send the output message
      * @param output The output object to be serialized and sent
+     * @return true if the output was published; false if this instance is not the up-to-date active member,
+     *         or stopped being it while the output window was full
      */
-    public void SendOutput(String topic, OutputType output) {
-        if (log.isDebugEnabled())
-            log.debug(String.format("ClusterConnector::SendOutput(topic:%s, object)", topic));
+    public boolean SendOutput(String topic, OutputType output) {
+        if (_keyedLvqs.length > 0)
+            _model.recordLastOutput(topic, output);
         // If we're the active member of the cluster, we are responsible
         // for all output but don't publish until we have new input data
-        if (_model.GetHAStatus() == HAState.ACTIVE && _model.GetSequenceStatus() == SeqState.UPTODATE)
+        if (_model.GetState().IsOutputEnabled())
         {
+            // The current input is held until this output is accepted, as well as until it is processed
+            BytesXMLMessage input = null;
+            if (_ackOnOutputConfirm && _currentInput != null) {
+                input = _currentInput;
+                synchronized (_unconfirmedOutputs) {
+                    Integer holds = _unconfirmedOutputs.get(input);
+                    _unconfirmedOutputs.put(input, (holds == null) ? 2 : holds + 1);
+                }
+            }
             try {
-                _connector.SendOutput(topic, _serializer.SerializeOutput(output));
+                boolean sent;
+                if (_trackInputLatency) {
+                    long start = System.nanoTime();
+                    ByteBuffer payload = _serializer.SerializeOutput(output);
+                    payload.flip();
+                    long serialized = System.nanoTime();
+                    sent = publishOutput(topic, payload, input);
+                    _pipelineMetrics.record(PipelineMetrics.Stage.SERIALIZE, serialized - start);
+                    _pipelineMetrics.record(PipelineMetrics.Stage.PUBLISH, System.nanoTime() - serialized);
+                }
+                else {
+                    ByteBuffer payload = _serializer.SerializeOutput(output);
+                    payload.flip();
+                    sent = publishOutput(topic, payload, input);
+                }
+                EventRecorder recorder = _recorder;
+                if (recorder != null)
+                    recorder.Record(sent ? EventRecorder.Event.OUTPUT_SENT : EventRecorder.Event.OUTPUT_DROPPED,
+                        output.getSequenceId(), _connector.GetOutputsInFlight());
+                if (sent) {
+                    _pipelineMetrics.count(PipelineMetrics.Counter.OUTPUTS_SENT);
+                    _metrics.outputSent();
+                    return true;
+                }
+                _pipelineMetrics.count(PipelineMetrics.Counter.OUTPUTS_DROPPED);
+                abandonInput(input);
+                log.warn("No longer active with the output window full; dropped output on topic " + topic
+                    + ", leaving its input unacknowledged for redelivery");
             }
             catch(JCSMPException ex) {
+                _pipelineMetrics.count(PipelineMetrics.Counter.PUBLISH_ERRORS);
+                abandonInput(input);
                 ex.printStackTrace();
-                log.error("Exception trying to send message on topic " + topic, ex);
+                log.error("Exception trying to send message on topic " + topic
+                    + "; leaving its input unacknowledged for redelivery", ex);
             }
         }
+        return false;
+    }
+
+    /**
+     * Hands an output to the transport, waiting out full windows for as long as this member is the
+     * up-to-date active member; the payload is left unconsumed by each attempt.
+     *
+     * @return false if this member stopped being the active member first
+     */
+    private boolean publishOutput(String topic, ByteBuffer payload, BytesXMLMessage input) throws JCSMPException {
+        while (!_connector.SendOutput(topic, payload, input)) {
+            if (!_model.GetState().IsOutputEnabled() || _lvqFlowInactive)
+                return false;
+            log.warn("Output window still full; waiting to publish output on topic " + topic);
+        }
+        return true;
+    }
+
+    /**
+     * Releases one hold on an input, acknowledging it once it has been processed and every output produced
+     * from it has been accepted; an input abandoned in the meantime is never acknowledged.
+     *
+     * @param processed true when the processing of the input has finished, false when an output is accepted
+     */
+    private void releaseInput(BytesXMLMessage input, boolean processed) {
+        synchronized (_unconfirmedOutputs) {
+            Integer holds = _unconfirmedOutputs.get(input);
+            if (holds != null) {
+                if (holds > 1) {
+                    _unconfirmedOutputs.put(input, holds - 1);
+                    return;
+                }
+                _unconfirmedOutputs.remove(input);
+            }
+            else if (!processed) {
+                return;
+            }
+        }
+        _acks.add(input);
+    }
+
+    /**
+     * Leaves the current input unacknowledged for redelivery, even once its outputs already sent are accepted
+     */
+    private void abandonInput(BytesXMLMessage input) {
+        if (input == null)
+            return;
+        _currentInput = null;
+        synchronized (_unconfirmedOutputs) {
+            _unconfirmedOutputs.remove(input);
+        }
+    }
+
+    /**
+     * @return number of outputs published but not yet acknowledged by the broker
+     */
+    public int GetOutputsInFlight() {
+        return _connector.GetOutputsInFlight();
     }
 
 
@@ -214,13 +699,25 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     private void onAppFlowEvent(FlowEventArgs args) {
         if (log.isDebugEnabled())
             log.debug(String.format("ClusterConnector::onAppFlowEvent(args:%s)", args));
-        switch (args.getEvent())
+        if (_pipeline != null)
+            _pipeline.publish(InputPipeline.APP_FLOW_EVENT, null, args.getEvent());
+        else
+            processAppFlowEvent(args.getEvent());
+    }
+
+    private void processAppFlowEvent(FlowEvent event) {
+        EventRecorder recorder = _recorder;
+        if (recorder != null)
+            recorder.Record(EventRecorder.Event.APP_FLOW_EVENT, event.ordinal(), 0);
+        switch (event)
         {
             case FLOW_ACTIVE:
+                _metrics.appFlowActive();
                 synchronizeToLastOutput();
                 break;
             case FLOW_INACTIVE:
                 stopInputFlow();
+                _metrics.appFlowInactive();
                 break;
             default:
                 break;
@@ -233,10 +730,56 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      * @param msg new solace message from the application queue
      */
     private void onAppMessage(BytesXMLMessage msg) {
-        if (log.isDebugEnabled())
-            log.debug(String.format("ClusterConnector::onAppMessage(msg:%s)", msg));
-        processInputMsg(_serializer.DeserializeInput(msg));
-        msg.ackMessage();
+        if (_pipeline != null)
+            _pipeline.publish(InputPipeline.APP_MESSAGE, msg, null);
+        else
+            processAppMessage(msg);
+    }
+
+    private void processAppMessage(BytesXMLMessage msg) {
+        _pipelineMetrics.count(PipelineMetrics.Counter.INPUTS_RECEIVED);
+        if (_journal != null)
+            recordInput(msg);
+        if (_fastCatchUp && skipStaleInput(msg))
+            return;
+        _currentInput = msg;
+        InputType input = null;
+        try {
+            if (_trackInputLatency) {
+                long start = System.nanoTime();
+                long received = msg.getReceiveTimestamp();
+                if (received > 0)
+                    _pipelineMetrics.record(PipelineMetrics.Stage.RECEIVE,
+                        TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - received));
+                input = _serializer.DeserializeInput(msg);
+                long deserialized = System.nanoTime();
+                _pipelineMetrics.record(PipelineMetrics.Stage.DESERIALIZE, deserialized - start);
+                processInputMsg(input);
+                long processed = System.nanoTime();
+                _pipelineMetrics.record(PipelineMetrics.Stage.PROCESS, processed - deserialized);
+                _metrics.inputProcessed(processed - start);
+            }
+            else {
+                input = _serializer.DeserializeInput(msg);
+                processInputMsg(input);
+            }
+        }
+        catch(RuntimeException ex) {
+            _pipelineMetrics.count(PipelineMetrics.Counter.INPUTS_FAILED);
+            String failed = (input == null) ? "input that failed to deserialize" : "input " + input.getSequenceId();
+            if (_acknowledgeFailedInputs) {
+                log.error("Exception processing " + failed + "; dropping it by acknowledging it", ex);
+            }
+            else {
+                abandonInput(msg);
+                log.error("Exception processing " + failed + "; leaving it unacknowledged for redelivery", ex);
+            }
+        }
+        // Unless an output could not be sent, the input is done with once its outputs are accepted
+        if (_currentInput != null) {
+            _currentInput = null;
+            releaseInput(msg, true);
+        }
     }
 
     /**
@@ -248,13 +791,29 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     private void onLVQFlowEvent(FlowEventArgs args) {
         if (log.isDebugEnabled())
             log.debug(String.format("ClusterConnector::onLVQFlowEvent(args:%s)", args));
-        switch (args.getEvent())
+        if (args.getEvent() == FlowEvent.FLOW_ACTIVE)
+            _lvqFlowInactive = false;
+        else if (args.getEvent() == FlowEvent.FLOW_INACTIVE)
+            _lvqFlowInactive = true;
+        if (_pipeline != null)
+            _pipeline.publish(InputPipeline.LVQ_FLOW_EVENT, null, args.getEvent());
+        else
+            processLVQFlowEvent(args.getEvent());
+    }
+
+    private void processLVQFlowEvent(FlowEvent event) {
+        EventRecorder recorder = _recorder;
+        if (recorder != null)
+            recorder.Record(EventRecorder.Event.LVQ_FLOW_EVENT, event.ordinal(), 0);
+        switch (event)
         {
             case FLOW_ACTIVE:
                 becomeActive();
+                _metrics.lvqActive();
                 break;
             case FLOW_INACTIVE:
                 becomeBackup();
+                _metrics.lvqInactive();
                 break;
             default:
                 break;
@@ -267,29 +826,47 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     ////////////////////////////////////////////////////////////////////////
 
     /**
-     * Invoked on the LVQBrowser when message is browsed
+     * Invoked once the LVQs have been browsed; recovers the last output of every LVQ that is ahead of this
+     * member and sets the sequence status accordingly. State restored locally is complete, so it is kept
+     * when the LVQs are ahead of it; instead the member stays RECOVERING, applying the inputs after it
+     * without publishing their outputs, until it reaches the last output on the LVQs.
      *
-     * @param lvqState a message from the LVQ read as port of the recovery process
+     * @param browsed the last message of each LVQ read as part of the recovery process
      */
-    private void processOutputMsg(OutputType lvqState) throws JCSMPException {
-        if (log.isDebugEnabled())
-            log.debug(String.format("ClusterConnector::processOutputMsg(args:%s)", lvqState));
-        // Compare the lvq-message sequenceId to our current-state sequenceId
-        OutputType curState = _model.GetLastOutput();
-        String lvqstr = (lvqState==null) ? "(null)" : lvqState.toString();
-        String appstr = (curState==null) ? "(null)" : curState.toString();
-        if (log.isInfoEnabled())
-            log.info(String.format("LAST OUTPUT ID: %s; CUR OUT ID: %s", lvqstr, appstr));
-
-        if (lvqState != null && (curState == null ||  curState.getSequenceId() < lvqState.getSequenceId()))
-        {
-            _model.SetLastOutput(lvqState);
-            _model.SetSequenceStatus(SeqState.RECOVERING);
-        }
-        else
-        {
-            _model.SetSequenceStatus(SeqState.UPTODATE);
+    private void processOutputMsgs(List<BytesXMLMessage> browsed) {
+        // Compare each lvq-message sequenceId to our current-state sequenceId
+        long curSeq = _model.GetLastOutputSequence();
+        boolean behind = false;
+        EventRecorder recorder = _recorder;
+        for (BytesXMLMessage msg : browsed) {
+            OutputType lvqState = _serializer.DeserializeOutput(msg);
+            if (recorder != null && lvqState != null)
+                recorder.Record(EventRecorder.Event.LVQ_OUTPUT, lvqState.getSequenceId(), curSeq);
+            if (lvqState == null)
+                continue;
+            Destination destination = msg.getDestination();
+            String key = destination == null ? "" : destination.getName();
+            // Every key's last output is kept, even one behind this member's last output overall
+            _model.recoverLastOutput(key, lvqState);
+            if (curSeq >= lvqState.getSequenceId())
+                continue;
+            behind = true;
+            // Restored local state is complete; the inputs after it are still on our queue
+            if (_restoredInputSeq != ClusterState.NO_SEQUENCE) {
+                _outputResumeSeq = Math.max(_outputResumeSeq, lvqState.getSequenceId());
+                continue;
+            }
+            _model.SetLastOutput(key, lvqState);
         }
+        if (log.isInfoEnabled())
+            log.info(String.format("Browsed %d last outputs from the LVQs; current output is %d, last recovered output is %d, output resumes at %d",
+                browsed.size(), curSeq, _model.GetLastOutputSequence(), _outputResumeSeq));
+        // The application's state hash now rolls on from the recovered output, not from the first input
+        if (behind && _restoredInputSeq == ClusterState.NO_SEQUENCE)
+            rebaseStateHash(_model.GetLastOutputSequence());
+        _model.SetSequenceStatus(behind ? SeqState.RECOVERING : SeqState.UPTODATE);
+        if (!behind)
+            _metrics.upToDate();
     }
 
 
@@ -302,25 +879,170 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
      *
      * @param input new applicadtion input message
      */
-    private void processInputMsg(InputType input) {
-        if (log.isDebugEnabled())
-            log.debug(String.format("ClusterConnector::processInputMsg(args:{0})", input));
-        OutputType appState = _model.GetLastOutput();
-        if (appState == null || input.getSequenceId() >= appState.getSequenceId()) {
-            if (_model.GetSequenceStatus() != SeqState.UPTODATE)
-                _model.SetSequenceStatus(SeqState.UPTODATE);
+    void processInputMsg(InputType input) {
+        long inputSeq = input.getSequenceId();
+        ClusterState<InputType, OutputType> state = _model.GetState();
+        EventRecorder recorder = _recorder;
+        // NO_SEQUENCE sorts before every sequence ID, so a member without state always processes
+        if (!isStale(inputSeq, state.GetLastOutputSequence())) {
+            SeqState seqState = state.GetSequenceStatus();
+            if (seqState != SeqState.UPTODATE && inputSeq >= _outputResumeSeq
+                    && _model.TransitionSequenceStatus(seqState, SeqState.UPTODATE))
+                _metrics.upToDate();
+            if (_store != null)
+                journalInput(inputSeq);
             // Construct a new app state
+            _pipelineMetrics.count(PipelineMetrics.Counter.INPUTS_PROCESSED);
+            if (recorder != null)
+                recorder.Record(EventRecorder.Event.INPUT_PROCESSED, inputSeq, state.GetLastOutputSequence());
             _model.UpdateApplicationState(input);
+            if (_store != null && ++_inputsSinceSnapshot >= _snapshotInterval)
+                takeSnapshot();
         }
         else {
+            _pipelineMetrics.count(PipelineMetrics.Counter.INPUTS_IGNORED);
+            if (recorder != null)
+                recorder.Record(EventRecorder.Event.INPUT_IGNORED, inputSeq, state.GetLastOutputSequence());
             _model.SetLastInput(input);
+        }
+    }
+
+    /**
+     * An input is stale if it is behind the last output, or was already applied to state restored locally
+     */
+    private boolean isStale(long inputSeq, long lastOutputSeq) {
+        return inputSeq < lastOutputSeq || inputSeq <= _restoredInputSeq;
+    }
+
+    /**
+     * Journals the input being processed before it is applied, snapshotting first if the journal is full.
+     */
+    private void journalInput(long inputSeq) {
+        BytesXMLMessage msg = _currentInput;
+        if (msg == null || _store.AppendInput(inputSeq, msg))
+            return;
+        try {
+            _store.AwaitSnapshot();
+        }
+        catch(IOException ex) {
+            log.error("Exception waiting for a local snapshot to be written", ex);
+        }
+        takeSnapshot();
+        if (_store != null && !_store.AppendInput(inputSeq, msg))
+            log.warn(String.format("Input %d does not fit in an empty journal; it will not survive a restart", inputSeq));
+    }
+
+    /**
+     * Hands a snapshot of the application to the store's background writer, unless it is still writing the
+     * last one, in which case the snapshot is retried after the next input.
+     */
+    private void takeSnapshot() {
+        if (_store.IsWritingSnapshot())
+            return;
+        _inputsSinceSnapshot = 0;
+        ByteBuffer snapshot = _model.takeSnapshot();
+        if (snapshot == null) {
+            log.warn("The application does not support snapshots; disabling local persistence");
+            _store = null;
+            return;
+        }
+        ClusterState<InputType, OutputType> state = _model.GetState();
+        try {
+            _store.WriteSnapshotInBackground(state.GetLastInputSequence(), state.GetLastOutputSequence(), snapshot);
+        }
+        catch(IOException ex) {
+            log.error("Exception trying to write a local snapshot", ex);
+        }
+    }
+
+    /**
+     * Loads the last local snapshot into the application and replays the journaled inputs since.
+     */
+    private void restoreLocalState() throws JCSMPException {
+        _restored = true;
+        try {
+            LocalStore.Snapshot snapshot = _store.ReadSnapshot();
+            long afterSeq = ClusterState.NO_SEQUENCE;
+            if (snapshot != null) {
+                _model.restoreSnapshot(snapshot.GetLastInputSequence(), snapshot.GetLastOutputSequence(), snapshot.GetState());
+                afterSeq = snapshot.GetLastInputSequence();
+            }
+            final BytesXMLMessage replayed = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+            final ByteBufferInputStream payloadStream = new ByteBufferInputStream();
+            final IOException[] failure = new IOException[1];
+            _store.ReplayJournal(afterSeq, new LocalStore.JournalListener() {
+                public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                    if (failure[0] != null) return;
+                    try {
+                        replayed.writeAttachment(payloadStream.reset(payload));
+                        _model.UpdateApplicationState(_serializer.DeserializeInput(replayed));
+                    }
+                    catch(IOException ex) {
+                        failure[0] = ex;
+                    }
+                }
+            });
+            if (failure[0] != null)
+                throw failure[0];
+            _restoredInputSeq = _model.GetLastInputSequence();
+            if (snapshot != null)
+                rebaseStateHash(snapshot.GetLastOutputSequence());
+            if (log.isInfoEnabled())
+                log.info(String.format("Restored local state up to input %d (snapshot at %d)", _restoredInputSeq, afterSeq));
+        }
+        catch(IOException ex) {
+            throw new JCSMPException("Failed to restore local state", ex);
+        }
+    }
+
+    private void rebaseStateHash(long outputSeq) {
+        _hashBase = outputSeq;
+        StateVerifier verifier = _verifier;
+        if (verifier != null)
+            verifier.rebase(outputSeq);
+    }
+
+    private void recordInput(BytesXMLMessage msg) {
+        try {
+            _journal.Append(_serializer.PeekInputSequence(msg), msg);
+        }
+        catch(IOException ex) {
+            log.error("Failed to journal input; input journaling stopped", ex);
+            _journal = null;
+        }
+    }
+
+    /**
+     * Acknowledges an input without deserializing it if its peeked sequence ID is behind the last output.
+     *
+     * @return true if the input was stale and has been skipped
+     */
+    private boolean skipStaleInput(BytesXMLMessage msg) {
+        long inputSeq = _serializer.PeekInputSequence(msg);
+        if (inputSeq != ClusterState.NO_SEQUENCE && isStale(inputSeq, _model.GetLastOutputSequence())) {
+            _model.SetLastInputSequence(inputSeq);
+            _staleAcks.add(msg);
+            _skippedInputs++;
+            _pipelineMetrics.count(PipelineMetrics.Counter.INPUTS_SKIPPED);
+            EventRecorder recorder = _recorder;
+            if (recorder != null)
+                recorder.Record(EventRecorder.Event.INPUT_SKIPPED, inputSeq, _model.GetLastOutputSequence());
+            return true;
+        }
+        if (_skippedInputs > 0) {
             if (log.isInfoEnabled())
-                log.info(
-                    String.format(
-                            "\tIGNORED MESSAGE %s because it is behind recovered state %d",
-                            input.getSequenceId(),
-                            appState.getSequenceId()));
+                log.info(String.format("Caught up: skipped %d inputs behind recovered state %d",
+                    _skippedInputs, _model.GetLastOutputSequence()));
+            _skippedInputs = 0;
+            flushStaleAcks();
         }
+        return false;
+    }
+
+    private void flushStaleAcks() {
+        AckBatcher staleAcks = _staleAcks;
+        if (staleAcks != null)
+            staleAcks.flush();
     }
 
     /**
@@ -331,23 +1053,30 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
             log.debug("ClusterConnector::stopInputFlow()");
         _model.SetSequenceStatus(SeqState.DISCONNECTED);
         _appflow.stop();
+        flushStaleAcks();
+        _acks.flush();
     }
 
     /**
      * Invoked on the lvqflow when flow UP event occurs or when flow changes
-     * from INACTIVE to ACTIVE This function tries to browse the message on
-     * the LVQ to recover the last output state from this application
+     * from INACTIVE to ACTIVE This function browses the last message of every
+     * LVQ to recover the last output state from this application
      */
     private void synchronizeToLastOutput() {
         if (log.isInfoEnabled())
-            log.info(String.format("Recovering last state from the LVQ, current sequence state is {0}",
+            log.info(String.format("Recovering last state from the LVQ, current sequence state is %s",
                 _model.GetSequenceStatus()));
+        EventRecorder recorder = _recorder;
+        if (recorder != null)
+            recorder.Record(EventRecorder.Event.RECOVERY_STARTED, _model.GetSequenceStatus().ordinal(), 0);
         _model.SetSequenceStatus(SeqState.RECOVERING);
         try {
-            BytesXMLMessage lvqMsg = _lvqBrowser.getNext();
-            if (lvqMsg != null)
-                processOutputMsg(_serializer.DeserializeOutput(lvqMsg));
+            List<BytesXMLMessage> browsed = new ArrayList<BytesXMLMessage>(_lvqBrowsers.length);
+            LastValueRecovery.browse(_lvqBrowsers, LVQ_BROWSE_TIMEOUT_MILLIS, browsed);
+            _metrics.record("LVQ_BROWSED");
+            processOutputMsgs(browsed);
             _appflow.start();
+            _metrics.appFlowStarted();
         }
         catch(JCSMPException ex) {
             log.error("Exception trying to read last message from LVQ ", ex);
@@ -363,6 +1092,8 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     {
         if (log.isDebugEnabled())
             log.debug("ClusterConnector::becomeActive()");
+        flushStaleAcks();
+        _acks.flush();
         _model.SetHAStatus(HAState.ACTIVE);
     }
 
@@ -373,14 +1104,49 @@ public class ClusterConnector<InputType extends Ordered, OutputType extends Orde
     {
         if (log.isDebugEnabled())
             log.debug("ClusterConnector::becomeBackup()");
+        flushStaleAcks();
+        _acks.flush();
         _model.SetHAStatus(HAState.BACKUP);
     }
 
-    private final SolaceConnector _connector;
+    private final ClusterTransport _connector;
     private final ClusterModel<InputType,OutputType> _model;
     private final ClusteredAppSerializer<InputType, OutputType> _serializer;
+    private final FailoverMetrics _metrics;
+    private final PipelineMetrics _pipelineMetrics;
+    private volatile boolean _trackInputLatency;
 
-    private Browser _lvqBrowser;
-    private FlowReceiver _appflow;
-    private FlowReceiver _lvqflow;
+    private Browser[] _lvqBrowsers;
+    private String[] _keyedLvqs = new String[0];
+    private volatile FlowReceiver _appflow;
+    private BytesXMLMessage _currentInput;
+    // Holds on each input with outputs in flight: one per unaccepted output, plus one while it is processed
+    private final IdentityHashMap<BytesXMLMessage, Integer> _unconfirmedOutputs =
+        new IdentityHashMap<BytesXMLMessage, Integer>();
+    private volatile FlowReceiver _lvqflow;
+    private String _lvq;
+    private volatile int _lvqGeneration;
+    // Set as soon as the LVQ flow event arrives, ahead of the processing thread handling it
+    private volatile boolean _lvqFlowInactive;
+    private volatile InputPipeline _pipeline;
+    private volatile AckBatcher _acks = new AckBatcher(1, 0);
+    private volatile boolean _ackOnOutputConfirm = true;
+    private volatile boolean _acknowledgeFailedInputs;
+    private volatile boolean _fastCatchUp;
+    // Only set once fast catch-up is enabled, always before _fastCatchUp
+    private volatile AckBatcher _staleAcks;
+    private long _skippedInputs;
+    private LocalStore _store;
+    private volatile InputJournal _journal;
+    private volatile StateTelemetry _telemetry;
+    private volatile StateVerifier _verifier;
+    /** Last output the application's state was recovered from, for comparing state hashes */
+    private volatile long _hashBase = ClusterState.NO_SEQUENCE;
+    private volatile EventRecorder _recorder;
+    private int _snapshotInterval;
+    private int _inputsSinceSnapshot;
+    private boolean _restored;
+    private long _restoredInputSeq = ClusterState.NO_SEQUENCE;
+    /** Last output on the LVQs when they were ahead of the restored state; outputs stay off until reaching it */
+    private long _outputResumeSeq = ClusterState.NO_SEQUENCE;
 }
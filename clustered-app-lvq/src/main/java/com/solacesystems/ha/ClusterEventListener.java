@@ -1,5 +1,7 @@
 package com.solacesystems.ha;
 
+import java.nio.ByteBuffer;
+
 /**
  * <p>A ClusterEventListener is updated by the ClusterModel for every state
  * change related to the application cluster. Relevant state changes include:
@@ -66,4 +68,41 @@ public interface ClusterEventListener<InputType extends Ordered, OutputType exte
      * @return new output state reflecting the input; the {@link Ordered#getSequenceId()} on the output and input should match
      */
     OutputType UpdateApplicationState(InputType input);
+
+    /**
+     * <p>Called by the {@link ClusterConnector} when local persistence is enabled, to take a snapshot of the
+     * complete application state reflecting every input passed to {@link #UpdateApplicationState} so far.
+     * It is called on the same thread as UpdateApplicationState, between two inputs.</p>
+     * <p>The default implementation does not support snapshots.</p>
+     *
+     * @return the serialized application state from position to limit, or null if snapshots are not supported
+     */
+    default ByteBuffer TakeSnapshot() {
+        return null;
+    }
+
+    /**
+     * Called before any queues are bound to restore the application state from the last local snapshot.
+     * UpdateApplicationState is then called for every input journaled after that snapshot.
+     *
+     * @param snapshot the state returned by {@link #TakeSnapshot()} when the snapshot was taken
+     */
+    default void RestoreSnapshot(ByteBuffer snapshot) {
+    }
+
+    /**
+     * <p>Called by the {@link ClusterModel} right after every {@link #UpdateApplicationState} when state
+     * verification is enabled, to record a hash of the complete application state that input left behind.
+     * The active member publishes it and the backups compare it with their own hash after the same input;
+     * see {@link StateVerifier}.</p>
+     * <p>The hash must be deterministic and cheap: keep a rolling hash, updated with {@link StateHash} as
+     * each input changes the state, rather than hashing the whole state on every call. It is part of the
+     * state, so it belongs in snapshots.</p>
+     * <p>The default implementation returns {@link StateHash#NONE}, which is never compared.</p>
+     *
+     * @return rolling hash of the application state
+     */
+    default long GetStateHash() {
+        return StateHash.NONE;
+    }
 }
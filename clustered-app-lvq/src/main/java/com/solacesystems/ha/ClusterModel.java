@@ -1,11 +1,23 @@
 package com.solacesystems.ha;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * <p>Stores all the state relevant to the cluster member instance including HA state,
- * Sequencing state, and last input/output state messages
+ * Sequencing state, and the sequence IDs of the last input/output state messages
  * </p>
  * <p>
  * The cluster model also updates any ClusterEventListeners for all state changes.
  * </p>
+ * <p>All four values are held in a single immutable {@link ClusterState} snapshot behind an atomic
+ * reference; every change publishes a new snapshot with a compare-and-set, so the model may be read
+ * and updated from the session, flow-event and message threads without locks, and readers never see
+ * a torn combination of values. Use {@link #GetState()} to read several values consistently.
+ * </p>
  *
  * @param <InputType> input message type; must extend Ordered to ensure a sequence number is present
  * @param <OutputType> output message type; must also extend Ordered to ensure a sequence number is present
@@ -21,8 +33,17 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      */
     public ClusterModel(ClusterEventListener<InputType,OutputType> listener) {
         _listener = listener;
-        _haStatus = HAState.BACKUP;
-        _seqStatus= SeqState.INIT;
+        _state = new AtomicReference<ClusterState<InputType, OutputType>>(
+                new ClusterState<InputType, OutputType>(HAState.BACKUP, SeqState.INIT,
+                        ClusterState.NO_SEQUENCE, ClusterState.NO_SEQUENCE));
+    }
+
+    /**
+     * Retrieve a consistent snapshot of the whole model
+     * @return current state snapshot
+     */
+    public ClusterState<InputType, OutputType> GetState() {
+        return _state.get();
     }
 
     /**
@@ -30,7 +51,7 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @return current HAState value
      */
     public HAState GetHAStatus() {
-        return _haStatus;
+        return _state.get().GetHAStatus();
     }
 
     /**
@@ -38,9 +59,11 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param haStatus the new HAState value
      */
     public void SetHAStatus(HAState haStatus) {
-        HAState old = _haStatus;
-        _haStatus = haStatus;
-        _listener.OnHAStateChange(old, haStatus);
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withHAStatus(haStatus)));
+        _listener.OnHAStateChange(old.GetHAStatus(), haStatus);
     }
 
     /**
@@ -48,7 +71,7 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @return current SeqState value
      */
     public SeqState GetSequenceStatus() {
-        return _seqStatus;
+        return _state.get().GetSequenceStatus();
     }
 
     /**
@@ -56,17 +79,38 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param seqStatus the new SeqState value
      */
     public void SetSequenceStatus(SeqState seqStatus) {
-        SeqState old = _seqStatus;
-        _seqStatus = seqStatus;
-        _listener.OnSeqStateChange(old, seqStatus);
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withSequenceStatus(seqStatus)));
+        _listener.OnSeqStateChange(old.GetSequenceStatus(), seqStatus);
     }
 
     /**
-     * Retrieve the last received input value
-     * @return current input value
+     * Atomically changes the SeqState only if it currently has the expected value; triggers a
+     * notification to the listener if the transition was made.
+     *
+     * @param expected the SeqState the transition starts from
+     * @param seqStatus the new SeqState value
+     * @return true if the transition was made; false if the SeqState was not the expected value
      */
-    public InputType GetLastInput() {
-        return _lastInput;
+    public boolean TransitionSequenceStatus(SeqState expected, SeqState seqStatus) {
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+            if (old.GetSequenceStatus() != expected)
+                return false;
+        } while (!_state.compareAndSet(old, old.withSequenceStatus(seqStatus)));
+        _listener.OnSeqStateChange(expected, seqStatus);
+        return true;
+    }
+
+    /**
+     * Retrieve the sequence ID of the last received input
+     * @return last input sequence ID, or {@link ClusterState#NO_SEQUENCE}
+     */
+    public long GetLastInputSequence() {
+        return _state.get().GetLastInputSequence();
     }
 
     /**
@@ -77,18 +121,52 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param input the new input value
      */
     public void SetLastInput(InputType input) {
-        _lastInput = input;
-        _listener.OnApplicationMessage(_lastInput);
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withLastInput(input.getSequenceId())));
+        _listener.OnApplicationMessage(input);
+    }
+
+    /**
+     * Updates the sequence ID of the last input without notifying the listener; used for inputs
+     * skipped without being deserialized.
+     *
+     * @param inputSeq sequence ID of the skipped input
+     */
+    public void SetLastInputSequence(long inputSeq) {
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withLastInput(inputSeq)));
+    }
+
+    /**
+     * Restores the application from a local snapshot, along with the sequence IDs it reflects.
+     */
+    void restoreSnapshot(long lastInputSeq, long lastOutputSeq, ByteBuffer snapshot) {
+        _listener.RestoreSnapshot(snapshot);
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withLastInputAndOutput(lastInputSeq, lastOutputSeq)));
     }
 
     /**
-     * Retrieve the last output value generated by the application via the
-     * {@link ClusterEventListener#UpdateApplicationState(Ordered)} method.
+     * @return the application's snapshot of its complete state, or null if it does not support snapshots
+     */
+    ByteBuffer takeSnapshot() {
+        return _listener.TakeSnapshot();
+    }
+
+    /**
+     * Retrieve the sequence ID of the last output generated by the application via the
+     * {@link ClusterEventListener#UpdateApplicationState(Ordered)} method, or recovered from the LVQ.
      *
-     * @return current input value
+     * @return last output sequence ID, or {@link ClusterState#NO_SEQUENCE}
      */
-    public OutputType GetLastOutput() {
-        return _lastOutput;
+    public long GetLastOutputSequence() {
+        return _state.get().GetLastOutputSequence();
     }
 
     /**
@@ -98,10 +176,68 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param lastOutput the new SeqState value
      */
     public void SetLastOutput(OutputType lastOutput) {
-        _lastOutput = lastOutput;
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withLastOutput(lastOutput.getSequenceId())));
         _listener.OnInitialStateMessage(lastOutput);
     }
 
+    /**
+     * Retrieve the last output recovered or sent for one key, such as the output topic of one instrument
+     *
+     * @param key output key; the topic the output was published on
+     * @return last output for the key, or null if there is none
+     */
+    public OutputType GetLastOutput(String key) {
+        return _lastOutputs.get(key);
+    }
+
+    /**
+     * Retrieve the last outputs recovered or sent, by key
+     *
+     * @return read-only live view of the last output of every key
+     */
+    public Map<String, OutputType> GetLastOutputs() {
+        return Collections.unmodifiableMap(_lastOutputs);
+    }
+
+    /**
+     * Updates the last output for one key and, if it is newer, the last output sequence ID; triggers a
+     * notification to the listener with this value for recovery purposes.
+     *
+     * @param key output key; the topic the output was published on
+     * @param lastOutput the last output for the key
+     */
+    public void SetLastOutput(String key, OutputType lastOutput) {
+        _lastOutputs.put(key, lastOutput);
+        long outputSeq = lastOutput.getSequenceId();
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+            if (old.GetLastOutputSequence() >= outputSeq)
+                break;
+        } while (!_state.compareAndSet(old, old.withLastOutput(outputSeq)));
+        _listener.OnInitialStateMessage(lastOutput);
+    }
+
+    /**
+     * Records an output browsed from a last value queue as the last output for its key, unless a later
+     * output for the key is already known; does not notify the listener
+     */
+    void recoverLastOutput(String key, OutputType output) {
+        OutputType known = _lastOutputs.get(key);
+        if (known == null || known.getSequenceId() < output.getSequenceId())
+            _lastOutputs.put(key, output);
+    }
+
+    /**
+     * Records the last output sent for a key without notifying the listener
+     */
+    void recordLastOutput(String key, OutputType output) {
+        _lastOutputs.put(key, output);
+    }
+
     /**
      * This is an important variation of SetLastInput where the
      * ClusterConnector knows that the cluster instance is up-to-date,
@@ -110,23 +246,34 @@ public class ClusterModel<InputType extends Ordered, OutputType extends Ordered>
      * @param input -- the input message driving a potential application state change
      */
     public void UpdateApplicationState(InputType input) {
-        _lastOutput = _listener.UpdateApplicationState(input);
-        _lastInput = input;
+        long inputSeq = input.getSequenceId();
+        OutputType output = _listener.UpdateApplicationState(input);
+        StateHashLog hashes = _hashes;
+        if (hashes != null)
+            hashes.record(inputSeq, _listener.GetStateHash());
+        long outputSeq = (output == null) ? ClusterState.NO_SEQUENCE : output.getSequenceId();
+        ClusterState<InputType, OutputType> old;
+        do {
+            old = _state.get();
+        } while (!_state.compareAndSet(old, old.withLastInputAndOutput(inputSeq,
+                outputSeq == ClusterState.NO_SEQUENCE ? old.GetLastOutputSequence() : outputSeq)));
+    }
+
+    /**
+     * Starts recording the application's state hash after every input into the given log
+     */
+    void setStateHashes(StateHashLog hashes) {
+        _hashes = hashes;
     }
 
     @Override
     public String toString() {
-        return  "] HA = ["  + _haStatus +
-                "] SEQ = [" + _seqStatus +
-                "] IN = ["  + (_lastInput==null ? "(null)" : _lastInput.getSequenceId()) +
-                "] OUT = [" + (_lastOutput==null ? "(null)" : _lastOutput.getSequenceId()) + "]";
+        return _state.get().toString();
     }
 
-    private HAState _haStatus;
-    private SeqState _seqStatus;
-
-    private InputType _lastInput;
-    private OutputType _lastOutput;
+    private final AtomicReference<ClusterState<InputType, OutputType>> _state;
+    private final ConcurrentHashMap<String, OutputType> _lastOutputs = new ConcurrentHashMap<String, OutputType>();
 
     private final ClusterEventListener<InputType,OutputType> _listener;
+    private volatile StateHashLog _hashes;
 }
@@ -0,0 +1,94 @@
+package com.solacesystems.ha;
+
+/**
+ * <p>Immutable snapshot of a cluster member's state: its HA state, its sequence state, and the sequence
+ * IDs of the last input and output it has seen. The {@link ClusterModel} publishes a new snapshot for
+ * every change, so a snapshot read on any thread is always a consistent combination of all four values.</p>
+ * <p>Only the sequence IDs are kept, as primitives, so the model never retains application objects and
+ * sequence checks on the input path need no calls into them.</p>
+ *
+ * @param <InputType> input message type; must extend Ordered to ensure a sequence number is present
+ * @param <OutputType> output message type; must also extend Ordered to ensure a sequence number is present
+ */
+public final class ClusterState<InputType extends Ordered, OutputType extends Ordered> {
+
+    /**
+     * Sequence ID reported before any input or output has been seen
+     */
+    public static final long NO_SEQUENCE = -1;
+
+    ClusterState(HAState haStatus, SeqState seqStatus, long lastInputSeq, long lastOutputSeq) {
+        _haStatus = haStatus;
+        _seqStatus = seqStatus;
+        _lastInputSeq = lastInputSeq;
+        _lastOutputSeq = lastOutputSeq;
+    }
+
+    /**
+     * @return HA state of the member
+     */
+    public HAState GetHAStatus() {
+        return _haStatus;
+    }
+
+    /**
+     * @return sequence state of the member with respect to the input stream
+     */
+    public SeqState GetSequenceStatus() {
+        return _seqStatus;
+    }
+
+    /**
+     * @return sequence ID of the last input seen by the member, or {@link #NO_SEQUENCE}
+     */
+    public long GetLastInputSequence() {
+        return _lastInputSeq;
+    }
+
+    /**
+     * @return sequence ID of the last output produced or recovered by the member, or {@link #NO_SEQUENCE}
+     */
+    public long GetLastOutputSequence() {
+        return _lastOutputSeq;
+    }
+
+    /**
+     * @return true if the member is the up-to-date active member, responsible for all output
+     */
+    public boolean IsOutputEnabled() {
+        return _haStatus == HAState.ACTIVE && _seqStatus == SeqState.UPTODATE;
+    }
+
+    ClusterState<InputType, OutputType> withHAStatus(HAState haStatus) {
+        return new ClusterState<InputType, OutputType>(haStatus, _seqStatus, _lastInputSeq, _lastOutputSeq);
+    }
+
+    ClusterState<InputType, OutputType> withSequenceStatus(SeqState seqStatus) {
+        return new ClusterState<InputType, OutputType>(_haStatus, seqStatus, _lastInputSeq, _lastOutputSeq);
+    }
+
+    ClusterState<InputType, OutputType> withLastInput(long lastInputSeq) {
+        return new ClusterState<InputType, OutputType>(_haStatus, _seqStatus, lastInputSeq, _lastOutputSeq);
+    }
+
+    ClusterState<InputType, OutputType> withLastOutput(long lastOutputSeq) {
+        return new ClusterState<InputType, OutputType>(_haStatus, _seqStatus, _lastInputSeq, lastOutputSeq);
+    }
+
+    ClusterState<InputType, OutputType> withLastInputAndOutput(long lastInputSeq, long lastOutputSeq) {
+        return new ClusterState<InputType, OutputType>(_haStatus, _seqStatus, lastInputSeq, lastOutputSeq);
+    }
+
+    @Override
+    public String toString() {
+        return  "] HA = ["  + _haStatus +
+                "] SEQ = [" + _seqStatus +
+                "] IN = ["  + (_lastInputSeq == NO_SEQUENCE ? "(null)" : String.valueOf(_lastInputSeq)) +
+                "] OUT = [" + (_lastOutputSeq == NO_SEQUENCE ? "(null)" : String.valueOf(_lastOutputSeq)) + "]";
+    }
+
+    private final HAState _haStatus;
+    private final SeqState _seqStatus;
+    private final long _lastInputSeq;
+    private final long _lastOutputSeq;
+}
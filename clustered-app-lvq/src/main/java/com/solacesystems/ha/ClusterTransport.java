@@ -0,0 +1,143 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>The messaging operations a {@link ClusterConnector} depends upon. Decoupling these from the
+ * ClusterConnector allows the same clustering logic to run against a Solace Message Router via the
+ * {@link SolaceConnector}, or entirely in-process via the {@link InProcessTransport} for testing and
+ * benchmarking without an appliance.</p>
+ * <p>An implementation is expected to provide:
+ * <ul>
+ *     <li>A session with connectivity events</li>
+ *     <li>Exclusive queue flows with active-flow indication, delivering FLOW_ACTIVE to the first
+ *     bound flow and FLOW_INACTIVE to all others until the active flow goes away</li>
+ *     <li>A browser over a Last Value Queue to recover the last output of the cluster</li>
+ *     <li>Persistent publishing of outputs to a topic</li>
+ *     <li>Direct publishing and topic subscriptions for cluster-internal traffic</li>
+ * </ul>
+ * </p>
+ */
+public interface ClusterTransport {
+
+    /**
+     * Connect a session to the messaging platform.
+     *
+     * @param host IP or Host:port of the Solace Message Router to connect to
+     * @param vpn Solace Message-VPN to connect to
+     * @param user The username to authenticate as for the session
+     * @param password The password to authenticate with
+     * @param clientName Globally-unique connection name
+     * @param sessionEventHandler handler for session connectivity events
+     * @throws JCSMPException if the session cannot be connected
+     */
+    void ConnectSession(String host, String vpn, String user, String password, String clientName,
+                        SessionEventHandler sessionEventHandler) throws JCSMPException;
+
+    /**
+     * Bind a stopped flow to the named exclusive queue with active-flow indication enabled.
+     *
+     * @param name queue to bind to
+     * @param messageListener invoked for every message delivered once the flow is started
+     * @param flowEventHandler invoked for FLOW_ACTIVE/FLOW_INACTIVE events on the flow
+     * @return the bound flow; it must be started before messages are delivered
+     * @throws JCSMPException if the flow cannot be bound
+     */
+    FlowReceiver BindQueue(String name, XMLMessageListener messageListener, FlowEventHandler flowEventHandler) throws JCSMPException;
+
+    /**
+     * Create a browser over the named queue; browsing does not consume messages.
+     *
+     * @param queue queue to browse
+     * @return a browser over the queue
+     * @throws JCSMPException if the browser cannot be created
+     */
+    Browser BrowseQueue(String queue) throws JCSMPException;
+
+    /**
+     * Publish a persistent output message.
+     *
+     * @param topic The topic on which to send the output message
+     * @param payload serialized output message; exactly the bytes from its position to its limit are sent,
+     *                and the buffer may be a heap or direct buffer
+     * @return false if the window of unacknowledged outputs stayed full for the publish timeout
+     * @throws JCSMPException if the message cannot be sent
+     */
+    boolean SendOutput(String topic, ByteBuffer payload) throws JCSMPException;
+
+    /**
+     * <p>Publish a persistent output message without waiting for the broker to accept it. Outputs are
+     * pipelined up to a bounded window of unacknowledged messages; once the window is full the caller
+     * is held until the broker acknowledges earlier outputs or the publish timeout expires.</p>
+     * <p>The input message that produced the output, if given, is acknowledged only once the broker
+     * has accepted the output.</p>
+     *
+     * @param topic The topic on which to send the output message
+     * @param payload serialized output message; exactly the bytes from its position to its limit are sent,
+     *                and the buffer may be a heap or direct buffer
+     * @param ackOnConfirm input message to acknowledge once the output is accepted; may be null
+     * @return false if the window of unacknowledged outputs stayed full for the publish timeout
+     * @throws JCSMPException if the message cannot be sent
+     */
+    boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm) throws JCSMPException;
+
+    /**
+     * Publish a persistent text message.
+     *
+     * @param topic The topic on which to send the output text message
+     * @param payload Text payload string to send
+     * @throws JCSMPException if the message cannot be sent
+     */
+    void SendText(String topic, String payload) throws JCSMPException;
+
+    /**
+     * Publish a direct text message; direct messages are not spooled or acknowledged, and may be lost.
+     *
+     * @param topic The topic on which to send the text message
+     * @param payload Text payload string to send
+     * @throws JCSMPException if the message cannot be sent
+     */
+    void SendDirectText(String topic, String payload) throws JCSMPException;
+
+    /**
+     * Publish a direct message; direct messages are not spooled or acknowledged, and may be lost.
+     *
+     * @param topic The topic on which to send the message
+     * @param payload message body; exactly the bytes from its position to its limit are sent, and the buffer
+     *                may be reused as soon as this returns
+     * @throws JCSMPException if the message cannot be sent
+     */
+    void SendDirect(String topic, ByteBuffer payload) throws JCSMPException;
+
+    /**
+     * Subscribe the session to direct messages.
+     *
+     * @param subscription topic subscription, which may contain wildcards
+     * @param listener invoked for every direct message matching the subscription
+     * @throws JCSMPException if the subscription cannot be added
+     */
+    void SubscribeDirect(String subscription, XMLMessageListener listener) throws JCSMPException;
+
+    /**
+     * @return number of published messages not yet acknowledged by the broker
+     */
+    int GetOutputsInFlight();
+
+    /**
+     * Hand inputs passed to {@link #SendOutput(String, ByteBuffer, BytesXMLMessage)} to the given
+     * acknowledger once their output is accepted, instead of acknowledging them directly.
+     *
+     * @param acknowledger receives inputs whose outputs were accepted; null acknowledges them directly
+     */
+    void SetInputAcknowledger(InputAcknowledger acknowledger);
+
+    /**
+     * Count and time the broker's acknowledgements of published outputs into the given metrics.
+     *
+     * @param metrics receives the ACK stage and acknowledgement counters; null stops recording
+     */
+    default void SetMetrics(PipelineMetrics metrics) {
+    }
+}
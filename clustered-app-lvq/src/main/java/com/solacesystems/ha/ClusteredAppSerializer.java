@@ -24,7 +24,8 @@ public interface ClusteredAppSerializer<InputType extends Ordered, OutputType ex
     /**
      * Given an instance of InputType, serialize its contents to a byte-stream and append those bytes to a ByteBuffer
      * @param input -- The object instance to be serialized
-     * @return -- the ByteBuffer with the serialized byte-stream
+     * @return -- the ByteBuffer with the serialized byte-stream, positioned just after the last byte written and
+     *            not flipped; callers flip it before sending, so the serialized bytes run from 0 to the position
      */
     ByteBuffer SerializeInput(InputType input);
 
@@ -36,9 +37,27 @@ public interface ClusteredAppSerializer<InputType extends Ordered, OutputType ex
     OutputType DeserializeOutput(BytesXMLMessage msg);
 
     /**
-     * Given an instance of OutputType, serialize its contents to a byte-stream and append those bytes to a ByteBuffer
+     * <p>Given an instance of OutputType, serialize its contents to a byte-stream and append those bytes to a
+     * ByteBuffer.</p>
+     * <p>The buffer must be returned positioned just after the last byte written and not flipped: the
+     * ClusterConnector flips it before handing it to the transport, which sends exactly the bytes from 0 to that
+     * position. A buffer returned already flipped would be flipped again to an empty output.</p>
      * @param output -- The object instance to be serialized
-     * @return -- the ByteBuffer with the serialized byte-stream
+     * @return -- the ByteBuffer with the serialized byte-stream, positioned just after it and not flipped
      */
     ByteBuffer SerializeOutput(OutputType output);
+
+    /**
+     * <p>Read only the sequence ID of an input message, without deserializing the rest of it, e.g. from a
+     * fixed header via {@link ByteBufferSerializer#PeekSequence}, a message property or the user-data field.
+     * The ClusterConnector uses this in fast catch-up mode to skip inputs already covered by the recovered
+     * cluster state.</p>
+     * <p>The default implementation cannot peek, so every input is fully deserialized.</p>
+     *
+     * @param msg -- Solace message expected to contain a serialized InputType instance
+     * @return -- the input's sequence ID, or {@link ClusterState#NO_SEQUENCE} if it cannot be read cheaply
+     */
+    default long PeekInputSequence(BytesXMLMessage msg) {
+        return ClusterState.NO_SEQUENCE;
+    }
 }
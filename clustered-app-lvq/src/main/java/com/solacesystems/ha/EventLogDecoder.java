@@ -0,0 +1,81 @@
+package com.solacesystems.ha;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * <p>Offline decoder for the files written by {@link EventRecorder#Dump(File)}; prints one line per record,
+ * oldest first, with the wall-clock time it was recorded at:</p>
+ * <pre>
+ * 2024-01-05 10:15:02.123.456789 INPUT_PROCESSED input=42 lastOutput=41
+ * </pre>
+ * <p>Run as <code>java -cp clustered-app-lvq.jar com.solacesystems.ha.EventLogDecoder &lt;dump-file&gt;...</code></p>
+ */
+public class EventLogDecoder {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("USAGE: <EVENT-DUMP-FILE>...\n\n\n");
+            return;
+        }
+        for (String arg : args)
+            Decode(new File(arg), System.out);
+    }
+
+    /**
+     * Decode a dump file to readable text.
+     *
+     * @param file file written by {@link EventRecorder#Dump(File)}
+     * @param out stream to print one line per record to
+     * @return number of records decoded
+     * @throws IOException if the file cannot be read or is not an event dump
+     */
+    public static int Decode(File file, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != EventRecorder.MAGIC)
+                throw new IOException("Not an event dump: " + file);
+            int version = in.readInt();
+            if (version != EventRecorder.VERSION)
+                throw new IOException("Unsupported event dump version " + version + ": " + file);
+            long dumpMillis = in.readLong();
+            long dumpNanos = in.readLong();
+            int count = in.readInt();
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            EventRecorder.Event[] events = EventRecorder.Event.values();
+            StringBuilder line = new StringBuilder(128);
+            for (int r = 0; r < count; r++) {
+                long nanos = in.readLong();
+                int ordinal = in.readInt();
+                long arg1 = in.readLong();
+                long arg2 = in.readLong();
+                // Timestamps are relative to the dump, which anchors them to wall-clock time
+                long sinceEpochNanos = dumpMillis * 1000000L + (nanos - dumpNanos);
+                line.setLength(0);
+                line.append(format.format(new Date(Math.floorDiv(sinceEpochNanos, 1000000L))))
+                    .append('.').append(String.format("%06d", Math.floorMod(sinceEpochNanos, 1000000L)))
+                    .append(' ');
+                if (ordinal < 0 || ordinal >= events.length) {
+                    line.append("UNKNOWN(").append(ordinal).append(") ").append(arg1).append(' ').append(arg2);
+                }
+                else {
+                    EventRecorder.Event event = events[ordinal];
+                    line.append(event.name())
+                        .append(' ').append(event.GetArg1Name()).append('=').append(event.describe(1, arg1));
+                    if (event.GetArg2Name() != null)
+                        line.append(' ').append(event.GetArg2Name()).append('=').append(event.describe(2, arg2));
+                }
+                out.println(line);
+            }
+            return count;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.FlowEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Records per-message events of a {@link ClusterConnector} into a fixed-size binary ring, as a low-cost
+ * replacement for formatting a log line for every input and output.</p>
+ * <p>Each record is a timestamp, an {@link Event} and two numeric arguments, written straight into a
+ * pre-allocated array: recording allocates nothing, formats nothing and takes no lock, so it can stay
+ * enabled at production rates. Once the ring is full the oldest records are overwritten, so the ring
+ * always holds the most recent events. Any thread may record; a record being overwritten while it is
+ * dumped is left out of the dump.</p>
+ * <p>{@link #Dump(File)} writes the records to a file, oldest first, which {@link EventLogDecoder} turns
+ * back into readable text offline.</p>
+ */
+public class EventRecorder {
+
+    /**
+     * The recorded events, with the meaning of their two arguments
+     */
+    public enum Event {
+        /** An input was applied to application state */
+        INPUT_PROCESSED("input", "lastOutput"),
+        /** An input behind the last output was deserialized and ignored */
+        INPUT_IGNORED("input", "lastOutput"),
+        /** An input behind the recovered state was acknowledged without being deserialized */
+        INPUT_SKIPPED("input", "lastOutput"),
+        /** An output was handed to the transport */
+        OUTPUT_SENT("output", "inFlight"),
+        /** An output was dropped because the output window stayed full */
+        OUTPUT_DROPPED("output", "inFlight"),
+        /** Recovery from the LVQs started */
+        RECOVERY_STARTED("seqState", null) {
+            String describe(int arg, long value) {
+                return arg == 1 ? SeqState.values()[(int) value].name() : super.describe(arg, value);
+            }
+        },
+        /** The last output of a key was browsed from an LVQ during recovery */
+        LVQ_OUTPUT("output", "lastOutput"),
+        /** A flow event on the application queue */
+        APP_FLOW_EVENT("event", null) {
+            String describe(int arg, long value) {
+                return arg == 1 ? FlowEvent.values()[(int) value].name() : super.describe(arg, value);
+            }
+        },
+        /** A flow event on the LVQ */
+        LVQ_FLOW_EVENT("event", null) {
+            String describe(int arg, long value) {
+                return arg == 1 ? FlowEvent.values()[(int) value].name() : super.describe(arg, value);
+            }
+        };
+
+        Event(String arg1, String arg2) {
+            _arg1 = arg1;
+            _arg2 = arg2;
+        }
+
+        /**
+         * @return name of the first argument
+         */
+        public String GetArg1Name() {
+            return _arg1;
+        }
+
+        /**
+         * @return name of the second argument, or null if the event has only one
+         */
+        public String GetArg2Name() {
+            return _arg2;
+        }
+
+        /**
+         * Render an argument's recorded value.
+         *
+         * @param arg 1 or 2
+         * @param value recorded value
+         */
+        String describe(int arg, long value) {
+            return String.valueOf(value);
+        }
+
+        private final String _arg1;
+        private final String _arg2;
+    }
+
+    /** First int of every dump file */
+    static final int MAGIC = 0x45564C47;
+    static final int VERSION = 1;
+
+    // Each record is a stamp followed by the timestamp, event and two arguments; the stamp is the record's
+    // position in the stream plus one, and is cleared while the record is being written
+    private static final int STAMP = 0;
+    private static final int NANOS = 1;
+    private static final int EVENT = 2;
+    private static final int ARG1 = 3;
+    private static final int ARG2 = 4;
+    private static final int STRIDE = 5;
+
+    /**
+     * @param capacity number of records kept; rounded up to a power of two
+     */
+    public EventRecorder(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Recorder capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        _capacity = size;
+        _mask = size - 1;
+        _records = new AtomicLongArray(size * STRIDE);
+    }
+
+    /**
+     * Record an event.
+     *
+     * @param event what happened
+     * @param arg1 first argument; see the event for its meaning
+     * @param arg2 second argument, or 0 if the event has only one
+     */
+    public void Record(Event event, long arg1, long arg2) {
+        long position = _next.getAndIncrement();
+        int base = (int) (position & _mask) * STRIDE;
+        _records.lazySet(base + STAMP, 0);
+        _records.lazySet(base + NANOS, System.nanoTime());
+        _records.lazySet(base + EVENT, event.ordinal());
+        _records.lazySet(base + ARG1, arg1);
+        _records.lazySet(base + ARG2, arg2);
+        _records.lazySet(base + STAMP, position + 1);
+    }
+
+    /**
+     * @return number of records the ring keeps
+     */
+    public int GetCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return number of events recorded since creation, including those already overwritten
+     */
+    public long GetRecordedCount() {
+        return _next.get();
+    }
+
+    /**
+     * <p>Write the records currently in the ring to a file, oldest first. Recording carries on meanwhile.</p>
+     * <p>The file holds a header of the {@link #MAGIC} int, a version int, the wall-clock millis and
+     * <code>System.nanoTime()</code> at the time of the dump, to anchor record timestamps to wall-clock time,
+     * and the number of records; then each record as its timestamp in nanos, its event ordinal as an int,
+     * and both arguments.</p>
+     *
+     * @param file file to write
+     * @return number of records written
+     * @throws IOException if the file cannot be written
+     */
+    public int Dump(File file) throws IOException {
+        long millis = System.currentTimeMillis();
+        long nanos = System.nanoTime();
+        long end = _next.get();
+        long start = Math.max(0, end - _capacity);
+        long[] records = new long[(int) (end - start) * STRIDE];
+        int count = 0;
+        for (long position = start; position < end; position++) {
+            int base = (int) (position & _mask) * STRIDE;
+            int copy = count * STRIDE;
+            for (int i = 0; i < STRIDE; i++)
+                records[copy + i] = _records.get(base + i);
+            // Keep the record only if it was not rewritten while being copied
+            if (records[copy + STAMP] == position + 1 && _records.get(base + STAMP) == position + 1)
+                count++;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(millis);
+            out.writeLong(nanos);
+            out.writeInt(count);
+            for (int r = 0; r < count; r++) {
+                int base = r * STRIDE;
+                out.writeLong(records[base + NANOS]);
+                out.writeInt((int) records[base + EVENT]);
+                out.writeLong(records[base + ARG1]);
+                out.writeLong(records[base + ARG2]);
+            }
+        }
+        finally {
+            out.close();
+        }
+        return count;
+    }
+
+    private final int _capacity;
+    private final int _mask;
+    private final AtomicLongArray _records;
+    private final AtomicLong _next = new AtomicLong();
+}
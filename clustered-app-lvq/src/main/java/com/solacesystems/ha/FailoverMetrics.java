@@ -0,0 +1,213 @@
+package com.solacesystems.ha;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Failover and recovery instrumentation of one {@link ClusterConnector}.</p>
+ * <p>Every HA and sequencing transition is recorded on a timeline with its {@link System#nanoTime()}, and the
+ * stages of a takeover are measured into {@link LatencyHistogram}s:
+ * <ul>
+ *     <li>Ready: from FLOW_ACTIVE on the LVQ, i.e. detecting the member is now the leader, until outputs
+ *     are enabled, i.e. the member is ACTIVE and UPTODATE</li>
+ *     <li>Takeover: from FLOW_ACTIVE on the LVQ until the first output is published</li>
+ *     <li>Recovery: from FLOW_ACTIVE on the application queue, through browsing the LVQ for the last output,
+ *     until the application queue flow is started</li>
+ *     <li>Input latency, if enabled with {@link ClusterConnector#SetInputLatencyTracking(boolean)}: the time
+ *     taken to process each input, from deserializing it to the application producing its outputs</li>
+ * </ul>
+ * </p>
+ * <p>The metrics can be pulled directly or registered as a JMX MBean with {@link #RegisterMBean(String)}.</p>
+ */
+public class FailoverMetrics implements FailoverMetricsMBean {
+    /** Number of transitions kept on the timeline */
+    public static final int TIMELINE_SIZE = 64;
+
+    /**
+     * One entry on the timeline
+     */
+    public static final class Transition {
+        Transition(String name, long nanoTime, HAState haStatus, SeqState seqStatus) {
+            _name = name;
+            _nanoTime = nanoTime;
+            _haStatus = haStatus;
+            _seqStatus = seqStatus;
+        }
+
+        /** @return name of the transition, e.g. LVQ_FLOW_ACTIVE */
+        public String GetName() { return _name; }
+        /** @return {@link System#nanoTime()} of the transition */
+        public long GetNanoTime() { return _nanoTime; }
+        /** @return HA state after the transition */
+        public HAState GetHAStatus() { return _haStatus; }
+        /** @return sequencing state after the transition */
+        public SeqState GetSequenceStatus() { return _seqStatus; }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s %s/%s", _nanoTime, _name, _haStatus, _seqStatus);
+        }
+
+        private final String _name;
+        private final long _nanoTime;
+        private final HAState _haStatus;
+        private final SeqState _seqStatus;
+    }
+
+    FailoverMetrics(ClusterModel<?, ?> model) {
+        _model = model;
+    }
+
+    /** @return distribution of the time from FLOW_ACTIVE on the LVQ until the first output */
+    public LatencyHistogram GetTakeoverHistogram() { return _takeover; }
+    /** @return distribution of the time from FLOW_ACTIVE on the LVQ until outputs are enabled */
+    public LatencyHistogram GetReadyHistogram() { return _ready; }
+    /** @return distribution of the time from FLOW_ACTIVE on the application queue until its flow is started */
+    public LatencyHistogram GetRecoveryHistogram() { return _recovery; }
+    /** @return distribution of the time taken to process each input */
+    public LatencyHistogram GetInputLatencyHistogram() { return _inputLatency; }
+
+    /**
+     * @return the most recent transitions, oldest first
+     */
+    public synchronized List<Transition> GetTimeline() {
+        List<Transition> timeline = new ArrayList<Transition>(TIMELINE_SIZE);
+        long first = Math.max(0, _transitions - TIMELINE_SIZE);
+        for (long i = first; i < _transitions; i++)
+            timeline.add(_timeline[(int) (i % TIMELINE_SIZE)]);
+        return timeline;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server.
+     *
+     * @param objectName JMX object name, e.g. "com.solacesystems.ha:type=FailoverMetrics,name=app1_inst1"
+     * @throws JMException if the MBean cannot be registered
+     */
+    public void RegisterMBean(String objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          FailoverMetricsMBean                       /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    public String getHAStatus() { return _model.GetHAStatus().toString(); }
+    public String getSequenceStatus() { return _model.GetSequenceStatus().toString(); }
+
+    public long getTakeoverCount() { return _takeover.GetCount(); }
+    public long getLastTakeoverNanos() { return _lastTakeover; }
+    public long getTakeoverP50Nanos() { return _takeover.GetValueAtPercentile(50); }
+    public long getTakeoverP99Nanos() { return _takeover.GetValueAtPercentile(99); }
+    public long getTakeoverMaxNanos() { return _takeover.GetMax(); }
+
+    public long getReadyP50Nanos() { return _ready.GetValueAtPercentile(50); }
+    public long getReadyP99Nanos() { return _ready.GetValueAtPercentile(99); }
+    public long getReadyMaxNanos() { return _ready.GetMax(); }
+
+    public long getRecoveryCount() { return _recovery.GetCount(); }
+    public long getRecoveryP99Nanos() { return _recovery.GetValueAtPercentile(99); }
+    public long getRecoveryMaxNanos() { return _recovery.GetMax(); }
+
+    public long getInputCount() { return _inputLatency.GetCount(); }
+    public long getInputLatencyP50Nanos() { return _inputLatency.GetValueAtPercentile(50); }
+    public long getInputLatencyP99Nanos() { return _inputLatency.GetValueAtPercentile(99); }
+    public long getInputLatencyP999Nanos() { return _inputLatency.GetValueAtPercentile(99.9); }
+    public long getInputLatencyMaxNanos() { return _inputLatency.GetMax(); }
+
+    public String[] getTimeline() {
+        List<Transition> timeline = GetTimeline();
+        String[] entries = new String[timeline.size()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = timeline.get(i).toString();
+        return entries;
+    }
+
+    public void reset() {
+        _takeover.Reset();
+        _ready.Reset();
+        _recovery.Reset();
+        _inputLatency.Reset();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Recording                                  /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    void lvqActive() {
+        long now = record("LVQ_FLOW_ACTIVE");
+        _detected = now;
+        _awaitingReady = true;
+        _awaitingFirstOutput = true;
+        checkReady(now);
+    }
+
+    void lvqInactive() {
+        _awaitingReady = false;
+        _awaitingFirstOutput = false;
+        record("LVQ_FLOW_INACTIVE");
+    }
+
+    void appFlowActive() {
+        _recoveryStarted = record("APP_FLOW_ACTIVE");
+    }
+
+    void appFlowStarted() {
+        _recovery.Record(record("APP_FLOW_STARTED") - _recoveryStarted);
+    }
+
+    void appFlowInactive() {
+        record("APP_FLOW_INACTIVE");
+    }
+
+    void upToDate() {
+        checkReady(record("UPTODATE"));
+    }
+
+    /**
+     * Called for every output sent; only the first after becoming ACTIVE is recorded
+     */
+    void outputSent() {
+        if (!_awaitingFirstOutput)
+            return;
+        _awaitingFirstOutput = false;
+        long now = record("FIRST_OUTPUT");
+        _lastTakeover = now - _detected;
+        _takeover.Record(_lastTakeover);
+    }
+
+    void inputProcessed(long nanos) {
+        _inputLatency.Record(nanos);
+    }
+
+    synchronized long record(String name) {
+        long now = System.nanoTime();
+        ClusterState<?, ?> state = _model.GetState();
+        _timeline[(int) (_transitions++ % TIMELINE_SIZE)] =
+            new Transition(name, now, state.GetHAStatus(), state.GetSequenceStatus());
+        return now;
+    }
+
+    private void checkReady(long now) {
+        if (_awaitingReady && _model.GetState().IsOutputEnabled()) {
+            _awaitingReady = false;
+            _ready.Record(now - _detected);
+        }
+    }
+
+    private final ClusterModel<?, ?> _model;
+    private final LatencyHistogram _takeover = new LatencyHistogram();
+    private final LatencyHistogram _ready = new LatencyHistogram();
+    private final LatencyHistogram _recovery = new LatencyHistogram();
+    private final LatencyHistogram _inputLatency = new LatencyHistogram();
+    private final Transition[] _timeline = new Transition[TIMELINE_SIZE];
+    private long _transitions;
+    private volatile long _detected;
+    private volatile long _recoveryStarted;
+    private volatile long _lastTakeover;
+    private volatile boolean _awaitingReady;
+    private volatile boolean _awaitingFirstOutput;
+}
@@ -0,0 +1,33 @@
+package com.solacesystems.ha;
+
+/**
+ * JMX view of a member's {@link FailoverMetrics}; all latencies are in nanoseconds.
+ */
+public interface FailoverMetricsMBean {
+    String getHAStatus();
+    String getSequenceStatus();
+
+    long getTakeoverCount();
+    long getLastTakeoverNanos();
+    long getTakeoverP50Nanos();
+    long getTakeoverP99Nanos();
+    long getTakeoverMaxNanos();
+
+    long getReadyP50Nanos();
+    long getReadyP99Nanos();
+    long getReadyMaxNanos();
+
+    long getRecoveryCount();
+    long getRecoveryP99Nanos();
+    long getRecoveryMaxNanos();
+
+    long getInputCount();
+    long getInputLatencyP50Nanos();
+    long getInputLatencyP99Nanos();
+    long getInputLatencyP999Nanos();
+    long getInputLatencyMaxNanos();
+
+    String[] getTimeline();
+
+    void reset();
+}
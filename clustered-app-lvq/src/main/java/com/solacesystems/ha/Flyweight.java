@@ -0,0 +1,189 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Base class of reusable views over a serialized message, so a {@link ClusteredAppSerializer} can hand the
+ * application the same input object for every message instead of allocating and populating a new one.</p>
+ * <p>A flyweight is positioned over a message with {@link #WrapMessage(BytesXMLMessage)}, which copies the
+ * attachment into a buffer the flyweight owns and grows only for a larger message than any before, or over
+ * an existing buffer with {@link #Wrap(ByteBuffer, int, int)}, which copies nothing. Only the sequence header
+ * is read when wrapping; every field is read from the buffer when its accessor is called, so fields the
+ * application never looks at cost nothing.</p>
+ * <p>The layout is the one written by {@link ByteBufferSerializer}: a sequence header, fixed-size fields at
+ * fixed offsets, then length-prefixed variable-size fields, all little-endian. Subclasses are normally
+ * generated from a schema of the fields by {@link FlyweightGenerator}.</p>
+ * <p>A flyweight is only valid until it is wrapped over the next message, so the application must copy out
+ * anything it keeps beyond {@link ClusterEventListener#UpdateApplicationState(Ordered)}.</p>
+ */
+public abstract class Flyweight implements Ordered {
+
+    protected Flyweight() {
+        _owned = ByteBuffer.allocate(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Position this flyweight over the attachment of a message, copying it into the flyweight's own buffer.
+     *
+     * @param msg message whose attachment starts with a sequence header
+     * @return this flyweight
+     * @throws IllegalArgumentException if the attachment does not start with a sequence header
+     */
+    public Flyweight WrapMessage(BytesXMLMessage msg) {
+        int length = msg.getAttachmentContentLength();
+        if (_owned.capacity() < length)
+            _owned = ByteBuffer.allocate(Math.max(length, 2 * _owned.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        msg.readAttachmentBytes(0, _owned.array(), _owned.arrayOffset(), length);
+        return Wrap(_owned, 0, length);
+    }
+
+    /**
+     * Position this flyweight over a serialized message in an existing heap or direct buffer without copying
+     * it; the buffer's byte order is set to little-endian, and its position and limit are left alone.
+     *
+     * @param buffer buffer holding the message
+     * @param offset absolute offset of the sequence header in the buffer
+     * @param length length of the message
+     * @return this flyweight
+     * @throws IllegalArgumentException if the message does not start with a sequence header
+     */
+    public Flyweight Wrap(ByteBuffer buffer, int offset, int length) {
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN)
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int lead = buffer.getInt(offset);
+        int header = 4;
+        if (lead < 0) {
+            if ((lead & 0xFFFF0000) != ByteBufferSerializer.SEQUENCE_HEADER_MARKER)
+                throw new IllegalArgumentException(String.format("Not a sequence header: 0x%08X", lead));
+            if ((lead & 0xFFFF) > ByteBufferSerializer.SEQUENCE_HEADER_VERSION)
+                throw new IllegalArgumentException("Unsupported sequence header version " + (lead & 0xFFFF));
+            header = ByteBufferSerializer.SEQUENCE_HEADER_SIZE;
+        }
+        _buffer = buffer;
+        _offset = offset;
+        _length = length;
+        _body = offset + header;
+        return this;
+    }
+
+    /**
+     * @return sequence ID from the message's sequence header, or its legacy 32-bit sequence ID
+     */
+    public long getSequenceId() {
+        int lead = _buffer.getInt(_offset);
+        return lead >= 0 ? lead : _buffer.getLong(_offset + 4);
+    }
+
+    /**
+     * @return length of the wrapped message in bytes
+     */
+    public int GetLength() {
+        return _length;
+    }
+
+    /**
+     * Copy the wrapped message as-is into another buffer, e.g. to re-serialize an input.
+     *
+     * @param dest buffer to put the message into at its position
+     * @return the destination buffer
+     */
+    public ByteBuffer CopyTo(ByteBuffer dest) {
+        if (_buffer.hasArray()) {
+            dest.put(_buffer.array(), _buffer.arrayOffset() + _offset, _length);
+        }
+        else {
+            for (int i = 0; i < _length; i++)
+                dest.put(_buffer.get(_offset + i));
+        }
+        return dest;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Field access for subclasses                /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param field offset of the field from the end of the sequence header
+     */
+    protected final boolean getBool(int field) {
+        return _buffer.get(_body + field) == 1;
+    }
+
+    protected final byte getByte(int field) {
+        return _buffer.get(_body + field);
+    }
+
+    protected final int getInt(int field) {
+        return _buffer.getInt(_body + field);
+    }
+
+    protected final long getLong(int field) {
+        return _buffer.getLong(_body + field);
+    }
+
+    protected final double getDouble(int field) {
+        return _buffer.getDouble(_body + field);
+    }
+
+    /**
+     * Find a variable-size field by walking the length prefixes of those before it.
+     *
+     * @param fixedSize total size of the fixed-size fields, which precede all variable-size ones
+     * @param index index of the variable-size field
+     * @return absolute offset of the field's length prefix
+     */
+    protected final int varOffset(int fixedSize, int index) {
+        int offset = _body + fixedSize;
+        for (int i = 0; i < index; i++)
+            offset += 4 + Math.max(0, _buffer.getInt(offset));
+        return offset;
+    }
+
+    /**
+     * @param var absolute offset of a length-prefixed field, from {@link #varOffset(int, int)}
+     * @return length of the field in bytes, which is 0 for a symbol sent as its id
+     */
+    protected final int getVarLength(int var) {
+        return Math.max(0, _buffer.getInt(var));
+    }
+
+    /**
+     * Decode a UTF-8 string field into a new String; an empty field reads as null, as it does with
+     * {@link ByteBufferSerializer#DeserializeString(ByteBuffer)}.
+     */
+    protected final String getString(int var) {
+        int length = _buffer.getInt(var);
+        if (length == 0)
+            return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = _buffer.get(var + 4 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Look a string field up in a symbol table, which only allocates the first time a symbol is seen;
+     * an empty field reads as null. The field may also hold the symbol's id, as written by
+     * {@link ByteBufferSerializer#SerializeSymbol}.
+     */
+    protected final String getSymbol(SymbolTable symbols, int var) {
+        int length = _buffer.getInt(var);
+        if (length < 0)
+            return symbols.WireSymbol(-1 - length);
+        if (length == 0)
+            return null;
+        return symbols.Lookup(_buffer, var + 4, length);
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private ByteBuffer _owned;
+    private ByteBuffer _buffer;
+    private int _offset;
+    private int _length;
+    private int _body;
+}
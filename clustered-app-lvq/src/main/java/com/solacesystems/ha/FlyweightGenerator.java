@@ -0,0 +1,254 @@
+package com.solacesystems.ha;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Generates the source of a {@link Flyweight} subclass from a schema describing the layout of a message
+ * after its sequence header. A schema names the class to generate, then lists one field per line in wire
+ * order as its type and name; blank lines and lines starting with <code>#</code> are ignored:</p>
+ * <pre>
+ * flyweight com.solacesystems.demo.ClientOrderFlyweight
+ * bool   buy
+ * double quantity
+ * double price
+ * symbol instrument
+ * </pre>
+ * <p>The fixed-size types are <code>bool</code>, <code>byte</code>, <code>int</code>, <code>long</code> and
+ * <code>double</code>; the variable-size types are <code>string</code>, decoded into a new String on every
+ * access, and <code>symbol</code>, decoded through a {@link SymbolTable} passed to the flyweight's constructor.
+ * Variable-size fields are written with a length prefix by {@link ByteBufferSerializer#SerializeString}, and
+ * must follow all the fixed-size ones.</p>
+ * <p>Each field gets a getter named as a bean property, <code>isBuy()</code> for a bool and
+ * <code>getPrice()</code> otherwise, so a flyweight can stand in for the class the message was serialized
+ * from. Run as <code>java -cp clustered-app-lvq.jar com.solacesystems.ha.FlyweightGenerator
+ * &lt;schema-file&gt; &lt;source-root&gt;</code> to write the class into its package under the source root.</p>
+ */
+public class FlyweightGenerator {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("USAGE: <SCHEMA-FILE> <SOURCE-ROOT>\n\n\n");
+            return;
+        }
+        File schema = new File(args[0]);
+        File source = Write(schema, new File(args[1]));
+        System.out.println("Generated " + source + " from " + schema);
+    }
+
+    /**
+     * Generate a flyweight from a schema file into its package under a source root.
+     *
+     * @param schema schema file
+     * @param sourceRoot root directory of the source tree
+     * @return the generated source file
+     * @throws IOException if the schema cannot be read or the source cannot be written
+     */
+    public static File Write(File schema, File sourceRoot) throws IOException {
+        Schema parsed;
+        Reader in = new InputStreamReader(new FileInputStream(schema), StandardCharsets.UTF_8);
+        try {
+            parsed = parse(schema.getName(), in);
+        }
+        finally {
+            in.close();
+        }
+        int dot = parsed.className.lastIndexOf('.');
+        File dir = dot < 0 ? sourceRoot
+                : new File(sourceRoot, parsed.className.substring(0, dot).replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+        File file = new File(dir, parsed.className.substring(dot + 1) + ".java");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            out.write(generate(parsed));
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Generate the source of a flyweight from a schema.
+     *
+     * @param schemaName name of the schema, recorded in the generated source
+     * @param schema schema text
+     * @return Java source of the flyweight
+     * @throws IOException if the schema cannot be read
+     * @throws IllegalArgumentException if the schema is invalid
+     */
+    public static String Generate(String schemaName, Reader schema) throws IOException {
+        return generate(parse(schemaName, schema));
+    }
+
+    private static Schema parse(String schemaName, Reader schema) throws IOException {
+        String qualifiedName = null;
+        List<Field> fields = new ArrayList<Field>();
+        BufferedReader reader = new BufferedReader(schema);
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] words = line.split("\\s+");
+            if (words.length != 2)
+                throw new IllegalArgumentException(schemaName + ":" + lineNo + ": expected '<type> <name>': " + line);
+            if (words[0].equals("flyweight")) {
+                qualifiedName = words[1];
+                continue;
+            }
+            if (qualifiedName == null)
+                throw new IllegalArgumentException(schemaName + ":" + lineNo + ": fields must follow the flyweight line");
+            Type type = Type.of(words[0]);
+            if (type == null)
+                throw new IllegalArgumentException(schemaName + ":" + lineNo + ": unknown type " + words[0]);
+            if (!Character.isJavaIdentifierStart(words[1].charAt(0)))
+                throw new IllegalArgumentException(schemaName + ":" + lineNo + ": invalid field name " + words[1]);
+            if (type.size > 0 && !fields.isEmpty() && fields.get(fields.size() - 1).type.size == 0)
+                throw new IllegalArgumentException(schemaName + ":" + lineNo + ": fixed-size field " + words[1]
+                        + " follows a variable-size field");
+            fields.add(new Field(type, words[1]));
+        }
+        if (qualifiedName == null)
+            throw new IllegalArgumentException(schemaName + ": no flyweight line");
+        return new Schema(schemaName, qualifiedName, fields);
+    }
+
+    private static String generate(Schema schema) {
+        String schemaName = schema.name;
+        String qualifiedName = schema.className;
+        List<Field> fields = schema.fields;
+        int dot = qualifiedName.lastIndexOf('.');
+        String pkg = dot < 0 ? "" : qualifiedName.substring(0, dot);
+        String className = qualifiedName.substring(dot + 1);
+        boolean symbols = false;
+        int fixedSize = 0;
+        for (Field field : fields) {
+            symbols |= field.type == Type.SYMBOL;
+            fixedSize += field.type.size;
+        }
+
+        StringBuilder src = new StringBuilder();
+        src.append("// Generated by com.solacesystems.ha.FlyweightGenerator from ").append(schemaName).append("; do not edit.\n");
+        if (!pkg.isEmpty())
+            src.append("package ").append(pkg).append(";\n\n");
+        src.append("import com.solacesystems.ha.Flyweight;\n");
+        if (symbols)
+            src.append("import com.solacesystems.ha.SymbolTable;\n");
+        src.append("\n/**\n * <p>Flyweight over a message laid out as a sequence header followed by:</p>\n * <ul>\n");
+        for (Field field : fields)
+            src.append(" *     <li><code>").append(field.type.name).append(' ').append(field.name).append("</code></li>\n");
+        src.append(" * </ul>\n */\n");
+        src.append("public final class ").append(className).append(" extends Flyweight {\n");
+        src.append("    /** Total size of the fixed-size fields */\n");
+        src.append("    public static final int FIXED_SIZE = ").append(fixedSize).append(";\n\n");
+        if (symbols) {
+            src.append("    /**\n     * @param symbols table the symbol fields are decoded through\n     */\n");
+            src.append("    public ").append(className).append("(SymbolTable symbols) {\n");
+            src.append("        _symbols = symbols;\n    }\n");
+        }
+        else {
+            src.append("    public ").append(className).append("() {\n    }\n");
+        }
+
+        int offset = 0;
+        int varIndex = 0;
+        for (Field field : fields) {
+            String property = Character.toUpperCase(field.name.charAt(0)) + field.name.substring(1);
+            src.append('\n');
+            if (field.type.size > 0) {
+                String prefix = field.type == Type.BOOL ? "is" : "get";
+                src.append("    public ").append(field.type.javaType).append(' ').append(prefix).append(property)
+                   .append("() {\n        return ").append(field.type.accessor).append('(').append(offset).append(");\n    }\n");
+                offset += field.type.size;
+            }
+            else {
+                src.append("    public String get").append(property).append("() {\n");
+                if (field.type == Type.SYMBOL)
+                    src.append("        return getSymbol(_symbols, varOffset(FIXED_SIZE, ").append(varIndex).append("));\n    }\n");
+                else
+                    src.append("        return getString(varOffset(FIXED_SIZE, ").append(varIndex).append("));\n    }\n");
+                src.append("\n    /**\n     * @return length of the ").append(field.name)
+                   .append(" field in bytes, without decoding it\n     */\n");
+                src.append("    public int get").append(property).append("Length() {\n");
+                src.append("        return getVarLength(varOffset(FIXED_SIZE, ").append(varIndex).append("));\n    }\n");
+                varIndex++;
+            }
+        }
+
+        src.append("\n    @Override\n    public String toString() {\n");
+        src.append("        return \"").append(className).append("{\" +\n");
+        src.append("                \"seqId=\" + getSequenceId() +\n");
+        for (Field field : fields) {
+            String property = Character.toUpperCase(field.name.charAt(0)) + field.name.substring(1);
+            String getter = (field.type == Type.BOOL ? "is" : "get") + property + "()";
+            src.append("                \", ").append(field.name).append("=\" + ").append(getter).append(" +\n");
+        }
+        src.append("                '}';\n    }\n");
+        if (symbols)
+            src.append("\n    private final SymbolTable _symbols;\n");
+        src.append("}\n");
+        return src.toString();
+    }
+
+    private enum Type {
+        BOOL("bool", 1, "boolean", "getBool"),
+        BYTE("byte", 1, "byte", "getByte"),
+        INT("int", 4, "int", "getInt"),
+        LONG("long", 8, "long", "getLong"),
+        DOUBLE("double", 8, "double", "getDouble"),
+        STRING("string", 0, "String", null),
+        SYMBOL("symbol", 0, "String", null);
+
+        Type(String name, int size, String javaType, String accessor) {
+            this.name = name;
+            this.size = size;
+            this.javaType = javaType;
+            this.accessor = accessor;
+        }
+
+        static Type of(String name) {
+            for (Type type : values())
+                if (type.name.equals(name))
+                    return type;
+            return null;
+        }
+
+        final String name;
+        final int size;
+        final String javaType;
+        final String accessor;
+    }
+
+    private static class Schema {
+        Schema(String name, String className, List<Field> fields) {
+            this.name = name;
+            this.className = className;
+            this.fields = fields;
+        }
+        final String name;
+        final String className;
+        final List<Field> fields;
+    }
+
+    private static class Field {
+        Field(Type type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+        final Type type;
+        final String name;
+    }
+}
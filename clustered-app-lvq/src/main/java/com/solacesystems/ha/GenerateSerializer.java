@@ -0,0 +1,35 @@
+package com.solacesystems.ha;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Generates a {@link ClusteredAppSerializer} implementation at compile time. Annotate an interface that
+ * extends <code>ClusteredAppSerializer&lt;InputType, OutputType&gt;</code>; the annotation processor in
+ * <code>clustered-app-lvq-codegen</code> then generates a class of the given name in the same package
+ * implementing it, and a codec class next to each of the input and output types.</p>
+ * <pre>
+ * &#64;GenerateSerializer("GeneratedSampleSerializer")
+ * public interface SampleMessages extends ClusteredAppSerializer&lt;ClientOrder, AppState&gt; {}
+ * </pre>
+ * <p>Each message is written as a sequence header holding its {@link SequenceId} field, then its
+ * {@link SerializedField} fields in declaration order, exactly as {@link ByteBufferSerializer} writes them.
+ * The generated code computes the exact size of every message before encoding it, and reads and writes the
+ * fields directly without reflection, so the fields must not be private or final and the types need a
+ * non-private no-argument constructor.</p>
+ * <p>String fields marked as symbols are decoded through {@link SymbolTable}s, so a symbol seen before is
+ * decoded without allocating. The generated serializer then also has a constructor taking a sealed
+ * dictionary, whose symbols it sends as their ids instead of their bytes.</p>
+ * <p>The processor is picked up by the compiler from the classpath, so adding
+ * <code>clustered-app-lvq-codegen</code> as a <code>provided</code> dependency is enough.</p>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateSerializer {
+    /**
+     * @return simple name of the generated serializer class
+     */
+    String value();
+}
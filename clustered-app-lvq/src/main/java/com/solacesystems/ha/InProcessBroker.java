@@ -0,0 +1,273 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.FlowEvent;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * <p>An in-memory stand-in for the subset of the Solace Message Router used by the {@link ClusterConnector}:
+ * topic-subscribed exclusive queues with active-flow indication, Last Value Queues and queue browsing.</p>
+ * <p>Each {@link InProcessTransport} connected to the broker acts as a client session. Queues must be
+ * provisioned up front, just as they would be on an appliance:
+ * <pre>
+ *     InProcessBroker broker = new InProcessBroker();
+ *     broker.ProvisionQueue("app1_inst1", "order/app1/&gt;");
+ *     broker.ProvisionQueue("app1_inst2", "order/app1/&gt;");
+ *     broker.ProvisionLastValueQueue("app1_lvq", "trade/app1/&gt;");
+ * </pre>
+ * </p>
+ * <p>The emulated semantics are:
+ * <ul>
+ *     <li>Published messages are spooled to every queue with a matching subscription; subscriptions
+ *     support the Solace '*' (single level, optionally as a prefix) and trailing '&gt;' wildcards</li>
+ *     <li>The first flow bound to a queue is the active flow and receives FLOW_ACTIVE; flows bound
+ *     afterwards receive FLOW_INACTIVE until every flow bound before them has gone away</li>
+ *     <li>Messages are delivered only to the active flow once it is started, and stay spooled until
+ *     they are acknowledged; unacknowledged messages are redelivered to the next active flow</li>
+ *     <li>A Last Value Queue only ever holds the most recent message published to it</li>
+ *     <li>Direct messages go straight to the sessions subscribed to their topic and are never spooled</li>
+ * </ul>
+ * </p>
+ */
+public class InProcessBroker {
+    final static Logger log = Logger.getLogger(InProcessBroker.class);
+
+    /**
+     * Provision an exclusive queue subscribed to the given topics.
+     *
+     * @param name queue name
+     * @param subscriptions topic subscriptions mapped onto the queue
+     */
+    public synchronized void ProvisionQueue(String name, String... subscriptions) {
+        provision(name, false, subscriptions);
+    }
+
+    /**
+     * Provision an exclusive Last Value Queue subscribed to the given topics.
+     *
+     * @param name queue name
+     * @param subscriptions topic subscriptions mapped onto the queue
+     */
+    public synchronized void ProvisionLastValueQueue(String name, String... subscriptions) {
+        provision(name, true, subscriptions);
+    }
+
+    /**
+     * Retrieve the number of messages spooled on a queue, including delivered but unacknowledged messages.
+     *
+     * @param name queue name
+     * @return number of spooled messages, or -1 if the queue does not exist
+     */
+    public synchronized int GetQueueDepth(String name) {
+        EndpointQueue queue = _queues.get(name);
+        return (queue == null) ? -1 : queue.messages.size();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Transport operations                       /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Spool a message to every matching queue; the broker takes ownership of the data array.
+     */
+    synchronized void publish(String topic, byte[] data) {
+        List<EndpointQueue> matches = _routes.get(topic);
+        if (matches == null) {
+            matches = new ArrayList<EndpointQueue>();
+            for (EndpointQueue queue : _queues.values())
+                if (queue.matches(topic))
+                    matches.add(queue);
+            _routes.put(topic, matches);
+        }
+        for (EndpointQueue queue : matches) {
+            if (queue.lastValue)
+                queue.messages.clear();
+            Entry entry = new Entry(++_nextId, topic, data);
+            queue.messages.put(entry.id, entry);
+            deliverPending(queue);
+        }
+    }
+
+    /**
+     * Deliver a direct message to every matching subscriber; direct messages are never spooled.
+     */
+    void publishDirect(String topic, byte[] data) {
+        List<DirectSubscriber> matches = new ArrayList<DirectSubscriber>();
+        synchronized (this) {
+            for (DirectSubscriber subscriber : _directSubscribers)
+                if (topicMatches(subscriber.subscription, topic))
+                    matches.add(subscriber);
+        }
+        Entry entry = new Entry(0, topic, data);
+        for (DirectSubscriber subscriber : matches)
+            subscriber.deliver(entry);
+    }
+
+    synchronized void subscribeDirect(InProcessTransport session, String subscription, XMLMessageListener listener) {
+        _directSubscribers.add(new DirectSubscriber(session, subscription, listener));
+    }
+
+    synchronized void unsubscribeDirect(InProcessTransport session) {
+        Iterator<DirectSubscriber> it = _directSubscribers.iterator();
+        while (it.hasNext())
+            if (it.next().session == session)
+                it.remove();
+    }
+
+    synchronized void bind(InProcessFlow flow) throws JCSMPException {
+        EndpointQueue queue = getQueue(flow.queueName());
+        queue.flows.add(flow);
+        flow.dispatchFlowEvent(queue.flows.size() == 1 ? FlowEvent.FLOW_ACTIVE : FlowEvent.FLOW_INACTIVE);
+    }
+
+    synchronized void unbind(InProcessFlow flow) {
+        EndpointQueue queue = _queues.get(flow.queueName());
+        if (queue == null) return;
+        boolean wasActive = !queue.flows.isEmpty() && queue.flows.get(0) == flow;
+        if (!queue.flows.remove(flow) || !wasActive) return;
+        // Anything delivered to the departing active flow and not yet acknowledged
+        // goes back on the queue for the next active flow
+        for (Entry entry : queue.messages.values()) {
+            if (entry.delivered) {
+                entry.delivered = false;
+                entry.redelivered = true;
+            }
+        }
+        if (!queue.flows.isEmpty()) {
+            InProcessFlow next = queue.flows.get(0);
+            if (log.isDebugEnabled())
+                log.debug(String.format("InProcessBroker::unbind handing queue %s over to %s", queue.name, next));
+            next.dispatchFlowEvent(FlowEvent.FLOW_ACTIVE);
+            deliverPending(queue);
+        }
+    }
+
+    synchronized void started(InProcessFlow flow) {
+        EndpointQueue queue = _queues.get(flow.queueName());
+        if (queue != null)
+            deliverPending(queue);
+    }
+
+    synchronized void ack(String queueName, long id) {
+        EndpointQueue queue = _queues.get(queueName);
+        if (queue != null)
+            queue.messages.remove(id);
+    }
+
+    synchronized Entry browseNext(String queueName, long afterId) throws JCSMPException {
+        for (Entry entry : getQueue(queueName).messages.values())
+            if (entry.id > afterId)
+                return entry;
+        return null;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Internals                                  /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    private void provision(String name, boolean lastValue, String[] subscriptions) {
+        _queues.put(name, new EndpointQueue(name, lastValue, subscriptions));
+        _routes.clear();
+    }
+
+    private EndpointQueue getQueue(String name) throws JCSMPException {
+        EndpointQueue queue = _queues.get(name);
+        if (queue == null)
+            throw new JCSMPException("Unknown queue " + name);
+        return queue;
+    }
+
+    private void deliverPending(EndpointQueue queue) {
+        if (queue.flows.isEmpty()) return;
+        InProcessFlow active = queue.flows.get(0);
+        if (!active.isStarted()) return;
+        for (Entry entry : queue.messages.values()) {
+            if (!entry.delivered) {
+                entry.delivered = true;
+                active.dispatchMessage(entry);
+            }
+        }
+    }
+
+    /**
+     * Matches a topic against a Solace subscription; '*' matches the remainder of a single
+     * level and a trailing '&gt;' matches one or more remaining levels.
+     */
+    static boolean topicMatches(String subscription, String topic) {
+        String[] subLevels = subscription.split("/");
+        String[] topicLevels = topic.split("/");
+        for (int i = 0; i < subLevels.length; i++) {
+            String level = subLevels[i];
+            if (level.equals(">") && i == subLevels.length - 1)
+                return topicLevels.length > i;
+            if (i >= topicLevels.length)
+                return false;
+            if (level.endsWith("*")) {
+                if (!topicLevels[i].startsWith(level.substring(0, level.length() - 1)))
+                    return false;
+            }
+            else if (!level.equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return subLevels.length == topicLevels.length;
+    }
+
+    static class Entry {
+        Entry(long id, String topic, byte[] data) {
+            this.id = id;
+            this.topic = topic;
+            this.data = data;
+        }
+        final long id;
+        final String topic;
+        final byte[] data;
+        boolean delivered;
+        boolean redelivered;
+    }
+
+    private static class DirectSubscriber {
+        DirectSubscriber(InProcessTransport session, String subscription, XMLMessageListener listener) {
+            this.session = session;
+            this.subscription = subscription;
+            this.listener = listener;
+        }
+        void deliver(final Entry entry) {
+            session.dispatch(new Runnable() {
+                public void run() {
+                    listener.onReceive(session.toMessage(entry, null));
+                }
+            });
+        }
+        final InProcessTransport session;
+        final String subscription;
+        final XMLMessageListener listener;
+    }
+
+    private static class EndpointQueue {
+        EndpointQueue(String name, boolean lastValue, String[] subscriptions) {
+            this.name = name;
+            this.lastValue = lastValue;
+            this.subscriptions = subscriptions;
+        }
+        boolean matches(String topic) {
+            for (String subscription : subscriptions)
+                if (topicMatches(subscription, topic))
+                    return true;
+            return false;
+        }
+        final String name;
+        final boolean lastValue;
+        final String[] subscriptions;
+        final LinkedHashMap<Long, Entry> messages = new LinkedHashMap<Long, Entry>();
+        final List<InProcessFlow> flows = new ArrayList<InProcessFlow>();
+    }
+
+    private final Map<String, EndpointQueue> _queues = new HashMap<String, EndpointQueue>();
+    private final Map<String, List<EndpointQueue>> _routes = new HashMap<String, List<EndpointQueue>>();
+    private final List<DirectSubscriber> _directSubscribers = new ArrayList<DirectSubscriber>();
+    private long _nextId;
+}
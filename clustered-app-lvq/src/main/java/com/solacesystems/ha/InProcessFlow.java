@@ -0,0 +1,138 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+
+/**
+ * A consumer flow bound to an {@link InProcessBroker} queue on behalf of an {@link InProcessTransport}
+ * session. Messages and flow events are handed to the session dispatcher in the order the broker
+ * produces them. Only the asynchronous listener style of consumption is supported.
+ */
+class InProcessFlow implements FlowReceiver {
+
+    InProcessFlow(InProcessTransport session, String queue,
+                  XMLMessageListener listener, FlowEventHandler flowEventHandler) {
+        _session = session;
+        _queue = queue;
+        _listener = listener;
+        _flowEventHandler = flowEventHandler;
+    }
+
+    String queueName() {
+        return _queue;
+    }
+
+    boolean isStarted() {
+        return _started;
+    }
+
+    void dispatchFlowEvent(final FlowEvent event) {
+        final FlowEventArgs args = new FlowEventArgs(event, _queue, null, 0) {};
+        _session.dispatch(new Runnable() {
+            public void run() {
+                if (!_closed)
+                    _flowEventHandler.handleEvent(InProcessFlow.this, args);
+            }
+        });
+    }
+
+    void dispatchMessage(final InProcessBroker.Entry entry) {
+        _session.dispatch(new Runnable() {
+            public void run() {
+                if (!_closed)
+                    _listener.onReceive(_session.toMessage(entry, _queue));
+            }
+        });
+    }
+
+    /** FlowReceiver **/
+
+    public void start() throws JCSMPException {
+        if (_closed)
+            throw new JCSMPException("Flow on queue " + _queue + " is closed");
+        _started = true;
+        _session.broker().started(this);
+    }
+
+    public void startSync() throws JCSMPException {
+        start();
+    }
+
+    public void stop() {
+        _started = false;
+    }
+
+    public void stopSync() {
+        stop();
+    }
+
+    public boolean stopSyncStart() {
+        stop();
+        return true;
+    }
+
+    public void stopSyncWait() {
+    }
+
+    public void close() {
+        if (_closed) return;
+        _closed = true;
+        _started = false;
+        _session.removeFlow(this);
+        _session.broker().unbind(this);
+    }
+
+    public void close(boolean unsubscribe) {
+        close();
+    }
+
+    public void closeSync() {
+        close();
+    }
+
+    public void closeSync(boolean unsubscribe) {
+        close();
+    }
+
+    public void setMessageListener(XMLMessageListener listener) {
+        _listener = listener;
+    }
+
+    public BytesXMLMessage receive() throws JCSMPException {
+        throw new JCSMPException("Synchronous receive is not supported in-process");
+    }
+
+    public BytesXMLMessage receive(int timeout) throws JCSMPException {
+        throw new JCSMPException("Synchronous receive is not supported in-process");
+    }
+
+    public BytesXMLMessage receiveNoWait() throws JCSMPException {
+        throw new JCSMPException("Synchronous receive is not supported in-process");
+    }
+
+    public void logFlowInfo(JCSMPLogLevel level) {
+    }
+
+    public Endpoint getEndpoint() {
+        return JCSMPFactory.onlyInstance().createQueue(_queue);
+    }
+
+    public Subscription getSubscription() {
+        return null;
+    }
+
+    public Destination getDestination() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "InProcessFlow{" + _queue + "@" + _session + "}";
+    }
+
+    private final InProcessTransport _session;
+    private final String _queue;
+    private final FlowEventHandler _flowEventHandler;
+    private volatile XMLMessageListener _listener;
+    private volatile boolean _started;
+    private volatile boolean _closed;
+}
@@ -0,0 +1,298 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>A {@link ClusterTransport} connected to an {@link InProcessBroker} rather than a Solace Message Router.
+ * Each instance behaves as one client session: all message and flow event callbacks for the session are
+ * invoked in order on a single dispatcher thread, as they would be by the JCSMP consumer dispatcher.
+ * Acknowledgements for published messages arrive asynchronously on a separate publisher event thread, as
+ * they would from the JCSMP reactor. Text is sent as UTF-8.</p>
+ * <p>Several ClusterConnectors can share one broker to run an entire cluster in a single JVM. Calling
+ * {@link #Disconnect()} drops the session as if the process had died, handing any exclusive queues it
+ * was active on over to the next bound flow.</p>
+ */
+public class InProcessTransport implements ClusterTransport {
+    final static Logger log = Logger.getLogger(InProcessTransport.class);
+
+    public InProcessTransport(InProcessBroker broker) {
+        _broker = broker;
+    }
+
+    public void ConnectSession(String host, String vpn, String user, String password, final String clientName,
+                               SessionEventHandler sessionEventHandler) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("InProcessTransport::ConnectSession(clientName:%s)", clientName));
+        _clientName = clientName;
+        _publisherEvents = newDispatcher("InProcessPublisher-" + clientName);
+        _dispatcher = newDispatcher("InProcessDispatcher-" + clientName);
+    }
+
+    public FlowReceiver BindQueue(String name, XMLMessageListener messageListener, FlowEventHandler flowEventHandler) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("InProcessTransport::BindQueue(queue:%s)", name));
+        checkConnected();
+        InProcessFlow flow = new InProcessFlow(this, name, messageListener, flowEventHandler);
+        _broker.bind(flow);
+        synchronized (_flows) {
+            _flows.add(flow);
+        }
+        return flow;
+    }
+
+    public Browser BrowseQueue(String queue) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("InProcessTransport::BrowseQueue(queue:%s)", queue));
+        checkConnected();
+        return new QueueBrowser(queue);
+    }
+
+    public boolean SendOutput(String topic, ByteBuffer payload) throws JCSMPException {
+        return SendOutput(topic, payload, null);
+    }
+
+    public boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm) throws JCSMPException {
+        byte[] data = new byte[payload.remaining()];
+        payload.duplicate().get(data);
+        return publish(topic, data, ackOnConfirm);
+    }
+
+    public void SendText(String topic, String payload) throws JCSMPException {
+        if (!publish(topic, payload.getBytes(StandardCharsets.UTF_8), null))
+            log.warn("Output window full; dropped text message on topic " + topic);
+    }
+
+    public void SendDirectText(String topic, String payload) throws JCSMPException {
+        checkConnected();
+        _broker.publishDirect(topic, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void SendDirect(String topic, ByteBuffer payload) throws JCSMPException {
+        checkConnected();
+        byte[] data = new byte[payload.remaining()];
+        payload.duplicate().get(data);
+        _broker.publishDirect(topic, data);
+    }
+
+    public void SubscribeDirect(String subscription, XMLMessageListener listener) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("InProcessTransport::SubscribeDirect(subscription:%s)", subscription));
+        checkConnected();
+        _broker.subscribeDirect(this, subscription, listener);
+    }
+
+    public int GetOutputsInFlight() {
+        return _window.inFlight();
+    }
+
+    public void SetMetrics(PipelineMetrics metrics) {
+        _metrics = metrics;
+        _window.setMetrics(metrics);
+    }
+
+    public void SetInputAcknowledger(InputAcknowledger acknowledger) {
+        _acknowledger = acknowledger;
+    }
+
+    /**
+     * Configure the window of unacknowledged persistent messages.
+     *
+     * @param size maximum number of outputs awaiting acknowledgement from the broker
+     * @param timeoutMillis how long a publisher waits for space in a full window; 0 waits indefinitely.
+     *                      Defaults to {@link SolaceConnector#DEFAULT_OUTPUT_TIMEOUT_MILLIS}.
+     */
+    public void SetOutputWindow(int size, long timeoutMillis) {
+        _window = new OutputWindow(size, timeoutMillis);
+        _window.setMetrics(_metrics);
+    }
+
+    /**
+     * Drop the session as if the client had failed: all flows are unbound from the broker,
+     * handing active-flow status on their queues to the next bound flow, and no further
+     * callbacks are dispatched.
+     */
+    public void Disconnect() {
+        if (log.isDebugEnabled())
+            log.debug(String.format("InProcessTransport::Disconnect(clientName:%s)", _clientName));
+        List<InProcessFlow> flows;
+        synchronized (_flows) {
+            flows = new ArrayList<InProcessFlow>(_flows);
+            _flows.clear();
+        }
+        for (InProcessFlow flow : flows)
+            flow.close();
+        _broker.unsubscribeDirect(this);
+        if (_dispatcher != null) {
+            _dispatcher.shutdownNow();
+            _publisherEvents.shutdownNow();
+        }
+        _dispatcher = null;
+    }
+
+    @Override
+    public String toString() {
+        return "InProcessTransport{" + _clientName + "}";
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Internals                                  /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    InProcessBroker broker() {
+        return _broker;
+    }
+
+    void dispatch(Runnable task) {
+        ExecutorService dispatcher = _dispatcher;
+        if (dispatcher != null && !dispatcher.isShutdown())
+            dispatcher.execute(task);
+    }
+
+    void removeFlow(InProcessFlow flow) {
+        synchronized (_flows) {
+            _flows.remove(flow);
+        }
+    }
+
+    /**
+     * Spools the message and acknowledges it back to the publisher asynchronously on the publisher event
+     * thread, as the router would once the message is persisted.
+     */
+    private boolean publish(String topic, byte[] data, BytesXMLMessage ackOnConfirm) throws JCSMPException {
+        checkConnected();
+        final OutputWindow window = _window;
+        final OutputWindow.Slot slot = window.acquire(ackOnConfirm);
+        if (slot == null)
+            return false;
+        _broker.publish(topic, data);
+        ExecutorService publisherEvents = _publisherEvents;
+        if (!publisherEvents.isShutdown()) {
+            publisherEvents.execute(new Runnable() {
+                public void run() {
+                    BytesXMLMessage input = window.complete(slot, true);
+                    if (input == null)
+                        return;
+                    InputAcknowledger acknowledger = _acknowledger;
+                    if (acknowledger != null)
+                        acknowledger.AcknowledgeInput(input);
+                    else
+                        input.ackMessage();
+                }
+            });
+        }
+        return true;
+    }
+
+    private static ExecutorService newDispatcher(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private void checkConnected() throws JCSMPException {
+        if (_dispatcher == null)
+            throw new JCSMPException("Session is not connected");
+    }
+
+    /**
+     * Builds the JCSMP message for a spooled broker entry. Acknowledgement, redelivery, destination and
+     * receive timestamp are answered by the broker entry; everything else is handled by a regular JCSMP message.
+     *
+     * @param entry spooled broker entry
+     * @param ackQueue queue to acknowledge the entry on, or null for a browsed message
+     */
+    BytesXMLMessage toMessage(final InProcessBroker.Entry entry, final String ackQueue) {
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+        msg.writeAttachment(entry.data);
+        final boolean redelivered = entry.redelivered;
+        final long received = System.currentTimeMillis();
+        return (BytesXMLMessage) Proxy.newProxyInstance(
+                BytesXMLMessage.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("ackMessage") && args == null) {
+                            if (ackQueue != null)
+                                _broker.ack(ackQueue, entry.id);
+                            return null;
+                        }
+                        if (name.equals("getRedelivered") && args == null)
+                            return redelivered;
+                        if (name.equals("getReceiveTimestamp") && args == null)
+                            return received;
+                        if (name.equals("getDestination") && args == null)
+                            return JCSMPFactory.onlyInstance().createTopic(entry.topic);
+                        try {
+                            return method.invoke(msg, args);
+                        }
+                        catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Live browser over a queue; each call returns the next spooled message
+     * after the last one browsed, or null if there is none.
+     */
+    private class QueueBrowser implements Browser {
+        QueueBrowser(String queue) {
+            _queue = queue;
+        }
+        public void close() {
+            _closed = true;
+        }
+        public boolean hasMore() throws JCSMPException {
+            return !_closed && _broker.browseNext(_queue, _lastId) != null;
+        }
+        public BytesXMLMessage getNext() throws JCSMPException {
+            return getNextNoWait();
+        }
+        public BytesXMLMessage getNext(int timeout) throws JCSMPException {
+            return getNextNoWait();
+        }
+        public BytesXMLMessage getNextNoWait() throws JCSMPException {
+            if (_closed) return null;
+            InProcessBroker.Entry entry = _broker.browseNext(_queue, _lastId);
+            if (entry == null) return null;
+            _lastId = entry.id;
+            return toMessage(entry, null);
+        }
+        public void remove(BytesXMLMessage msg) throws JCSMPException {
+            throw new JCSMPException("Browser remove is not supported in-process");
+        }
+        private final String _queue;
+        private long _lastId;
+        private boolean _closed;
+    }
+
+    private final InProcessBroker _broker;
+    private final List<InProcessFlow> _flows = new ArrayList<InProcessFlow>();
+    private volatile ExecutorService _dispatcher;
+    private volatile ExecutorService _publisherEvents;
+    private volatile OutputWindow _window = new OutputWindow(SolaceConnector.DEFAULT_OUTPUT_WINDOW,
+        SolaceConnector.DEFAULT_OUTPUT_TIMEOUT_MILLIS);
+    private volatile InputAcknowledger _acknowledger;
+    private volatile PipelineMetrics _metrics;
+    private String _clientName;
+}
@@ -0,0 +1,15 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Receives input messages from a {@link ClusterTransport} once the output produced from them has been
+ * accepted by the broker, so the owner decides when they are actually acknowledged, e.g. in batches.
+ */
+public interface InputAcknowledger {
+
+    /**
+     * @param input input message whose output has been accepted and which may now be acknowledged
+     */
+    void AcknowledgeInput(BytesXMLMessage input);
+}
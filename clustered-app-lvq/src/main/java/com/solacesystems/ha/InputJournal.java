@@ -0,0 +1,281 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Segmented, memory-mapped journal of every raw input a member receives, for deterministic replay of
+ * its input stream in post-mortems and performance regression runs.</p>
+ * <p>Inputs are appended to the current segment file, <code>input-NNNNNNNNNNNNNNNN.journal</code> in the
+ * journal directory, until it is full; the journal then rolls over to a new segment, deleting the oldest
+ * segments beyond the configured retention. Each record holds the input's sequence ID and its attachment
+ * exactly as received.</p>
+ * <p>Appends land in the page cache and survive the process dying. With group commit enabled, segments are
+ * also flushed to the storage device once a number of inputs have been appended, or a delay has passed since
+ * the first unflushed input, whichever comes first, so one flush covers a whole group of inputs. Flushes run
+ * on the journal's own flusher thread, never on the thread appending inputs, and only hold the journal's lock
+ * to note which inputs they cover, so appends carry on while the device flushes. A segment that fills up is
+ * flushed the same way, along with the next group.</p>
+ * <p>{@link #Replay(File, ClusteredAppSerializer, ClusterEventListener)} feeds a journal straight from disk
+ * into an application's {@link ClusterEventListener}.</p>
+ */
+public class InputJournal {
+    final static Logger log = Logger.getLogger(InputJournal.class);
+
+    static final String SEGMENT_PREFIX = "input-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * Open a journal, continuing after the last record of its newest segment if it already exists.
+     *
+     * @param directory directory holding the journal's segments
+     * @param segmentSize size of each memory-mapped segment in bytes
+     * @param maxSegments number of segments retained, including the current one; 0 retains all of them
+     */
+    public InputJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create journal directory " + directory);
+        _directory = directory;
+        _segmentSize = segmentSize;
+        _maxSegments = maxSegments;
+        File[] segments = segments(directory);
+        if (segments.length == 0) {
+            _segmentIndex = 0;
+            _segment = new MappedJournal(segmentFile(0), segmentSize);
+        }
+        else {
+            File last = segments[segments.length - 1];
+            _segmentIndex = segmentIndex(last);
+            _segment = new MappedJournal(last, segmentSize);
+        }
+    }
+
+    /**
+     * Flush appended inputs to the storage device in groups.
+     *
+     * @param maxRecords flush once this many inputs have been appended since the last flush; 0 disables
+     * @param maxDelayMillis flush unflushed inputs at least this often; 0 disables
+     */
+    public synchronized void SetGroupCommit(int maxRecords, long maxDelayMillis) {
+        _groupRecords = maxRecords;
+        if (_flusher != null) {
+            _flusher.shutdown();
+            _flusher = null;
+        }
+        if (maxRecords > 0 || maxDelayMillis > 0) {
+            _flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "InputJournalFlusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        if (maxDelayMillis > 0)
+            _flusher.scheduleWithFixedDelay(_sync, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append an input, rolling over to a new segment if the current one is full.
+     *
+     * @param sequenceId the input's sequence ID, or {@link ClusterState#NO_SEQUENCE} if it is not known
+     * @param msg the input message; its attachment is journaled
+     */
+    public synchronized void Append(long sequenceId, BytesXMLMessage msg) throws IOException {
+        int length = msg.getAttachmentContentLength();
+        if (length == 0)
+            return;
+        if (_scratch.length < length)
+            _scratch = new byte[Math.max(length, 2 * _scratch.length)];
+        msg.readAttachmentBytes(0, _scratch, 0, length);
+        if (!_segment.append(sequenceId, _scratch, 0, length)) {
+            roll();
+            if (!_segment.append(sequenceId, _scratch, 0, length))
+                throw new IOException(String.format("Input of %d bytes does not fit in a journal segment", length));
+        }
+        _appended++;
+        if (_groupRecords <= 0 || _appended - _flushing < _groupRecords)
+            return;
+        _flushing = _appended;
+        _flusher.execute(_sync);
+    }
+
+    /**
+     * Flush every appended input to the storage device; returns once they are all flushed.
+     */
+    public void Sync() {
+        // Flushes are serialized, so one never records inputs as flushed ahead of a rolled segment still
+        // being forced by another
+        synchronized (_forceLock) {
+            MappedJournal segment;
+            MappedJournal[] rolled = null;
+            long flushTo;
+            synchronized (this) {
+                if (_durable >= _appended)
+                    return;
+                segment = _segment;
+                flushTo = _flushing = _appended;
+                if (!_rolled.isEmpty()) {
+                    rolled = _rolled.toArray(new MappedJournal[_rolled.size()]);
+                    _rolled.clear();
+                }
+            }
+            if (rolled != null)
+                for (MappedJournal previous : rolled)
+                    previous.force();
+            segment.force();
+            synchronized (this) {
+                if (_durable < flushTo)
+                    _durable = flushTo;
+            }
+        }
+    }
+
+    /**
+     * @return number of inputs known to be flushed to the storage device
+     */
+    synchronized long flushed() {
+        return _durable;
+    }
+
+    /**
+     * Flush and stop the group-commit timer; the journal must not be appended to afterwards.
+     */
+    public void Close() {
+        SetGroupCommit(0, 0);
+        Sync();
+    }
+
+    /**
+     * Feed every journaled input after a sequence ID to a listener, in the order the inputs were received.
+     *
+     * @param directory journal directory
+     * @param afterSeq inputs up to and including this sequence ID are skipped
+     * @param listener receives each journaled input
+     * @return number of inputs replayed
+     */
+    public static long Replay(File directory, final long afterSeq, final LocalStore.JournalListener listener) throws IOException {
+        final long[] count = new long[1];
+        for (File file : segments(directory)) {
+            new MappedJournal(file, 0).replay(new MappedJournal.Visitor() {
+                public void onRecord(long sequence, ByteBuffer data) {
+                    if (sequence > afterSeq || sequence == ClusterState.NO_SEQUENCE) {
+                        listener.OnJournaledInput(sequence, data);
+                        count[0]++;
+                    }
+                }
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Replay a journal through an application: every journaled input is deserialized and passed to
+     * {@link ClusterEventListener#UpdateApplicationState}, in the order the inputs were received.
+     *
+     * @param directory journal directory
+     * @param serializer deserializes the journaled inputs
+     * @param listener the application to replay the inputs through
+     * @return number of inputs replayed
+     */
+    public static <InputType extends Ordered, OutputType extends Ordered> long Replay(
+            File directory,
+            final ClusteredAppSerializer<InputType, OutputType> serializer,
+            final ClusterEventListener<InputType, OutputType> listener) throws IOException {
+        final BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        final ByteBufferInputStream payloadStream = new ByteBufferInputStream();
+        final IOException[] failure = new IOException[1];
+        long count = Replay(directory, ClusterState.NO_SEQUENCE, new LocalStore.JournalListener() {
+            public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                if (failure[0] != null) return;
+                try {
+                    msg.writeAttachment(payloadStream.reset(payload));
+                    listener.UpdateApplicationState(serializer.DeserializeInput(msg));
+                }
+                catch(IOException ex) {
+                    failure[0] = ex;
+                }
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+        return count;
+    }
+
+    /**
+     * Moves on to a new segment; with group commit, the full one is left for the next flush to force.
+     */
+    private void roll() throws IOException {
+        if (_flusher != null)
+            _rolled.add(_segment);
+        _segmentIndex++;
+        if (log.isDebugEnabled())
+            log.debug(String.format("InputJournal::roll(segment:%d)", _segmentIndex));
+        _segment = new MappedJournal(segmentFile(_segmentIndex), _segmentSize);
+        if (_maxSegments > 0) {
+            File[] segments = segments(_directory);
+            for (int i = 0; i < segments.length - _maxSegments; i++) {
+                if (!segments[i].delete())
+                    log.warn("Failed to delete journal segment " + segments[i]);
+            }
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(_directory, String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentIndex(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * @return the journal's segments, oldest first
+     */
+    private static File[] segments(File directory) {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null)
+            return new File[0];
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private final File _directory;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private long _segmentIndex;
+    private MappedJournal _segment;
+    private byte[] _scratch = new byte[256];
+    private int _groupRecords;
+    // Inputs appended, inputs covered by a flush under way or requested, and inputs known to be flushed
+    private long _appended;
+    private long _flushing;
+    private long _durable;
+    // Full segments not yet forced
+    private final List<MappedJournal> _rolled = new ArrayList<MappedJournal>();
+    private final Object _forceLock = new Object();
+    private ScheduledExecutorService _flusher;
+    private final Runnable _sync = new Runnable() {
+        public void run() {
+            Sync();
+        }
+    };
+}
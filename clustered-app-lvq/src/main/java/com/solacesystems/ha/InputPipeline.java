@@ -0,0 +1,185 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowEvent;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Hands inputs and flow events from the JCSMP consumer dispatcher to a single dedicated processing
+ * thread through a pre-allocated multi-producer/single-consumer ring, so a slow application never
+ * stalls the receive path.</p>
+ * <p>A producer claims the next ring entry with an atomic increment, fills it and marks it published
+ * with the sequence it claimed; the processing thread drains the ring in claim order and invokes the
+ * {@link Handler}. Flow events go through the same ring as inputs so the processing thread sees every
+ * state transition in order with respect to the inputs around it. Any thread may publish, such as the
+ * message listener, the flow event handlers and a leadership handoff, however the session dispatches
+ * them; the cost over a single producer is one atomic increment per entry.</p>
+ * <p>When the ring is full the dispatcher waits for the processing thread, holding back further
+ * deliveries from the broker; both sides wait according to the configured {@link WaitStrategy}.</p>
+ */
+class InputPipeline {
+    final static Logger log = Logger.getLogger(InputPipeline.class);
+
+    /**
+     * Everything the processing thread does with the entries it drains
+     */
+    interface Handler {
+        void onAppMessage(BytesXMLMessage msg);
+        void onAppFlowEvent(FlowEvent event);
+        void onLVQFlowEvent(FlowEvent event);
+        void onHandOff();
+    }
+
+    static final int APP_MESSAGE = 0;
+    static final int APP_FLOW_EVENT = 1;
+    static final int LVQ_FLOW_EVENT = 2;
+    static final int HAND_OFF = 3;
+
+    private static final class Entry {
+        int kind;
+        BytesXMLMessage msg;
+        FlowEvent event;
+    }
+
+    /**
+     * @param capacity ring size; rounded up to a power of two
+     * @param waitStrategy how both threads wait on an empty or full ring
+     * @param handler invoked on the processing thread for every entry
+     */
+    InputPipeline(int capacity, WaitStrategy waitStrategy, Handler handler) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Pipeline capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        _entries = new Entry[size];
+        for (int i = 0; i < size; i++)
+            _entries[i] = new Entry();
+        _mask = size - 1;
+        _published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            _published.lazySet(i, -1);
+        _waitStrategy = waitStrategy;
+        _handler = handler;
+    }
+
+    /**
+     * Start the processing thread.
+     */
+    void start(String name) {
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stop the processing thread once it has handled every entry already published.
+     */
+    void stop() {
+        _running = false;
+        Thread thread = _thread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(1000);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Publish an entry to the processing thread; may be called from any number of threads.
+     */
+    void publish(int kind, BytesXMLMessage msg, FlowEvent event) {
+        long sequence = _claimed.getAndIncrement();
+        long wrapPoint = sequence - _entries.length;
+        int idleCount = 0;
+        while (wrapPoint >= _consumed.get()) {
+            if (!_running)
+                return;
+            _waitStrategy.idle(++idleCount);
+        }
+        int index = (int) sequence & _mask;
+        Entry entry = _entries[index];
+        entry.kind = kind;
+        entry.msg = msg;
+        entry.event = event;
+        _published.lazySet(index, sequence);
+    }
+
+    /**
+     * @return number of entries claimed but not yet handled
+     */
+    int backlog() {
+        return (int) (_claimed.get() - 1 - _consumed.get());
+    }
+
+    private void drain() {
+        long next = _consumed.get() + 1;
+        int idleCount = 0;
+        while (true) {
+            if (_published.get((int) next & _mask) != next) {
+                // Entries published before stop() are visible once the flag is seen cleared
+                if (!_running && _published.get((int) next & _mask) != next)
+                    return;
+                _waitStrategy.idle(++idleCount);
+                continue;
+            }
+            idleCount = 0;
+            // Handle every consecutive published entry before freeing them to the producers together
+            do {
+                Entry entry = _entries[(int) next & _mask];
+                BytesXMLMessage msg = entry.msg;
+                FlowEvent event = entry.event;
+                entry.msg = null;
+                entry.event = null;
+                handle(entry.kind, msg, event);
+                next++;
+            } while (_published.get((int) next & _mask) == next);
+            _consumed.lazySet(next - 1);
+        }
+    }
+
+    private void handle(int kind, BytesXMLMessage msg, FlowEvent event) {
+        try {
+            switch (kind) {
+                case APP_MESSAGE:
+                    _handler.onAppMessage(msg);
+                    break;
+                case APP_FLOW_EVENT:
+                    _handler.onAppFlowEvent(event);
+                    break;
+                case LVQ_FLOW_EVENT:
+                    _handler.onLVQFlowEvent(event);
+                    break;
+                case HAND_OFF:
+                    _handler.onHandOff();
+                    break;
+            }
+        }
+        catch (RuntimeException ex) {
+            // The handler deals with failed inputs itself; this only keeps the processing thread alive
+            log.error("Exception processing pipelined entry", ex);
+        }
+    }
+
+    private final Entry[] _entries;
+    private final int _mask;
+    private final WaitStrategy _waitStrategy;
+    private final Handler _handler;
+
+    // Sequence last published into each entry
+    private final AtomicLongArray _published;
+    private final AtomicLong _claimed = new AtomicLong();
+    private final AtomicLong _consumed = new AtomicLong(-1);
+    private volatile boolean _running = true;
+    private volatile Thread _thread;
+}
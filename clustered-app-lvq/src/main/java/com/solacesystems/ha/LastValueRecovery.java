@@ -0,0 +1,59 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.Browser;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Recovers the last outputs of a cluster from one or more Last Value Queues at once.</p>
+ * <p>All browsers are opened before recovery starts, so the broker streams every queue's message in parallel
+ * rather than one round trip after another. A Last Value Queue holds at most one message, so a queue is
+ * finished as soon as its message has been browsed; recovery ends once every queue is finished, and only
+ * empty queues make it wait out the timeout, which is shared by all of them rather than spent per queue.</p>
+ */
+final class LastValueRecovery {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private LastValueRecovery() {
+    }
+
+    /**
+     * Browse the last message of every queue.
+     *
+     * @param browsers one browser per Last Value Queue
+     * @param timeoutMillis how long to wait for queues that have not delivered a message yet
+     * @param browsed receives the messages browsed, most recent last for each queue
+     * @return number of queues that delivered a message
+     */
+    static int browse(Browser[] browsers, long timeoutMillis, List<BytesXMLMessage> browsed) throws JCSMPException {
+        boolean[] finished = new boolean[browsers.length];
+        int remaining = browsers.length;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (remaining > 0) {
+            boolean progress = false;
+            for (int i = 0; i < browsers.length; i++) {
+                if (finished[i]) continue;
+                // Drain whatever has arrived; a queue updated during the browse may deliver more than once
+                BytesXMLMessage msg;
+                while ((msg = browsers[i].getNextNoWait()) != null) {
+                    browsed.add(msg);
+                    if (!finished[i]) {
+                        finished[i] = true;
+                        remaining--;
+                    }
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                if (System.nanoTime() - deadline >= 0)
+                    break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        return browsers.length - remaining;
+    }
+}
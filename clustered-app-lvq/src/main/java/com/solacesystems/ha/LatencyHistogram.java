@@ -0,0 +1,144 @@
+package com.solacesystems.ha;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram: values below 128 are
+ * counted exactly, and every power of two above that is split into 64 linear buckets, so any recorded value
+ * is reported to within 1.6% across the whole range of a long.</p>
+ * <p>Recording is lock-free and allocation-free; reading while values are being recorded gives a view that
+ * may be out by the values recorded meanwhile. A single-writer histogram, recorded by one thread only,
+ * avoids atomic read-modify-write instructions altogether and only publishes its updates with ordered
+ * stores.</p>
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + SUB_BUCKET_COUNT;
+
+    /**
+     * Create a histogram that any number of threads may record to
+     */
+    public LatencyHistogram() {
+        this(false);
+    }
+
+    /**
+     * @param singleWriter true if only one thread ever records to the histogram
+     */
+    LatencyHistogram(boolean singleWriter) {
+        _singleWriter = singleWriter;
+    }
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos latency in nanoseconds; negative values are recorded as 0
+     */
+    public void Record(long nanos) {
+        long value = Math.max(nanos, 0);
+        if (_singleWriter) {
+            int index = indexOf(value);
+            _counts.lazySet(index, _counts.get(index) + 1);
+            _total.lazySet(_total.get() + value);
+            if (value > _max.get())
+                _max.lazySet(value);
+            _count.lazySet(_count.get() + 1);
+            return;
+        }
+        _counts.incrementAndGet(indexOf(value));
+        _count.incrementAndGet();
+        _total.addAndGet(value);
+        long max;
+        while (value > (max = _max.get()) && !_max.compareAndSet(max, value))
+            ;
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long GetCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return largest latency recorded, or 0 if there is none
+     */
+    public long GetMax() {
+        return _max.get();
+    }
+
+    /**
+     * @return mean latency recorded, or 0 if there is none
+     */
+    public double GetMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : (double) _total.get() / count;
+    }
+
+    /**
+     * Retrieve the latency at or below which the given percentage of the recorded latencies fall.
+     *
+     * @param percentile percentage from 0 to 100, e.g. 99.9
+     * @return the highest latency equivalent to the percentile's bucket, or 0 if nothing was recorded
+     */
+    public long GetValueAtPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _counts.get(i);
+            if (seen >= target)
+                return Math.min(highestEquivalentValue(i), _max.get());
+        }
+        return _max.get();
+    }
+
+    /**
+     * Discard every recorded latency.
+     */
+    public void Reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            _counts.set(i, 0);
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%d p99=%d p99.9=%d max=%d", GetCount(),
+            GetValueAtPercentile(50), GetValueAtPercentile(99), GetValueAtPercentile(99.9), GetMax());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return (long) (index - shift * SUB_BUCKET_HALF) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+
+    private final boolean _singleWriter;
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+}
@@ -0,0 +1,278 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Spreads leadership of the partitions of a {@link PartitionedClusterConnector} evenly across the members
+ * of a cluster.</p>
+ * <p>Active-flow indication makes whichever member bound a partition's LVQ first its leader, so after a rolling
+ * restart every partition tends to be led by the same member. Each member's balancer gossips which partitions
+ * it is ACTIVE and BACKUP for on the cluster topic every round, and keeps a view of its peers from their
+ * gossip. A member leading at least {@link #HANDOFF_MARGIN} partitions more than the least-loaded peer that
+ * backs one of them up, for {@link #STABLE_ROUNDS} rounds in a row, hands leadership of one such partition
+ * over with {@link ClusterConnector#HandOffLeadership()}. It then considers no other handoff until the peer's
+ * gossip confirms it leads the partition, and at least {@link #COOLDOWN_ROUNDS} rounds have passed. The margin
+ * keeps an odd partition from bouncing between members, and waiting for confirmation keeps gossip sent before
+ * the handoff from triggering another.</p>
+ * <p>Gossip is sent as direct messages on <code>clusterTopic/member</code>, formatted as
+ * <code>member|active partitions|backup partitions</code> with comma-separated partition numbers.</p>
+ */
+public class LeadershipBalancer {
+    final static Logger log = Logger.getLogger(LeadershipBalancer.class);
+
+    /** A member hands off leadership only when it leads this many partitions more than a peer */
+    public static final int HANDOFF_MARGIN = 2;
+    /** ...for this many consecutive rounds */
+    public static final int STABLE_ROUNDS = 2;
+    /** Rounds to wait after a handoff before considering another */
+    public static final int COOLDOWN_ROUNDS = 3;
+    /** Rounds to wait for the peer to confirm a handoff before giving up on it */
+    static final int CONFIRM_ROUNDS = 10;
+    /** Peers not heard from for this many rounds are forgotten */
+    public static final int EXPIRY_ROUNDS = 3;
+
+    /**
+     * @param partitions this member's partitions
+     * @param transport connected transport to gossip over
+     * @param clusterTopic topic prefix shared by every member of the cluster
+     * @param member name of this member, unique in the cluster
+     */
+    public LeadershipBalancer(PartitionedClusterConnector<?, ?> partitions, ClusterTransport transport,
+                              String clusterTopic, String member) {
+        _partitions = partitions;
+        _transport = transport;
+        _clusterTopic = clusterTopic;
+        _member = member;
+    }
+
+    /**
+     * Subscribe to the cluster's gossip and run a gossip and balancing round every interval.
+     *
+     * @param intervalMillis time between rounds
+     * @throws JCSMPException if the gossip subscription cannot be added
+     */
+    public void Start(long intervalMillis) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("LeadershipBalancer::Start(member:%s, intervalMillis:%d)", _member, intervalMillis));
+        _transport.SubscribeDirect(_clusterTopic + "/>", new XMLMessageListener() {
+            public void onReceive(BytesXMLMessage msg) {
+                byte[] text = new byte[msg.getAttachmentContentLength()];
+                msg.readAttachmentBytes(0, text, 0, text.length);
+                onGossip(new String(text, StandardCharsets.UTF_8));
+            }
+            public void onException(JCSMPException ex) {
+                log.error("Exception on cluster gossip subscription", ex);
+            }
+        });
+        _timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LeadershipBalancer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    round();
+                }
+                catch(RuntimeException ex) {
+                    log.error("Exception in leadership balancing round", ex);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop gossiping and balancing; leadership stays where it is.
+     */
+    public void Stop() {
+        if (_timer != null)
+            _timer.shutdownNow();
+    }
+
+    /**
+     * @return number of partitions each known member, including this one, is ACTIVE for
+     */
+    public synchronized Map<String, Integer> GetActiveCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        counts.put(_member, activePartitions().size());
+        for (Peer peer : _peers.values())
+            counts.put(peer.name, peer.active.size());
+        return counts;
+    }
+
+    /**
+     * @return number of times this member has handed off leadership
+     */
+    public synchronized int GetHandOffCount() {
+        return _handOffs;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Internals                                  /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    synchronized void onGossip(String text) {
+        String[] fields = text.split("\\|", -1);
+        if (fields.length != 3 || fields[0].equals(_member))
+            return;
+        List<Integer> active;
+        List<Integer> backup;
+        try {
+            active = parsePartitions(fields[1]);
+            backup = parsePartitions(fields[2]);
+        }
+        catch(NumberFormatException ex) {
+            log.warn("Ignoring malformed cluster gossip: " + text, ex);
+            return;
+        }
+        Peer peer = _peers.get(fields[0]);
+        if (peer == null) {
+            peer = new Peer(fields[0]);
+            _peers.put(peer.name, peer);
+        }
+        peer.active = active;
+        peer.backup = backup;
+        peer.heardRound = _round;
+    }
+
+    synchronized void round() {
+        _round++;
+        List<Integer> active = activePartitions();
+        List<Integer> backup = new ArrayList<Integer>();
+        for (int p = 0; p < _partitions.GetPartitionCount(); p++)
+            if (_partitions.isBound(p) && !active.contains(p))
+                backup.add(p);
+        try {
+            _transport.SendDirectText(_clusterTopic + "/" + _member,
+                _member + "|" + formatPartitions(active) + "|" + formatPartitions(backup));
+        }
+        catch(JCSMPException ex) {
+            log.warn("Failed to send cluster gossip", ex);
+        }
+        rebalance(active);
+    }
+
+    private void rebalance(List<Integer> active) {
+        if (awaitingHandOff())
+            return;
+        Peer target = null;
+        int partition = -1;
+        for (Peer peer : new ArrayList<Peer>(_peers.values())) {
+            if (_round - peer.heardRound > EXPIRY_ROUNDS) {
+                _peers.remove(peer.name);
+                continue;
+            }
+            int candidate = firstBackedUp(active, peer);
+            if (candidate >= 0 && (target == null || peer.active.size() < target.active.size())) {
+                target = peer;
+                partition = candidate;
+            }
+        }
+        if (target == null || active.size() - target.active.size() < HANDOFF_MARGIN) {
+            _overloadedRounds = 0;
+            return;
+        }
+        if (++_overloadedRounds < STABLE_ROUNDS)
+            return;
+        if (log.isInfoEnabled())
+            log.info(String.format("Member %s leads %d partitions and %s leads %d; handing off partition %d",
+                _member, active.size(), target.name, target.active.size(), partition));
+        if (_partitions.GetPartition(partition).HandOffLeadership()) {
+            _handOffs++;
+            _handedOff = partition;
+            _handedOffTo = target.name;
+            _handedOffRound = _round;
+        }
+        _overloadedRounds = 0;
+    }
+
+    /**
+     * Gossip sent before a handoff can still be in flight after it; until the peer's gossip shows it leading
+     * the partition handed to it, the view of the cluster is stale and must not drive another handoff.
+     */
+    private boolean awaitingHandOff() {
+        if (_handedOffTo == null)
+            return false;
+        long rounds = _round - _handedOffRound;
+        Peer peer = _peers.get(_handedOffTo);
+        boolean confirmed = peer != null && peer.heardRound > _handedOffRound && peer.active.contains(_handedOff);
+        // Give up waiting if another member took the partition over
+        if ((confirmed && rounds >= COOLDOWN_ROUNDS) || rounds > CONFIRM_ROUNDS) {
+            _handedOffTo = null;
+            return false;
+        }
+        return true;
+    }
+
+    private List<Integer> activePartitions() {
+        List<Integer> active = new ArrayList<Integer>();
+        for (int p = 0; p < _partitions.GetPartitionCount(); p++)
+            if (_partitions.GetPartitionState(p).GetHAStatus() == HAState.ACTIVE)
+                active.add(p);
+        return active;
+    }
+
+    private static int firstBackedUp(List<Integer> active, Peer peer) {
+        for (Integer p : active)
+            if (peer.backup.contains(p))
+                return p;
+        return -1;
+    }
+
+    private static List<Integer> parsePartitions(String csv) {
+        List<Integer> partitions = new ArrayList<Integer>();
+        if (csv.isEmpty())
+            return partitions;
+        for (String p : csv.split(","))
+            partitions.add(Integer.parseInt(p));
+        return partitions;
+    }
+
+    private static String formatPartitions(List<Integer> partitions) {
+        StringBuilder sb = new StringBuilder();
+        for (Integer p : partitions) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+
+    private static class Peer {
+        Peer(String name) {
+            this.name = name;
+        }
+        final String name;
+        List<Integer> active = new ArrayList<Integer>();
+        List<Integer> backup = new ArrayList<Integer>();
+        long heardRound;
+    }
+
+    private final PartitionedClusterConnector<?, ?> _partitions;
+    private final ClusterTransport _transport;
+    private final String _clusterTopic;
+    private final String _member;
+    private final Map<String, Peer> _peers = new HashMap<String, Peer>();
+    private ScheduledExecutorService _timer;
+    private long _round;
+    private int _handedOff;
+    private String _handedOffTo;
+    private long _handedOffRound;
+    private int _overloadedRounds;
+    private int _handOffs;
+}
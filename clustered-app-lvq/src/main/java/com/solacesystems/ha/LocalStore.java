@@ -0,0 +1,296 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Local persistence for a cluster member: a snapshot of the complete application state, taken through
+ * {@link ClusterEventListener#TakeSnapshot()}, plus a memory-mapped journal of every input applied since
+ * that snapshot. Recovering a member is then bounded by the snapshot interval rather than by the depth of
+ * its input queue or by how little an LVQ output carries.</p>
+ * <p>A store lives in its own directory and belongs to a single member instance:
+ * <ul>
+ *     <li><code>snapshot.bin</code>: the last snapshot, replaced atomically by every new snapshot</li>
+ *     <li><code>journal.bin</code> and <code>journal.1.bin</code>: the raw payload of each input applied
+ *     since the snapshot, in whichever of the two journals is active</li>
+ * </ul>
+ * </p>
+ * <p>Snapshots can be written in the background with {@link #WriteSnapshotInBackground}, so the processing
+ * thread only copies the state: journaling switches to the spare, empty journal at once, and the journal
+ * the snapshot supersedes is only discarded once the snapshot is durable. Until then, the previous snapshot
+ * plus both journals still hold every input.</p>
+ * <p>Journal records carry their input's sequence ID, so a journal that could not be reset after a
+ * snapshot, e.g. because of a crash in between, is still replayed correctly.</p>
+ */
+public class LocalStore {
+    final static Logger log = Logger.getLogger(LocalStore.class);
+
+    /**
+     * Default journal size; a full journal forces an early snapshot
+     */
+    public static final int DEFAULT_JOURNAL_CAPACITY = 64 * 1024 * 1024;
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final int SNAPSHOT_HEADER_SIZE = 4 + 8 + 8 + 4;
+
+    /**
+     * The last snapshot read back from a store
+     */
+    public static final class Snapshot {
+        Snapshot(long lastInputSeq, long lastOutputSeq, ByteBuffer state) {
+            _lastInputSeq = lastInputSeq;
+            _lastOutputSeq = lastOutputSeq;
+            _state = state;
+        }
+        /**
+         * @return sequence ID of the last input reflected in the snapshot
+         */
+        public long GetLastInputSequence() {
+            return _lastInputSeq;
+        }
+        /**
+         * @return sequence ID of the last output at the time of the snapshot
+         */
+        public long GetLastOutputSequence() {
+            return _lastOutputSeq;
+        }
+        /**
+         * @return the application state as returned by {@link ClusterEventListener#TakeSnapshot()}
+         */
+        public ByteBuffer GetState() {
+            return _state;
+        }
+        private final long _lastInputSeq;
+        private final long _lastOutputSeq;
+        private final ByteBuffer _state;
+    }
+
+    /**
+     * Receives the journaled inputs on replay
+     */
+    public interface JournalListener {
+        /**
+         * @param sequenceId sequence ID of the journaled input
+         * @param payload the input message's attachment as it was received; valid only during the call
+         */
+        void OnJournaledInput(long sequenceId, ByteBuffer payload);
+    }
+
+    /**
+     * Open a store, creating the directory and files if they do not exist yet.
+     *
+     * @param directory directory owned by this member instance
+     * @param journalCapacity size of the memory-mapped journal in bytes
+     */
+    public LocalStore(File directory, int journalCapacity) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create local store directory " + directory);
+        _snapshotFile = new File(directory, "snapshot.bin");
+        _journals = new MappedJournal[] {
+            new MappedJournal(new File(directory, "journal.bin"), journalCapacity),
+            new MappedJournal(new File(directory, "journal.1.bin"), journalCapacity)
+        };
+        // Carry on appending to the journal holding the latest inputs
+        _active = (firstSequence(_journals[1]) > firstSequence(_journals[0])) ? 1 : 0;
+    }
+
+    /**
+     * Read the last snapshot.
+     *
+     * @return the snapshot, or null if none has been written
+     */
+    public Snapshot ReadSnapshot() throws IOException {
+        if (!_snapshotFile.exists())
+            return null;
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(_snapshotFile.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < SNAPSHOT_HEADER_SIZE || data.getInt() != SNAPSHOT_MAGIC)
+            throw new IOException("Corrupt snapshot " + _snapshotFile);
+        long lastInputSeq = data.getLong();
+        long lastOutputSeq = data.getLong();
+        int length = data.getInt();
+        if (length != data.remaining())
+            throw new IOException("Truncated snapshot " + _snapshotFile);
+        return new Snapshot(lastInputSeq, lastOutputSeq, data.slice());
+    }
+
+    /**
+     * Durably replace the snapshot, then discard both journals it supersedes; waits for any snapshot still
+     * being written in the background first.
+     *
+     * @param lastInputSeq sequence ID of the last input reflected in the state
+     * @param lastOutputSeq sequence ID of the last output at the time of the snapshot
+     * @param state serialized application state from its position to its limit
+     */
+    public void WriteSnapshot(long lastInputSeq, long lastOutputSeq, ByteBuffer state) throws IOException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("LocalStore::WriteSnapshot(lastInputSeq:%d, lastOutputSeq:%d, size:%d)",
+                lastInputSeq, lastOutputSeq, state.remaining()));
+        AwaitSnapshot();
+        writeSnapshotFile(lastInputSeq, lastOutputSeq, state);
+        _journals[0].reset();
+        _journals[1].reset();
+    }
+
+    /**
+     * <p>Replace the snapshot in the background: the state is copied, journaling switches to the spare
+     * journal, and a writer thread durably writes the snapshot before discarding the journal it supersedes.
+     * The state buffer may be reused as soon as this returns.</p>
+     * <p>If the spare journal still holds inputs from before the store was opened, the snapshot is written
+     * synchronously instead, as only a durable snapshot covers those.</p>
+     *
+     * @param lastInputSeq sequence ID of the last input reflected in the state
+     * @param lastOutputSeq sequence ID of the last output at the time of the snapshot
+     * @param state serialized application state from its position to its limit
+     * @return false if the previous snapshot is still being written, in which case nothing is done
+     */
+    public boolean WriteSnapshotInBackground(final long lastInputSeq, final long lastOutputSeq, ByteBuffer state) throws IOException {
+        if (IsWritingSnapshot())
+            return false;
+        if (_journals[_active ^ 1].size() > 0) {
+            WriteSnapshot(lastInputSeq, lastOutputSeq, state);
+            return true;
+        }
+        if (_pendingState.capacity() < state.remaining())
+            _pendingState = ByteBuffer.allocate(Math.max(state.remaining(), 2 * _pendingState.capacity()));
+        _pendingState.clear();
+        _pendingState.put(state.duplicate()).flip();
+        final ByteBuffer copy = _pendingState;
+        final MappedJournal superseded = _journals[_active];
+        _active ^= 1;
+        _pending = _writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    writeSnapshotFile(lastInputSeq, lastOutputSeq, copy);
+                    superseded.reset();
+                }
+                catch(IOException ex) {
+                    // The superseded journal is kept, so the previous snapshot and both journals still cover every input
+                    log.error("Exception trying to write a local snapshot in the background", ex);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return true if a snapshot is still being written in the background
+     */
+    public boolean IsWritingSnapshot() {
+        Future<?> pending = _pending;
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * Wait until any snapshot being written in the background is written.
+     */
+    public void AwaitSnapshot() throws IOException {
+        Future<?> pending = _pending;
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a snapshot to be written", ex);
+        }
+        catch(ExecutionException ex) {
+            throw new IOException("Failed to write a snapshot", ex.getCause());
+        }
+    }
+
+    private void writeSnapshotFile(long lastInputSeq, long lastOutputSeq, ByteBuffer state) throws IOException {
+        File tmp = new File(_snapshotFile.getPath() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SNAPSHOT_MAGIC).putLong(lastInputSeq).putLong(lastOutputSeq).putInt(state.remaining()).flip();
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer body = state.duplicate();
+            while (header.hasRemaining())
+                channel.write(header);
+            while (body.hasRemaining())
+                channel.write(body);
+            channel.force(true);
+        }
+        finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), _snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Journal an input that is about to be applied to the application state.
+     *
+     * @param sequenceId the input's sequence ID
+     * @param msg the input message; its attachment is journaled
+     * @return false if the journal is full and a snapshot is needed first
+     */
+    public boolean AppendInput(long sequenceId, BytesXMLMessage msg) {
+        int length = msg.getAttachmentContentLength();
+        if (_scratch.length < length)
+            _scratch = new byte[Math.max(length, 2 * _scratch.length)];
+        msg.readAttachmentBytes(0, _scratch, 0, length);
+        return _journals[_active].append(sequenceId, _scratch, 0, length);
+    }
+
+    /**
+     * Replay every journaled input after the given sequence ID, in the order they were journaled; must not be
+     * called while a snapshot is written in the background.
+     *
+     * @param afterSeq inputs up to and including this sequence ID are skipped
+     * @param listener receives each journaled input
+     */
+    public void ReplayJournal(final long afterSeq, final JournalListener listener) {
+        MappedJournal.Visitor visitor = new MappedJournal.Visitor() {
+            public void onRecord(long sequence, ByteBuffer data) {
+                if (sequence > afterSeq)
+                    listener.OnJournaledInput(sequence, data);
+            }
+        };
+        // The other journal only holds inputs from before the active one's
+        _journals[_active ^ 1].replay(visitor);
+        _journals[_active].replay(visitor);
+    }
+
+    /**
+     * Flush the journals to the storage device.
+     */
+    public void Sync() {
+        _journals[0].force();
+        _journals[1].force();
+    }
+
+    private static long firstSequence(MappedJournal journal) {
+        return (journal.size() == 0) ? Long.MIN_VALUE : journal.firstSequence();
+    }
+
+    private final File _snapshotFile;
+    private final MappedJournal[] _journals;
+    private int _active;
+    private byte[] _scratch = new byte[256];
+    private ByteBuffer _pendingState = ByteBuffer.allocate(256);
+    private volatile Future<?> _pending;
+    // Starts its thread only once the first snapshot is written in the background
+    private final ExecutorService _writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "LocalStore-snapshot");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+}
@@ -0,0 +1,127 @@
+package com.solacesystems.ha;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Append-only journal of sequenced records in a fixed-size memory-mapped file.</p>
+ * <p>Each record is laid out as <code>[int length][long sequence][length bytes]</code> and is always followed
+ * by a zero length marking the end of the journal. A record's length is written last, so a record torn by a
+ * crash part way through an append reads as the end of the journal. Writes land in the page cache as soon as
+ * they are made and so survive the process dying; {@link #force()} makes them survive the host as well.</p>
+ */
+class MappedJournal {
+
+    static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    interface Visitor {
+        void onRecord(long sequence, ByteBuffer data);
+    }
+
+    /**
+     * Map the journal file, creating it if needed, and position the next append after the last record.
+     *
+     * @param file journal file
+     * @param capacity size of the mapped region in bytes; an existing file is mapped to its full length
+     *                 if that is larger
+     */
+    MappedJournal(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            _buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, raf.length()));
+        }
+        finally {
+            raf.close();
+        }
+        _buffer.order(ByteOrder.LITTLE_ENDIAN);
+        _writer = _buffer.duplicate();
+        _position = endOfRecords();
+    }
+
+    /**
+     * Append a record.
+     *
+     * @return false if the record does not fit in the remaining space
+     */
+    boolean append(long sequence, byte[] data, int offset, int length) {
+        if (length <= 0)
+            throw new IllegalArgumentException("Journal records must not be empty");
+        int next = _position + RECORD_HEADER_SIZE + length;
+        if (next > _buffer.capacity())
+            return false;
+        _buffer.putLong(_position + 4, sequence);
+        _writer.position(_position + RECORD_HEADER_SIZE);
+        _writer.put(data, offset, length);
+        if (next + 4 <= _buffer.capacity())
+            _buffer.putInt(next, 0);
+        _buffer.putInt(_position, length);
+        _position = next;
+        return true;
+    }
+
+    /**
+     * Visit every record in the order it was appended; each record's data is a read-only view valid
+     * only for the duration of the call.
+     */
+    void replay(Visitor visitor) {
+        ByteBuffer view = _buffer.asReadOnlyBuffer();
+        int position = 0;
+        while (position < _position) {
+            int length = _buffer.getInt(position);
+            long sequence = _buffer.getLong(position + 4);
+            view.limit(position + RECORD_HEADER_SIZE + length).position(position + RECORD_HEADER_SIZE);
+            visitor.onRecord(sequence, view.slice());
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Discard every record.
+     */
+    void reset() {
+        _buffer.putInt(0, 0);
+        _position = 0;
+    }
+
+    void force() {
+        _buffer.force();
+    }
+
+    /**
+     * @return sequence of the first record; only meaningful if the journal holds any
+     */
+    long firstSequence() {
+        return _buffer.getLong(4);
+    }
+
+    /**
+     * @return number of bytes used by records
+     */
+    int size() {
+        return _position;
+    }
+
+    int capacity() {
+        return _buffer.capacity();
+    }
+
+    private int endOfRecords() {
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= _buffer.capacity()) {
+            int length = _buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > _buffer.capacity())
+                break;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private final MappedByteBuffer _buffer;
+    private final ByteBuffer _writer;
+    private int _position;
+}
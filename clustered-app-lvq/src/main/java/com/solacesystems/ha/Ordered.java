@@ -1,8 +1,9 @@
 package com.solacesystems.ha;
 
 /**
- * Message object with a sequence ID
+ * Message object with a 64-bit sequence ID; sequence IDs are expected to be non-negative
+ * and to increase along the input stream.
  */
 public interface Ordered {
-    int getSequenceId();
+    long getSequenceId();
 }
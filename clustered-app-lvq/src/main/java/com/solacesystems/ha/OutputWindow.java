@@ -0,0 +1,213 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.Destination;
+
+/**
+ * <p>Bounded window of published outputs awaiting acknowledgement from the broker. Each output occupies
+ * a {@link Slot} from the time it is sent until the broker accepts or rejects it; the slot itself is the
+ * correlation key handed to the streaming publisher, so tracking an output allocates nothing.</p>
+ * <p>An output can carry the input message that produced it; that input is only released for
+ * acknowledgement once the broker has accepted the output, so an input is never removed from its queue
+ * before its output is safely spooled.</p>
+ * <p>When the window is full, {@link #acquire} blocks the publishing thread until a slot frees up or the
+ * publish timeout expires; this is the back-pressure that keeps the active member at broker speed.</p>
+ * <p>A transport that retries rejected outputs keeps the message published for each output in its slot. A rejected output
+ * holds its slot, and so every later slot, until it is finally accepted or {@link #superseded} by a later
+ * output to the same topic and that output is accepted.</p>
+ */
+class OutputWindow {
+
+    /**
+     * Correlation key for one in-flight output
+     */
+    static final class Slot {
+        long key;
+        BytesXMLMessage ackOnConfirm;
+        boolean completed;
+        boolean accepted;
+        long sentNanos;
+        // Set when the slot is acquired, under the window's lock
+        Destination topic;
+        // Message published for the output, reused for every output in the slot by transports that retry
+        // rejected outputs
+        BytesXMLMessage message;
+        int attempts;
+
+        @Override
+        public String toString() {
+            return "OutputWindow.Slot{" + key + "}";
+        }
+    }
+
+    /**
+     * @param capacity maximum number of unacknowledged outputs
+     * @param timeoutMillis how long a publisher waits for space in a full window; 0 waits indefinitely
+     */
+    OutputWindow(int capacity, long timeoutMillis) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Output window capacity must be positive: " + capacity);
+        _slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++)
+            _slots[i] = new Slot();
+        _timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Reserve a slot for the next output, waiting for space if the window is full.
+     *
+     * @param ackOnConfirm input message to release once the output is accepted; may be null
+     * @return the slot to use as the correlation key, or null if no space was available in time
+     */
+    Slot acquire(BytesXMLMessage ackOnConfirm) {
+        return acquire(null, ackOnConfirm);
+    }
+
+    /**
+     * Reserve a slot for the next output to a topic, waiting for space if the window is full.
+     *
+     * @param topic destination of the output, against which later outputs are checked for {@link #superseded}
+     * @param ackOnConfirm input message to release once the output is accepted; may be null
+     * @return the slot to use as the correlation key, or null if no space was available in time
+     */
+    synchronized Slot acquire(Destination topic, BytesXMLMessage ackOnConfirm) {
+        long deadline = (_timeoutMillis > 0) ? System.currentTimeMillis() + _timeoutMillis : 0;
+        try {
+            while (_next - _head >= _slots.length) {
+                if (deadline == 0) {
+                    wait();
+                }
+                else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return null;
+                    wait(remaining);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        Slot slot = _slots[(int) (_next % _slots.length)];
+        slot.key = _next++;
+        slot.ackOnConfirm = ackOnConfirm;
+        slot.completed = false;
+        slot.accepted = false;
+        slot.topic = topic;
+        slot.attempts = 0;
+        if (_metrics != null)
+            slot.sentNanos = System.nanoTime();
+        return slot;
+    }
+
+    /**
+     * Complete an in-flight output, freeing its slot once every output ahead of it has also completed.
+     *
+     * @param correlationKey the slot returned from {@link #acquire}
+     * @param accepted true if the broker accepted the output, false if it was rejected
+     * @return the input message to acknowledge, or null if there is none or the output was rejected
+     */
+    synchronized BytesXMLMessage complete(Object correlationKey, boolean accepted) {
+        if (!(correlationKey instanceof Slot))
+            return null;
+        Slot slot = (Slot) correlationKey;
+        if (slot.completed || slot.key < _head)
+            return null;
+        PipelineMetrics metrics = _metrics;
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.ACK, System.nanoTime() - slot.sentNanos);
+            metrics.count(accepted ? PipelineMetrics.Counter.OUTPUTS_ACKNOWLEDGED : PipelineMetrics.Counter.OUTPUTS_REJECTED);
+        }
+        return release(slot, accepted);
+    }
+
+    /**
+     * Count a rejection of an output that stays in flight to be published again.
+     */
+    void rejected(Slot slot) {
+        PipelineMetrics metrics = _metrics;
+        if (metrics != null)
+            metrics.count(PipelineMetrics.Counter.OUTPUTS_REJECTED);
+    }
+
+    /**
+     * @return true if a later output to the same topic has been sent, so that publishing the output again
+     *         could land after it and roll the topic's last value queue back to older state
+     */
+    synchronized boolean superseded(Slot slot) {
+        return supersededBy(slot, false);
+    }
+
+    /**
+     * @return true if a later output to the same topic has been accepted, so that the output's state is
+     *         already in the topic's last value queue
+     */
+    synchronized boolean supersessionAccepted(Slot slot) {
+        return supersededBy(slot, true);
+    }
+
+    private boolean supersededBy(Slot slot, boolean accepted) {
+        if (slot.completed || slot.key < _head || slot.topic == null)
+            return false;
+        for (long key = slot.key + 1; key < _next; key++) {
+            Slot later = _slots[(int) (key % _slots.length)];
+            if (!slot.topic.equals(later.topic))
+                continue;
+            if (later.completed ? later.accepted : !accepted)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Complete an output that will not be published again because it was {@link #superseded}, once the
+     * later output is accepted; its input is released, since the later output carries its effect.
+     *
+     * @return the input message to acknowledge, or null if there is none
+     */
+    synchronized BytesXMLMessage retire(Slot slot) {
+        if (slot.completed || slot.key < _head)
+            return null;
+        return release(slot, true);
+    }
+
+    private BytesXMLMessage release(Slot slot, boolean accepted) {
+        BytesXMLMessage input = accepted ? slot.ackOnConfirm : null;
+        slot.ackOnConfirm = null;
+        slot.accepted = accepted;
+        slot.completed = true;
+        boolean advanced = false;
+        while (_head < _next && _slots[(int) (_head % _slots.length)].completed) {
+            _head++;
+            advanced = true;
+        }
+        if (advanced)
+            notifyAll();
+        return input;
+    }
+
+    /**
+     * @return number of outputs sent and not yet acknowledged
+     */
+    synchronized int inFlight() {
+        return (int) (_next - _head);
+    }
+
+    /**
+     * Time every output from acquiring its slot until it completes into the metrics' ACK stage
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    int capacity() {
+        return _slots.length;
+    }
+
+    private final Slot[] _slots;
+    private final long _timeoutMillis;
+    private long _next;
+    private long _head;
+    private volatile PipelineMetrics _metrics;
+}
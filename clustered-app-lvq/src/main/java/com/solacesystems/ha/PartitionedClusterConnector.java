@@ -0,0 +1,274 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.JCSMPException;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>Runs a clustered application as N independent partitions in one process, for example one partition per
+ * range of instrument hashes. Each partition is a complete {@link ClusterConnector} with its own application
+ * queue, Last Value Queue, {@link ClusterModel}, HA state, sequence state and processing thread, so one
+ * process can be ACTIVE for some partitions and BACKUP for others, and every core does useful work.</p>
+ * <p>Partitions either each get their own session or share a smaller number of sessions round-robin. All
+ * partitions are pipelined: a session's dispatcher thread only hands inputs over to the processing thread of
+ * their partition. Inputs are routed to partitions by the publisher, using {@link #PartitionOf(String, int)}
+ * to choose the partition's topic:
+ * <pre>
+ *     PartitionedClusterConnector&lt;Order, State&gt; partitions =
+ *         new PartitionedClusterConnector&lt;Order, State&gt;(8, factory);
+ *     partitions.Connect(host, vpn, user, password, "app1_inst1");
+ *     partitions.BindQueues("app1_inst1_p%d", "app1_lvq_p%d");
+ * </pre>
+ * </p>
+ *
+ * @param <InputType> input message type
+ * @param <OutputType> output message type
+ */
+public class PartitionedClusterConnector<InputType extends Ordered, OutputType extends Ordered> {
+    final static Logger log = Logger.getLogger(PartitionedClusterConnector.class);
+
+    /** Default number of inputs that may be queued for each partition's processing thread */
+    public static final int DEFAULT_RING_SIZE = 1024;
+
+    /**
+     * Creates the application instance of one partition.
+     */
+    public interface PartitionFactory<InputType extends Ordered, OutputType extends Ordered> {
+        /**
+         * Create the application instance, its {@link ClusterModel} and the {@link ClusterConnector} for one
+         * partition; the connector must be created over the given transport and not yet connected.
+         *
+         * @param partition partition number, from 0
+         * @param transport transport for the partition's connector
+         * @return the partition's connector
+         */
+        ClusterConnector<InputType, OutputType> CreatePartition(int partition, ClusterTransport transport);
+    }
+
+    /**
+     * Creates the messaging transport of one session.
+     */
+    public interface TransportFactory {
+        /**
+         * @param session session number, from 0
+         * @return a new, unconnected transport
+         */
+        ClusterTransport CreateTransport(int session);
+    }
+
+    /**
+     * Create partitions with a Solace session each.
+     *
+     * @param partitions number of partitions
+     * @param factory creates each partition's application instance
+     */
+    public PartitionedClusterConnector(int partitions, PartitionFactory<InputType, OutputType> factory) {
+        this(partitions, partitions, new TransportFactory() {
+            public ClusterTransport CreateTransport(int session) {
+                return new SolaceConnector();
+            }
+        }, factory);
+    }
+
+    /**
+     * Create partitions sharing a number of sessions; partition p uses session p % sessions.
+     *
+     * @param partitions number of partitions
+     * @param sessions number of sessions, from 1 to the number of partitions
+     * @param transports creates each session's transport
+     * @param factory creates each partition's application instance
+     */
+    public PartitionedClusterConnector(int partitions, int sessions, TransportFactory transports,
+                                       PartitionFactory<InputType, OutputType> factory) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("Partition count must be positive: " + partitions);
+        if (sessions < 1 || sessions > partitions)
+            throw new IllegalArgumentException(String.format("Session count must be from 1 to %d: %d", partitions, sessions));
+        _sessionTransports = new ClusterTransport[sessions];
+        SharedSessionTransport.Session[] shared = new SharedSessionTransport.Session[sessions];
+        _sharedSessions = shared;
+        for (int i = 0; i < sessions; i++) {
+            _sessionTransports[i] = transports.CreateTransport(i);
+            // A session used by a single partition needs no sharing
+            if (sessions < partitions)
+                shared[i] = new SharedSessionTransport.Session(_sessionTransports[i]);
+        }
+        _partitions = newConnectors(partitions);
+        _bound = new boolean[partitions];
+        for (int p = 0; p < partitions; p++) {
+            int session = p % sessions;
+            ClusterTransport transport = (shared[session] == null)
+                    ? _sessionTransports[session] : new SharedSessionTransport(shared[session]);
+            _partitions[p] = factory.CreatePartition(p, transport);
+        }
+    }
+
+    /**
+     * Map a key, such as an instrument, to a partition; the mapping is the same in every process.
+     *
+     * @param key partitioning key
+     * @param partitions number of partitions
+     * @return partition number, from 0
+     */
+    public static int PartitionOf(String key, int partitions) {
+        // Spread the bits of String.hashCode, which is specified and so stable across JVMs
+        int h = key.hashCode() * 0x9E3779B9;
+        return (int) (((h ^ (h >>> 16)) & 0xFFFFFFFFL) % partitions);
+    }
+
+    /**
+     * Configure the processing thread of every partition; must be called before binding queues.
+     *
+     * @param ringSize number of inputs and events that may be queued for each partition
+     * @param waitStrategy how each processing thread waits for inputs
+     */
+    public void SetPipelined(int ringSize, WaitStrategy waitStrategy) {
+        _ringSize = ringSize;
+        _waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Connect every session; each is named after the client name and its session number.
+     *
+     * @param host IP or Host:port of the Solace Message Router to connect to
+     * @param vpn Solace Message-VPN to connect to
+     * @param user The username to authenticate as for the sessions
+     * @param password The password to authenticate with
+     * @param clientName Client name prefix; session i connects as clientName/i
+     * @return True if every partition connected
+     */
+    public boolean Connect(String host, String vpn, String user, String password, String clientName) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("PartitionedClusterConnector::Connect(clientName:%s, partitions:%d, sessions:%d)",
+                clientName, _partitions.length, _sessionTransports.length));
+        boolean result = true;
+        for (int p = 0; p < _partitions.length; p++)
+            result &= _partitions[p].Connect(host, vpn, user, password, clientName + "/" + (p % _sessionTransports.length));
+        return result;
+    }
+
+    /**
+     * Bind every partition to its queues; the queue names are formatted with the partition number.
+     *
+     * @param appqFormat application queue name format, e.g. "app1_inst1_p%d"
+     * @param lvqFormat Last Value Queue name format, e.g. "app1_lvq_p%d"
+     * @throws JCSMPException if a partition cannot bind its queues
+     */
+    public void BindQueues(String appqFormat, String lvqFormat) throws JCSMPException {
+        for (int p = 0; p < _partitions.length; p++)
+            BindPartition(p, String.format(appqFormat, p), String.format(lvqFormat, p));
+    }
+
+    /**
+     * Bind one partition to its queues; partitions bound first become ACTIVE where no other process is.
+     *
+     * @param partition partition number, from 0
+     * @param appq the partition's application queue
+     * @param lvq the partition's Last Value Queue
+     * @throws JCSMPException if the partition cannot bind its queues
+     */
+    public void BindPartition(int partition, String appq, String lvq) throws JCSMPException {
+        if (!_bound[partition]) {
+            _partitions[partition].setPipelined(_ringSize, _waitStrategy, "ClusterPipeline-" + partition);
+            _bound[partition] = true;
+        }
+        _partitions[partition].BindQueues(appq, lvq);
+    }
+
+    /**
+     * <p>Balance leadership of the partitions with the other members of the cluster; must be called after
+     * connecting. See {@link LeadershipBalancer}.</p>
+     *
+     * @param clusterTopic topic prefix shared by every member of the cluster, e.g. "cluster/app1"
+     * @param member name of this member, unique in the cluster
+     * @param intervalMillis time between gossip and balancing rounds
+     * @return the running balancer
+     * @throws JCSMPException if the gossip subscription cannot be added
+     */
+    public LeadershipBalancer EnableLeadershipBalancing(String clusterTopic, String member, long intervalMillis) throws JCSMPException {
+        if (_balancer != null)
+            _balancer.Stop();
+        _balancer = new LeadershipBalancer(this, _sessionTransports[0], clusterTopic, member);
+        _balancer.Start(intervalMillis);
+        return _balancer;
+    }
+
+    /**
+     * @return number of partitions
+     */
+    public int GetPartitionCount() {
+        return _partitions.length;
+    }
+
+    /**
+     * @param partition partition number, from 0
+     * @return the partition's connector
+     */
+    public ClusterConnector<InputType, OutputType> GetPartition(int partition) {
+        return _partitions[partition];
+    }
+
+    /**
+     * <p>Metrics of a session's output acknowledgements: the {@link PipelineMetrics.Stage#ACK ACK} stage and
+     * the acknowledged and rejected output counts.</p>
+     * <p>Each partition's own {@link ClusterConnector#GetPipelineMetrics()} only has these if the partition
+     * has a session to itself. A session shared by several partitions cannot tell their outputs apart, so
+     * it records them here instead, for all of its partitions together.</p>
+     *
+     * @param session session number, from 0
+     * @return the session's metrics; those of its only partition if it is not shared
+     */
+    public PipelineMetrics GetSessionMetrics(int session) {
+        SharedSessionTransport.Session shared = _sharedSessions[session];
+        return (shared == null) ? _partitions[session].GetPipelineMetrics() : shared.metrics();
+    }
+
+    /**
+     * @param partition partition number, from 0
+     * @return the partition's current state
+     */
+    public ClusterState<InputType, OutputType> GetPartitionState(int partition) {
+        return _partitions[partition].model().GetState();
+    }
+
+    /**
+     * @return number of partitions this process is currently ACTIVE for
+     */
+    public int GetActivePartitionCount() {
+        int active = 0;
+        for (ClusterConnector<InputType, OutputType> partition : _partitions)
+            if (partition.model().GetHAStatus() == HAState.ACTIVE)
+                active++;
+        return active;
+    }
+
+    /**
+     * Stop every partition's processing thread once it has processed its queued inputs.
+     */
+    public void Close() {
+        if (log.isDebugEnabled())
+            log.debug("PartitionedClusterConnector::Close()");
+        if (_balancer != null)
+            _balancer.Stop();
+        for (ClusterConnector<InputType, OutputType> partition : _partitions)
+            partition.Close();
+    }
+
+    boolean isBound(int partition) {
+        return _bound[partition];
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <InputType extends Ordered, OutputType extends Ordered>
+    ClusterConnector<InputType, OutputType>[] newConnectors(int partitions) {
+        return (ClusterConnector<InputType, OutputType>[]) new ClusterConnector[partitions];
+    }
+
+    private final ClusterConnector<InputType, OutputType>[] _partitions;
+    private final ClusterTransport[] _sessionTransports;
+    // Null for sessions used by a single partition
+    private final SharedSessionTransport.Session[] _sharedSessions;
+    private int _ringSize = DEFAULT_RING_SIZE;
+    private WaitStrategy _waitStrategy = WaitStrategy.PARK;
+    private final boolean[] _bound;
+    private LeadershipBalancer _balancer;
+}
@@ -0,0 +1,115 @@
+package com.solacesystems.ha;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Steady-state throughput and latency of every stage of a {@link ClusterConnector}'s input-to-output
+ * pipeline.</p>
+ * <p>Counters are striped {@link LongAdder}s, so any thread can count without contending. Each stage
+ * histogram is only ever recorded by one thread: the receive, deserialize, process, serialize and publish
+ * stages by the thread processing inputs, and the ack stage by the transport's publisher-event thread. All
+ * recording is lock-free and allocation-free, so the metrics can stay on in production at full rate.</p>
+ * <p>Stage latencies are only measured while input latency tracking is enabled with
+ * {@link ClusterConnector#SetInputLatencyTracking(boolean)}; the ack stage and all counters are always on.</p>
+ */
+public class PipelineMetrics {
+
+    /**
+     * Events counted
+     */
+    public enum Counter {
+        /** Inputs delivered from the application queue */
+        INPUTS_RECEIVED,
+        /** Inputs applied to the application state */
+        INPUTS_PROCESSED,
+        /** Inputs deserialized but ignored as behind the recovered state */
+        INPUTS_IGNORED,
+        /** Inputs skipped unread in fast catch-up mode */
+        INPUTS_SKIPPED,
+        /** Inputs whose deserialization or processing threw */
+        INPUTS_FAILED,
+        /** Outputs handed to the transport */
+        OUTPUTS_SENT,
+        /** Outputs dropped because this member stopped being active while the output window was full */
+        OUTPUTS_DROPPED,
+        /** Outputs that failed to send */
+        PUBLISH_ERRORS,
+        /** Outputs accepted by the broker */
+        OUTPUTS_ACKNOWLEDGED,
+        /** Rejections of outputs by the broker; each rejected output is published again */
+        OUTPUTS_REJECTED
+    }
+
+    /**
+     * Stages timed, in pipeline order
+     */
+    public enum Stage {
+        /** From the API receiving an input until it is processed, at millisecond resolution of the receive timestamp */
+        RECEIVE,
+        /** Deserializing an input */
+        DESERIALIZE,
+        /** Applying an input to the application state, including producing and sending its outputs */
+        PROCESS,
+        /** Serializing an output */
+        SERIALIZE,
+        /** Handing a serialized output to the transport */
+        PUBLISH,
+        /** From publishing an output until the broker accepts or rejects it */
+        ACK
+    }
+
+    PipelineMetrics() {
+        for (int i = 0; i < _counters.length; i++)
+            _counters[i] = new LongAdder();
+        for (int i = 0; i < _stages.length; i++)
+            _stages[i] = new LatencyHistogram(true);
+    }
+
+    /**
+     * @param counter the counter to read
+     * @return number of events counted
+     */
+    public long GetCount(Counter counter) {
+        return _counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @param stage the stage to read
+     * @return latency distribution of the stage in nanoseconds
+     */
+    public LatencyHistogram GetHistogram(Stage stage) {
+        return _stages[stage.ordinal()];
+    }
+
+    /**
+     * Zero every counter and histogram; counts recorded concurrently may be lost.
+     */
+    public void Reset() {
+        for (LongAdder counter : _counters)
+            counter.reset();
+        for (LatencyHistogram stage : _stages)
+            stage.Reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PipelineMetrics{");
+        for (Counter counter : Counter.values())
+            sb.append(counter).append('=').append(GetCount(counter)).append(", ");
+        for (Stage stage : Stage.values())
+            sb.append(stage).append("=[").append(GetHistogram(stage)).append("], ");
+        sb.setLength(sb.length() - 2);
+        return sb.append('}').toString();
+    }
+
+    void count(Counter counter) {
+        _counters[counter.ordinal()].increment();
+    }
+
+    void record(Stage stage, long nanos) {
+        _stages[stage.ordinal()].Record(nanos);
+    }
+
+    private final LongAdder[] _counters = new LongAdder[Counter.values().length];
+    private final LatencyHistogram[] _stages = new LatencyHistogram[Stage.values().length];
+}
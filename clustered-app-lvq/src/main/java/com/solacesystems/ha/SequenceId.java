@@ -0,0 +1,15 @@
+package com.solacesystems.ha;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the <code>long</code> field of an input or output type holding its sequence ID, written as the
+ * sequence header of its serialized form. See {@link GenerateSerializer}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface SequenceId {
+}
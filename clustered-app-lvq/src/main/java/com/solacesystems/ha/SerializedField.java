@@ -0,0 +1,30 @@
+package com.solacesystems.ha;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of an input or output type as part of its serialized form; fields are written in declaration
+ * order after the sequence header. Supported types are <code>boolean</code>, <code>byte</code>,
+ * <code>short</code>, <code>int</code>, <code>long</code>, <code>float</code>, <code>double</code> and
+ * <code>String</code>. See {@link GenerateSerializer}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface SerializedField {
+    /**
+     * Whether a <code>String</code> field holds a symbol, such as an instrument name, decoded through a
+     * {@link SymbolTable} and sent as its id when it is in the table's sealed dictionary; see
+     * {@link ByteBufferSerializer#SerializeSymbol}.
+     */
+    boolean symbol() default false;
+
+    /**
+     * Whether messages with a legacy 32-bit sequence header carry the field. A field added to the type since
+     * is left at its default when decoding them, rather than read from whatever follows the legacy fields,
+     * such as padding.
+     */
+    boolean legacy() default true;
+}
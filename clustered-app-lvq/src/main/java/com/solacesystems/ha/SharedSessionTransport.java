@@ -0,0 +1,120 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>One partition's view of a {@link ClusterTransport} session shared by several partitions of a
+ * {@link PartitionedClusterConnector}.</p>
+ * <p>The underlying session is connected by the first partition to connect and every partition receives its
+ * session events. Queues, browsers and publishing are passed straight through. Inputs whose outputs are
+ * confirmed cannot be told apart by partition, so they are acknowledged directly by the session rather
+ * than through any one partition's acknowledgement batch. For the same reason, the session's output
+ * acknowledgements and rejections are recorded in the session's own {@link PipelineMetrics} rather than
+ * in any one partition's.</p>
+ */
+class SharedSessionTransport implements ClusterTransport {
+    final static Logger log = Logger.getLogger(SharedSessionTransport.class);
+
+    /**
+     * Session shared by several partitions
+     */
+    static class Session {
+        Session(ClusterTransport transport) {
+            _transport = transport;
+            _transport.SetInputAcknowledger(null);
+            _transport.SetMetrics(_metrics);
+        }
+
+        synchronized void connect(String host, String vpn, String user, String password, String clientName,
+                                  SessionEventHandler handler) throws JCSMPException {
+            if (handler != null)
+                _handlers.add(handler);
+            if (_connected) return;
+            if (log.isDebugEnabled())
+                log.debug(String.format("SharedSessionTransport::connect(clientName:%s)", clientName));
+            _transport.ConnectSession(host, vpn, user, password, clientName, new SessionEventHandler() {
+                public void handleEvent(SessionEventArgs args) {
+                    for (SessionEventHandler h : handlers())
+                        h.handleEvent(args);
+                }
+            });
+            _connected = true;
+        }
+
+        private synchronized List<SessionEventHandler> handlers() {
+            return new ArrayList<SessionEventHandler>(_handlers);
+        }
+
+        /**
+         * @return acknowledgements and rejections of the outputs of every partition sharing the session
+         */
+        PipelineMetrics metrics() {
+            return _metrics;
+        }
+
+        final ClusterTransport _transport;
+        private final PipelineMetrics _metrics = new PipelineMetrics();
+        private final List<SessionEventHandler> _handlers = new ArrayList<SessionEventHandler>();
+        private boolean _connected;
+    }
+
+    SharedSessionTransport(Session session) {
+        _session = session;
+    }
+
+    public void ConnectSession(String host, String vpn, String user, String password, String clientName,
+                               SessionEventHandler sessionEventHandler) throws JCSMPException {
+        _session.connect(host, vpn, user, password, clientName, sessionEventHandler);
+    }
+
+    public FlowReceiver BindQueue(String name, XMLMessageListener messageListener, FlowEventHandler flowEventHandler) throws JCSMPException {
+        return _session._transport.BindQueue(name, messageListener, flowEventHandler);
+    }
+
+    public Browser BrowseQueue(String queue) throws JCSMPException {
+        return _session._transport.BrowseQueue(queue);
+    }
+
+    public boolean SendOutput(String topic, ByteBuffer payload) throws JCSMPException {
+        return _session._transport.SendOutput(topic, payload);
+    }
+
+    public boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm) throws JCSMPException {
+        return _session._transport.SendOutput(topic, payload, ackOnConfirm);
+    }
+
+    public void SendText(String topic, String payload) throws JCSMPException {
+        _session._transport.SendText(topic, payload);
+    }
+
+    public void SendDirectText(String topic, String payload) throws JCSMPException {
+        _session._transport.SendDirectText(topic, payload);
+    }
+
+    public void SendDirect(String topic, ByteBuffer payload) throws JCSMPException {
+        _session._transport.SendDirect(topic, payload);
+    }
+
+    public void SubscribeDirect(String subscription, XMLMessageListener listener) throws JCSMPException {
+        _session._transport.SubscribeDirect(subscription, listener);
+    }
+
+    public int GetOutputsInFlight() {
+        return _session._transport.GetOutputsInFlight();
+    }
+
+    public void SetMetrics(PipelineMetrics metrics) {
+        // The session's acknowledgements are recorded in the session's own metrics
+    }
+
+    public void SetInputAcknowledger(InputAcknowledger acknowledger) {
+        // Confirmed inputs are acknowledged directly by the shared session
+    }
+
+    private final Session _session;
+}
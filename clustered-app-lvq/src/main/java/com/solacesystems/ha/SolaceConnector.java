@@ -3,16 +3,97 @@ package com.solacesystems.ha;
 import com.solacesystems.jcsmp.*;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-public class SolaceConnector implements JCSMPStreamingPublishEventHandler {
+/**
+ * <p>{@link ClusterTransport} implementation over a JCSMP session to a Solace Message Router.</p>
+ * <p>Persistent messages are published with the streaming publisher: each send returns as soon as the
+ * message is handed to the API, and is tracked in a bounded {@link OutputWindow} until the router
+ * acknowledges it. The window size also bounds the JCSMP publish window. A publisher waits for space in
+ * the window before taking the connector's lock, so a full window holds up only persistent sends and never
+ * direct messages.</p>
+ * <p>Each persistent message is written into a message kept by its window slot, so that a message the router
+ * rejects, or that fails to send, is published again after a backoff of {@link #RETRY_MILLIS} doubling up to
+ * {@link #RETRY_MAX_MILLIS}, for as long as it takes. Its input stays unacknowledged until then. The
+ * exception is an output superseded by a later output to the same topic that has already been sent:
+ * publishing it again could land after the later output and roll the topic's last value queue back to older
+ * state, so it is never published again, and is dropped with its input acknowledged once the later output
+ * is accepted.</p>
+ * <p>The publish path allocates nothing per message and copies each output once, into the attachment of the
+ * message it is published with: the messages kept by the window slots, and a single output message for
+ * direct sends, are reused for every send, destination topics are created once and cached by name, and the
+ * window slot is the correlation key.</p>
+ */
+public class SolaceConnector implements ClusterTransport, JCSMPStreamingPublishCorrelatingEventHandler {
     final static Logger log = Logger.getLogger(SolaceConnector.class);
 
+    /**
+     * Default maximum number of unacknowledged persistent messages
+     */
+    public static final int DEFAULT_OUTPUT_WINDOW = 255;
+
+    /**
+     * Default time a publisher waits for space in a full window before giving up, so that a publisher held
+     * by the window gets the chance to notice it is no longer the active member
+     */
+    public static final long DEFAULT_OUTPUT_TIMEOUT_MILLIS = 500;
+
+    /**
+     * Maximum number of browsed messages the router may send ahead of the browser
+     */
+    static final int BROWSE_WINDOW_SIZE = 255;
+
+    /**
+     * Delay before publishing a rejected or failed message again, doubled for every further attempt
+     */
+    static final long RETRY_MILLIS = 10;
+    /**
+     * Longest delay between attempts to publish a message
+     */
+    static final long RETRY_MAX_MILLIS = 1000;
+
     public SolaceConnector() {
         outMessage = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
         outMessage.setDeliveryMode(DeliveryMode.PERSISTENT);
     }
 
+    /**
+     * Constructor for a connector publishing through an already connected session, e.g. a stub session
+     * for benchmarking the output path without a router. The producer is obtained from the session with
+     * this connector as its correlating event handler, as when connecting.
+     *
+     * @param session the session whose producer all messages are sent through
+     */
+    SolaceConnector(JCSMPSession session) throws JCSMPException {
+        this();
+        this.session = session;
+        this.producer = session.getMessageProducer(this);
+    }
+
+    /**
+     * Configure the window of unacknowledged persistent messages; must be called before connecting.
+     *
+     * @param size maximum number of outputs awaiting acknowledgement from the router (at most 255)
+     * @param timeoutMillis how long a publisher waits for space in a full window before giving up;
+     *                      0 waits indefinitely. Defaults to {@link #DEFAULT_OUTPUT_TIMEOUT_MILLIS}.
+     */
+    public void SetOutputWindow(int size, long timeoutMillis) {
+        if (size > 255)
+            throw new IllegalArgumentException("JCSMP supports a publish window of at most 255 messages: " + size);
+        window = new OutputWindow(size, timeoutMillis);
+        window.setMetrics(metrics);
+    }
+
     public void ConnectSession(String host, String vpn, String user, String password, String clientName,
                                SessionEventHandler sessionEventHandler) throws JCSMPException {
         if (log.isDebugEnabled())
@@ -27,6 +108,7 @@ public class SolaceConnector implements JCSMPStreamingPublishEventHandler {
         props.setProperty(JCSMPProperties.GENERATE_SEND_TIMESTAMPS, true);
         props.setProperty(JCSMPProperties.PASSWORD, password);
         props.setProperty(JCSMPProperties.MESSAGE_ACK_MODE, JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);
+        props.setProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, window.capacity());
         JCSMPChannelProperties ccp = (JCSMPChannelProperties)props.getProperty(JCSMPProperties.CLIENT_CHANNEL_PROPERTIES);
         ccp.setKeepAliveLimit(3);
         ccp.setKeepAliveIntervalInMillis(1000);
@@ -58,43 +140,317 @@ public class SolaceConnector implements JCSMPStreamingPublishEventHandler {
             log.debug(String.format("SolaceConnector::BrowseQueue(queue:%s)", queue));
         BrowserProperties props = new BrowserProperties();
         props.setEndpoint(JCSMPFactory.onlyInstance().createQueue(queue));
-        props.setTransportWindowSize(1);
-        props.setWaitTimeout(100);
+        // The LVQs are browsed in bulk, so let the router stream as many messages as it can up front
+        props.setTransportWindowSize(BROWSE_WINDOW_SIZE);
+        props.setWaitTimeout((int) ClusterConnector.LVQ_BROWSE_TIMEOUT_MILLIS);
         return session.createBrowser(props);
     }
 
-    public void SendOutput(String topic, ByteBuffer payload) throws JCSMPException {
+    public boolean SendOutput(String topic, ByteBuffer payload) throws JCSMPException {
+        return SendOutput(topic, payload, null);
+    }
+
+    /**
+     * Sends exactly the readable region of the payload, i.e. from its position to its limit, so serializers
+     * should flip their buffer before handing it over. The payload's position is left unchanged. Heap
+     * buffers are copied from their backing array and direct and read-only buffers through a stream.
+     * Once the output has a slot in the window it is never lost: if sending fails, it is published again
+     * until the router accepts it.
+     */
+    public boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm) throws JCSMPException {
         if (log.isDebugEnabled())
             log.debug(String.format("SolaceConnector::SendOutput(topic:%s)", topic));
-        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
-        msg.setDeliveryMode(DeliveryMode.PERSISTENT);
-        msg.writeAttachment(payload.array());
-        producer.send(msg, JCSMPFactory.onlyInstance().createTopic(topic));
+        OutputWindow.Slot slot = window.acquire(getTopic(topic), ackOnConfirm);
+        if (slot == null)
+            return false;
+        try {
+            synchronized (this) {
+                writePayload(message(slot), payload);
+            }
+        }
+        catch(JCSMPException ex) {
+            window.complete(slot, false);
+            throw ex;
+        }
+        send(slot, topic);
+        return true;
     }
 
     public void SendText(String topic, String payload) throws JCSMPException {
         if (log.isDebugEnabled())
             log.debug(String.format("SolaceConnector::SendText(topic:%s, payload:%s)", topic, payload));
-        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
-        msg.setDeliveryMode(DeliveryMode.PERSISTENT);
-        msg.writeAttachment(payload.getBytes());
-        producer.send(msg, JCSMPFactory.onlyInstance().createTopic(topic));
+        OutputWindow.Slot slot = window.acquire(getTopic(topic), null);
+        if (slot == null) {
+            log.warn("Output window full; dropped text message on topic " + topic);
+            return;
+        }
+        synchronized (this) {
+            writeText(message(slot), payload);
+        }
+        send(slot, topic);
+    }
+
+    public synchronized void SendDirectText(String topic, String payload) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("SolaceConnector::SendDirectText(topic:%s, payload:%s)", topic, payload));
+        outMessage.reset();
+        outMessage.setDeliveryMode(DeliveryMode.DIRECT);
+        writeText(outMessage, payload);
+        producer.send(outMessage, getTopic(topic));
     }
 
-    /** JCSMPStreamingPublishEventHandler **/
+    public synchronized void SendDirect(String topic, ByteBuffer payload) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("SolaceConnector::SendDirect(topic:%s)", topic));
+        outMessage.reset();
+        outMessage.setDeliveryMode(DeliveryMode.DIRECT);
+        writePayload(outMessage, payload);
+        producer.send(outMessage, getTopic(topic));
+    }
+
+    /**
+     * The session has a single direct-message consumer; each message is handed to the listener of
+     * every subscription its topic matches.
+     */
+    public synchronized void SubscribeDirect(String subscription, XMLMessageListener listener) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("SolaceConnector::SubscribeDirect(subscription:%s)", subscription));
+        if (directConsumer == null) {
+            directConsumer = session.getMessageConsumer(new XMLMessageListener() {
+                public void onReceive(BytesXMLMessage msg) {
+                    Destination destination = msg.getDestination();
+                    if (destination == null) return;
+                    for (DirectSubscription subscription : directSubscriptions)
+                        if (InProcessBroker.topicMatches(subscription.topic, destination.getName()))
+                            subscription.listener.onReceive(msg);
+                }
+                public void onException(JCSMPException ex) {
+                    log.error("Exception on direct message consumer", ex);
+                }
+            });
+            directConsumer.start();
+        }
+        directSubscriptions.add(new DirectSubscription(subscription, listener));
+        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(subscription));
+    }
+
+    public int GetOutputsInFlight() {
+        return window.inFlight();
+    }
+
+    public void SetMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        window.setMetrics(metrics);
+    }
+
+    public void SetInputAcknowledger(InputAcknowledger acknowledger) {
+        this.acknowledger = acknowledger;
+    }
+
+    /**
+     * Publishes the message in its slot for the first time, scheduling it to be published again if sending
+     * fails.
+     */
+    private void send(OutputWindow.Slot slot, String topic) {
+        try {
+            synchronized (this) {
+                publish(slot);
+            }
+        }
+        catch(JCSMPException ex) {
+            log.error("Failed to publish message " + slot + " on topic " + topic + "; retrying", ex);
+            retry(slot);
+        }
+    }
+
+    /**
+     * Sends the message in its slot; it is only sent again once the router has rejected it or sending it
+     * failed, and only refilled once the slot is reused. Must hold the connector's lock.
+     */
+    private void publish(OutputWindow.Slot slot) throws JCSMPException {
+        producer.send(slot.message, slot.topic);
+    }
+
+    /**
+     * @return the slot's message, emptied and correlated with the slot, ready for the output's attachment.
+     *         Must hold the connector's lock.
+     */
+    private static BytesXMLMessage message(OutputWindow.Slot slot) {
+        BytesXMLMessage message = slot.message;
+        if (message == null) {
+            message = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+            slot.message = message;
+        }
+        message.reset();
+        message.setDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setCorrelationKey(slot);
+        return message;
+    }
+
+    /**
+     * Publishes a rejected or failed message again after a backoff, unless a later message has superseded
+     * it by then, in which case it is dropped once the later message is accepted.
+     */
+    private void retry(final OutputWindow.Slot slot) {
+        long delay = Math.min(RETRY_MAX_MILLIS, RETRY_MILLIS << Math.min(slot.attempts, 16));
+        slot.attempts++;
+        retries.schedule(new Runnable() {
+            public void run() {
+                if (window.superseded(slot)) {
+                    if (!window.supersessionAccepted(slot)) {
+                        retry(slot);
+                        return;
+                    }
+                    log.warn("Dropped rejected message " + slot + " superseded by a later message on " + slot.topic);
+                    acknowledge(window.retire(slot));
+                    return;
+                }
+                try {
+                    synchronized (SolaceConnector.this) {
+                        publish(slot);
+                    }
+                }
+                catch(JCSMPException ex) {
+                    log.error("Failed to publish message " + slot + " again on " + slot.topic + "; retrying", ex);
+                    retry(slot);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void acknowledge(BytesXMLMessage input) {
+        if (input == null)
+            return;
+        InputAcknowledger inputAcknowledger = acknowledger;
+        if (inputAcknowledger != null)
+            inputAcknowledger.AcknowledgeInput(input);
+        else
+            input.ackMessage();
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int length) {
+        if (buffer != null && buffer.length >= length)
+            return buffer;
+        return new byte[Math.max(length, (buffer == null) ? 256 : 2 * buffer.length)];
+    }
+
+    /**
+     * Copies the readable region of the payload into a message; heap buffers from their backing array, direct
+     * and read-only buffers through the payload stream. Must hold the connector's lock.
+     */
+    private void writePayload(BytesXMLMessage message, ByteBuffer payload) throws JCSMPException {
+        if (payload.hasArray()) {
+            message.writeAttachment(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        else {
+            try {
+                message.writeAttachment(payloadStream.reset(payload));
+            }
+            catch(IOException ex) {
+                throw new JCSMPException("Failed to write payload to the output message", ex);
+            }
+            finally {
+                payloadStream.clear();
+            }
+        }
+    }
+
+    /**
+     * Encodes text into a message as UTF-8, through the reusable text buffer if it is plain ASCII. Must hold
+     * the connector's lock.
+     */
+    private void writeText(BytesXMLMessage message, String text) {
+        textBuffer = ensureCapacity(textBuffer, text.length());
+        int length = encodeText(text, textBuffer);
+        if (length < 0)
+            message.writeAttachment(text.getBytes(StandardCharsets.UTF_8));
+        else
+            message.writeAttachment(textBuffer, 0, length);
+    }
+
+    private synchronized Topic getTopic(String name) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            topic = JCSMPFactory.onlyInstance().createTopic(name);
+            topics.put(name, topic);
+        }
+        return topic;
+    }
+
+    /**
+     * Encodes ASCII text into a buffer at least as long as the text.
+     *
+     * @return number of bytes encoded, or -1 if the text is not plain ASCII
+     */
+    private static int encodeText(String text, byte[] buffer) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+                return -1;
+            buffer[i] = (byte) c;
+        }
+        return length;
+    }
+
+    /** JCSMPStreamingPublishCorrelatingEventHandler **/
+
+    public void responseReceivedEx(Object correlationKey) {
+        if (log.isDebugEnabled())
+            log.debug("Streaming publisher acknowledged: " + correlationKey);
+        acknowledge(window.complete(correlationKey, true));
+    }
+
+    /**
+     * The rejected message keeps its slot, and its input stays unacknowledged, until it is published again
+     * and accepted.
+     */
+    public void handleErrorEx(Object correlationKey, JCSMPException e, long timestamp) {
+        if (!(correlationKey instanceof OutputWindow.Slot)) {
+            log.error("Router rejected published message " + correlationKey, e);
+            return;
+        }
+        OutputWindow.Slot slot = (OutputWindow.Slot) correlationKey;
+        log.error("Router rejected published message " + slot + "; retrying", e);
+        window.rejected(slot);
+        retry(slot);
+    }
 
     public void handleError(String messageID, JCSMPException e, long timestamp) {
         log.error("Error reading a response for published message-ID: " + messageID, e);
     }
 
     public void responseReceived(String messageID) {
-        // TBD: Streaming Publisher handling (if necessary)
         if (log.isDebugEnabled())
             log.debug("Streaming publisher event message-ID: " + messageID);
     }
 
+    private static class DirectSubscription {
+        DirectSubscription(String topic, XMLMessageListener listener) {
+            this.topic = topic;
+            this.listener = listener;
+        }
+        final String topic;
+        final XMLMessageListener listener;
+    }
 
     private JCSMPSession session;
-    private BytesXMLMessage outMessage;
+    private final BytesXMLMessage outMessage;
+    private final Map<String, Topic> topics = new HashMap<String, Topic>();
+    private final ByteBufferInputStream payloadStream = new ByteBufferInputStream();
+    private byte[] textBuffer = new byte[256];
     private XMLMessageProducer producer;
+    private XMLMessageConsumer directConsumer;
+    private final List<DirectSubscription> directSubscriptions = new CopyOnWriteArrayList<DirectSubscription>();
+    private OutputWindow window = new OutputWindow(DEFAULT_OUTPUT_WINDOW, DEFAULT_OUTPUT_TIMEOUT_MILLIS);
+    private volatile InputAcknowledger acknowledger;
+    private volatile PipelineMetrics metrics;
+    // Starts its thread only once a message first needs publishing again
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SolaceConnector-retry");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 }
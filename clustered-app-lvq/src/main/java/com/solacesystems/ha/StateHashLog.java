@@ -0,0 +1,67 @@
+package com.solacesystems.ha;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>The application's state hash after each of the most recent inputs, by input sequence ID.</p>
+ * <p>Written only by the thread calling {@link ClusterModel#UpdateApplicationState}, and read from any
+ * thread. Each slot is guarded like a seqlock: the writer clears the slot's sequence ID before writing its
+ * hash and sets it afterwards, and a reader only trusts a hash read between two reads of the same sequence
+ * ID. Writes are ordered stores with no fences, so recording a hash costs the input path next to
+ * nothing.</p>
+ */
+class StateHashLog {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * @param capacity number of recent inputs whose hashes are kept; rounded up to a power of two
+     */
+    StateHashLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        _sequences = new AtomicLongArray(size);
+        _hashes = new AtomicLongArray(size);
+        _mask = size - 1;
+        for (int i = 0; i < size; i++)
+            _sequences.lazySet(i, EMPTY);
+    }
+
+    /**
+     * Records the state hash after an input; sequence IDs must increase from one call to the next.
+     */
+    void record(long sequenceId, long hash) {
+        int slot = (int) sequenceId & _mask;
+        _sequences.lazySet(slot, EMPTY);
+        _hashes.lazySet(slot, hash);
+        _sequences.lazySet(slot, sequenceId);
+        _latest.lazySet(sequenceId);
+    }
+
+    /**
+     * @return the sequence ID of the last input recorded, or {@link ClusterState#NO_SEQUENCE}
+     */
+    long latest() {
+        return _latest.get();
+    }
+
+    /**
+     * @return whether the hash after an input is still in the log
+     */
+    boolean contains(long sequenceId) {
+        return _sequences.get((int) sequenceId & _mask) == sequenceId;
+    }
+
+    /**
+     * Only meaningful if {@link #contains(long)} the sequence ID both before and after this call.
+     *
+     * @return the hash after an input
+     */
+    long hash(long sequenceId) {
+        return _hashes.get((int) sequenceId & _mask);
+    }
+
+    private final AtomicLongArray _sequences;
+    private final AtomicLongArray _hashes;
+    private final int _mask;
+    private final AtomicLong _latest = new AtomicLong(ClusterState.NO_SEQUENCE);
+}
@@ -0,0 +1,194 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.JCSMPException;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Publishes a member's {@link ClusterState} to monitoring tools such as the <code>sample-monitor</code>
+ * web UI, without putting any work on the input path.</p>
+ * <p>The application never calls into the publisher: a timer thread samples the model's current state
+ * snapshot at most {@link #Start(int) maxUpdatesPerSecond} times a second and publishes it only if it is
+ * a different snapshot than the last one published, so any number of state changes between two samples
+ * coalesce into a single update carrying the latest state. The last state is republished every
+ * {@link #REFRESH_MILLIS} even when nothing changes, so a monitor started later catches up.</p>
+ * <p>Updates are sent as direct messages, so they are never spooled by the broker and never compete with
+ * outputs for the output window. Each one is encoded into a reused buffer as
+ * <code>{ "Instance":1, "HAState":"ACTIVE", "SeqState":"UPTODATE", "LastInput":42, "LastOutput":42 }</code>.</p>
+ */
+public class StateTelemetry {
+    final static Logger log = Logger.getLogger(StateTelemetry.class);
+
+    /** Topic the sample monitor subscribes to */
+    public static final String DEFAULT_TOPIC = "monitor/state";
+    /** Unchanged state is republished this often */
+    public static final long REFRESH_MILLIS = 1000;
+
+    private static final byte[] INSTANCE = ascii("{ \"Instance\":");
+    private static final byte[] HA_STATE = ascii(", \"HAState\":\"");
+    private static final byte[] SEQ_STATE = ascii("\", \"SeqState\":\"");
+    private static final byte[] LAST_INPUT = ascii("\", \"LastInput\":");
+    private static final byte[] LAST_OUTPUT = ascii(", \"LastOutput\":");
+    private static final byte[] END = ascii(" }");
+    private static final byte[][] HA_STATES = names(HAState.values());
+    private static final byte[][] SEQ_STATES = names(SeqState.values());
+
+    /**
+     * @param model model whose state is published
+     * @param transport connected transport to publish on
+     * @param topic topic to publish the state on
+     * @param instance instance number of this member, identifying it to the monitor
+     */
+    public StateTelemetry(ClusterModel<?, ?> model, ClusterTransport transport, String topic, int instance) {
+        _model = model;
+        _transport = transport;
+        _topic = topic;
+        _instance = instance;
+    }
+
+    /**
+     * Start sampling and publishing the model's state.
+     *
+     * @param maxUpdatesPerSecond most updates published per second
+     */
+    public synchronized void Start(int maxUpdatesPerSecond) {
+        if (log.isDebugEnabled())
+            log.debug(String.format("StateTelemetry::Start(topic:%s, maxUpdatesPerSecond:%d)", _topic, maxUpdatesPerSecond));
+        if (maxUpdatesPerSecond < 1)
+            throw new IllegalArgumentException("Telemetry rate must be positive: " + maxUpdatesPerSecond);
+        Stop();
+        _timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StateTelemetry");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / maxUpdatesPerSecond;
+        _timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    publishIfChanged(System.nanoTime());
+                }
+                catch(RuntimeException ex) {
+                    log.error("Exception publishing state telemetry", ex);
+                }
+            }
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop publishing; the state is not published again until restarted.
+     */
+    public synchronized void Stop() {
+        if (_timer != null)
+            _timer.shutdownNow();
+        _timer = null;
+    }
+
+    /**
+     * @return number of state updates published
+     */
+    public long GetPublishedCount() {
+        return _published.get();
+    }
+
+    /**
+     * Publish the model's state if it changed since the last update, or the last update is due a refresh;
+     * only ever called from the timer thread.
+     *
+     * @return true if an update was published
+     */
+    boolean publishIfChanged(long nowNanos) {
+        ClusterState<?, ?> state = _model.GetState();
+        if (state == _lastState && nowNanos - _lastPublishNanos < TimeUnit.MILLISECONDS.toNanos(REFRESH_MILLIS))
+            return false;
+        encode(state);
+        try {
+            _transport.SendDirect(_topic, _buffer);
+        }
+        catch(JCSMPException ex) {
+            log.warn("Failed to publish state telemetry on topic " + _topic, ex);
+            return false;
+        }
+        _lastState = state;
+        _lastPublishNanos = nowNanos;
+        _published.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Encode the state as JSON into the reused buffer, leaving it flipped for sending.
+     */
+    ByteBuffer encode(ClusterState<?, ?> state) {
+        ByteBuffer buffer = _buffer;
+        buffer.clear();
+        buffer.put(INSTANCE);
+        putLong(buffer, _instance);
+        buffer.put(HA_STATE);
+        buffer.put(HA_STATES[state.GetHAStatus().ordinal()]);
+        buffer.put(SEQ_STATE);
+        buffer.put(SEQ_STATES[state.GetSequenceStatus().ordinal()]);
+        buffer.put(LAST_INPUT);
+        putLong(buffer, state.GetLastInputSequence());
+        buffer.put(LAST_OUTPUT);
+        putLong(buffer, state.GetLastOutputSequence());
+        buffer.put(END);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write the decimal digits of a value without going through a String.
+     */
+    private void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(ascii(String.valueOf(value)));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            _digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (length > 0)
+            buffer.put(_digits[--length]);
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) text.charAt(i);
+        return bytes;
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (Enum<?> value : values)
+            names[value.ordinal()] = ascii(value.name());
+        return names;
+    }
+
+    private final ClusterModel<?, ?> _model;
+    private final ClusterTransport _transport;
+    private final String _topic;
+    private final int _instance;
+    private final AtomicLong _published = new AtomicLong();
+    private ScheduledExecutorService _timer;
+
+    // Only touched by the timer thread
+    private final ByteBuffer _buffer = ByteBuffer.allocate(256);
+    private final byte[] _digits = new byte[20];
+    private ClusterState<?, ?> _lastState;
+    private long _lastPublishNanos;
+}
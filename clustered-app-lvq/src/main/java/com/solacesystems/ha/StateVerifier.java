@@ -0,0 +1,292 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Checks that the backups of a cluster compute the same application state as the active member, by
+ * comparing the state hashes every member's application keeps through
+ * {@link ClusterEventListener#GetStateHash()}.</p>
+ * <p>Every member records its hash after each input in a log of the last {@link #LOGGED_INPUTS} inputs,
+ * which costs the input path two ordered stores. A timer on the active member samples the hash after its
+ * latest input at most {@link #Start(int) maxChecksPerSecond} times a second and publishes it, along with
+ * the input's sequence ID, as a direct message on the verification topic. Backups compare each published
+ * hash with their own after the same input: at once if they have already processed it, or as soon as a
+ * later hash arrives if they have not. A difference means the members' states diverged at or before that
+ * input; it is logged as an error and counted once, and {@link #GetFirstDivergedSequence()} reports the
+ * first input found to differ. Since the hash rolls, the members' hashes differ from then on, so they are
+ * not compared again until this member recovers its state from the cluster.</p>
+ * <p>Hashes only match between members whose hashes started from the same state. A member that recovered
+ * its state from the LVQ, or restored it from a local snapshot, rolls its hash on from a different point
+ * than the members that processed every input before it. Each member therefore publishes its hash base:
+ * the sequence ID of the last output its state was recovered from, or {@link ClusterState#NO_SEQUENCE}
+ * if it processed every input. Hashes published from another base are counted as unchecked rather than
+ * compared.</p>
+ * <p>Hashes are sampled rather than sent with every output, so a divergence is found within one sampling
+ * period of the active member reaching it. Since the hash rolls over every input, any divergence is found
+ * by the next sample, however short-lived it was.</p>
+ * <p>Hashes are sent as 28 bytes, little-endian: the sending member's instance number as an int, then its
+ * hash base, the input sequence ID and the hash as longs.</p>
+ */
+public class StateVerifier {
+    final static Logger log = Logger.getLogger(StateVerifier.class);
+
+    /** Topic the members of a cluster publish their hashes on, unless given another */
+    public static final String DEFAULT_TOPIC = "cluster/statehash";
+    /** Number of recent inputs whose hashes each member keeps for comparison */
+    public static final int LOGGED_INPUTS = 1 << 14;
+
+    static final int MESSAGE_SIZE = 4 + 8 + 8 + 8;
+
+    /**
+     * @param model model of this member, whose application's hashes are recorded and published
+     * @param transport connected transport to publish and subscribe on
+     * @param topic topic the cluster's hashes are published on
+     * @param instance instance number of this member, unique in the cluster
+     */
+    public StateVerifier(ClusterModel<?, ?> model, ClusterTransport transport, String topic, int instance) {
+        _model = model;
+        _transport = transport;
+        _topic = topic;
+        _instance = instance;
+        _model.setStateHashes(_hashes);
+    }
+
+    /**
+     * Subscribe to the cluster's hashes, and publish this member's hashes while it is active.
+     *
+     * @param maxChecksPerSecond most hashes published per second
+     * @throws JCSMPException if the subscription cannot be added
+     */
+    public synchronized void Start(int maxChecksPerSecond) throws JCSMPException {
+        if (log.isDebugEnabled())
+            log.debug(String.format("StateVerifier::Start(topic:%s, maxChecksPerSecond:%d)", _topic, maxChecksPerSecond));
+        if (maxChecksPerSecond < 1)
+            throw new IllegalArgumentException("Verification rate must be positive: " + maxChecksPerSecond);
+        Stop();
+        if (!_subscribed) {
+            _transport.SubscribeDirect(_topic, new XMLMessageListener() {
+                public void onReceive(BytesXMLMessage msg) {
+                    onMessage(msg);
+                }
+                public void onException(JCSMPException ex) {
+                    log.error("Exception on state hash subscription", ex);
+                }
+            });
+            _subscribed = true;
+        }
+        _timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StateVerifier");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / maxChecksPerSecond;
+        _timer.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    publishIfActive();
+                }
+                catch(RuntimeException ex) {
+                    log.error("Exception publishing state hash", ex);
+                }
+            }
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        _running = true;
+    }
+
+    /**
+     * Stop publishing and comparing hashes; hashes are still recorded after every input.
+     */
+    public synchronized void Stop() {
+        _running = false;
+        if (_timer != null)
+            _timer.shutdownNow();
+        _timer = null;
+    }
+
+    /**
+     * @return number of hashes published by this member
+     */
+    public long GetPublishedCount() {
+        return _published.get();
+    }
+
+    /**
+     * @return number of hashes from the active member that matched this member's own
+     */
+    public long GetVerifiedCount() {
+        return _verified.get();
+    }
+
+    /**
+     * @return number of times this member's hash was found to differ from the active member's; at most once
+     *         for each time its state was recovered
+     */
+    public long GetDivergedCount() {
+        return _diverged.get();
+    }
+
+    /**
+     * @return number of hashes from the active member that could not be compared, because this member
+     *         skipped that input, no longer has its own hash after it, or recovered its state from a
+     *         different point than the active member
+     */
+    public long GetUncheckedCount() {
+        return _unchecked.get();
+    }
+
+    /**
+     * @return sequence ID of the first input after which this member's state was found to differ from the
+     *         active member's, or {@link ClusterState#NO_SEQUENCE}
+     */
+    public long GetFirstDivergedSequence() {
+        return _firstDiverged;
+    }
+
+    /**
+     * @return sequence ID of the last output this member's state was recovered from, or
+     *         {@link ClusterState#NO_SEQUENCE} if it processed every input
+     */
+    public long GetHashBase() {
+        return _base;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //////////          Internals                                  /////////
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Restarts the comparison after this member's state was recovered from the output with the given
+     * sequence ID, rather than built from every input; only hashes after it, from members that recovered
+     * from the same output, are compared from now on.
+     */
+    synchronized void rebase(long sequenceId) {
+        if (log.isInfoEnabled())
+            log.info(String.format("Comparing state hashes after recovered output %d", sequenceId));
+        _base = sequenceId;
+        _pendingSequence = ClusterState.NO_SEQUENCE;
+        _reported = false;
+    }
+
+    /**
+     * Publish the hash after the latest input if this member is active and has processed an input since
+     * the last one published; only ever called from the timer thread.
+     *
+     * @return true if a hash was published
+     */
+    boolean publishIfActive() {
+        if (_model.GetHAStatus() != HAState.ACTIVE)
+            return false;
+        long sequenceId = _hashes.latest();
+        if (sequenceId == ClusterState.NO_SEQUENCE || sequenceId == _lastPublished)
+            return false;
+        long hash = _hashes.hash(sequenceId);
+        if (!_hashes.contains(sequenceId) || hash == StateHash.NONE)
+            return false;
+        _out.clear();
+        _out.putInt(_instance).putLong(_base).putLong(sequenceId).putLong(hash).flip();
+        try {
+            _transport.SendDirect(_topic, _out);
+        }
+        catch(JCSMPException ex) {
+            log.warn("Failed to publish state hash on topic " + _topic, ex);
+            return false;
+        }
+        _lastPublished = sequenceId;
+        _published.incrementAndGet();
+        return true;
+    }
+
+    private void onMessage(BytesXMLMessage msg) {
+        if (msg.getAttachmentContentLength() != MESSAGE_SIZE) {
+            log.warn("Ignoring state hash message of " + msg.getAttachmentContentLength() + " bytes");
+            return;
+        }
+        synchronized (this) {
+            msg.readAttachmentBytes(0, _in.array(), 0, MESSAGE_SIZE);
+            onHash(_in.getInt(0), _in.getLong(4), _in.getLong(12), _in.getLong(20));
+        }
+    }
+
+    /**
+     * Compare a hash published by a member, and any earlier hash that was waiting for this member to catch
+     * up, with this member's own
+     */
+    synchronized void onHash(int instance, long base, long sequenceId, long hash) {
+        if (!_running || instance == _instance || hash == StateHash.NONE || _reported)
+            return;
+        if (base != _base || sequenceId <= base) {
+            _unchecked.incrementAndGet();
+            return;
+        }
+        if (_pendingSequence != ClusterState.NO_SEQUENCE && _pendingSequence < sequenceId) {
+            long pending = _pendingSequence;
+            _pendingSequence = ClusterState.NO_SEQUENCE;
+            compare(pending, _pendingHash);
+        }
+        compare(sequenceId, hash);
+    }
+
+    private void compare(long sequenceId, long hash) {
+        if (_hashes.latest() < sequenceId) {
+            // Not there yet; check when the next hash arrives
+            _pendingSequence = sequenceId;
+            _pendingHash = hash;
+            return;
+        }
+        long own = _hashes.hash(sequenceId);
+        if (!_hashes.contains(sequenceId) || own == StateHash.NONE) {
+            _unchecked.incrementAndGet();
+            return;
+        }
+        if (own == hash) {
+            _verified.incrementAndGet();
+            return;
+        }
+        if (_firstDiverged == ClusterState.NO_SEQUENCE)
+            _firstDiverged = sequenceId;
+        _diverged.incrementAndGet();
+        _reported = true;
+        _pendingSequence = ClusterState.NO_SEQUENCE;
+        log.error(String.format("State diverged from the active member after input %d: hash %016x, active member's %016x; "
+            + "not comparing again until this member recovers", sequenceId, own, hash));
+    }
+
+    private final ClusterModel<?, ?> _model;
+    private final ClusterTransport _transport;
+    private final String _topic;
+    private final int _instance;
+    private final StateHashLog _hashes = new StateHashLog(LOGGED_INPUTS);
+    private final AtomicLong _published = new AtomicLong();
+    private final AtomicLong _verified = new AtomicLong();
+    private final AtomicLong _diverged = new AtomicLong();
+    private final AtomicLong _unchecked = new AtomicLong();
+    private volatile long _firstDiverged = ClusterState.NO_SEQUENCE;
+    private volatile long _base = ClusterState.NO_SEQUENCE;
+    private ScheduledExecutorService _timer;
+    private boolean _subscribed;
+    private volatile boolean _running;
+
+    // Only touched by the timer thread
+    private final ByteBuffer _out = ByteBuffer.allocate(MESSAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long _lastPublished = ClusterState.NO_SEQUENCE;
+
+    // Guarded by this
+    private final ByteBuffer _in = ByteBuffer.allocate(MESSAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long _pendingSequence = ClusterState.NO_SEQUENCE;
+    private long _pendingHash;
+    /** Whether divergence since the last rebase has been reported */
+    private boolean _reported;
+}
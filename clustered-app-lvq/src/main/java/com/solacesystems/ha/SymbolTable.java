@@ -0,0 +1,313 @@
+package com.solacesystems.ha;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Maps the UTF-8 bytes of a symbol, such as an instrument name, to one canonical String and a dense int
+ * id, so decoding a symbol that has been seen before allocates nothing.</p>
+ * <p>Symbols are kept in an open-addressing table keyed by a hash of their bytes, and compared byte by byte
+ * straight out of the message buffer. A String is only created the first time a symbol is seen, and ids
+ * are assigned in the order symbols are first seen. Looking symbols up is not thread-safe; each decoding
+ * thread uses its own table.</p>
+ * <p>A table can also hold a dictionary of symbols whose ids are sent on the wire in place of the symbols
+ * themselves; see {@link ByteBufferSerializer#SerializeSymbol}. Every member and publisher must
+ * {@link #Register} the same symbols in the same order and then {@link #Seal} the table, so that they agree
+ * on the ids. Ids from the dictionary can be read from any thread once it is sealed.</p>
+ * <p>On the wire, each id also carries 11 bits of a checksum of the whole dictionary, above its
+ * {@link #WIRE_ID_BITS} bits of id,
+ * so a reader whose dictionary differs from the writer's rejects the id instead of decoding another
+ * symbol; see {@link #WireId} and {@link #WireSymbol}.</p>
+ */
+public class SymbolTable {
+    /**
+     * Id returned for a symbol that is not in the table
+     */
+    public static final int NO_ID = -1;
+    /**
+     * Bits of a wire id holding the symbol's id; the rest hold the dictionary's checksum, which limits a
+     * dictionary to 2<sup>20</sup> symbols
+     */
+    public static final int WIRE_ID_BITS = 20;
+
+    private static final int MAX_SHARED = 1 << WIRE_ID_BITS;
+
+    /**
+     * @param expectedSymbols number of distinct symbols expected; the table grows beyond it as needed
+     */
+    public SymbolTable(int expectedSymbols) {
+        int size = Integer.highestOneBit(Math.max(2, expectedSymbols) * 2 - 1) << 1;
+        _hashes = new int[size];
+        _bytes = new byte[size][];
+        _ids = new int[size];
+        _mask = size - 1;
+        _byId = new String[size / 2];
+    }
+
+    /**
+     * Creates a table starting with the symbols another table has sealed, under the same ids, so that each
+     * decoding thread can have its own table over a shared dictionary.
+     *
+     * @param dictionary sealed table whose dictionary is shared
+     * @param expectedSymbols number of distinct symbols expected in total
+     */
+    public SymbolTable(SymbolTable dictionary, int expectedSymbols) {
+        this(Math.max(expectedSymbols, dictionary.GetSharedCount()));
+        Dictionary shared = dictionary._dictionary;
+        if (shared == null)
+            throw new IllegalArgumentException("The dictionary's symbol table has not been sealed");
+        for (String symbol : shared._byId)
+            Register(symbol);
+        _dictionary = shared;
+    }
+
+    /**
+     * Find the canonical String for a symbol, adding it to the table if it is new.
+     *
+     * @param buffer buffer holding the symbol's UTF-8 bytes
+     * @param offset absolute offset of the first byte
+     * @param length number of bytes
+     * @return the canonical String for the symbol
+     */
+    public String Lookup(ByteBuffer buffer, int offset, int length) {
+        int id = Id(buffer, offset, length);
+        return _byId[id];
+    }
+
+    /**
+     * Find the id of a symbol, adding it to the table if it is new.
+     *
+     * @param buffer buffer holding the symbol's UTF-8 bytes
+     * @param offset absolute offset of the first byte
+     * @param length number of bytes
+     * @return the symbol's id
+     */
+    public int Id(ByteBuffer buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int slot = hash & _mask;
+        while (_bytes[slot] != null) {
+            if (_hashes[slot] == hash && matches(_bytes[slot], buffer, offset, length))
+                return _ids[slot];
+            slot = (slot + 1) & _mask;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + i);
+        return insert(hash, bytes, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Add a symbol to the table if it is new, making the given String its canonical one; before the table
+     * is sealed, this builds the dictionary.
+     *
+     * @return the symbol's id
+     */
+    public int Register(String symbol) {
+        byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int hash = hash(buffer, 0, bytes.length);
+        int slot = hash & _mask;
+        while (_bytes[slot] != null) {
+            if (_hashes[slot] == hash && matches(_bytes[slot], buffer, 0, bytes.length))
+                return _ids[slot];
+            slot = (slot + 1) & _mask;
+        }
+        return insert(hash, bytes, symbol);
+    }
+
+    /**
+     * Makes the ids of every symbol now in the table the dictionary shared with other members; symbols
+     * added later get ids that are only used locally.
+     *
+     * @throws IllegalStateException if the table is already sealed
+     */
+    public void Seal() {
+        if (_dictionary != null)
+            throw new IllegalStateException("The symbol table is already sealed");
+        if (_size > MAX_SHARED)
+            throw new IllegalStateException("A dictionary holds at most " + MAX_SHARED + " symbols: " + _size);
+        String[] byId = new String[_size];
+        System.arraycopy(_byId, 0, byId, 0, _size);
+        _dictionary = new Dictionary(byId);
+    }
+
+    /**
+     * @return number of symbols in the sealed dictionary, or 0 before the table is sealed
+     */
+    public int GetSharedCount() {
+        Dictionary dictionary = _dictionary;
+        return dictionary == null ? 0 : dictionary._byId.length;
+    }
+
+    /**
+     * Find a symbol's id in the sealed dictionary without allocating; safe from any thread.
+     *
+     * @return the symbol's shared id, or {@link #NO_ID} if it is not in the dictionary
+     */
+    public int SharedId(String symbol) {
+        Dictionary dictionary = _dictionary;
+        return dictionary == null || symbol == null ? NO_ID : dictionary.find(symbol);
+    }
+
+    /**
+     * Find the id a symbol in the sealed dictionary is sent as, tagged with the dictionary's checksum;
+     * safe from any thread.
+     *
+     * @return the non-negative wire id, or {@link #NO_ID} if the symbol is not in the dictionary
+     */
+    public int WireId(String symbol) {
+        Dictionary dictionary = _dictionary;
+        if (dictionary == null || symbol == null)
+            return NO_ID;
+        int id = dictionary.find(symbol);
+        return id == NO_ID ? NO_ID : dictionary._tag | id;
+    }
+
+    /**
+     * Decode a wire id written by another member; unlike {@link #Symbol}, only ids in the sealed dictionary
+     * are accepted, since local ids differ from one table to the next.
+     *
+     * @return the canonical String for the wire id
+     * @throws IllegalArgumentException if the id is not in this table's dictionary, or was written with a
+     *         different dictionary
+     */
+    public String WireSymbol(int wireId) {
+        Dictionary dictionary = _dictionary;
+        int id = wireId & (MAX_SHARED - 1);
+        if (dictionary == null || (wireId & ~(MAX_SHARED - 1)) != dictionary._tag || id >= dictionary._byId.length)
+            throw new IllegalArgumentException(String.format(
+                "Symbol id %d with dictionary checksum %03x is not in this member's dictionary of %d symbols with checksum %03x",
+                id, wireId >>> WIRE_ID_BITS, GetSharedCount(), dictionary == null ? 0 : dictionary._tag >>> WIRE_ID_BITS));
+        return dictionary._byId[id];
+    }
+
+    /**
+     * @return the canonical String for an id, shared or local to this table
+     * @throws IllegalArgumentException if no symbol has the id
+     */
+    public String Symbol(int id) {
+        Dictionary dictionary = _dictionary;
+        if (dictionary != null && id >= 0 && id < dictionary._byId.length)
+            return dictionary._byId[id];
+        if (id < 0 || id >= _size)
+            throw new IllegalArgumentException("Unknown symbol id " + id);
+        return _byId[id];
+    }
+
+    /**
+     * @return number of distinct symbols in the table
+     */
+    public int Size() {
+        return _size;
+    }
+
+    private int insert(int hash, byte[] bytes, String symbol) {
+        if (2 * (_size + 1) > _bytes.length)
+            grow();
+        int id = _size++;
+        place(hash, bytes, id);
+        _byId[id] = symbol;
+        return id;
+    }
+
+    private void place(int hash, byte[] bytes, int id) {
+        int slot = hash & _mask;
+        while (_bytes[slot] != null)
+            slot = (slot + 1) & _mask;
+        _hashes[slot] = hash;
+        _bytes[slot] = bytes;
+        _ids[slot] = id;
+    }
+
+    private void grow() {
+        int[] hashes = _hashes;
+        byte[][] bytes = _bytes;
+        int[] ids = _ids;
+        int size = bytes.length * 2;
+        _hashes = new int[size];
+        _bytes = new byte[size][];
+        _ids = new int[size];
+        _mask = size - 1;
+        for (int i = 0; i < bytes.length; i++)
+            if (bytes[i] != null)
+                place(hashes[i], bytes[i], ids[i]);
+        String[] byId = new String[size / 2];
+        System.arraycopy(_byId, 0, byId, 0, _size);
+        _byId = byId;
+    }
+
+    /**
+     * FNV-1a over the symbol's bytes
+     */
+    private static int hash(ByteBuffer buffer, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            hash ^= buffer.get(offset + i);
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(byte[] bytes, ByteBuffer buffer, int offset, int length) {
+        if (bytes.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (bytes[i] != buffer.get(offset + i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Immutable map from the sealed symbols to their ids, keyed by the Strings' own cached hash codes
+     */
+    private static final class Dictionary {
+        Dictionary(String[] byId) {
+            _byId = byId;
+            int size = Integer.highestOneBit(Math.max(2, byId.length) * 2 - 1) << 1;
+            _symbols = new String[size];
+            _ids = new int[size];
+            _mask = size - 1;
+            int checksum = byId.length;
+            for (int id = 0; id < byId.length; id++) {
+                checksum = 31 * checksum + byId[id].hashCode();
+                int slot = spread(byId[id].hashCode()) & _mask;
+                while (_symbols[slot] != null)
+                    slot = (slot + 1) & _mask;
+                _symbols[slot] = byId[id];
+                _ids[slot] = id;
+            }
+            // String hash codes are specified, so every JVM computes the same checksum
+            _tag = (spread(checksum) & (-1 >>> (WIRE_ID_BITS + 1))) << WIRE_ID_BITS;
+        }
+
+        int find(String symbol) {
+            int slot = spread(symbol.hashCode()) & _mask;
+            String candidate;
+            while ((candidate = _symbols[slot]) != null) {
+                if (candidate == symbol || candidate.equals(symbol))
+                    return _ids[slot];
+                slot = (slot + 1) & _mask;
+            }
+            return NO_ID;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        final String[] _byId;
+        /** Checksum bits of every wire id, already shifted into place */
+        final int _tag;
+        private final String[] _symbols;
+        private final int[] _ids;
+        private final int _mask;
+    }
+
+    private int[] _hashes;
+    private byte[][] _bytes;
+    private int[] _ids;
+    private String[] _byId;
+    private int _mask;
+    private int _size;
+    private volatile Dictionary _dictionary;
+}
@@ -0,0 +1,97 @@
+package com.solacesystems.ha;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>The only use of <code>sun.misc.Unsafe</code> in the library: raw reads, writes and copies for
+ * {@link BufferCodec}, so that the compiler's warnings about the internal API are confined to this class.</p>
+ * <p>Unsafe is only {@link #IsAvailable() available} on little-endian platforms that tolerate unaligned
+ * access, so that its native reads and writes produce the wire format directly. None of the methods check
+ * their arguments; callers must have checked every address is inside its array or buffer.</p>
+ */
+final class UnsafeAccess {
+    private UnsafeAccess() {
+    }
+
+    static boolean IsAvailable() {
+        return UNSAFE != null && ADDRESS_OFFSET >= 0;
+    }
+
+    /**
+     * @return the native address of a direct buffer's first byte, or 0 if it has none
+     */
+    static long Address(ByteBuffer buffer) {
+        return UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+    }
+
+    static void PutByte(Object base, long address, byte b) {
+        UNSAFE.putByte(base, address, b);
+    }
+
+    static byte GetByte(Object base, long address) {
+        return UNSAFE.getByte(base, address);
+    }
+
+    static void PutInt(Object base, long address, int i) {
+        UNSAFE.putInt(base, address, i);
+    }
+
+    static int GetInt(Object base, long address) {
+        return UNSAFE.getInt(base, address);
+    }
+
+    static void PutLong(Object base, long address, long l) {
+        UNSAFE.putLong(base, address, l);
+    }
+
+    static long GetLong(Object base, long address) {
+        return UNSAFE.getLong(base, address);
+    }
+
+    static void CopyMemory(Object srcBase, long srcAddress, Object destBase, long destAddress, long bytes) {
+        UNSAFE.copyMemory(srcBase, srcAddress, destBase, destAddress, bytes);
+    }
+
+    private static Unsafe loadUnsafe() {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+            return null;
+        String arch = System.getProperty("os.arch", "");
+        if (!arch.equals("amd64") && !arch.equals("x86_64") && !arch.equals("aarch64")
+                && !arch.equals("x86") && !arch.equals("i386"))
+            return null;
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        }
+        catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    private static long addressOffset() {
+        try {
+            return UNSAFE == null ? -1 : UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        }
+        catch (Throwable ex) {
+            return -1;
+        }
+    }
+
+    private static long arrayBase(Class<?> type) {
+        return UNSAFE == null ? 0 : UNSAFE.arrayBaseOffset(type);
+    }
+
+    private static final Unsafe UNSAFE = loadUnsafe();
+    private static final long ADDRESS_OFFSET = addressOffset();
+
+    static final long BYTE_ARRAY_BASE = arrayBase(byte[].class);
+    static final long INT_ARRAY_BASE = arrayBase(int[].class);
+    static final long LONG_ARRAY_BASE = arrayBase(long[].class);
+    static final long DOUBLE_ARRAY_BASE = arrayBase(double[].class);
+}
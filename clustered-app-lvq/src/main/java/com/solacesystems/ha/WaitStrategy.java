@@ -0,0 +1,48 @@
+package com.solacesystems.ha;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the pipelined processing thread waits for the next input when its ring is empty, and how the
+ * consumer dispatcher waits for space when the ring is full. Trades CPU for wake-up latency.
+ */
+public enum WaitStrategy {
+    /**
+     * Spin on the ring without ever giving up the CPU; lowest latency, burns a whole core
+     */
+    BUSY_SPIN,
+    /**
+     * Spin briefly, then yield the CPU to other runnable threads between checks
+     */
+    YIELD,
+    /**
+     * Spin briefly, then yield, then park for short intervals between checks; frees the CPU when idle
+     */
+    PARK;
+
+    static final int SPIN_TRIES = 100;
+    static final int YIELD_TRIES = 100;
+    static final long PARK_NANOS = 50000;
+
+    /**
+     * Wait once after the given number of consecutive unsuccessful checks.
+     *
+     * @param idleCount unsuccessful checks since the last successful one
+     */
+    void idle(int idleCount) {
+        switch (this) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                if (idleCount > SPIN_TRIES)
+                    Thread.yield();
+                break;
+            case PARK:
+                if (idleCount > SPIN_TRIES + YIELD_TRIES)
+                    LockSupport.parkNanos(PARK_NANOS);
+                else if (idleCount > SPIN_TRIES)
+                    Thread.yield();
+                break;
+        }
+    }
+}
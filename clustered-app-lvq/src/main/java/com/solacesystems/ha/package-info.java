@@ -10,6 +10,38 @@
  *     application for its internal state transitions.<br></li>
  *     <li>{@link com.solacesystems.ha.ClusterEventListener}: Interface to be implemented by the
  *     application; the model uses this interface to notify the application for all sate changes.</li>
+ *     <li>{@link com.solacesystems.ha.ClusterTransport}: The messaging operations the connector depends upon;
+ *     implemented over Solace by {@link com.solacesystems.ha.SolaceConnector} and in-process by
+ *     {@link com.solacesystems.ha.InProcessTransport} with an {@link com.solacesystems.ha.InProcessBroker}
+ *     for running whole clusters in a single JVM.</li>
+ *     <li>{@link com.solacesystems.ha.PartitionedClusterConnector}: Runs N independent partitions of an
+ *     application in one process, each with its own queues, HA state and processing thread.</li>
+ *     <li>{@link com.solacesystems.ha.LeadershipBalancer}: Spreads leadership of partitions evenly across the
+ *     members of a cluster by gossiping over a cluster topic.</li>
+ *     <li>{@link com.solacesystems.ha.FailoverMetrics}: Timeline of HA and sequencing transitions and latency
+ *     histograms of takeover, recovery and input processing, pulled directly or over JMX.</li>
+ *     <li>{@link com.solacesystems.ha.StateTelemetry}: Coalesced, rate-limited publishing of a member's HA and
+ *     sequence state as direct messages for monitoring tools.</li>
+ *     <li>{@link com.solacesystems.ha.StateVerifier}: Detects backups whose application state diverged from
+ *     the active member's, by comparing the rolling {@link com.solacesystems.ha.StateHash} each member's
+ *     application keeps.</li>
+ *     <li>{@link com.solacesystems.ha.EventRecorder}: Allocation-free binary ring of per-message events, dumped
+ *     to a file and decoded offline by {@link com.solacesystems.ha.EventLogDecoder}.</li>
+ *     <li>{@link com.solacesystems.ha.Flyweight}: Reusable, lazily-read views over serialized inputs, generated
+ *     from a schema by {@link com.solacesystems.ha.FlyweightGenerator}, with strings decoded through a
+ *     {@link com.solacesystems.ha.SymbolTable} so deserializing allocates nothing. A sealed symbol table is
+ *     also a dictionary shared by all members, whose symbols are sent as int ids.</li>
+ *     <li>{@link com.solacesystems.ha.BufferCodec}: Reusable encoder and decoder for the
+ *     {@link com.solacesystems.ha.ByteBufferSerializer} wire format that avoids per-field byte order changes
+ *     and per-string allocation, with varints and bulk array copies.</li>
+ *     <li>{@link com.solacesystems.ha.GenerateSerializer}: Marks an interface for which the
+ *     <code>clustered-app-lvq-codegen</code> annotation processor generates a complete serializer from the
+ *     {@link com.solacesystems.ha.SerializedField} and {@link com.solacesystems.ha.SequenceId} fields of its
+ *     input and output types.</li>
+ *     <li>{@link com.solacesystems.ha.LocalStore}: Optional local snapshot and input journal from which a
+ *     member restores its complete application state on restart.</li>
+ *     <li>{@link com.solacesystems.ha.InputJournal}: Optional segmented journal of every input received,
+ *     replayable through the application for post-mortems and performance runs.</li>
  * </ul>
  * </p>
  * <p>The application is expected to read a
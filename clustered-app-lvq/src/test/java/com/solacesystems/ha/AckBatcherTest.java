@@ -0,0 +1,75 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AckBatcherTest {
+    private final AtomicInteger acked = new AtomicInteger();
+
+    @Test
+    public void testBatchAcknowledgedWhenFull() {
+        AckBatcher acks = new AckBatcher(3, 10000000);
+        acks.add(input());
+        acks.add(input());
+        assertEquals(0, acked.get());
+        acks.add(input());
+        assertEquals(3, acked.get());
+        assertEquals(0, acks.pending());
+        acks.close();
+    }
+
+    @Test
+    public void testIdleBatchAcknowledgedAfterDelay() throws InterruptedException {
+        AckBatcher acks = new AckBatcher(100, 1000);
+        acks.add(input());
+        acks.add(input());
+        for (int i = 0; i < 500 && acked.get() < 2; i++)
+            Thread.sleep(1);
+        assertEquals(2, acked.get());
+        acks.close();
+    }
+
+    @Test
+    public void testCloseFlushesPending() {
+        AckBatcher acks = new AckBatcher(100, 10000000);
+        acks.add(input());
+        acks.close();
+        assertEquals(1, acked.get());
+    }
+
+    @Test
+    public void testInputAddedAfterCloseAcknowledgedImmediately() {
+        AckBatcher acks = new AckBatcher(100, 10000000);
+        acks.close();
+        acks.add(input());
+        assertEquals(1, acked.get());
+        assertEquals(0, acks.pending());
+    }
+
+    @Test
+    public void testSingleMessageBatchAcknowledgesImmediately() {
+        AckBatcher acks = new AckBatcher(1, 0);
+        acks.add(input());
+        assertEquals(1, acked.get());
+    }
+
+    private BytesXMLMessage input() {
+        return (BytesXMLMessage) Proxy.newProxyInstance(
+                BytesXMLMessage.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("ackMessage"))
+                            acked.incrementAndGet();
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,146 @@
+package com.solacesystems.ha;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BufferCodecTest {
+    private static final String[] STRINGS = { "MSFT", "", null, "café € 😀", "bad \ud83d surrogate" };
+
+    private static ByteBuffer[] buffers() {
+        return new ByteBuffer[] { ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256) };
+    }
+
+    @Test
+    public void testWritesTheSameBytesAsByteBufferSerializer() throws Exception {
+        for (boolean allowUnsafe : new boolean[] { true, false }) {
+            for (ByteBuffer buffer : buffers()) {
+                BufferCodec codec = new BufferCodec(allowUnsafe).Wrap(buffer);
+                assertEquals(allowUnsafe, codec.IsUnsafe());
+                codec.PutSequence(Long.MAX_VALUE - 3).PutBool(true).PutDouble(42.42).PutInt(-7).PutLong(1L << 40);
+                for (String s : STRINGS)
+                    codec.PutString(s);
+                codec.PutAscii("AAPL");
+                codec.Finish().flip();
+
+                ByteBuffer expected = ByteBuffer.allocate(256);
+                ByteBufferSerializer.SerializeSequence(expected, Long.MAX_VALUE - 3);
+                ByteBufferSerializer.SerializeBool(expected, true);
+                ByteBufferSerializer.SerializeDouble(expected, 42.42);
+                ByteBufferSerializer.SerializeInt(expected, -7);
+                ByteBufferSerializer.SerializeLong(expected, 1L << 40);
+                for (String s : STRINGS)
+                    ByteBufferSerializer.SerializeString(expected, s);
+                ByteBufferSerializer.SerializeString(expected, "AAPL");
+                expected.flip();
+                assertEquals(expected, buffer);
+
+                codec.Wrap(buffer);
+                assertEquals(Long.MAX_VALUE - 3, codec.GetSequence());
+                assertTrue(codec.GetBool());
+                assertEquals(42.42, codec.GetDouble(), 0);
+                assertEquals(-7, codec.GetInt());
+                assertEquals(1L << 40, codec.GetLong());
+                assertEquals("MSFT", codec.GetString());
+                assertNull(codec.GetString());
+                assertNull(codec.GetString());
+                assertEquals(STRINGS[3], codec.GetString());
+                assertEquals("bad ? surrogate", codec.GetString());
+                assertEquals("AAPL", codec.GetString(new StringBuilder()).toString());
+                assertEquals(0, codec.Remaining());
+            }
+        }
+    }
+
+    @Test
+    public void testVarintsAndBulkArrays() {
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        for (boolean allowUnsafe : new boolean[] { true, false }) {
+            for (ByteBuffer buffer : buffers()) {
+                buffer.clear();
+                BufferCodec codec = new BufferCodec(allowUnsafe).Wrap(buffer);
+                for (long value : values) {
+                    int start = codec.Position();
+                    codec.PutVarLong(value);
+                    assertEquals(BufferCodec.SizeOfVarLong(value), codec.Position() - start);
+                    codec.PutZigZagLong(value);
+                }
+                codec.PutVarInt(-1);
+                codec.PutLongs(values, 1, 4).PutDoubles(new double[] { 1.5, -2.5 }, 0, 2).PutInts(new int[] { 3, 4 }, 0, 2);
+                codec.Finish().flip();
+
+                codec.Wrap(buffer);
+                for (long value : values) {
+                    assertEquals(value, codec.GetVarLong());
+                    assertEquals(value, codec.GetZigZagLong());
+                }
+                assertEquals(-1, codec.GetVarInt());
+                long[] longs = new long[5];
+                double[] doubles = new double[2];
+                int[] ints = new int[2];
+                codec.GetLongs(longs, 1, 4).GetDoubles(doubles, 0, 2).GetInts(ints, 0, 2);
+                assertArrayEquals(new long[] { 0, 1, 127, 128, 16383 }, longs);
+                assertTrue(Arrays.equals(new double[] { 1.5, -2.5 }, doubles));
+                assertArrayEquals(new int[] { 3, 4 }, ints);
+                assertEquals(0, codec.Remaining());
+
+                buffer.clear();
+                assertEquals(1, codec.Wrap(buffer).PutZigZagLong(-1).Position());
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowWritesNothing() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        BufferCodec codec = new BufferCodec().Wrap(buffer);
+        codec.PutInt(1);
+        try {
+            codec.PutString("€€");
+            fail("Expected the string not to fit");
+        }
+        catch (BufferOverflowException ex) {
+            assertEquals(4, codec.Position());
+        }
+        // Fits exactly, although the worst case for two chars would not
+        codec.PutString("ab");
+        assertEquals(0, codec.Remaining());
+    }
+
+    @Test
+    public void testBulkCopiesOutsideTheArrayAreRejected() {
+        for (boolean allowUnsafe : new boolean[] { true, false }) {
+            for (ByteBuffer buffer : buffers()) {
+                BufferCodec codec = new BufferCodec(allowUnsafe).Wrap(buffer);
+                long[] longs = new long[4];
+                for (int[] range : new int[][] { { -1, 2 }, { 0, -1 }, { 3, 2 }, { 1, Integer.MAX_VALUE } }) {
+                    try {
+                        codec.PutLongs(longs, range[0], range[1]);
+                        fail("Expected offset " + range[0] + " and length " + range[1] + " to be rejected");
+                    }
+                    catch (IndexOutOfBoundsException ex) {
+                        assertEquals(0, codec.Position());
+                    }
+                    try {
+                        codec.GetLongs(longs, range[0], range[1]);
+                        fail("Expected offset " + range[0] + " and length " + range[1] + " to be rejected");
+                    }
+                    catch (IndexOutOfBoundsException ex) {
+                        assertEquals(0, codec.Position());
+                    }
+                }
+                try {
+                    codec.GetBytes(new byte[2], 1, 2);
+                    fail("Expected a copy past the end of the array to be rejected");
+                }
+                catch (IndexOutOfBoundsException ex) {
+                    assertEquals(0, codec.Position());
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.solacesystems.ha;
 
 import com.solacesystems.ha.ByteBufferSerializer;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
 import org.junit.Test;
 
 import java.io.UnsupportedEncodingException;
@@ -103,4 +105,49 @@ public class ByteBufferSerializerTest {
             input = !input;
         }
     }
+
+    @Test
+    public void testSerializeSequenceRoundtrip() {
+        long input = 3L * Integer.MAX_VALUE;
+        ByteBuffer dest = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        ByteBufferSerializer.SerializeSequence(dest, input);
+        dest.flip();
+        assertEquals(input, ByteBufferSerializer.DeserializeSequence(dest));
+        assertEquals(0, dest.remaining());
+    }
+
+    @Test
+    public void testDeserializeLegacySequence() {
+        ByteBuffer dest = ByteBuffer.allocate(4);
+        ByteBufferSerializer.SerializeInt(dest, 42);
+        dest.flip();
+        assertEquals(42L, ByteBufferSerializer.DeserializeSequence(dest));
+    }
+
+    @Test
+    public void testPeekSequence() {
+        ByteBuffer scratch = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocate(32);
+        ByteBufferSerializer.SerializeSequence(payload, 1L << 40);
+        ByteBufferSerializer.SerializeDouble(payload, 1.5);
+        payload.flip();
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(payload.array(), 0, payload.remaining());
+        assertEquals(1L << 40, ByteBufferSerializer.PeekSequence(msg, scratch));
+
+        // Legacy messages may be shorter than a full header
+        msg.writeAttachment(new byte[] { 9, 0, 0, 0 });
+        assertEquals(9L, ByteBufferSerializer.PeekSequence(msg, scratch));
+        msg.writeAttachment(new byte[] { 9 });
+        assertEquals(ClusterState.NO_SEQUENCE, ByteBufferSerializer.PeekSequence(msg, scratch));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializeNewerSequenceVersionFails() {
+        ByteBuffer dest = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        ByteBufferSerializer.SerializeInt(dest, ByteBufferSerializer.SEQUENCE_HEADER_MARKER | (ByteBufferSerializer.SEQUENCE_HEADER_VERSION + 1));
+        ByteBufferSerializer.SerializeLong(dest, 1);
+        dest.flip();
+        ByteBufferSerializer.DeserializeSequence(dest);
+    }
 }
@@ -0,0 +1,470 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowEvent;
+import com.solacesystems.jcsmp.FlowEventArgs;
+import com.solacesystems.jcsmp.FlowEventHandler;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ClusterConnectorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private InProcessBroker broker;
+    private InProcessTransport gateway;
+    private final TestApp.SeqSerializer serializer = new TestApp.SeqSerializer();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new InProcessBroker();
+        broker.ProvisionQueue("app1_inst1", "order/app1/>");
+        broker.ProvisionQueue("app1_inst2", "order/app1/>");
+        broker.ProvisionLastValueQueue("app1_lvq", "trade/app1/>");
+        gateway = new InProcessTransport(broker);
+        gateway.ConnectSession("localhost", "vpn", "user", "pass", "ogw", null);
+    }
+
+    @Test
+    public void testFailoverHandsOutputToBackup() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new").start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new").start("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitHAState(HAState.BACKUP));
+
+        publish(1, 10);
+        assertTrue(inst1.awaitState(10));
+        assertTrue(inst2.awaitState(10));
+        assertEquals(10, lastOutput());
+        // The active member acknowledges each input once its output is accepted
+        assertTrue(awaitDrained("app1_inst1"));
+        assertEquals(0, inst1._connector.GetOutputsInFlight());
+
+        inst1.kill();
+        assertTrue(inst2.awaitHAState(HAState.ACTIVE));
+        publish(11, 15);
+        assertTrue(inst2.awaitState(15));
+        assertEquals(15, lastOutput());
+
+        // The takeover is measured from the LVQ flow going active to the first output
+        FailoverMetrics metrics = inst2._connector.GetMetrics();
+        assertEquals(1, metrics.GetTakeoverHistogram().GetCount());
+        assertEquals(1, metrics.GetReadyHistogram().GetCount());
+        assertEquals(1, metrics.GetRecoveryHistogram().GetCount());
+        List<String> names = new ArrayList<String>();
+        for (FailoverMetrics.Transition transition : metrics.GetTimeline())
+            names.add(transition.GetName());
+        assertTrue(names.toString(), names.indexOf("LVQ_FLOW_ACTIVE") < names.indexOf("FIRST_OUTPUT"));
+        assertTrue(metrics.getLastTakeoverNanos() >= metrics.GetReadyHistogram().GetMax());
+
+        metrics.RegisterMBean("com.solacesystems.ha:type=FailoverMetrics,name=inst2");
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+            new ObjectName("com.solacesystems.ha:type=FailoverMetrics,name=inst2"), "TakeoverCount"));
+    }
+
+    @Test
+    public void testPipelineMetricsCountAndTimeEveryStage() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetInputLatencyTracking(true);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 10);
+        assertTrue(inst1.awaitState(10));
+        assertTrue(awaitDrained("app1_inst1"));
+
+        PipelineMetrics metrics = inst1._connector.GetPipelineMetrics();
+        assertEquals(10, metrics.GetCount(PipelineMetrics.Counter.INPUTS_RECEIVED));
+        assertEquals(10, metrics.GetCount(PipelineMetrics.Counter.INPUTS_PROCESSED));
+        assertEquals(10, metrics.GetCount(PipelineMetrics.Counter.OUTPUTS_SENT));
+        assertEquals(10, metrics.GetCount(PipelineMetrics.Counter.OUTPUTS_ACKNOWLEDGED));
+        assertEquals(0, metrics.GetCount(PipelineMetrics.Counter.PUBLISH_ERRORS));
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values())
+            assertEquals(stage.toString(), 10, metrics.GetHistogram(stage).GetCount());
+        assertEquals(10, inst1._connector.GetMetrics().GetInputLatencyHistogram().GetCount());
+    }
+
+    @Test
+    public void testLateJoinerRecoversFromLastValueQueue() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new").start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 5);
+        assertTrue(inst1.awaitState(5));
+
+        // inst2's queue has spooled every input while it was down
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new").start("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitHAState(HAState.BACKUP));
+        assertTrue(inst2.awaitState(5));
+        assertEquals(SeqState.UPTODATE, inst2._seqState);
+        assertEquals(4, inst2._ignored);
+        assertEquals(0, broker.GetQueueDepth("app1_inst2"));
+    }
+
+    @Test
+    public void testFastCatchUpSkipsStaleInputs() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new").start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 50);
+        assertTrue(inst1.awaitState(50));
+
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new");
+        inst2._connector.SetFastCatchUp(true);
+        inst2.start("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitState(50));
+        publish(51, 52);
+        assertTrue(inst2.awaitState(52));
+        // Only the input matching the recovered state and the new ones were deserialized
+        assertEquals(3, inst2._serializer._deserialized);
+        assertEquals(0, inst2._ignored);
+        assertEquals(52, inst2._model.GetLastInputSequence());
+        assertTrue(awaitDrained("app1_inst2"));
+    }
+
+    @Test
+    public void testRestartRecoversFromLocalSnapshotAndJournal() throws Exception {
+        File dir = folder.newFolder("inst1");
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        LocalStore store = new LocalStore(dir, 4096);
+        inst1._connector.EnableLocalPersistence(store, 10);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 25);
+        assertTrue(inst1.awaitState(25));
+        assertTrue(awaitDrained("app1_inst1"));
+        inst1.kill();
+        store.AwaitSnapshot();
+        // Snapshots are written in the background, so one falling due while the last is still being written
+        // is put off to a later input
+        long snapshotSeq = store.ReadSnapshot().GetLastInputSequence();
+        assertTrue(snapshotSeq >= 10);
+
+        // The last snapshot plus the journal since rebuild the state before any queue is bound
+        TestApp restarted = new TestApp(broker, "inst1b", "trade/app1/new");
+        restarted._connector.EnableLocalPersistence(new LocalStore(dir, 4096), 10);
+        restarted.start("app1_inst1", "app1_lvq");
+        assertEquals(25, restarted._lastState);
+        assertEquals(25 - snapshotSeq, restarted._processed);
+
+        publish(26, 27);
+        assertTrue(restarted.awaitState(27));
+        assertEquals(27 - snapshotSeq, restarted._processed);
+        assertEquals(27, lastOutput());
+    }
+
+    @Test
+    public void testRestoreBehindLastValueQueueSuppressesOutputsUntilCaughtUp() throws Exception {
+        File dir = folder.newFolder("inst1");
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        LocalStore store = new LocalStore(dir, 4096);
+        inst1._connector.EnableLocalPersistence(store, 10);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 10);
+        assertTrue(inst1.awaitState(10));
+        assertTrue(awaitDrained("app1_inst1"));
+        inst1.kill();
+        store.AwaitSnapshot();
+        long snapshotSeq = store.ReadSnapshot().GetLastInputSequence();
+
+        // Another member went on to publish up to 15 while this one was down
+        publish(11, 15);
+        gateway.SendOutput("trade/app1/new", output(15));
+
+        TestApp restarted = new TestApp(broker, "inst1b", "trade/app1/new");
+        restarted._connector.EnableLocalPersistence(new LocalStore(dir, 4096), 10);
+        restarted.start("app1_inst1", "app1_lvq");
+        assertEquals(10, restarted._lastState);
+        assertTrue(restarted.awaitState(15));
+        assertTrue(awaitDrained("app1_inst1"));
+        // Every input is applied, but 11 to 14 were already published by the other member
+        assertEquals(15 - snapshotSeq, restarted._processed);
+        assertEquals(1, restarted._connector.GetPipelineMetrics().GetCount(PipelineMetrics.Counter.OUTPUTS_SENT));
+        assertEquals(SeqState.UPTODATE, restarted._seqState);
+
+        publish(16, 16);
+        assertTrue(restarted.awaitState(16));
+        assertEquals(16, lastOutput());
+    }
+
+    @Test
+    public void testKeyedRecoveryLoadsLastOutputOfEveryKey() throws Exception {
+        int keys = 1000;
+        String[] lvqs = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            lvqs[i] = "app1_lvq_" + i;
+            broker.ProvisionLastValueQueue(lvqs[i], "trade/app1/key/" + i);
+        }
+        // Two outputs per key; only the later one is left on each LVQ
+        for (int round = 0; round < 2; round++)
+            for (int i = 0; i < keys; i++)
+                gateway.SendOutput("trade/app1/key/" + i, output(round * keys + i + 1));
+
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetKeyedLastValueQueues(lvqs);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        for (int i = 0; i < 500 && inst1._model.GetLastOutputs().size() < keys; i++)
+            Thread.sleep(10);
+
+        assertEquals(keys, inst1._model.GetLastOutputs().size());
+        assertEquals(keys + 8, inst1._model.GetLastOutput("trade/app1/key/7").getSequenceId());
+        assertEquals(2 * keys, inst1._model.GetLastOutputSequence());
+
+        // Outputs sent after recovery keep their key current
+        publish(2 * keys + 1, 2 * keys + 1);
+        assertTrue(inst1.awaitState(2 * keys + 1));
+        assertEquals(2 * keys + 1, inst1._model.GetLastOutput("trade/app1/new").getSequenceId());
+    }
+
+    @Test
+    public void testKeyedLastOutputsRecoveredAfterLocalRestore() throws Exception {
+        File dir = folder.newFolder("inst1");
+        broker.ProvisionLastValueQueue("app1_lvq_7", "trade/app1/key/7");
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        LocalStore store = new LocalStore(dir, 4096);
+        inst1._connector.EnableLocalPersistence(store, 10);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 10);
+        assertTrue(inst1.awaitState(10));
+        assertTrue(awaitDrained("app1_inst1"));
+        inst1.kill();
+        store.AwaitSnapshot();
+        gateway.SendOutput("trade/app1/key/7", output(3));
+
+        // The key's last output is behind the restored state, but is still its last output
+        TestApp restarted = new TestApp(broker, "inst1b", "trade/app1/new");
+        restarted._connector.EnableLocalPersistence(new LocalStore(dir, 4096), 10);
+        restarted._connector.SetKeyedLastValueQueues(new String[] { "app1_lvq_7" });
+        restarted.start("app1_inst1", "app1_lvq");
+        assertTrue(restarted.awaitHAState(HAState.ACTIVE));
+        for (int i = 0; i < 500 && restarted._model.GetLastOutput("trade/app1/key/7") == null; i++)
+            Thread.sleep(10);
+        assertEquals(3, restarted._model.GetLastOutput("trade/app1/key/7").getSequenceId());
+    }
+
+    @Test
+    public void testInputJournalReplaysReceivedInputs() throws Exception {
+        File dir = folder.newFolder("journal");
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        InputJournal journal = new InputJournal(dir, 4096, 0);
+        inst1._connector.SetInputJournal(journal);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 12);
+        assertTrue(inst1.awaitState(12));
+        inst1.kill();
+        journal.Close();
+
+        TestApp replayed = new TestApp(broker, "replay", "trade/app1/new");
+        assertEquals(12, InputJournal.Replay(dir, replayed._serializer, replayed));
+        assertEquals(12, replayed._lastState);
+    }
+
+    @Test
+    public void testBatchedAcksSurviveFailover() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetInputAckBatching(4, 20000);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new");
+        inst2._connector.SetInputAckBatching(4, 20000);
+        inst2.start("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitHAState(HAState.BACKUP));
+
+        // A partial batch is acknowledged once its delay expires
+        publish(1, 6);
+        assertTrue(inst1.awaitState(6));
+        assertTrue(inst2.awaitState(6));
+        assertTrue(awaitDrained("app1_inst1"));
+        assertTrue(awaitDrained("app1_inst2"));
+
+        inst1.kill();
+        assertTrue(inst2.awaitHAState(HAState.ACTIVE));
+        publish(7, 9);
+        assertTrue(inst2.awaitState(9));
+        assertEquals(9, lastOutput());
+        assertTrue(awaitDrained("app1_inst2"));
+    }
+
+    @Test
+    public void testPipelinedFailover() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetPipelined(16, WaitStrategy.PARK);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new");
+        inst2._connector.SetPipelined(16, WaitStrategy.YIELD);
+        inst2.start("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitHAState(HAState.BACKUP));
+
+        publish(1, 100);
+        assertTrue(inst1.awaitState(100));
+        assertTrue(inst2.awaitState(100));
+        assertEquals(100, inst1._processed);
+        assertTrue(awaitDrained("app1_inst1"));
+
+        inst1.kill();
+        assertTrue(inst2.awaitHAState(HAState.ACTIVE));
+        publish(101, 110);
+        assertTrue(inst2.awaitState(110));
+        assertEquals(110, lastOutput());
+        inst1._connector.Close();
+        inst2._connector.Close();
+    }
+
+    @Test
+    public void testFailedInputIsLeftForRedeliveryAndProcessingContinues() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetPipelined(16, WaitStrategy.PARK);
+        inst1._failOn = 3;
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+
+        publish(1, 5);
+        assertTrue(inst1.awaitState(5));
+        assertEquals(4, inst1._processed);
+        assertEquals(1, inst1._connector.GetPipelineMetrics().GetCount(PipelineMetrics.Counter.INPUTS_FAILED));
+        for (int i = 0; i < 500 && broker.GetQueueDepth("app1_inst1") > 1; i++)
+            Thread.sleep(10);
+        assertEquals(1, broker.GetQueueDepth("app1_inst1"));
+        inst1._connector.Close();
+    }
+
+    @Test
+    public void testFailedInputIsAcknowledgedWhenConfigured() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        inst1._connector.SetPipelined(16, WaitStrategy.PARK);
+        inst1._connector.SetAcknowledgeFailedInputs(true);
+        inst1._failOn = 3;
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+
+        publish(1, 5);
+        assertTrue(inst1.awaitState(5));
+        assertEquals(4, inst1._processed);
+        assertEquals(1, inst1._connector.GetPipelineMetrics().GetCount(PipelineMetrics.Counter.INPUTS_FAILED));
+        assertTrue(awaitDrained("app1_inst1"));
+        inst1._connector.Close();
+    }
+
+    @Test
+    public void testFullOutputWindowGivesUpWhenDemoted() throws Exception {
+        final AtomicInteger stalledSends = new AtomicInteger(-1);
+        final FlowEventHandler[] lvqEvents = new FlowEventHandler[1];
+        InProcessTransport transport = new InProcessTransport(broker) {
+            public FlowReceiver BindQueue(String name, XMLMessageListener listener, FlowEventHandler handler)
+                    throws JCSMPException {
+                if (name.equals("app1_lvq"))
+                    lvqEvents[0] = handler;
+                return super.BindQueue(name, listener, handler);
+            }
+            public boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm)
+                    throws JCSMPException {
+                if (stalledSends.get() < 0)
+                    return super.SendOutput(topic, payload, ackOnConfirm);
+                // The window is full and the broker acknowledges nothing, so every send times out
+                stalledSends.incrementAndGet();
+                try { Thread.sleep(10); } catch (InterruptedException e) {}
+                return false;
+            }
+        };
+        TestApp inst1 = new TestApp(transport, "inst1", "trade/app1/new");
+        inst1._connector.SetPipelined(16, WaitStrategy.PARK);
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 3);
+        assertTrue(inst1.awaitState(3));
+
+        stalledSends.set(0);
+        publish(4, 4);
+        for (int i = 0; i < 500 && stalledSends.get() == 0; i++)
+            Thread.sleep(10);
+        // Demoted while the processing thread is held by the full window
+        lvqEvents[0].handleEvent(null, new FlowEventArgs(FlowEvent.FLOW_INACTIVE, "app1_lvq", null, 0) {});
+        assertTrue(inst1.awaitHAState(HAState.BACKUP));
+        assertTrue(inst1.awaitState(4));
+        assertEquals(1, inst1._connector.GetPipelineMetrics().GetCount(PipelineMetrics.Counter.OUTPUTS_DROPPED));
+        assertEquals(3, lastOutput());
+        // The input whose output was dropped is left for redelivery
+        assertEquals(1, broker.GetQueueDepth("app1_inst1"));
+        inst1._connector.Close();
+    }
+
+    @Test
+    public void testInputAcknowledgedOnlyOnceEveryOutputIsAccepted() throws Exception {
+        // Outputs are spooled but left for the test to acknowledge
+        final List<BytesXMLMessage> held = new ArrayList<BytesXMLMessage>();
+        final InputAcknowledger[] acknowledger = new InputAcknowledger[1];
+        InProcessTransport transport = new InProcessTransport(broker) {
+            public boolean SendOutput(String topic, ByteBuffer payload, BytesXMLMessage ackOnConfirm)
+                    throws JCSMPException {
+                synchronized (held) {
+                    held.add(ackOnConfirm);
+                }
+                return super.SendOutput(topic, payload, null);
+            }
+            public void SetInputAcknowledger(InputAcknowledger inputAcknowledger) {
+                acknowledger[0] = inputAcknowledger;
+            }
+        };
+        TestApp inst1 = new TestApp(transport, "inst1", "trade/app1/new") {
+            public Seq UpdateApplicationState(Seq input) {
+                _connector.SendOutput("trade/app1/audit", input);
+                return super.UpdateApplicationState(input);
+            }
+        };
+        inst1.start("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        publish(1, 1);
+        assertTrue(inst1.awaitState(1));
+
+        synchronized (held) {
+            assertEquals(2, held.size());
+            assertNotNull(held.get(0));
+            assertSame(held.get(0), held.get(1));
+        }
+        acknowledger[0].AcknowledgeInput(held.get(0));
+        Thread.sleep(50);
+        assertEquals(1, broker.GetQueueDepth("app1_inst1"));
+        acknowledger[0].AcknowledgeInput(held.get(1));
+        assertTrue(awaitDrained("app1_inst1"));
+    }
+
+    private void publish(int from, int to) throws Exception {
+        for (int i = from; i <= to; i++) {
+            ByteBuffer payload = serializer.SerializeInput(new TestApp.Seq(i));
+            payload.flip();
+            gateway.SendOutput("order/app1/new", payload);
+        }
+    }
+
+    private ByteBuffer output(long seq) {
+        ByteBuffer payload = serializer.SerializeOutput(new TestApp.Seq(seq));
+        payload.flip();
+        return payload;
+    }
+
+    private boolean awaitDrained(String queue) throws InterruptedException {
+        for (int i = 0; i < 500 && broker.GetQueueDepth(queue) > 0; i++)
+            Thread.sleep(10);
+        return broker.GetQueueDepth(queue) == 0;
+    }
+
+    private long lastOutput() throws Exception {
+        return serializer.DeserializeOutput(gateway.BrowseQueue("app1_lvq").getNext()).getSequenceId();
+    }
+}
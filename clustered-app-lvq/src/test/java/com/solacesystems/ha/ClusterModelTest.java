@@ -0,0 +1,64 @@
+package com.solacesystems.ha;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClusterModelTest {
+
+    private static class Echo implements ClusterEventListener<TestApp.Seq, TestApp.Seq> {
+        public TestApp.Seq UpdateApplicationState(TestApp.Seq input) {
+            return new TestApp.Seq(input.getSequenceId());
+        }
+        public void OnHAStateChange(HAState oldState, HAState newState) {
+            lastHAChange = oldState + "->" + newState;
+        }
+        public void OnSeqStateChange(SeqState oldState, SeqState newState) {
+            seqChanges++;
+        }
+        public void OnInitialStateMessage(TestApp.Seq initialState) {}
+        public void OnApplicationMessage(TestApp.Seq input) {}
+
+        String lastHAChange;
+        int seqChanges;
+    }
+
+    @Test
+    public void testSequenceTransitionRequiresExpectedState() {
+        Echo listener = new Echo();
+        ClusterModel<TestApp.Seq, TestApp.Seq> model = new ClusterModel<TestApp.Seq, TestApp.Seq>(listener);
+        assertFalse(model.TransitionSequenceStatus(SeqState.RECOVERING, SeqState.UPTODATE));
+        assertEquals(0, listener.seqChanges);
+        assertTrue(model.TransitionSequenceStatus(SeqState.INIT, SeqState.UPTODATE));
+        assertEquals(1, listener.seqChanges);
+        assertEquals(SeqState.UPTODATE, model.GetSequenceStatus());
+
+        model.SetHAStatus(HAState.ACTIVE);
+        assertEquals("BACKUP->ACTIVE", listener.lastHAChange);
+        assertTrue(model.GetState().IsOutputEnabled());
+    }
+
+    @Test
+    public void testSnapshotsAreNeverTorn() throws InterruptedException {
+        final ClusterModel<TestApp.Seq, TestApp.Seq> model =
+                new ClusterModel<TestApp.Seq, TestApp.Seq>(new Echo());
+        final int count = 200000;
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    model.UpdateApplicationState(new TestApp.Seq(i));
+                    model.SetHAStatus((i & 1) == 0 ? HAState.ACTIVE : HAState.BACKUP);
+                }
+            }
+        });
+        writer.start();
+        int reads = 0;
+        while (writer.isAlive() || reads == 0) {
+            ClusterState<TestApp.Seq, TestApp.Seq> state = model.GetState();
+            assertEquals(state.GetLastInputSequence(), state.GetLastOutputSequence());
+            reads++;
+        }
+        writer.join();
+        assertEquals(count - 1, model.GetLastOutputSequence());
+    }
+}
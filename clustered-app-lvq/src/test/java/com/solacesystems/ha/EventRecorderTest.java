@@ -0,0 +1,79 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.FlowEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class EventRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRingKeepsMostRecentEventsAndDecodes() throws Exception {
+        EventRecorder recorder = new EventRecorder(3);
+        assertEquals(4, recorder.GetCapacity());
+        recorder.Record(EventRecorder.Event.LVQ_FLOW_EVENT, FlowEvent.FLOW_ACTIVE.ordinal(), 0);
+        for (int i = 1; i <= 10; i++)
+            recorder.Record(EventRecorder.Event.INPUT_PROCESSED, i, i - 1);
+        assertEquals(11, recorder.GetRecordedCount());
+
+        File dump = folder.newFile("inst1.events");
+        assertEquals(4, recorder.Dump(dump));
+        String[] lines = decode(dump);
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" INPUT_PROCESSED input=7 lastOutput=6"));
+        assertTrue(lines[3], lines[3].endsWith(" INPUT_PROCESSED input=10 lastOutput=9"));
+    }
+
+    @Test
+    public void testConnectorRecordsEveryInputAndOutput() throws Exception {
+        InProcessBroker broker = new InProcessBroker();
+        broker.ProvisionQueue("app1_inst1", "order/app1/>");
+        broker.ProvisionLastValueQueue("app1_lvq", "trade/app1/>");
+        InProcessTransport gateway = new InProcessTransport(broker);
+        gateway.ConnectSession("localhost", "vpn", "user", "pass", "ogw", null);
+
+        TestApp app = new TestApp(broker, "inst1", "trade/app1/new");
+        EventRecorder recorder = new EventRecorder(1024);
+        app._connector.SetEventRecorder(recorder);
+        app.start("app1_inst1", "app1_lvq");
+        assertTrue(app.awaitHAState(HAState.ACTIVE));
+        TestApp.SeqSerializer serializer = new TestApp.SeqSerializer();
+        for (int i = 1; i <= 5; i++) {
+            ByteBuffer payload = serializer.SerializeInput(new TestApp.Seq(i));
+            payload.flip();
+            gateway.SendOutput("order/app1/new", payload);
+        }
+        assertTrue(app.awaitState(5));
+
+        File dump = folder.newFile("inst1.events");
+        recorder.Dump(dump);
+        int processed = 0, sent = 0;
+        boolean lvqActive = false;
+        for (String line : decode(dump)) {
+            if (line.contains(" INPUT_PROCESSED input="))
+                processed++;
+            if (line.contains(" OUTPUT_SENT output="))
+                sent++;
+            if (line.endsWith(" LVQ_FLOW_EVENT event=FLOW_ACTIVE"))
+                lvqActive = true;
+        }
+        assertEquals(5, processed);
+        assertEquals(5, sent);
+        assertTrue(lvqActive);
+    }
+
+    private static String[] decode(File dump) throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        EventLogDecoder.Decode(dump, new PrintStream(text, true));
+        return text.toString().split(System.lineSeparator());
+    }
+}
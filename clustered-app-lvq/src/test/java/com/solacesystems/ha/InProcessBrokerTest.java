@@ -0,0 +1,110 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class InProcessBrokerTest {
+    private InProcessBroker broker;
+
+    @Before
+    public void setUp() {
+        broker = new InProcessBroker();
+        broker.ProvisionQueue("q", "order/app1/>");
+        broker.ProvisionLastValueQueue("lvq", "trade/app1/*");
+    }
+
+    @Test
+    public void testTopicMatching() {
+        assertTrue(InProcessBroker.topicMatches("order/app1/>", "order/app1/new"));
+        assertTrue(InProcessBroker.topicMatches("order/app1/>", "order/app1/new/MSFT"));
+        assertFalse(InProcessBroker.topicMatches("order/app1/>", "order/app1"));
+        assertTrue(InProcessBroker.topicMatches("trade/*/new", "trade/app1/new"));
+        assertTrue(InProcessBroker.topicMatches("trade/app*/new", "trade/app1/new"));
+        assertFalse(InProcessBroker.topicMatches("trade/app1/new", "trade/app1/new/x"));
+        assertFalse(InProcessBroker.topicMatches("trade/app2/>", "trade/app1/new"));
+    }
+
+    @Test
+    public void testLastValueQueueKeepsOnlyLastMessage() throws Exception {
+        InProcessTransport session = connect("pub");
+        for (int i = 0; i < 5; i++)
+            session.SendOutput("trade/app1/new", ByteBuffer.wrap(new byte[] { (byte) i }));
+        session.SendOutput("trade/app2/new", ByteBuffer.wrap(new byte[] { 9 }));
+        assertEquals(1, broker.GetQueueDepth("lvq"));
+
+        Browser browser = session.BrowseQueue("lvq");
+        BytesXMLMessage msg = browser.getNext();
+        assertNotNull(msg);
+        assertEquals(4, msg.getAttachmentByteBuffer().get());
+        assertEquals("trade/app1/new", msg.getDestination().getName());
+        assertNull(browser.getNext());
+        // Browsing never consumes
+        assertEquals(1, broker.GetQueueDepth("lvq"));
+    }
+
+    @Test
+    public void testActiveFlowHandoffRedeliversUnacked() throws Exception {
+        InProcessTransport first = connect("first");
+        InProcessTransport second = connect("second");
+        Recorder r1 = new Recorder(false);
+        Recorder r2 = new Recorder(true);
+        first.BindQueue("q", r1, r1).start();
+        second.BindQueue("q", r2, r2).start();
+        waitFor(r1.events, 1);
+        waitFor(r2.events, 1);
+        assertEquals(FlowEvent.FLOW_ACTIVE, r1.events.get(0));
+        assertEquals(FlowEvent.FLOW_INACTIVE, r2.events.get(0));
+
+        InProcessTransport pub = connect("pub");
+        for (int i = 0; i < 3; i++)
+            pub.SendOutput("order/app1/new", ByteBuffer.wrap(new byte[] { (byte) i }));
+        waitFor(r1.received, 3);
+        assertEquals(0, r2.received.size());
+        assertEquals(3, broker.GetQueueDepth("q"));
+
+        // First consumer dies without acknowledging anything
+        first.Disconnect();
+        waitFor(r2.events, 2);
+        assertEquals(FlowEvent.FLOW_ACTIVE, r2.events.get(1));
+        waitFor(r2.received, 3);
+        assertTrue(r2.received.get(0).getRedelivered());
+        assertEquals(0, broker.GetQueueDepth("q"));
+    }
+
+    private InProcessTransport connect(String name) throws JCSMPException {
+        InProcessTransport session = new InProcessTransport(broker);
+        session.ConnectSession("localhost", "vpn", "user", "pass", name, null);
+        return session;
+    }
+
+    private static void waitFor(List<?> list, int size) throws InterruptedException {
+        for (int i = 0; i < 500 && list.size() < size; i++)
+            Thread.sleep(10);
+        assertEquals(size, list.size());
+    }
+
+    private static class Recorder implements XMLMessageListener, FlowEventHandler {
+        Recorder(boolean ack) {
+            this.ack = ack;
+        }
+        public void onReceive(BytesXMLMessage msg) {
+            received.add(msg);
+            if (ack) msg.ackMessage();
+        }
+        public void onException(JCSMPException e) {
+        }
+        public void handleEvent(Object o, FlowEventArgs args) {
+            events.add(args.getEvent());
+        }
+        final boolean ack;
+        final List<BytesXMLMessage> received = new CopyOnWriteArrayList<BytesXMLMessage>();
+        final List<FlowEvent> events = new CopyOnWriteArrayList<FlowEvent>();
+    }
+}
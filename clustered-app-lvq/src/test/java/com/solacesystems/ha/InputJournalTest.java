@@ -0,0 +1,96 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InputJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSegmentsRollAndOldestAreDeleted() throws Exception {
+        File dir = folder.newFolder("journal");
+        // Each record takes 24 bytes plus a 4-byte terminator, so a 64-byte segment holds two
+        InputJournal journal = new InputJournal(dir, 64, 3);
+        journal.SetGroupCommit(2, 0);
+        for (long seq = 1; seq <= 9; seq++)
+            journal.Append(seq, input(seq));
+        journal.Close();
+
+        assertEquals(3, dir.listFiles().length);
+        assertEquals(asList(5, 6, 7, 8, 9), replay(dir, ClusterState.NO_SEQUENCE));
+        assertEquals(asList(8, 9), replay(dir, 7));
+
+        // Reopening carries on after the last record of the newest segment
+        InputJournal reopened = new InputJournal(dir, 64, 3);
+        reopened.Append(10, input(10));
+        reopened.Close();
+        assertEquals(asList(5, 6, 7, 8, 9, 10), replay(dir, ClusterState.NO_SEQUENCE));
+    }
+
+    @Test
+    public void testGroupsFlushedInBackground() throws Exception {
+        File dir = folder.newFolder("group");
+        InputJournal journal = new InputJournal(dir, 64, 0);
+        journal.SetGroupCommit(2, 0);
+        for (long seq = 1; seq <= 5; seq++)
+            journal.Append(seq, input(seq));
+        // The flusher covers at least the second group, and the fifth input if it was appended in time
+        for (int i = 0; i < 500 && journal.flushed() < 4; i++)
+            Thread.sleep(1);
+        assertTrue(journal.flushed() >= 4);
+        journal.Close();
+        assertEquals(5, journal.flushed());
+    }
+
+    @Test
+    public void testReplayThroughApplication() throws Exception {
+        File dir = folder.newFolder("app");
+        InputJournal journal = new InputJournal(dir, 4096, 0);
+        journal.SetGroupCommit(0, 1);
+        for (long seq = 1; seq <= 20; seq++)
+            journal.Append(seq, input(seq));
+        journal.Close();
+
+        TestApp app = new TestApp(new InProcessBroker(), "replay", "trade/app1/new");
+        assertEquals(20, InputJournal.Replay(dir, app._serializer, app));
+        assertEquals(20, app._processed);
+        assertEquals(20, app._lastState);
+    }
+
+    static BytesXMLMessage input(long seq) {
+        ByteBuffer payload = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        ByteBufferSerializer.SerializeSequence(payload, seq);
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(payload.array());
+        return msg;
+    }
+
+    static List<Long> replay(File dir, long afterSeq) throws Exception {
+        final List<Long> seqs = new ArrayList<Long>();
+        InputJournal.Replay(dir, afterSeq, new LocalStore.JournalListener() {
+            public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                assertEquals(sequenceId, ByteBufferSerializer.DeserializeSequence(payload));
+                seqs.add(sequenceId);
+            }
+        });
+        return seqs;
+    }
+
+    private static List<Long> asList(long... seqs) {
+        List<Long> list = new ArrayList<Long>();
+        for (long seq : seqs)
+            list.add(seq);
+        return list;
+    }
+}
@@ -0,0 +1,112 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowEvent;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InputPipelineTest {
+
+    private static class Recorder implements InputPipeline.Handler {
+        public void onAppMessage(BytesXMLMessage msg) {
+            sleep();
+            received.add(msg);
+        }
+        public void onAppFlowEvent(FlowEvent event) {
+            received.add(event);
+        }
+        public void onLVQFlowEvent(FlowEvent event) {
+            received.add("lvq:" + event);
+        }
+        public void onHandOff() {
+            received.add("handoff");
+        }
+        void sleep() {
+            if (delayMillis > 0) {
+                try { Thread.sleep(delayMillis); } catch (InterruptedException e) {}
+            }
+        }
+        final List<Object> received = new ArrayList<Object>();
+        volatile long delayMillis;
+    }
+
+    @Test
+    public void testEntriesHandledInOrderAcrossWraps() {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            Recorder recorder = new Recorder();
+            InputPipeline pipeline = new InputPipeline(3, waitStrategy, recorder);
+            pipeline.start("test-" + waitStrategy);
+            List<Object> expected = new ArrayList<Object>();
+            pipeline.publish(InputPipeline.LVQ_FLOW_EVENT, null, FlowEvent.FLOW_ACTIVE);
+            expected.add("lvq:" + FlowEvent.FLOW_ACTIVE);
+            for (int i = 0; i < 1000; i++) {
+                BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+                pipeline.publish(InputPipeline.APP_MESSAGE, msg, null);
+                expected.add(msg);
+            }
+            pipeline.publish(InputPipeline.APP_FLOW_EVENT, null, FlowEvent.FLOW_INACTIVE);
+            expected.add(FlowEvent.FLOW_INACTIVE);
+            pipeline.publish(InputPipeline.HAND_OFF, null, null);
+            expected.add("handoff");
+            pipeline.stop();
+            assertEquals(expected, recorder.received);
+        }
+    }
+
+    @Test
+    public void testFullRingHoldsProducer() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        recorder.delayMillis = 20;
+        InputPipeline pipeline = new InputPipeline(2, WaitStrategy.PARK, recorder);
+        pipeline.start("test-full");
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++)
+            pipeline.publish(InputPipeline.APP_MESSAGE, null, null);
+        // The last publishes wait for the processing thread to free up the ring
+        assertTrue(System.nanoTime() - start >= 40000000L);
+        assertTrue(pipeline.backlog() <= 2);
+        pipeline.stop();
+        assertEquals(6, recorder.received.size());
+    }
+
+    @Test
+    public void testConcurrentProducersKeepTheirOwnOrder() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 10000;
+        Recorder recorder = new Recorder();
+        final InputPipeline pipeline = new InputPipeline(8, WaitStrategy.YIELD, recorder);
+        pipeline.start("test-producers");
+        final BytesXMLMessage[][] published = new BytesXMLMessage[producers][perProducer];
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < perProducer; i++)
+                published[p][i] = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+            final BytesXMLMessage[] mine = published[p];
+            threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (BytesXMLMessage msg : mine)
+                        pipeline.publish(InputPipeline.APP_MESSAGE, msg, null);
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        pipeline.stop();
+
+        assertEquals(producers * perProducer, recorder.received.size());
+        int[] next = new int[producers];
+        for (Object entry : recorder.received) {
+            int p = 0;
+            while (p < producers && (next[p] == perProducer || published[p][next[p]] != entry))
+                p++;
+            assertTrue("Entry out of its producer's order", p < producers);
+            next[p]++;
+        }
+    }
+}
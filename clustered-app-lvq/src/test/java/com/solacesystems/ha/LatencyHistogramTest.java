@@ -0,0 +1,45 @@
+package com.solacesystems.ha;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryValueContiguously() {
+        int last = -1;
+        for (long value : new long[] { 0, 1, 127, 128, 129, 255, 256, 1000, 1 << 20, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= last && index < LatencyHistogram.BUCKETS);
+            assertTrue(LatencyHistogram.lowestEquivalentValue(index) <= value);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+            last = index;
+        }
+        for (int i = 1; i < LatencyHistogram.indexOf(Long.MAX_VALUE); i++)
+            assertEquals(LatencyHistogram.highestEquivalentValue(i - 1) + 1, LatencyHistogram.lowestEquivalentValue(i));
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100000; nanos++)
+            histogram.Record(nanos * 1000);
+        assertEquals(100000, histogram.GetCount());
+        assertEquals(100000000, histogram.GetMax());
+        assertEquals(50000500, histogram.GetMean(), 1);
+        assertEquals(50000000, histogram.GetValueAtPercentile(50), 50000000 * 0.016);
+        assertEquals(99000000, histogram.GetValueAtPercentile(99), 99000000 * 0.016);
+        assertEquals(100000000, histogram.GetValueAtPercentile(100));
+
+        LatencyHistogram single = new LatencyHistogram(true);
+        for (long nanos = 1; nanos <= 100000; nanos++)
+            single.Record(nanos * 1000);
+        assertEquals(histogram.GetValueAtPercentile(99), single.GetValueAtPercentile(99));
+        assertEquals(histogram.GetMean(), single.GetMean(), 0);
+
+        histogram.Reset();
+        assertEquals(0, histogram.GetCount());
+        assertEquals(0, histogram.GetValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,135 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testJournalSurvivesReopenAndSnapshotTruncatesIt() throws Exception {
+        File dir = folder.newFolder("inst1");
+        LocalStore store = new LocalStore(dir, 4096);
+        assertNull(store.ReadSnapshot());
+        for (long seq = 1; seq <= 3; seq++)
+            assertTrue(store.AppendInput(seq, input(seq)));
+
+        LocalStore reopened = new LocalStore(dir, 4096);
+        assertEquals(asList(1, 2, 3), replay(reopened, ClusterState.NO_SEQUENCE));
+        assertEquals(asList(3), replay(reopened, 2));
+        assertTrue(reopened.AppendInput(4, input(4)));
+        assertEquals(asList(1, 2, 3, 4), replay(reopened, ClusterState.NO_SEQUENCE));
+
+        ByteBuffer state = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        reopened.WriteSnapshot(4, 4, state);
+        assertEquals(0, state.position());
+        assertEquals(asList(), replay(reopened, ClusterState.NO_SEQUENCE));
+        assertTrue(reopened.AppendInput(5, input(5)));
+
+        LocalStore.Snapshot snapshot = new LocalStore(dir, 4096).ReadSnapshot();
+        assertEquals(4, snapshot.GetLastInputSequence());
+        assertEquals(3, snapshot.GetState().remaining());
+        assertEquals(asList(5), replay(new LocalStore(dir, 4096), snapshot.GetLastInputSequence()));
+    }
+
+    @Test
+    public void testBackgroundSnapshotKeepsJournalingInTheSpareJournal() throws Exception {
+        File dir = folder.newFolder("background");
+        LocalStore store = new LocalStore(dir, 4096);
+        for (long seq = 1; seq <= 3; seq++)
+            assertTrue(store.AppendInput(seq, input(seq)));
+        ByteBuffer state = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertTrue(store.WriteSnapshotInBackground(3, 3, state));
+        // The state was copied, so the application may overwrite it at once
+        state.put(0, (byte) 9);
+        assertTrue(store.AppendInput(4, input(4)));
+        store.AwaitSnapshot();
+        assertFalse(store.IsWritingSnapshot());
+        assertEquals(asList(4), replay(store, ClusterState.NO_SEQUENCE));
+        assertTrue(store.WriteSnapshotInBackground(4, 4, state));
+        assertTrue(store.AppendInput(5, input(5)));
+        store.AwaitSnapshot();
+
+        LocalStore reopened = new LocalStore(dir, 4096);
+        LocalStore.Snapshot snapshot = reopened.ReadSnapshot();
+        assertEquals(4, snapshot.GetLastInputSequence());
+        assertEquals(9, snapshot.GetState().get(0));
+        assertEquals(asList(5), replay(reopened, ClusterState.NO_SEQUENCE));
+        assertTrue(reopened.AppendInput(6, input(6)));
+        assertEquals(asList(5, 6), replay(new LocalStore(dir, 4096), snapshot.GetLastInputSequence()));
+    }
+
+    @Test
+    public void testBothJournalsReplayInOrderAfterAnInterruptedSnapshot() throws Exception {
+        File dir = folder.newFolder("interrupted");
+        LocalStore store = new LocalStore(dir, 4096);
+        for (long seq = 1; seq <= 3; seq++)
+            assertTrue(store.AppendInput(seq, input(seq)));
+        File journal = new File(dir, "journal.bin");
+        File saved = new File(dir, "journal.saved");
+        Files.copy(journal.toPath(), saved.toPath());
+        assertTrue(store.WriteSnapshotInBackground(3, 3, ByteBuffer.wrap(new byte[] { 1 })));
+        assertTrue(store.AppendInput(4, input(4)));
+        assertTrue(store.AppendInput(5, input(5)));
+        store.AwaitSnapshot();
+
+        // As if the member died before the snapshot at 3 was durable
+        assertTrue(new File(dir, "snapshot.bin").delete());
+        Files.copy(saved.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LocalStore reopened = new LocalStore(dir, 4096);
+        assertNull(reopened.ReadSnapshot());
+        assertEquals(asList(1, 2, 3, 4, 5), replay(reopened, ClusterState.NO_SEQUENCE));
+        // Inputs carry on after the latest ones, and the next snapshot covers both journals
+        assertTrue(reopened.AppendInput(6, input(6)));
+        assertTrue(reopened.WriteSnapshotInBackground(6, 6, ByteBuffer.wrap(new byte[] { 1 })));
+        assertFalse(reopened.IsWritingSnapshot());
+        assertEquals(asList(), replay(reopened, ClusterState.NO_SEQUENCE));
+    }
+
+    @Test
+    public void testFullJournalRejectsAppend() throws Exception {
+        LocalStore store = new LocalStore(folder.newFolder("full"), 64);
+        assertTrue(store.AppendInput(1, input(1)));
+        assertTrue(store.AppendInput(2, input(2)));
+        assertFalse(store.AppendInput(3, input(3)));
+    }
+
+    private static BytesXMLMessage input(long seq) {
+        ByteBuffer payload = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        ByteBufferSerializer.SerializeSequence(payload, seq);
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(payload.array());
+        return msg;
+    }
+
+    private static List<Long> replay(LocalStore store, long afterSeq) {
+        final List<Long> seqs = new ArrayList<Long>();
+        store.ReplayJournal(afterSeq, new LocalStore.JournalListener() {
+            public void OnJournaledInput(long sequenceId, ByteBuffer payload) {
+                assertEquals(sequenceId, ByteBufferSerializer.DeserializeSequence(payload));
+                seqs.add(sequenceId);
+            }
+        });
+        return seqs;
+    }
+
+    private static List<Long> asList(long... seqs) {
+        List<Long> list = new ArrayList<Long>();
+        for (long seq : seqs)
+            list.add(seq);
+        return list;
+    }
+}
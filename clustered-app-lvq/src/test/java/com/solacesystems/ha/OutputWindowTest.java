@@ -0,0 +1,83 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OutputWindowTest {
+
+    @Test
+    public void testFullWindowTimesOut() {
+        OutputWindow window = new OutputWindow(2, 10);
+        assertNotNull(window.acquire(null));
+        assertNotNull(window.acquire(null));
+        assertEquals(2, window.inFlight());
+        assertNull(window.acquire(null));
+    }
+
+    @Test
+    public void testInputReleasedOnlyWhenOutputAccepted() {
+        OutputWindow window = new OutputWindow(4, 10);
+        BytesXMLMessage accepted = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        BytesXMLMessage rejected = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        OutputWindow.Slot first = window.acquire(accepted);
+        OutputWindow.Slot second = window.acquire(rejected);
+        assertSame(accepted, window.complete(first, true));
+        assertNull(window.complete(second, false));
+        assertEquals(0, window.inFlight());
+        // Duplicate acknowledgements are ignored
+        assertNull(window.complete(first, true));
+    }
+
+    @Test
+    public void testSlotsFreeInOrder() {
+        OutputWindow window = new OutputWindow(2, 10);
+        OutputWindow.Slot first = window.acquire(null);
+        OutputWindow.Slot second = window.acquire(null);
+        window.complete(second, true);
+        // The oldest output is still outstanding, so the window stays full
+        assertEquals(2, window.inFlight());
+        assertNull(window.acquire(null));
+        window.complete(first, true);
+        assertEquals(0, window.inFlight());
+        assertNotNull(window.acquire(null));
+    }
+
+    @Test
+    public void testBlockedPublisherResumesOnAck() throws Exception {
+        final OutputWindow window = new OutputWindow(1, 0);
+        final OutputWindow.Slot first = window.acquire(null);
+        Thread acker = new Thread(new Runnable() {
+            public void run() {
+                try { Thread.sleep(50); } catch (InterruptedException e) {}
+                window.complete(first, true);
+            }
+        });
+        acker.start();
+        assertNotNull(window.acquire(null));
+        acker.join();
+    }
+
+    @Test
+    public void testRejectedOutputSupersededByLaterSentOutput() {
+        OutputWindow window = new OutputWindow(4, 10);
+        BytesXMLMessage input = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("out/a");
+        OutputWindow.Slot rejected = window.acquire(topic, input);
+        OutputWindow.Slot other = window.acquire(JCSMPFactory.onlyInstance().createTopic("out/b"), null);
+        window.complete(other, true);
+        // Only a later output to the same topic supersedes it
+        assertFalse(window.superseded(rejected));
+        OutputWindow.Slot later = window.acquire(topic, null);
+        // Once sent, the later output must not be overtaken by publishing the rejected one again
+        assertTrue(window.superseded(rejected));
+        assertFalse(window.supersessionAccepted(rejected));
+        window.complete(later, true);
+        assertTrue(window.supersessionAccepted(rejected));
+        assertSame(input, window.retire(rejected));
+        assertEquals(0, window.inFlight());
+    }
+}
@@ -0,0 +1,182 @@
+package com.solacesystems.ha;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PartitionedClusterConnectorTest {
+    private static final int PARTITIONS = 4;
+
+    private InProcessBroker broker;
+    private InProcessTransport gateway;
+    private final TestApp.SeqSerializer serializer = new TestApp.SeqSerializer();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new InProcessBroker();
+        for (int p = 0; p < PARTITIONS; p++) {
+            broker.ProvisionQueue("app1_hostA_p" + p, "order/app1/p" + p + "/>");
+            broker.ProvisionQueue("app1_hostB_p" + p, "order/app1/p" + p + "/>");
+            broker.ProvisionLastValueQueue("app1_lvq_p" + p, "trade/app1/p" + p + "/>");
+        }
+        gateway = new InProcessTransport(broker);
+        gateway.ConnectSession("localhost", "vpn", "user", "pass", "ogw", null);
+    }
+
+    @Test
+    public void testPartitionsFailOverIndependently() throws Exception {
+        Host hostA = new Host("hostA", 2);
+        Host hostB = new Host("hostB", 4);
+        // Host B binds partitions 2 and 3 first, so each host leads half of the partitions
+        hostB.start(2, PARTITIONS);
+        hostA.start(0, PARTITIONS);
+        hostB.start(0, 2);
+        assertTrue(hostA.awaitActive(2));
+        assertTrue(hostB.awaitActive(2));
+        assertEquals(HAState.ACTIVE, hostA.partitions.GetPartitionState(0).GetHAStatus());
+        assertEquals(HAState.BACKUP, hostA.partitions.GetPartitionState(2).GetHAStatus());
+
+        for (int p = 0; p < PARTITIONS; p++)
+            publish(p, 1, 10);
+        for (int p = 0; p < PARTITIONS; p++) {
+            assertTrue(hostA.apps.get(p).awaitState(10));
+            assertTrue(hostB.apps.get(p).awaitState(10));
+        }
+        // Each of host A's two shared sessions carries the outputs of one active partition
+        for (int session = 0; session < 2; session++)
+            assertTrue(awaitAcknowledged(hostA.partitions.GetSessionMetrics(session), 10));
+
+        // Host B takes over the partitions host A was leading, and carries on with all of them
+        hostA.kill();
+        assertTrue(hostB.awaitActive(PARTITIONS));
+        for (int p = 0; p < PARTITIONS; p++)
+            publish(p, 11, 12);
+        for (int p = 0; p < PARTITIONS; p++)
+            assertTrue(hostB.apps.get(p).awaitState(12));
+        hostB.partitions.Close();
+    }
+
+    @Test
+    public void testLeadershipIsBalancedWithoutFlapping() throws Exception {
+        Host hostA = new Host("hostA", 1);
+        Host hostB = new Host("hostB", 1);
+        // After a rolling restart host A was first to bind every partition
+        hostA.start(0, PARTITIONS);
+        assertTrue(hostA.awaitActive(PARTITIONS));
+        hostB.start(0, PARTITIONS);
+        LeadershipBalancer balancerA = hostA.partitions.EnableLeadershipBalancing("cluster/app1", "hostA", 10);
+        LeadershipBalancer balancerB = hostB.partitions.EnableLeadershipBalancing("cluster/app1", "hostB", 10);
+
+        assertTrue(hostA.awaitActive(PARTITIONS / 2));
+        assertTrue(hostB.awaitActive(PARTITIONS / 2));
+        // Once balanced, leadership stays put
+        Thread.sleep(200);
+        assertEquals(PARTITIONS / 2, hostA.partitions.GetActivePartitionCount());
+        assertEquals(PARTITIONS / 2, balancerA.GetHandOffCount());
+        assertEquals(0, balancerB.GetHandOffCount());
+        assertEquals(Integer.valueOf(PARTITIONS / 2), balancerB.GetActiveCounts().get("hostA"));
+
+        // The new leaders carry on from the last output of their partitions
+        for (int p = 0; p < PARTITIONS; p++)
+            publish(p, 1, 5);
+        for (int p = 0; p < PARTITIONS; p++) {
+            assertTrue(hostA.apps.get(p).awaitState(5));
+            assertTrue(hostB.apps.get(p).awaitState(5));
+            assertEquals(5, serializer.DeserializeOutput(gateway.BrowseQueue("app1_lvq_p" + p).getNext()).getSequenceId());
+        }
+        hostA.partitions.Close();
+        hostB.partitions.Close();
+    }
+
+    @Test
+    public void testGossipIsDecodedAsUtf8AndMalformedGossipIgnored() throws Exception {
+        Host hostA = new Host("hostA", 1);
+        hostA.start(0, PARTITIONS);
+        assertTrue(hostA.awaitActive(PARTITIONS));
+        LeadershipBalancer balancer = hostA.partitions.EnableLeadershipBalancing("cluster/app1", "hostA", 10);
+
+        gateway.SendDirectText("cluster/app1/hostC", "hostC|1,x|");
+        gateway.SendDirectText("cluster/app1/hostD", "h\u00f4stD||");
+        for (int i = 0; i < 500 && !balancer.GetActiveCounts().containsKey("h\u00f4stD"); i++)
+            Thread.sleep(10);
+        assertTrue(balancer.GetActiveCounts().containsKey("h\u00f4stD"));
+        assertFalse(balancer.GetActiveCounts().containsKey("hostC"));
+        hostA.partitions.Close();
+    }
+
+    @Test
+    public void testPartitionOfIsStableAndSpread() {
+        int[] counts = new int[8];
+        for (int i = 0; i < 8000; i++)
+            counts[PartitionedClusterConnector.PartitionOf("INSTR" + i, 8)]++;
+        for (int count : counts)
+            assertTrue("Partition count " + count, count > 800 && count < 1200);
+        assertEquals(PartitionedClusterConnector.PartitionOf("MSFT", 8), PartitionedClusterConnector.PartitionOf("MSFT", 8));
+    }
+
+    private static boolean awaitAcknowledged(PipelineMetrics metrics, long outputs) throws InterruptedException {
+        for (int i = 0; i < 500 && metrics.GetCount(PipelineMetrics.Counter.OUTPUTS_ACKNOWLEDGED) < outputs; i++)
+            Thread.sleep(10);
+        return metrics.GetCount(PipelineMetrics.Counter.OUTPUTS_ACKNOWLEDGED) == outputs;
+    }
+
+    private void publish(int partition, int from, int to) throws Exception {
+        for (int i = from; i <= to; i++) {
+            ByteBuffer payload = serializer.SerializeInput(new TestApp.Seq(i));
+            payload.flip();
+            gateway.SendOutput("order/app1/p" + partition + "/new", payload);
+        }
+    }
+
+    /**
+     * One process running every partition over a number of in-process sessions
+     */
+    private class Host {
+        Host(final String name, int sessions) {
+            _name = name;
+            partitions = new PartitionedClusterConnector<TestApp.Seq, TestApp.Seq>(PARTITIONS, sessions,
+                new PartitionedClusterConnector.TransportFactory() {
+                    public ClusterTransport CreateTransport(int session) {
+                        InProcessTransport transport = new InProcessTransport(broker);
+                        transports.add(transport);
+                        return transport;
+                    }
+                },
+                new PartitionedClusterConnector.PartitionFactory<TestApp.Seq, TestApp.Seq>() {
+                    public ClusterConnector<TestApp.Seq, TestApp.Seq> CreatePartition(int partition, ClusterTransport transport) {
+                        TestApp app = new TestApp(transport, name + "_p" + partition, "trade/app1/p" + partition + "/new");
+                        apps.add(app);
+                        return app._connector;
+                    }
+                });
+            partitions.SetPipelined(64, WaitStrategy.PARK);
+            assertTrue(partitions.Connect("localhost", "vpn", "user", "pass", name));
+        }
+
+        void start(int from, int to) throws Exception {
+            for (int p = from; p < to; p++)
+                partitions.BindPartition(p, "app1_" + _name + "_p" + p, "app1_lvq_p" + p);
+        }
+
+        boolean awaitActive(int count) throws InterruptedException {
+            for (int i = 0; i < 500 && partitions.GetActivePartitionCount() != count; i++)
+                Thread.sleep(10);
+            return partitions.GetActivePartitionCount() == count;
+        }
+
+        void kill() {
+            for (InProcessTransport transport : transports)
+                transport.Disconnect();
+        }
+
+        private final String _name;
+        final List<InProcessTransport> transports = new ArrayList<InProcessTransport>();
+        final List<TestApp> apps = new ArrayList<TestApp>();
+        final PartitionedClusterConnector<TestApp.Seq, TestApp.Seq> partitions;
+    }
+}
@@ -5,7 +5,17 @@ import com.solacesystems.jcsmp.*;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SolaceConnectorTest {
     private String queueName     = "sample_queue";
@@ -17,6 +27,7 @@ public class SolaceConnectorTest {
     public void testConnection() throws Exception {
         ByteBuffer payload = ByteBuffer.allocate(1024);
         payload.put(payloadString.getBytes());
+        payload.flip();
 
         SolaceConnector conn = new SolaceConnector();
         conn.ConnectSession("192.168.56.102", "poc_vpn", "test", "test", "foo",
@@ -50,4 +61,138 @@ public class SolaceConnectorTest {
         con.start();
         try { Thread.sleep(1000); } catch(InterruptedException e) {}
     }
+
+    @Test
+    public void testSendOutputSendsOnlyReadableRegion() throws Exception {
+        final List<byte[]> sent = new ArrayList<byte[]>();
+        SolaceConnector conn = new SolaceConnector(capturingSession(sent));
+        byte[] expected = payloadString.getBytes();
+
+        ByteBuffer heap = ByteBuffer.allocate(64);
+        heap.put((byte) 0xFF).put(expected).flip();
+        heap.get(); // skip a header byte
+        conn.SendOutput(topicName, heap);
+
+        ByteBuffer slice = ByteBuffer.allocate(64);
+        slice.position(7);
+        slice = slice.slice();
+        slice.put(expected).flip();
+        conn.SendOutput(topicName, slice);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put(expected).flip();
+        conn.SendOutput(topicName, direct);
+        conn.SendOutput(topicName, heap.asReadOnlyBuffer());
+
+        assertEquals(4, sent.size());
+        for (byte[] wire : sent)
+            assertArrayEquals(expected, wire);
+        // Sending never consumes the caller's buffer
+        assertEquals(1, heap.position());
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testRejectedOutputIsPublishedAgainBeforeItsInputIsAcknowledged() throws Exception {
+        final List<byte[]> sent = new ArrayList<byte[]>();
+        final List<BytesXMLMessage> acked = new ArrayList<BytesXMLMessage>();
+        SolaceConnector conn = new SolaceConnector(capturingSession(sent, 1));
+        conn.SetInputAcknowledger(new InputAcknowledger() {
+            public void AcknowledgeInput(BytesXMLMessage input) {
+                synchronized (acked) {
+                    acked.add(input);
+                }
+            }
+        });
+        BytesXMLMessage input = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        byte[] expected = payloadString.getBytes();
+        assertTrue(conn.SendOutput(topicName, ByteBuffer.wrap(expected), input));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (conn.GetOutputsInFlight() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(0, conn.GetOutputsInFlight());
+        synchronized (sent) {
+            assertEquals(2, sent.size());
+            assertArrayEquals(expected, sent.get(1));
+        }
+        synchronized (acked) {
+            assertEquals(1, acked.size());
+            assertSame(input, acked.get(0));
+        }
+    }
+
+    @Test
+    public void testRejectedOutputIsNotPublishedAfterLaterOutputToSameTopic() throws Exception {
+        final List<byte[]> sent = new ArrayList<byte[]>();
+        final List<BytesXMLMessage> acked = new ArrayList<BytesXMLMessage>();
+        SolaceConnector conn = new SolaceConnector(capturingSession(sent, 1));
+        conn.SetInputAcknowledger(new InputAcknowledger() {
+            public void AcknowledgeInput(BytesXMLMessage input) {
+                synchronized (acked) {
+                    acked.add(input);
+                }
+            }
+        });
+        BytesXMLMessage first = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        BytesXMLMessage second = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        assertTrue(conn.SendOutput(topicName, ByteBuffer.wrap("old".getBytes()), first));
+        assertTrue(conn.SendOutput(topicName, ByteBuffer.wrap("new".getBytes()), second));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (conn.GetOutputsInFlight() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(0, conn.GetOutputsInFlight());
+        synchronized (sent) {
+            assertEquals(2, sent.size());
+            assertArrayEquals("new".getBytes(), sent.get(1));
+        }
+        synchronized (acked) {
+            assertEquals(2, acked.size());
+        }
+    }
+
+    private static JCSMPSession capturingSession(final List<byte[]> sent) {
+        return capturingSession(sent, 0);
+    }
+
+    /** Session whose producer captures the attachment of every message sent, rejecting the first few */
+    private static JCSMPSession capturingSession(final List<byte[]> sent, final int rejections) {
+        return (JCSMPSession) Proxy.newProxyInstance(
+                JCSMPSession.class.getClassLoader(),
+                new Class<?>[] { JCSMPSession.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getMessageProducer"))
+                            return capturingProducer(sent, rejections, (JCSMPStreamingPublishCorrelatingEventHandler) args[0]);
+                        return null;
+                    }
+                });
+    }
+
+    private static XMLMessageProducer capturingProducer(final List<byte[]> sent, final int rejections,
+                                                        final JCSMPStreamingPublishCorrelatingEventHandler handler) {
+        return (XMLMessageProducer) Proxy.newProxyInstance(
+                XMLMessageProducer.class.getClassLoader(),
+                new Class<?>[] { XMLMessageProducer.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("send")) {
+                            BytesXMLMessage msg = (BytesXMLMessage) args[0];
+                            byte[] wire = new byte[msg.getAttachmentContentLength()];
+                            msg.readAttachmentBytes(wire);
+                            int count;
+                            synchronized (sent) {
+                                sent.add(wire);
+                                count = sent.size();
+                            }
+                            if (count <= rejections)
+                                handler.handleErrorEx(msg.getCorrelationKey(), new JCSMPException("Spool full"), 0);
+                            else
+                                handler.responseReceivedEx(msg.getCorrelationKey());
+                        }
+                        return null;
+                    }
+                });
+    }
 }
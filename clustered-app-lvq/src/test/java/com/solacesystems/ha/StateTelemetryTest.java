@@ -0,0 +1,91 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StateTelemetryTest {
+    private InProcessBroker broker;
+    private InProcessTransport gateway;
+    private final List<String> updates = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new InProcessBroker();
+        broker.ProvisionQueue("app1_inst1", "order/app1/>");
+        broker.ProvisionLastValueQueue("app1_lvq", "trade/app1/>");
+        gateway = new InProcessTransport(broker);
+        gateway.ConnectSession("localhost", "vpn", "user", "pass", "ogw", null);
+        gateway.SubscribeDirect(StateTelemetry.DEFAULT_TOPIC, new XMLMessageListener() {
+            public void onReceive(BytesXMLMessage msg) {
+                byte[] text = new byte[msg.getAttachmentContentLength()];
+                msg.readAttachmentBytes(0, text, 0, text.length);
+                updates.add(new String(text));
+            }
+            public void onException(JCSMPException ex) {
+            }
+        });
+    }
+
+    @Test
+    public void testEncodesTheMonitorFormat() {
+        TestApp app = new TestApp(broker, "inst1", "trade/app1/new");
+        StateTelemetry telemetry = new StateTelemetry(app._connector.model(), gateway, StateTelemetry.DEFAULT_TOPIC, 3);
+        ClusterState<TestApp.Seq, TestApp.Seq> state = new ClusterState<TestApp.Seq, TestApp.Seq>(
+            HAState.ACTIVE, SeqState.UPTODATE, 1234567890123L, ClusterState.NO_SEQUENCE);
+        ByteBuffer encoded = telemetry.encode(state);
+        byte[] text = new byte[encoded.remaining()];
+        encoded.get(text);
+        assertEquals(String.format(
+            "{ \"Instance\":%d, \"HAState\":\"%s\", \"SeqState\":\"%s\", \"LastInput\":%d, \"LastOutput\":%d }",
+            3, state.GetHAStatus(), state.GetSequenceStatus(),
+            state.GetLastInputSequence(), state.GetLastOutputSequence()), new String(text));
+    }
+
+    @Test
+    public void testUnchangedStateIsOnlyRefreshed() {
+        TestApp app = new TestApp(broker, "inst1", "trade/app1/new");
+        StateTelemetry telemetry = new StateTelemetry(app._connector.model(), gateway, StateTelemetry.DEFAULT_TOPIC, 1);
+        long now = System.nanoTime();
+        assertTrue(telemetry.publishIfChanged(now));
+        assertFalse(telemetry.publishIfChanged(now + 1));
+        assertTrue(telemetry.publishIfChanged(now + TimeUnit.MILLISECONDS.toNanos(StateTelemetry.REFRESH_MILLIS)));
+        assertEquals(2, telemetry.GetPublishedCount());
+    }
+
+    @Test
+    public void testStateChangesAreCoalescedAndRateLimited() throws Exception {
+        TestApp app = new TestApp(broker, "inst1", "trade/app1/new");
+        assertTrue(app._connector.Connect("localhost", "vpn", "user", "pass", "inst1"));
+        long start = System.nanoTime();
+        StateTelemetry telemetry = app._connector.EnableStateTelemetry(StateTelemetry.DEFAULT_TOPIC, 1, 20);
+        app._connector.BindQueues("app1_inst1", "app1_lvq");
+        assertTrue(app.awaitHAState(HAState.ACTIVE));
+        TestApp.SeqSerializer serializer = new TestApp.SeqSerializer();
+        for (int i = 1; i <= 500; i++) {
+            ByteBuffer payload = serializer.SerializeInput(new TestApp.Seq(i));
+            payload.flip();
+            gateway.SendOutput("order/app1/new", payload);
+        }
+        assertTrue(app.awaitState(500));
+
+        String last = "\"LastInput\":500, \"LastOutput\":500";
+        for (int i = 0; i < 200 && (updates.isEmpty() || !updates.get(updates.size() - 1).contains(last)); i++)
+            Thread.sleep(10);
+        assertTrue(updates.toString(), updates.get(updates.size() - 1).contains("\"HAState\":\"ACTIVE\", \"SeqState\":\"UPTODATE\""));
+        assertTrue(updates.get(updates.size() - 1).contains(last));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(updates.size() + " updates in " + elapsedMillis + "ms", updates.size() <= 2 + elapsedMillis * 20 / 1000);
+        assertTrue(updates.size() <= telemetry.GetPublishedCount());
+        app._connector.Close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.solacesystems.ha;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StateVerifierTest {
+    private InProcessBroker broker;
+    private InProcessTransport gateway;
+    private final TestApp.SeqSerializer serializer = new TestApp.SeqSerializer();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new InProcessBroker();
+        broker.ProvisionQueue("app1_inst1", "order/app1/>");
+        broker.ProvisionQueue("app1_inst2", "order/app1/>");
+        broker.ProvisionLastValueQueue("app1_lvq", "trade/app1/>");
+        gateway = new InProcessTransport(broker);
+        gateway.ConnectSession("localhost", "vpn", "user", "pass", "ogw", null);
+    }
+
+    private static final long NONE = ClusterState.NO_SEQUENCE;
+
+    private static long hashAfter(long sequenceId) {
+        long hash = StateHash.SEED;
+        for (long seq = 1; seq <= sequenceId; seq++)
+            hash = StateHash.Mix(hash, seq);
+        return hash;
+    }
+
+    @Test
+    public void testComparesHashesAtTheSameSequence() throws Exception {
+        TestApp backup = new TestApp(broker, "inst2", "trade/app1/new");
+        StateVerifier verifier = new StateVerifier(backup._model, gateway, StateVerifier.DEFAULT_TOPIC, 2);
+        verifier.Start(1);
+        for (long seq = 1; seq <= 10; seq++)
+            backup._model.UpdateApplicationState(new TestApp.Seq(seq));
+
+        verifier.onHash(1, NONE, 5, hashAfter(5));
+        assertEquals(1, verifier.GetVerifiedCount());
+        // Its own hashes, and inputs it never processed, are not compared
+        verifier.onHash(2, NONE, 6, 42);
+        verifier.onHash(1, NONE, 0, 42);
+        assertEquals(1, verifier.GetVerifiedCount());
+        assertEquals(1, verifier.GetUncheckedCount());
+
+        // A hash from ahead of the backup waits for it to catch up
+        verifier.onHash(1, NONE, 12, hashAfter(12));
+        backup._drift = 1;
+        backup._model.UpdateApplicationState(new TestApp.Seq(11));
+        backup._model.UpdateApplicationState(new TestApp.Seq(12));
+        assertEquals(0, verifier.GetDivergedCount());
+        verifier.onHash(1, NONE, 13, hashAfter(13));
+        assertEquals(1, verifier.GetDivergedCount());
+        assertEquals(12, verifier.GetFirstDivergedSequence());
+        // Divergence is reported once; the rolling hashes differ from then on
+        backup._model.UpdateApplicationState(new TestApp.Seq(14));
+        verifier.onHash(1, NONE, 14, hashAfter(14));
+        assertEquals(1, verifier.GetDivergedCount());
+        verifier.Stop();
+    }
+
+    @Test
+    public void testOnlyComparesHashesFromTheSameBase() throws Exception {
+        TestApp backup = new TestApp(broker, "inst2", "trade/app1/new");
+        StateVerifier verifier = new StateVerifier(backup._model, gateway, StateVerifier.DEFAULT_TOPIC, 2);
+        verifier.Start(1);
+        // Recovered from output 20, so its hash rolls on from there rather than from the first input
+        verifier.rebase(20);
+        assertEquals(20, verifier.GetHashBase());
+        for (long seq = 21; seq <= 25; seq++)
+            backup._model.UpdateApplicationState(new TestApp.Seq(seq));
+
+        verifier.onHash(1, NONE, 22, hashAfter(22));
+        verifier.onHash(1, NONE, 25, hashAfter(25));
+        assertEquals(0, verifier.GetDivergedCount());
+        assertEquals(2, verifier.GetUncheckedCount());
+
+        // A member that recovered from the same output computes the same hashes
+        long hash = StateHash.SEED;
+        for (long seq = 21; seq <= 23; seq++)
+            hash = StateHash.Mix(hash, seq);
+        verifier.onHash(1, 20, 23, hash);
+        assertEquals(1, verifier.GetVerifiedCount());
+        assertEquals(0, verifier.GetDivergedCount());
+        verifier.Stop();
+    }
+
+    @Test
+    public void testBackupDetectsDivergenceFromActiveMember() throws Exception {
+        TestApp inst1 = new TestApp(broker, "inst1", "trade/app1/new");
+        assertTrue(inst1._connector.Connect("localhost", "vpn", "user", "pass", "inst1"));
+        StateVerifier active = inst1._connector.EnableStateVerification(StateVerifier.DEFAULT_TOPIC, 1, 100);
+        inst1._connector.BindQueues("app1_inst1", "app1_lvq");
+        assertTrue(inst1.awaitHAState(HAState.ACTIVE));
+        TestApp inst2 = new TestApp(broker, "inst2", "trade/app1/new");
+        assertTrue(inst2._connector.Connect("localhost", "vpn", "user", "pass", "inst2"));
+        StateVerifier backup = inst2._connector.EnableStateVerification(StateVerifier.DEFAULT_TOPIC, 2, 100);
+        inst2._connector.BindQueues("app1_inst2", "app1_lvq");
+        assertTrue(inst2.awaitHAState(HAState.BACKUP));
+
+        publish(1, 10);
+        assertTrue(inst1.awaitState(10));
+        assertTrue(inst2.awaitState(10));
+        assertTrue(await(backup, true));
+        assertEquals(0, backup.GetDivergedCount());
+        // Only the active member publishes
+        assertEquals(0, backup.GetPublishedCount());
+        assertTrue(active.GetPublishedCount() > 0);
+
+        inst2._drift = 1;
+        publish(11, 20);
+        assertTrue(inst1.awaitState(20));
+        assertTrue(await(backup, false));
+        assertTrue(backup.GetFirstDivergedSequence() >= 11);
+        inst1._connector.Close();
+        inst2._connector.Close();
+    }
+
+    private boolean await(StateVerifier verifier, boolean verified) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if ((verified ? verifier.GetVerifiedCount() : verifier.GetDivergedCount()) > 0)
+                return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private void publish(long from, long to) throws Exception {
+        for (long i = from; i <= to; i++) {
+            ByteBuffer payload = serializer.SerializeInput(new TestApp.Seq(i));
+            payload.flip();
+            gateway.SendOutput("order/app1/new", payload);
+        }
+    }
+}
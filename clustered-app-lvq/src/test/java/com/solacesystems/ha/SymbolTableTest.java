@@ -0,0 +1,122 @@
+package com.solacesystems.ha;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SymbolTableTest {
+
+    @Test
+    public void testSymbolsAreCanonicalAcrossGrowth() {
+        SymbolTable symbols = new SymbolTable(4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        String[] first = new String[5000];
+        for (int i = 0; i < first.length; i++)
+            first[i] = lookup(symbols, direct, "INSTR" + i);
+        assertEquals(first.length, symbols.Size());
+        for (int i = 0; i < first.length; i++)
+            assertSame(first[i], lookup(symbols, direct, "INSTR" + i));
+        assertEquals("INSTR42", first[42]);
+        assertEquals(first.length, symbols.Size());
+    }
+
+    @Test
+    public void testSealedDictionaryIdsAreSharedAndSentOnTheWire() throws Exception {
+        SymbolTable dictionary = new SymbolTable(2);
+        assertEquals(0, dictionary.Register("MSFT"));
+        assertEquals(1, dictionary.Register("AAPL"));
+        assertEquals(0, dictionary.Register("MSFT"));
+        assertEquals(SymbolTable.NO_ID, dictionary.SharedId("MSFT"));
+        dictionary.Seal();
+        assertEquals(1, dictionary.SharedId(new String("AAPL")));
+        assertEquals(SymbolTable.NO_ID, dictionary.SharedId("IBM"));
+
+        // Symbols seen after sealing get local ids, which are never sent
+        SymbolTable decoder = new SymbolTable(dictionary, 4);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        assertSame("MSFT", lookup(decoder, direct, "MSFT"));
+        String ibm = lookup(decoder, direct, "IBM");
+        assertEquals(3, decoder.Size());
+        assertEquals(SymbolTable.NO_ID, decoder.SharedId(ibm));
+        assertSame(ibm, decoder.Symbol(2));
+
+        ByteBuffer wire = ByteBuffer.allocate(64);
+        ByteBufferSerializer.SerializeSymbol(wire, dictionary, "AAPL");
+        ByteBufferSerializer.SerializeSymbol(wire, dictionary, "IBM");
+        ByteBufferSerializer.SerializeSymbol(wire, null, "AAPL");
+        assertEquals(4 + 7 + 8, wire.position());
+        assertEquals(4, ByteBufferSerializer.SerializedSize(dictionary, "AAPL"));
+        wire.flip();
+        assertSame(decoder.Symbol(1), ByteBufferSerializer.DeserializeSymbol(wire, decoder));
+        assertSame(ibm, ByteBufferSerializer.DeserializeSymbol(wire, decoder));
+        assertEquals("AAPL", ByteBufferSerializer.DeserializeString(wire));
+
+        direct.clear();
+        BufferCodec codec = new BufferCodec().Wrap(direct);
+        codec.PutSymbol(dictionary, "MSFT").PutSymbol(dictionary, "IBM").Finish().flip();
+        codec.Wrap(direct);
+        assertSame("MSFT", codec.GetSymbol(decoder));
+        assertSame(ibm, codec.GetSymbol(decoder));
+    }
+
+    @Test
+    public void testWireIdsOutsideTheSharedDictionaryAreRejected() throws Exception {
+        SymbolTable dictionary = new SymbolTable(4);
+        dictionary.Register("MSFT");
+        dictionary.Register("AAPL");
+        dictionary.Seal();
+        // A local id of the writer's is never a wire id of the reader's
+        SymbolTable decoder = new SymbolTable(dictionary, 4);
+        decoder.Register("IBM");
+        assertEquals("IBM", decoder.Symbol(2));
+        int local = dictionary.WireId("AAPL") + 1;
+        try {
+            decoder.WireSymbol(local);
+            fail("Expected an id beyond the dictionary to be rejected");
+        }
+        catch(IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("dictionary of 2 symbols"));
+        }
+
+        // A writer with one more symbol in its dictionary sends ids the reader cannot trust
+        SymbolTable larger = new SymbolTable(4);
+        larger.Register("MSFT");
+        larger.Register("AAPL");
+        larger.Register("IBM");
+        larger.Seal();
+        ByteBuffer wire = ByteBuffer.allocate(16);
+        ByteBufferSerializer.SerializeSymbol(wire, larger, "MSFT").flip();
+        try {
+            ByteBufferSerializer.DeserializeSymbol(wire, decoder);
+            fail("Expected an id from a different dictionary to be rejected");
+        }
+        catch(IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("checksum"));
+        }
+        assertEquals("MSFT", new SymbolTable(larger, 4).WireSymbol(larger.WireId("MSFT")));
+    }
+
+    @Test
+    public void testGeneratorRejectsFixedFieldsAfterVariableOnes() throws Exception {
+        String schema = "flyweight a.B\nstring name\nlong id\n";
+        try {
+            FlyweightGenerator.Generate("B.flyweight", new StringReader(schema));
+            fail("Expected the schema to be rejected");
+        }
+        catch(IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("B.flyweight:3:"));
+        }
+    }
+
+    private static String lookup(SymbolTable symbols, ByteBuffer buffer, String symbol) {
+        byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+        buffer.clear();
+        buffer.position(8);
+        buffer.put(bytes);
+        return symbols.Lookup(buffer, 8, bytes.length);
+    }
+}
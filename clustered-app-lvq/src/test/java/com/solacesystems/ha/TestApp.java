@@ -0,0 +1,148 @@
+package com.solacesystems.ha;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal clustered application for driving a {@link ClusterConnector} over an {@link InProcessBroker};
+ * inputs and outputs are bare sequence numbers and every input produces an output with the same sequence.
+ */
+class TestApp implements ClusterEventListener<TestApp.Seq, TestApp.Seq> {
+
+    static class Seq implements Ordered {
+        Seq(long sequenceId) {
+            _sequenceId = sequenceId;
+        }
+        public long getSequenceId() {
+            return _sequenceId;
+        }
+        @Override
+        public String toString() {
+            return "Seq{" + _sequenceId + "}";
+        }
+        private final long _sequenceId;
+    }
+
+    static class SeqSerializer implements ClusteredAppSerializer<Seq, Seq> {
+        public Seq DeserializeInput(BytesXMLMessage msg) {
+            _deserialized++;
+            return new Seq(ByteBufferSerializer.DeserializeSequence(msg.getAttachmentByteBuffer()));
+        }
+        public ByteBuffer SerializeInput(Seq input) {
+            _buf.clear();
+            return ByteBufferSerializer.SerializeSequence(_buf, input.getSequenceId());
+        }
+        public Seq DeserializeOutput(BytesXMLMessage msg) {
+            return new Seq(ByteBufferSerializer.DeserializeSequence(msg.getAttachmentByteBuffer()));
+        }
+        public ByteBuffer SerializeOutput(Seq output) {
+            return SerializeInput(output);
+        }
+        public long PeekInputSequence(BytesXMLMessage msg) {
+            return ByteBufferSerializer.PeekSequence(msg, _peekBuf);
+        }
+        private final ByteBuffer _buf = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        private final ByteBuffer _peekBuf = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+        volatile int _deserialized;
+    }
+
+    TestApp(InProcessBroker broker, String name, String outTopic) {
+        this(new InProcessTransport(broker), name, outTopic);
+    }
+
+    TestApp(ClusterTransport transport, String name, String outTopic) {
+        _name = name;
+        _outTopic = outTopic;
+        _transport = transport;
+        _model = new ClusterModel<Seq, Seq>(this);
+        _serializer = new SeqSerializer();
+        _connector = new ClusterConnector<Seq, Seq>(_model, _serializer, _transport);
+    }
+
+    TestApp start(String appq, String lvq) throws JCSMPException {
+        _connector.Connect("localhost", "vpn", "user", "pass", _name);
+        _connector.BindQueues(appq, lvq);
+        return this;
+    }
+
+    void kill() {
+        ((InProcessTransport) _transport).Disconnect();
+    }
+
+    /** Poll until this member has produced state for the given sequence number */
+    boolean awaitState(long sequenceId) throws InterruptedException {
+        for (int i = 0; i < 500 && _lastState < sequenceId; i++)
+            Thread.sleep(10);
+        return _lastState == sequenceId;
+    }
+
+    /** Poll until this member reaches the given HA state */
+    boolean awaitHAState(HAState state) throws InterruptedException {
+        for (int i = 0; i < 500 && _haState != state; i++)
+            Thread.sleep(10);
+        return _haState == state;
+    }
+
+    public Seq UpdateApplicationState(Seq input) {
+        if (input.getSequenceId() == _failOn)
+            throw new IllegalStateException("Failing input " + input);
+        Seq output = new Seq(input.getSequenceId());
+        _connector.SendOutput(_outTopic, output);
+        _lastState = output.getSequenceId();
+        _hash = StateHash.Mix(_hash, output.getSequenceId() + _drift);
+        _processed++;
+        return output;
+    }
+
+    public long GetStateHash() {
+        return _hash;
+    }
+
+    public void OnHAStateChange(HAState oldState, HAState newState) {
+        _haState = newState;
+    }
+
+    public void OnSeqStateChange(SeqState oldState, SeqState newState) {
+        _seqState = newState;
+    }
+
+    public void OnInitialStateMessage(Seq initialState) {
+        _lastState = initialState.getSequenceId();
+    }
+
+    public void OnApplicationMessage(Seq input) {
+        _ignored++;
+    }
+
+    public ByteBuffer TakeSnapshot() {
+        _snapshot.clear();
+        ByteBufferSerializer.SerializeLong(_snapshot, _lastState);
+        _snapshot.flip();
+        return _snapshot;
+    }
+
+    public void RestoreSnapshot(ByteBuffer snapshot) {
+        _lastState = ByteBufferSerializer.DeserializeLong(snapshot);
+    }
+
+    final ClusterModel<Seq, Seq> _model;
+    final ClusterConnector<Seq, Seq> _connector;
+    final SeqSerializer _serializer;
+    final ClusterTransport _transport;
+    private final ByteBuffer _snapshot = ByteBuffer.allocate(8);
+    private final String _name;
+    private final String _outTopic;
+
+    volatile HAState _haState;
+    volatile SeqState _seqState;
+    volatile long _lastState = -1;
+    /** Added to every sequence ID mixed into the state hash, to make a member diverge */
+    volatile long _drift;
+    /** Sequence ID of an input whose processing throws */
+    volatile long _failOn = -1;
+    private long _hash = StateHash.SEED;
+    volatile int _processed;
+    volatile int _ignored;
+}
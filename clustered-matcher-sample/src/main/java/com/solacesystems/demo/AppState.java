@@ -1,11 +1,18 @@
 package com.solacesystems.demo;
 
 import com.solacesystems.ha.Ordered;
+import com.solacesystems.ha.SequenceId;
+import com.solacesystems.ha.SerializedField;
 
 /**
- * Example application state with a sequence number
+ * Example application state with a sequence number: the outcome of matching one order against its
+ * instrument's {@link OrderBook}, which is the trades it made, what was left resting, and the top of the book
+ * afterwards. Serialized by the generated {@link AppStateCodec}.
  */
 public class AppState implements Ordered {
+    AppState() {
+    }
+
     public AppState(String instrument) {
         _instrument = instrument;
     }
@@ -14,22 +21,57 @@ public class AppState implements Ordered {
         _sequenceId = order.getSequenceId();
     }
 
-    public int getSequenceId() {
+    /**
+     * Adds a trade the order made to the totals
+     */
+    public void addFill(double price, long quantity) {
+        double notional = _averagePrice * _filledQuantity + price * quantity;
+        _fills++;
+        _filledQuantity += quantity;
+        _averagePrice = notional / _filledQuantity;
+    }
+
+    /**
+     * Records the state of the book once the order has been matched
+     *
+     * @param restingQuantity quantity of the order left resting in the book
+     * @param bestBid highest bid afterwards, or 0 if there is none
+     * @param bestAsk lowest offer afterwards, or 0 if there is none
+     */
+    public void setBook(long restingQuantity, double bestBid, double bestAsk) {
+        _restingQuantity = restingQuantity;
+        _bestBid = bestBid;
+        _bestAsk = bestAsk;
+    }
+
+    public long getSequenceId() {
         return _sequenceId;
     }
-    public void setSequenceId(int sid) {
+    public void setSequenceId(long sid) {
         _sequenceId = sid;
     }
 
     public String getInstrument() { return _instrument; }
+    public int getFills() { return _fills; }
+    public long getFilledQuantity() { return _filledQuantity; }
+    public double getAveragePrice() { return _averagePrice; }
+    public long getRestingQuantity() { return _restingQuantity; }
+    public double getBestBid() { return _bestBid; }
+    public double getBestAsk() { return _bestAsk; }
 
     @Override
     public String toString() {
-        return String.format("AppState{instr='%s',seqID=%d}", _instrument, _sequenceId);
+        return String.format("AppState{instr='%s',seqID=%d,fills=%d,filled=%d@%.4f,resting=%d,bid=%.2f,ask=%.2f}",
+                _instrument, _sequenceId, _fills, _filledQuantity, _averagePrice, _restingQuantity, _bestBid, _bestAsk);
     }
 
-    public static final int SERIALIZED_SIZE = 4 + 16;
-
-    final private String _instrument;
-    private int _sequenceId;
+    @SerializedField(symbol = true) String _instrument;
+    // Added with order matching; published states from before only carry the instrument
+    @SerializedField(legacy = false) int _fills;
+    @SerializedField(legacy = false) long _filledQuantity;
+    @SerializedField(legacy = false) double _averagePrice;
+    @SerializedField(legacy = false) long _restingQuantity;
+    @SerializedField(legacy = false) double _bestBid;
+    @SerializedField(legacy = false) double _bestAsk;
+    @SequenceId long _sequenceId;
 }
@@ -1,20 +1,27 @@
 package com.solacesystems.demo;
 
 import com.solacesystems.ha.Ordered;
+import com.solacesystems.ha.SequenceId;
+import com.solacesystems.ha.SerializedField;
 
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 
 /**
- * Example client order type with a sequence number.
+ * Example client order type with a sequence number; serialized by the generated
+ * {@link ClientOrderCodec}.
  */
 public class ClientOrder implements Ordered {
-    public ClientOrder(int seqId) {
+    ClientOrder() {
+        this(0);
+    }
+
+    public ClientOrder(long seqId) {
         this.seqId = seqId;
         this._df.setRoundingMode(RoundingMode.CEILING);
     }
 
-    public int getSequenceId() {
+    public long getSequenceId() {
         return seqId;
     }
 
@@ -80,16 +87,14 @@ public class ClientOrder implements Ordered {
 
     @Override
     public int hashCode() {
-        return seqId;
+        return (int) (seqId ^ (seqId >>> 32));
     }
 
-    public static final int SERIALIZED_SIZE = 4 + 1 + 8 + 8 + 16;
-
-    private final int seqId;
-    private boolean buyOrSell;
-    private double quantity;
-    private double price;
-    private String instrument;
+    @SequenceId long seqId;
+    @SerializedField boolean buyOrSell;
+    @SerializedField double quantity;
+    @SerializedField double price;
+    @SerializedField(symbol = true) String instrument;
 
     final private DecimalFormat _df = new DecimalFormat("#.####");
 }
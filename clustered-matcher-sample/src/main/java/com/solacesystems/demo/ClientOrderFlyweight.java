@@ -0,0 +1,62 @@
+// Generated by com.solacesystems.ha.FlyweightGenerator from ClientOrder.flyweight; do not edit.
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.Flyweight;
+import com.solacesystems.ha.SymbolTable;
+
+/**
+ * <p>Flyweight over a message laid out as a sequence header followed by:</p>
+ * <ul>
+ *     <li><code>bool buy</code></li>
+ *     <li><code>double quantity</code></li>
+ *     <li><code>double price</code></li>
+ *     <li><code>symbol instrument</code></li>
+ * </ul>
+ */
+public final class ClientOrderFlyweight extends Flyweight {
+    /** Total size of the fixed-size fields */
+    public static final int FIXED_SIZE = 17;
+
+    /**
+     * @param symbols table the symbol fields are decoded through
+     */
+    public ClientOrderFlyweight(SymbolTable symbols) {
+        _symbols = symbols;
+    }
+
+    public boolean isBuy() {
+        return getBool(0);
+    }
+
+    public double getQuantity() {
+        return getDouble(1);
+    }
+
+    public double getPrice() {
+        return getDouble(9);
+    }
+
+    public String getInstrument() {
+        return getSymbol(_symbols, varOffset(FIXED_SIZE, 0));
+    }
+
+    /**
+     * @return length of the instrument field in bytes, without decoding it
+     */
+    public int getInstrumentLength() {
+        return getVarLength(varOffset(FIXED_SIZE, 0));
+    }
+
+    @Override
+    public String toString() {
+        return "ClientOrderFlyweight{" +
+                "seqId=" + getSequenceId() +
+                ", buy=" + isBuy() +
+                ", quantity=" + getQuantity() +
+                ", price=" + getPrice() +
+                ", instrument=" + getInstrument() +
+                '}';
+    }
+
+    private final SymbolTable _symbols;
+}
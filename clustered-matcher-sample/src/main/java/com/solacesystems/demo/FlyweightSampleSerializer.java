@@ -0,0 +1,62 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ClusteredAppSerializer;
+import com.solacesystems.ha.SymbolTable;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Reads the same wire format as {@link GeneratedSampleSerializer}, but hands out one reusable
+ * {@link ClientOrderFlyweight} for every input instead of a new {@link ClientOrder}, decoding
+ * instruments through a symbol table; deserializing an input allocates nothing once every
+ * instrument has been seen.</p>
+ * <p>The flyweight is only valid until the next input is deserialized. Outputs are handled
+ * exactly as by {@link GeneratedSampleSerializer}.</p>
+ */
+public class FlyweightSampleSerializer implements ClusteredAppSerializer<ClientOrderFlyweight, AppState> {
+    /** Distinct instruments the symbol table is sized for up front */
+    static final int EXPECTED_INSTRUMENTS = 1024;
+
+    public FlyweightSampleSerializer() {
+        this(null);
+    }
+
+    /**
+     * @param dictionary sealed symbol table of the instruments sent as ids, or null to send instruments as strings
+     */
+    public FlyweightSampleSerializer(SymbolTable dictionary) {
+        _order = new ClientOrderFlyweight(dictionary == null
+                ? new SymbolTable(EXPECTED_INSTRUMENTS)
+                : new SymbolTable(dictionary, EXPECTED_INSTRUMENTS));
+        _outputs = new GeneratedSampleSerializer(false, dictionary);
+    }
+
+    public ClientOrderFlyweight DeserializeInput(BytesXMLMessage msg) {
+        _order.WrapMessage(msg);
+        return _order;
+    }
+
+    public ByteBuffer SerializeInput(ClientOrderFlyweight input) {
+        _inmsgbuf.clear();
+        if (_inmsgbuf.capacity() < input.GetLength())
+            _inmsgbuf = ByteBuffer.allocate(input.GetLength());
+        return input.CopyTo(_inmsgbuf);
+    }
+
+    public AppState DeserializeOutput(BytesXMLMessage msg) {
+        return _outputs.DeserializeOutput(msg);
+    }
+
+    public ByteBuffer SerializeOutput(AppState output) {
+        return _outputs.SerializeOutput(output);
+    }
+
+    public long PeekInputSequence(BytesXMLMessage msg) {
+        return _outputs.PeekInputSequence(msg);
+    }
+
+    private final ClientOrderFlyweight _order;
+    private final GeneratedSampleSerializer _outputs;
+    private ByteBuffer _inmsgbuf = ByteBuffer.allocate(256);
+}
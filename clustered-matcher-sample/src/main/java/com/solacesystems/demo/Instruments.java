@@ -0,0 +1,23 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.SymbolTable;
+
+/**
+ * Reference data shared by the order gateway and every matching engine instance. Registering the
+ * instruments in the same order everywhere gives them the same symbol ids, so messages can carry an
+ * instrument as a 4-byte id instead of its name.
+ */
+public class Instruments {
+    static final String[] LISTED = { "MSFT", "AAPL", "AMZN", "GOOG", "IBM", "ORCL" };
+
+    /**
+     * @return a sealed symbol table of the listed instruments, for {@link GeneratedSampleSerializer}
+     */
+    public static SymbolTable Dictionary() {
+        SymbolTable symbols = new SymbolTable(LISTED.length);
+        for (String instrument : LISTED)
+            symbols.Register(instrument);
+        symbols.Seal();
+        return symbols;
+    }
+}
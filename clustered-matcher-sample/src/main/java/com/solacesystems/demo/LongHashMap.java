@@ -0,0 +1,134 @@
+package com.solacesystems.demo;
+
+/**
+ * <p>Open-addressing hash map from primitive <code>long</code> keys to objects, so looking up a price
+ * level or an order never boxes its key.</p>
+ * <p>Collisions are resolved by linear probing, and removal shifts later entries of the probe sequence
+ * back instead of leaving tombstones, so lookups stay short however many entries come and go. Not
+ * thread-safe.</p>
+ *
+ * @param <V> value type; values may not be null
+ */
+public class LongHashMap<V> {
+
+    /**
+     * @param expectedSize number of entries expected; the map grows beyond it as needed
+     */
+    @SuppressWarnings("unchecked")
+    public LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        _keys = new long[capacity];
+        _values = (V[]) new Object[capacity];
+        _mask = capacity - 1;
+    }
+
+    /**
+     * @return the value for the key, or null if there is none
+     */
+    public V Get(long key) {
+        int slot = slot(key);
+        V value;
+        while ((value = _values[slot]) != null) {
+            if (_keys[slot] == key)
+                return value;
+            slot = (slot + 1) & _mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the value the key had before, or null if it had none
+     */
+    public V Put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("LongHashMap values may not be null");
+        int slot = slot(key);
+        V previous;
+        while ((previous = _values[slot]) != null) {
+            if (_keys[slot] == key) {
+                _values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        _keys[slot] = key;
+        _values[slot] = value;
+        if (2 * ++_size > _values.length)
+            grow();
+        return null;
+    }
+
+    /**
+     * @return the value removed, or null if the key had none
+     */
+    public V Remove(long key) {
+        int slot = slot(key);
+        V value;
+        while ((value = _values[slot]) != null) {
+            if (_keys[slot] == key) {
+                shiftBack(slot);
+                _size--;
+                return value;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        return null;
+    }
+
+    public int Size() {
+        return _size;
+    }
+
+    /**
+     * Empties a slot, moving back any later entry of the same probe run whose home slot it would
+     * otherwise become unreachable from
+     */
+    private void shiftBack(int empty) {
+        int slot = empty;
+        while (true) {
+            slot = (slot + 1) & _mask;
+            if (_values[slot] == null)
+                break;
+            int home = slot(_keys[slot]);
+            // The entry stays put only if its home lies cyclically in (empty, slot]
+            boolean stays = empty <= slot ? (empty < home && home <= slot) : (empty < home || home <= slot);
+            if (!stays) {
+                _keys[empty] = _keys[slot];
+                _values[empty] = _values[slot];
+                empty = slot;
+            }
+        }
+        _values[empty] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        long[] keys = _keys;
+        V[] values = _values;
+        _keys = new long[keys.length * 2];
+        _values = (V[]) new Object[values.length * 2];
+        _mask = _keys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null)
+                continue;
+            int slot = slot(keys[i]);
+            while (_values[slot] != null)
+                slot = (slot + 1) & _mask;
+            _keys[slot] = keys[i];
+            _values[slot] = values[i];
+        }
+    }
+
+    /**
+     * Home slot of a key, mixing its bits so that runs of consecutive prices or order IDs spread out
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & _mask;
+    }
+
+    private long[] _keys;
+    private V[] _values;
+    private int _mask;
+    private int _size;
+}
@@ -4,8 +4,39 @@ import com.solacesystems.ha.*;
 import com.solacesystems.jcsmp.JCSMPException;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Matches client orders into per-instrument order books, publishing a report of each order's fills and
+ * resulting top of book.</p>
+ * <p>The books are the resting orders of every input so far, which the last output on the LVQ cannot
+ * rebuild; each member therefore persists its books locally and recovers them on restart. A member that
+ * starts without local state, such as a new member or one whose store was lost, recovers from the LVQ only:
+ * it skips every input up to the last output and matches the rest against books missing the orders resting
+ * before it. Such a member logs an error when it becomes up to date and should be restarted from a copy of
+ * another member's store before it is allowed to become active.</p>
+ */
 public class MatchingEngineSample implements ClusterEventListener<ClientOrder, AppState> {
     final static Logger log = Logger.getLogger(MatchingEngineSample.class);
+    /** Most state updates per second published to the web-monitor */
+    static final int MONITOR_UPDATES_PER_SECOND = 10;
+    /** Most recent per-message events kept, and dumped on exit for the EventLogDecoder */
+    static final int RECORDED_EVENTS = 1 << 16;
+    /** Price increment orders are matched at; prices are rounded to the nearest tick */
+    static final double TICK_SIZE = 0.01;
+    /** Resting orders each instrument's book is sized for up front */
+    static final int EXPECTED_ORDERS = 1 << 12;
+    /** Most state hashes per second the active member publishes for the backups to verify */
+    static final int STATE_CHECKS_PER_SECOND = 10;
+    /** Size of each of the local store's journal files; must hold every input between two snapshots */
+    static final int JOURNAL_CAPACITY = 1 << 26;
+    /** Inputs between local snapshots of the books */
+    static final int SNAPSHOT_INTERVAL = 10000;
     public static void main(String[] args) {
         if (args.length < 9) {
             System.out.println("USAGE: <IP> <APP-ID> <APP-INST-#> <SOL-VPN> <SOL-USER> <SOL-PASS> <QUEUE> <LVQ> <OUT-TOPIC>\n\n\n");
@@ -31,7 +62,10 @@ public class MatchingEngineSample implements ClusterEventListener<ClientOrder, A
         _outTopic = outTopic;
 
         _model = new ClusterModel<ClientOrder, AppState>(this);
-        _connector = new ClusterConnector<ClientOrder, AppState>(_model, new SampleSerializer());
+        _connector = new ClusterConnector<ClientOrder, AppState>(_model,
+                new GeneratedSampleSerializer(false, Instruments.Dictionary()));
+        _recorder = new EventRecorder(RECORDED_EVENTS);
+        _connector.SetEventRecorder(_recorder);
     }
 
     public void Run(String host, String vpn, String user, String pass, String queue, String lvq) {
@@ -40,7 +74,23 @@ public class MatchingEngineSample implements ClusterEventListener<ClientOrder, A
                     host, vpn, user, queue, lvq));
         if (_connector.Connect(host, vpn, user, pass, _appId + "_inst" + _instance)) {
             try {
+                _connector.EnableStateTelemetry(StateTelemetry.DEFAULT_TOPIC, _instance, MONITOR_UPDATES_PER_SECOND);
+                _connector.EnableStateVerification(StateVerifier.DEFAULT_TOPIC, _instance, STATE_CHECKS_PER_SECOND);
+                _connector.EnableLocalPersistence(
+                        new LocalStore(new File(_appId + "_inst" + _instance + ".store"), JOURNAL_CAPACITY),
+                        SNAPSHOT_INTERVAL);
                 _connector.BindQueues(queue, lvq);
+                final File dump = new File(_appId + "_inst" + _instance + ".events");
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            int count = _recorder.Dump(dump);
+                            System.out.println("Dumped " + count + " recorded events to " + dump);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }));
 
                 boolean running = true;
                 while (running) {
@@ -54,6 +104,9 @@ public class MatchingEngineSample implements ClusterEventListener<ClientOrder, A
             } catch (JCSMPException ex) {
                 System.out.println("Failed to bind to queue {" + queue + "} and LVQ {" + lvq + "}");
                 ex.printStackTrace();
+            } catch (IOException ex) {
+                System.out.println("Failed to open the local store");
+                ex.printStackTrace();
             }
         }
         else {
@@ -68,74 +121,135 @@ public class MatchingEngineSample implements ClusterEventListener<ClientOrder, A
     public AppState UpdateApplicationState(ClientOrder input) {
         if (log.isDebugEnabled())
             log.debug(String.format("MatchingEngineSample::UpdateApplicationState(%s)", input));
+        // A redelivered input was already matched; matching it again would rest the same order twice
+        if (input.getSequenceId() <= _lastApplied) {
+            if (log.isDebugEnabled())
+                log.debug(String.format("Dropping input %d, already applied up to %d", input.getSequenceId(), _lastApplied));
+            return null;
+        }
+        _lastApplied = input.getSequenceId();
         // IMPORTANT: State change while we're up-to-date, so every input
         // represents real state changes we need to represent
         AppState output = new AppState(input.getInstrument());
         output.setSequenceId(input.getSequenceId());
-        // Notify
-        if (log.isInfoEnabled())
-            log.info(String.format(
-                    "%s:%d STATE:  HA = [%s] SEQ = [%s] IN = [%s] OUT = [%s]",
-                    _appId, _instance,
-                    _model.GetHAStatus(),
-                    _model.GetSequenceStatus(),
-                    (input==null ? "(null)" : input.getSequenceId()),
-                    (input==null ? "(null)" : output.getSequenceId())));
+        OrderBook book = book(input.getInstrument());
+        long quantity = Math.round(input.getQuantity());
+        long resting = 0;
+        if (quantity > 0) {
+            _report = output;
+            resting = book.Submit(input.getSequenceId(), input.isBuy(),
+                    Math.round(input.getPrice() / TICK_SIZE), quantity, _fills);
+        }
+        output.setBook(resting, price(book.BestBid()), price(book.BestAsk()));
+        _stateHash = StateHash.Mix(StateHash.Mix(_stateHash, input.getSequenceId()), resting);
         // I always send, let the connector worry about if I'm active or not
         _connector.SendOutput(_outTopic, output);
-        sendMonitorUpdate(); // HACK!
         return output;
     }
 
+    /**
+     * The last input applied, the state hash and every book's resting orders
+     */
+    public ByteBuffer TakeSnapshot() {
+        int size = 8 + 8 + 4;
+        for (OrderBook book : _books.values())
+            size += ByteBufferSerializer.SerializedSize(book.GetInstrument()) + book.SnapshotSize();
+        if (_snapshot.capacity() < size)
+            _snapshot = ByteBuffer.allocate(Math.max(size, 2 * _snapshot.capacity()));
+        _snapshot.clear();
+        ByteBufferSerializer.SerializeLong(_snapshot, _lastApplied);
+        ByteBufferSerializer.SerializeLong(_snapshot, _stateHash);
+        ByteBufferSerializer.SerializeInt(_snapshot, _books.size());
+        for (OrderBook book : _books.values()) {
+            ByteBufferSerializer.SerializeString(_snapshot, book.GetInstrument());
+            book.WriteSnapshot(_snapshot);
+        }
+        _snapshot.flip();
+        return _snapshot;
+    }
+
+    public void RestoreSnapshot(ByteBuffer snapshot) {
+        _books.clear();
+        _lastApplied = ByteBufferSerializer.DeserializeLong(snapshot);
+        _stateHash = ByteBufferSerializer.DeserializeLong(snapshot);
+        int books = ByteBufferSerializer.DeserializeInt(snapshot);
+        try {
+            for (int i = 0; i < books; i++)
+                book(ByteBufferSerializer.DeserializeString(snapshot)).ReadSnapshot(snapshot);
+        }
+        catch(UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 is not supported", ex);
+        }
+        if (log.isInfoEnabled())
+            log.info(String.format("Restored %d books up to input %d", books, _lastApplied));
+    }
+
+    /**
+     * Every trade and resting quantity, in the order the books produced them, mixed into a rolling hash
+     */
+    public long GetStateHash() {
+        return _stateHash;
+    }
+
     public void OnHAStateChange(HAState oldState, HAState newState) {
         if (log.isInfoEnabled())
             log.info(String.format("HA Change: %s => %s", oldState, newState));
-        sendMonitorUpdate(); // HACK!
     }
 
     public void OnSeqStateChange(SeqState oldState, SeqState newState) {
         if (log.isInfoEnabled())
             log.info(String.format("Sequence Change: %s => %s", oldState, newState));
-        sendMonitorUpdate(); // HACK!
+        if (newState == SeqState.UPTODATE && _recoveredFromLvq)
+            log.error(String.format("Matching from input %d against books recovered from the LVQ only; " +
+                    "orders resting before it are missing", _lastApplied + 1));
     }
 
     public void OnInitialStateMessage(AppState initialState) {
         if (log.isInfoEnabled())
             log.info(String.format("Initializing to state: %s", initialState));
-        sendMonitorUpdate(); // HACK!
+        // Restored books already cover the inputs up to here; otherwise the orders before it are lost
+        if (initialState.getSequenceId() > _lastApplied) {
+            _recoveredFromLvq = true;
+            log.warn(String.format("No local state covers output %d; the books hold only the orders after it",
+                    initialState.getSequenceId()));
+        }
     }
 
     public void OnApplicationMessage(ClientOrder input) {
         // Meh. Who cares; these could be just replaying from before our current state
-        sendMonitorUpdate(); // HACK!
     }
 
-    /***                 **
-     ** Helper functions **
-     **                  ***/
-
-    /// HACK: this is just here for the extra message published to the web-monitor
-    private void sendMonitorUpdate() {
-        if (_connector != null) {
-            _connector.SendText("monitor/state", toJSONString());
+    private OrderBook book(String instrument) {
+        OrderBook book = _books.get(instrument);
+        if (book == null) {
+            book = new OrderBook(instrument, EXPECTED_ORDERS);
+            _books.put(instrument, book);
         }
-    }
-    private int orderedSeqId(Ordered o) {
-        if (o == null) return -1;
-        return o.getSequenceId();
+        return book;
     }
 
-    private String toJSONString() {
-        Ordered output = _model.GetLastOutput();
-        Ordered input  = _model.GetLastInput();
-        return String.format(
-                "{ \"Instance\":%d, \"HAState\":\"%s\", \"SeqState\":\"%s\", \"LastInput\":%d, \"LastOutput\":%d }",
-                _instance, _model.GetHAStatus(), _model.GetSequenceStatus(), orderedSeqId(input), orderedSeqId(output)
-        );
+    private static double price(long ticks) {
+        return ticks == OrderBook.NO_PRICE ? 0 : ticks * TICK_SIZE;
     }
 
+    private final Map<String, OrderBook> _books = new HashMap<String, OrderBook>();
+    /** Adds each trade to the report of the order being matched */
+    private final OrderBook.FillListener _fills = new OrderBook.FillListener() {
+        public void OnFill(long makerOrderId, long price, long quantity) {
+            _report.addFill(price * TICK_SIZE, quantity);
+            _stateHash = StateHash.Mix(StateHash.Mix(StateHash.Mix(_stateHash, makerOrderId), price), quantity);
+        }
+    };
+    private AppState _report;
+    private long _stateHash = StateHash.SEED;
+    /** Sequence ID of the last input matched, or restored from a snapshot */
+    private long _lastApplied = ClusterState.NO_SEQUENCE;
+    /** Set when the LVQ output was ahead of the books, so the inputs before it were never matched */
+    private volatile boolean _recoveredFromLvq;
+    private ByteBuffer _snapshot = ByteBuffer.allocate(1024);
     private final ClusterModel<ClientOrder,AppState> _model;
     private final ClusterConnector<ClientOrder,AppState> _connector;
+    private final EventRecorder _recorder;
 
     private final String _appId;
     private final int    _instance;
@@ -23,7 +23,7 @@ public class MockOrderGateway {
     }
 
     private MockOrderGateway(String host, String vpn, String username, String password, String topic, String startId) {
-        _startOrderId = Integer.parseInt(startId);
+        _startOrderId = Long.parseLong(startId);
         _outTopic = topic;
         _connector = new SolaceConnector();
         try {
@@ -43,7 +43,7 @@ public class MockOrderGateway {
     private void run()
     {
         boolean running = true;
-        int orderId = _startOrderId;
+        long orderId = _startOrderId;
         while (running)
         {
             try {
@@ -57,20 +57,23 @@ public class MockOrderGateway {
         }
     }
 
-    private ClientOrder nextOrder(int oid) {
+    private ClientOrder nextOrder(long oid) {
         ClientOrder order = new ClientOrder(oid);
         order.setIsBuy(_rand.nextBoolean());
-        order.setQuantity(_rand.nextDouble() % 1000);
-        order.setPrice(_rand.nextDouble() * 50);
-        order.setInstrument("MSFT");
+        // Prices a few ticks either side of 50.00, so orders both cross and rest
+        order.setQuantity(1 + _rand.nextInt(100));
+        order.setPrice(50 + (_rand.nextInt(21) - 10) * MatchingEngineSample.TICK_SIZE);
+        order.setInstrument(Instruments.LISTED[_rand.nextInt(Instruments.LISTED.length)]);
         return order;
     }
-    private void sendNextOrder(int oid)
+    private void sendNextOrder(long oid)
     {
         ClientOrder order = nextOrder(oid);
         System.out.println("Sending msg: " + order);
         try {
-            _connector.SendOutput(_outTopic, _serializer.SerializeInput(order));
+            ByteBuffer payload = _serializer.SerializeInput(order);
+            payload.flip();
+            _connector.SendOutput(_outTopic, payload);
         }
         catch(JCSMPException ex) {
             ex.printStackTrace();
@@ -78,9 +81,8 @@ public class MockOrderGateway {
     }
 
     private final Random _rand = new Random();
-    private final int _startOrderId;
+    private final long _startOrderId;
     private final String _outTopic;
-    private final ByteBuffer _outbuf = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
     private final SolaceConnector _connector;
-    private final SampleSerializer _serializer = new SampleSerializer();
+    private final GeneratedSampleSerializer _serializer = new GeneratedSampleSerializer(false, Instruments.Dictionary());
 }
@@ -0,0 +1,379 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ByteBufferSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Price-time priority limit order book for one instrument. An incoming order first trades against the
+ * best opposite price levels it crosses, oldest order first within a level, and whatever is left rests
+ * in the book at its limit price until it trades or is cancelled.</p>
+ * <p>Prices are whole ticks and quantities whole units, so the book works only on primitives. Each side
+ * keeps its price levels in a {@link LongHashMap} keyed by price, and also in an array sorted from worst to
+ * best price, so the best level is always the last one and is removed without shifting anything. Resting
+ * orders are found for cancelling through another LongHashMap keyed by order ID. Orders
+ * and price levels are taken from pools and returned to them once filled, so a book in steady state
+ * allocates nothing.</p>
+ * <p>The resting orders can be written to a snapshot and read back into an empty book with the same time
+ * priority, so a member restarting from local persistence matches exactly as it did before.</p>
+ * <p>Not thread-safe; the cluster calls {@link ClusterEventListener#UpdateApplicationState} on a single
+ * thread.</p>
+ */
+public class OrderBook {
+    /**
+     * Price reported for a side with no orders
+     */
+    public static final long NO_PRICE = Long.MIN_VALUE;
+
+    /**
+     * Receives every trade an incoming order makes while it is submitted
+     */
+    public interface FillListener {
+        /**
+         * @param makerOrderId ID of the resting order traded against
+         * @param price price of the trade in ticks, which is the resting order's price
+         * @param quantity quantity traded
+         */
+        void OnFill(long makerOrderId, long price, long quantity);
+    }
+
+    /**
+     * @param instrument instrument the book is for
+     * @param expectedOrders number of resting orders expected; pools grow beyond it as needed
+     */
+    public OrderBook(String instrument, int expectedOrders) {
+        _instrument = instrument;
+        _bids = new Side(true, expectedOrders);
+        _asks = new Side(false, expectedOrders);
+        _byId = new LongHashMap<Order>(expectedOrders);
+        for (int i = 0; i < expectedOrders; i++)
+            release(new Order());
+    }
+
+    /**
+     * Match an order against the book, then rest whatever is left of it.
+     *
+     * @param orderId ID of the order, which the book reports when later orders trade against it; must not be
+     *                the ID of an order still resting in the book
+     * @param buy whether the order buys or sells
+     * @param price limit price in ticks
+     * @param quantity quantity to trade; must be positive
+     * @param fills notified of each trade, in the order they happen
+     * @return quantity left resting in the book
+     */
+    public long Submit(long orderId, boolean buy, long price, long quantity, FillListener fills) {
+        if (quantity <= 0)
+            throw new IllegalArgumentException("Order quantity must be positive: " + quantity);
+        if (_byId.Get(orderId) != null)
+            throw new IllegalArgumentException("Order " + orderId + " is already resting in the book");
+        Side opposite = buy ? _asks : _bids;
+        while (quantity > 0 && opposite._count > 0) {
+            Level level = opposite._levels[opposite._count - 1];
+            if (buy ? level._price > price : level._price < price)
+                break;
+            while (quantity > 0 && level._head != null) {
+                Order maker = level._head;
+                long fill = Math.min(quantity, maker._quantity);
+                maker._quantity -= fill;
+                level._quantity -= fill;
+                quantity -= fill;
+                fills.OnFill(maker._id, level._price, fill);
+                if (maker._quantity == 0) {
+                    level.remove(maker);
+                    _byId.Remove(maker._id);
+                    release(maker);
+                }
+            }
+            if (level._head == null)
+                opposite.removeBest();
+        }
+        if (quantity > 0) {
+            Order order = acquire();
+            order._id = orderId;
+            order._quantity = quantity;
+            order._buy = buy;
+            _byId.Put(orderId, order);
+            (buy ? _bids : _asks).level(price).append(order);
+        }
+        return quantity;
+    }
+
+    /**
+     * Remove what is left of a resting order from the book.
+     *
+     * @return quantity that was resting, or 0 if the order is not in the book
+     */
+    public long Cancel(long orderId) {
+        Order order = _byId.Remove(orderId);
+        if (order == null)
+            return 0;
+        long quantity = order._quantity;
+        Level level = order._level;
+        level.remove(order);
+        if (level._head == null)
+            (order._buy ? _bids : _asks).removeLevel(level);
+        release(order);
+        return quantity;
+    }
+
+    /**
+     * @return exact number of bytes {@link #WriteSnapshot} writes
+     */
+    public int SnapshotSize() {
+        return 4 + GetOrderCount() * ORDER_SNAPSHOT_SIZE;
+    }
+
+    /**
+     * Write every resting order to the buffer, little-endian: the number of orders as an int, then each
+     * order's ID, side, price and quantity, level by level from the best price and oldest first within
+     * a level.
+     *
+     * @param buffer buffer with at least {@link #SnapshotSize} bytes remaining
+     * @return the buffer, positioned after the snapshot
+     */
+    public ByteBuffer WriteSnapshot(ByteBuffer buffer) {
+        ByteBufferSerializer.SerializeInt(buffer, GetOrderCount());
+        for (Side side : new Side[] { _bids, _asks })
+            for (int i = side._count - 1; i >= 0; i--)
+                for (Order order = side._levels[i]._head; order != null; order = order._next) {
+                    ByteBufferSerializer.SerializeLong(buffer, order._id);
+                    ByteBufferSerializer.SerializeBool(buffer, order._buy);
+                    ByteBufferSerializer.SerializeLong(buffer, side._levels[i]._price);
+                    ByteBufferSerializer.SerializeLong(buffer, order._quantity);
+                }
+        return buffer;
+    }
+
+    /**
+     * Rest the orders written by {@link #WriteSnapshot} in this book, without matching them.
+     *
+     * @param snapshot buffer positioned at the snapshot; left positioned after it
+     * @throws IllegalStateException if the book already has resting orders
+     */
+    public void ReadSnapshot(ByteBuffer snapshot) {
+        if (GetOrderCount() != 0)
+            throw new IllegalStateException("Cannot restore a snapshot into a book with resting orders: " + this);
+        int count = ByteBufferSerializer.DeserializeInt(snapshot);
+        for (int i = 0; i < count; i++) {
+            long orderId = ByteBufferSerializer.DeserializeLong(snapshot);
+            boolean buy = ByteBufferSerializer.DeserializeBool(snapshot);
+            long price = ByteBufferSerializer.DeserializeLong(snapshot);
+            long quantity = ByteBufferSerializer.DeserializeLong(snapshot);
+            Order order = acquire();
+            order._id = orderId;
+            order._quantity = quantity;
+            order._buy = buy;
+            _byId.Put(orderId, order);
+            (buy ? _bids : _asks).level(price).append(order);
+        }
+    }
+
+    /**
+     * @return the highest bid in ticks, or {@link #NO_PRICE}
+     */
+    public long BestBid() {
+        return _bids.best();
+    }
+
+    /**
+     * @return the lowest offer in ticks, or {@link #NO_PRICE}
+     */
+    public long BestAsk() {
+        return _asks.best();
+    }
+
+    /**
+     * @return total quantity resting at a price on one side, or 0
+     */
+    public long QuantityAt(boolean buy, long price) {
+        Level level = (buy ? _bids : _asks)._byPrice.Get(price);
+        return level == null ? 0 : level._quantity;
+    }
+
+    /**
+     * @return number of price levels with orders on one side
+     */
+    public int GetLevelCount(boolean buy) {
+        return (buy ? _bids : _asks)._count;
+    }
+
+    /**
+     * @return number of orders resting in the book
+     */
+    public int GetOrderCount() {
+        return _byId.Size();
+    }
+
+    public String GetInstrument() {
+        return _instrument;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OrderBook{instr='%s', orders=%d, bid=%s, ask=%s}", _instrument, GetOrderCount(),
+                BestBid() == NO_PRICE ? "-" : Long.toString(BestBid()),
+                BestAsk() == NO_PRICE ? "-" : Long.toString(BestAsk()));
+    }
+
+    private Order acquire() {
+        Order order = _freeOrders;
+        if (order == null)
+            return new Order();
+        _freeOrders = order._next;
+        order._next = null;
+        return order;
+    }
+
+    private void release(Order order) {
+        order._level = null;
+        order._prev = null;
+        order._next = _freeOrders;
+        _freeOrders = order;
+    }
+
+    private Level acquireLevel() {
+        Level level = _freeLevels;
+        if (level == null)
+            return new Level();
+        _freeLevels = level._nextFree;
+        level._nextFree = null;
+        return level;
+    }
+
+    private void releaseLevel(Level level) {
+        level._nextFree = _freeLevels;
+        _freeLevels = level;
+    }
+
+    /**
+     * Resting order, linked into its price level in time priority, or into the free pool
+     */
+    private static final class Order {
+        long _id;
+        long _quantity;
+        boolean _buy;
+        Level _level;
+        Order _prev;
+        Order _next;
+    }
+
+    /**
+     * Orders resting at one price, oldest first
+     */
+    private static final class Level {
+        void append(Order order) {
+            order._level = this;
+            order._prev = _tail;
+            order._next = null;
+            if (_tail == null)
+                _head = order;
+            else
+                _tail._next = order;
+            _tail = order;
+            _quantity += order._quantity;
+        }
+
+        void remove(Order order) {
+            if (order._prev == null)
+                _head = order._next;
+            else
+                order._prev._next = order._next;
+            if (order._next == null)
+                _tail = order._prev;
+            else
+                order._next._prev = order._prev;
+            _quantity -= order._quantity;
+        }
+
+        long _price;
+        long _quantity;
+        Order _head;
+        Order _tail;
+        Level _nextFree;
+    }
+
+    /**
+     * The price levels of one side, sorted from the worst price to the best
+     */
+    private final class Side {
+        Side(boolean buy, int expectedLevels) {
+            _buy = buy;
+            _byPrice = new LongHashMap<Level>(expectedLevels);
+            _levels = new Level[Math.max(16, expectedLevels)];
+        }
+
+        long best() {
+            return _count == 0 ? NO_PRICE : _levels[_count - 1]._price;
+        }
+
+        /**
+         * @return the level at a price, added in sorted position if the side has none
+         */
+        Level level(long price) {
+            Level level = _byPrice.Get(price);
+            if (level != null)
+                return level;
+            level = acquireLevel();
+            level._price = price;
+            _byPrice.Put(price, level);
+            // Binary search for the first level better than the new price
+            int low = 0;
+            int high = _count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (better(_levels[mid]._price, price))
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            if (_count == _levels.length) {
+                Level[] levels = new Level[2 * _count];
+                System.arraycopy(_levels, 0, levels, 0, _count);
+                _levels = levels;
+            }
+            System.arraycopy(_levels, low, _levels, low + 1, _count - low);
+            _levels[low] = level;
+            _count++;
+            return level;
+        }
+
+        void removeBest() {
+            Level level = _levels[--_count];
+            _levels[_count] = null;
+            _byPrice.Remove(level._price);
+            releaseLevel(level);
+        }
+
+        /**
+         * Removes an emptied level from anywhere in the side; levels near the best are found soonest
+         */
+        void removeLevel(Level level) {
+            int index = _count - 1;
+            while (_levels[index] != level)
+                index--;
+            System.arraycopy(_levels, index + 1, _levels, index, _count - index - 1);
+            _levels[--_count] = null;
+            _byPrice.Remove(level._price);
+            releaseLevel(level);
+        }
+
+        private boolean better(long price, long than) {
+            return _buy ? price > than : price < than;
+        }
+
+        final boolean _buy;
+        final LongHashMap<Level> _byPrice;
+        Level[] _levels;
+        int _count;
+    }
+
+    /** ID, side, price and quantity */
+    private static final int ORDER_SNAPSHOT_SIZE = 8 + 1 + 8 + 8;
+
+    private final String _instrument;
+    private final Side _bids;
+    private final Side _asks;
+    private final LongHashMap<Order> _byId;
+    private Order _freeOrders;
+    private Level _freeLevels;
+}
@@ -0,0 +1,12 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ClusteredAppSerializer;
+import com.solacesystems.ha.GenerateSerializer;
+
+/**
+ * The sample's input and output messages; their serializer, {@link GeneratedSampleSerializer},
+ * is generated at compile time from the fields marked on {@link ClientOrder} and {@link AppState}.
+ */
+@GenerateSerializer("GeneratedSampleSerializer")
+public interface SampleMessages extends ClusteredAppSerializer<ClientOrder, AppState> {
+}
@@ -8,10 +8,15 @@ import com.solacesystems.ha.ClusteredAppSerializer;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 
+/**
+ * Hand-written serializer for the sample's messages, kept as the baseline the generated
+ * {@link GeneratedSampleSerializer} is benchmarked against; both write the same wire format as long as
+ * instruments are sent as strings rather than as ids from a {@link Instruments#Dictionary()}.
+ */
 public class SampleSerializer implements ClusteredAppSerializer<ClientOrder, AppState> {
     public ClientOrder DeserializeInput(BytesXMLMessage msg) {
         ByteBuffer data = msg.getAttachmentByteBuffer();
-        ClientOrder order = new ClientOrder(ByteBufferSerializer.DeserializeInt(data));
+        ClientOrder order = new ClientOrder(ByteBufferSerializer.DeserializeSequence(data));
         order.setIsBuy(ByteBufferSerializer.DeserializeBool(data));
         order.setQuantity(ByteBufferSerializer.DeserializeDouble(data));
         order.setPrice(ByteBufferSerializer.DeserializeDouble(data));
@@ -27,9 +32,11 @@ public class SampleSerializer implements ClusteredAppSerializer<ClientOrder, App
 
     public ByteBuffer SerializeInput(ClientOrder o)
     {
-        //ByteBufferSerializer.SerializeClientOrder(_inmsgbuf, input);
+        int size = ClientOrderCodec.SizeOf(o, null);
+        if (_inmsgbuf.capacity() < size)
+            _inmsgbuf = ByteBuffer.allocate(size);
         _inmsgbuf.clear();
-        ByteBufferSerializer.SerializeInt(_inmsgbuf, o.getSequenceId());
+        ByteBufferSerializer.SerializeSequence(_inmsgbuf, o.getSequenceId());
         ByteBufferSerializer.SerializeBool(_inmsgbuf, o.isBuy());
         ByteBufferSerializer.SerializeDouble(_inmsgbuf, o.getQuantity());
         ByteBufferSerializer.SerializeDouble(_inmsgbuf, o.getPrice());
@@ -40,9 +47,20 @@ public class SampleSerializer implements ClusteredAppSerializer<ClientOrder, App
     public AppState DeserializeOutput(BytesXMLMessage msg) {
         ByteBuffer data = msg.getAttachmentByteBuffer();
         try {
-            int seqId = ByteBufferSerializer.DeserializeInt(data);
+            // States published before the sample matched orders have a legacy header and end with the
+            // instrument, although they may be padded beyond it
+            boolean versioned = ByteBufferSerializer.HasSequenceHeader(data);
+            long seqId = ByteBufferSerializer.DeserializeSequence(data);
             AppState state = new AppState(ByteBufferSerializer.DeserializeString(data));
             state.setSequenceId(seqId);
+            if (versioned) {
+                state._fills = ByteBufferSerializer.DeserializeInt(data);
+                state._filledQuantity = ByteBufferSerializer.DeserializeLong(data);
+                state._averagePrice = ByteBufferSerializer.DeserializeDouble(data);
+                state._restingQuantity = ByteBufferSerializer.DeserializeLong(data);
+                state._bestBid = ByteBufferSerializer.DeserializeDouble(data);
+                state._bestAsk = ByteBufferSerializer.DeserializeDouble(data);
+            }
             return state;
         }
         catch(UnsupportedEncodingException e) {
@@ -52,13 +70,26 @@ public class SampleSerializer implements ClusteredAppSerializer<ClientOrder, App
     }
 
     public ByteBuffer SerializeOutput(AppState o) {
-        //ByteBufferSerializer.SerializeAppState(_outmsgbuf, output);
+        int size = AppStateCodec.SizeOf(o, null);
+        if (_outmsgbuf.capacity() < size)
+            _outmsgbuf = ByteBuffer.allocate(size);
         _outmsgbuf.clear();
-        ByteBufferSerializer.SerializeInt(_outmsgbuf, o.getSequenceId());
+        ByteBufferSerializer.SerializeSequence(_outmsgbuf, o.getSequenceId());
         ByteBufferSerializer.SerializeString(_outmsgbuf, o.getInstrument());
+        ByteBufferSerializer.SerializeInt(_outmsgbuf, o.getFills());
+        ByteBufferSerializer.SerializeLong(_outmsgbuf, o.getFilledQuantity());
+        ByteBufferSerializer.SerializeDouble(_outmsgbuf, o.getAveragePrice());
+        ByteBufferSerializer.SerializeLong(_outmsgbuf, o.getRestingQuantity());
+        ByteBufferSerializer.SerializeDouble(_outmsgbuf, o.getBestBid());
+        ByteBufferSerializer.SerializeDouble(_outmsgbuf, o.getBestAsk());
         return _outmsgbuf;
     }
 
-    private final ByteBuffer _outmsgbuf = ByteBuffer.allocate(AppState.SERIALIZED_SIZE);
-    private final ByteBuffer _inmsgbuf = ByteBuffer.allocate(ClientOrder.SERIALIZED_SIZE);
+    public long PeekInputSequence(BytesXMLMessage msg) {
+        return ByteBufferSerializer.PeekSequence(msg, _peekbuf);
+    }
+
+    private final ByteBuffer _peekbuf = ByteBuffer.allocate(ByteBufferSerializer.SEQUENCE_HEADER_SIZE);
+    private ByteBuffer _outmsgbuf = ByteBuffer.allocate(64);
+    private ByteBuffer _inmsgbuf = ByteBuffer.allocate(64);
 }
@@ -0,0 +1,103 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ByteBufferSerializer;
+import com.solacesystems.ha.FlyweightGenerator;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FlyweightSampleSerializerTest {
+
+    private static BytesXMLMessage wrap(ByteBuffer data) {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        return msg;
+    }
+
+    private static BytesXMLMessage order(long seqId, boolean buy, double quantity, double price, String instrument) {
+        ClientOrder order = new ClientOrder(seqId);
+        order.setIsBuy(buy);
+        order.setQuantity(quantity);
+        order.setPrice(price);
+        order.setInstrument(instrument);
+        ByteBuffer data = new SampleSerializer().SerializeInput(order);
+        data.flip();
+        return wrap(data);
+    }
+
+    @Test
+    public void testFlyweightReadsWhatSampleSerializerWrote() {
+        FlyweightSampleSerializer serializer = new FlyweightSampleSerializer();
+        ClientOrderFlyweight first = serializer.DeserializeInput(order(5, true, 1.25, 42.5, "MSFT"));
+        assertEquals(5, first.getSequenceId());
+        assertTrue(first.isBuy());
+        assertEquals(1.25, first.getQuantity(), 0);
+        assertEquals(42.5, first.getPrice(), 0);
+        String instrument = first.getInstrument();
+        assertEquals("MSFT", instrument);
+
+        // The same view is reused, and a known instrument decodes to the same String
+        ClientOrderFlyweight second = serializer.DeserializeInput(order(6, false, 3, 41, "MSFT"));
+        assertSame(first, second);
+        assertEquals(6, second.getSequenceId());
+        assertFalse(second.isBuy());
+        assertSame(instrument, second.getInstrument());
+        assertEquals(4, second.getInstrumentLength());
+
+        ByteBuffer reserialized = serializer.SerializeInput(second);
+        reserialized.flip();
+        ClientOrder copy = new SampleSerializer().DeserializeInput(wrap(reserialized));
+        assertEquals(6, copy.getSequenceId());
+        assertEquals(41, copy.getPrice(), 0);
+        assertEquals("MSFT", copy.getInstrument());
+    }
+
+    @Test
+    public void testFlyweightReadsInstrumentIds() {
+        ClientOrder order = new ClientOrder(8);
+        order.setPrice(12.5);
+        order.setInstrument("IBM");
+        ByteBuffer data = new GeneratedSampleSerializer(false, Instruments.Dictionary()).SerializeInput(order);
+        data.flip();
+
+        ClientOrderFlyweight flyweight = new FlyweightSampleSerializer(Instruments.Dictionary()).DeserializeInput(wrap(data));
+        assertEquals(12.5, flyweight.getPrice(), 0);
+        assertEquals("IBM", flyweight.getInstrument());
+        assertEquals(0, flyweight.getInstrumentLength());
+    }
+
+    @Test
+    public void testFlyweightReadsLegacySequenceHeader() {
+        ByteBuffer legacy = ByteBuffer.allocate(64);
+        ByteBufferSerializer.SerializeInt(legacy, 7);
+        ByteBufferSerializer.SerializeBool(legacy, true);
+        ByteBufferSerializer.SerializeDouble(legacy, 10);
+        ByteBufferSerializer.SerializeDouble(legacy, 99.5);
+        ByteBufferSerializer.SerializeString(legacy, "AAPL");
+        legacy.flip();
+
+        ClientOrderFlyweight order = new FlyweightSampleSerializer().DeserializeInput(wrap(legacy));
+        assertEquals(7, order.getSequenceId());
+        assertEquals(99.5, order.getPrice(), 0);
+        assertEquals("AAPL", order.getInstrument());
+    }
+
+    @Test
+    public void testGeneratedFlyweightIsUpToDate() throws Exception {
+        File schema = new File("src/main/flyweight/ClientOrder.flyweight");
+        FileReader reader = new FileReader(schema);
+        String generated = FlyweightGenerator.Generate(schema.getName(), reader);
+        reader.close();
+        String checkedIn = new String(Files.readAllBytes(
+            new File("src/main/java/com/solacesystems/demo/ClientOrderFlyweight.java").toPath()), StandardCharsets.UTF_8);
+        assertEquals("Regenerate ClientOrderFlyweight from its schema", generated, checkedIn);
+    }
+}
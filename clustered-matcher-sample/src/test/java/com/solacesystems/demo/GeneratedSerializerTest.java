@@ -0,0 +1,59 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.SymbolTable;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Serializers generated for message types with symbol fields on only one side; that these compile at all
+ * checks each side is decoded with its own symbol table
+ */
+public class GeneratedSerializerTest {
+
+    private static BytesXMLMessage wrap(ByteBuffer data) {
+        data.flip();
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        return msg;
+    }
+
+    private static SymbolTable dictionary() {
+        SymbolTable dictionary = new SymbolTable(4);
+        dictionary.Register("MSFT");
+        dictionary.Seal();
+        return dictionary;
+    }
+
+    @Test
+    public void testSymbolsOnlyInInputs() {
+        GeneratedQuoteSerializer serializer = new GeneratedQuoteSerializer(false, dictionary());
+        Quote input = serializer.DeserializeInput(wrap(serializer.SerializeInput(new Quote(3, "MSFT", 12.5))));
+        assertEquals(3, input.getSequenceId());
+        assertEquals("MSFT", input.instrument);
+        assertEquals(12.5, input.price, 0);
+        assertSame(input.instrument, serializer.DeserializeInput(wrap(serializer.SerializeInput(input))).instrument);
+
+        QuoteCount output = serializer.DeserializeOutput(wrap(serializer.SerializeOutput(new QuoteCount(3, 7))));
+        assertEquals(3, output.getSequenceId());
+        assertEquals(7, output.count);
+    }
+
+    @Test
+    public void testSymbolsOnlyInOutputs() {
+        GeneratedQuoteCountSerializer serializer = new GeneratedQuoteCountSerializer(false, dictionary());
+        QuoteCount input = serializer.DeserializeInput(wrap(serializer.SerializeInput(new QuoteCount(4, 2))));
+        assertEquals(4, input.getSequenceId());
+        assertEquals(2, input.count);
+
+        Quote output = serializer.DeserializeOutput(wrap(serializer.SerializeOutput(new Quote(4, "AAPL", 1.25))));
+        assertEquals(4, output.getSequenceId());
+        assertEquals("AAPL", output.instrument);
+        assertEquals(1.25, output.price, 0);
+    }
+}
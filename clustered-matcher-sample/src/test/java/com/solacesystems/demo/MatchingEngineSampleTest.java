@@ -0,0 +1,53 @@
+package com.solacesystems.demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MatchingEngineSampleTest {
+
+    private static ClientOrder order(long seqId, boolean buy, double quantity, double price) {
+        ClientOrder order = new ClientOrder(seqId);
+        order.setIsBuy(buy);
+        order.setQuantity(quantity);
+        order.setPrice(price);
+        order.setInstrument("MSFT");
+        return order;
+    }
+
+    @Test
+    public void testRedeliveredInputsAreDropped() {
+        // Never connected, so the engine is a backup and sends nothing
+        MatchingEngineSample engine = new MatchingEngineSample("test", 1, "test/out");
+        assertEquals(10, engine.UpdateApplicationState(order(1, false, 10, 50.01)).getRestingQuantity());
+        long hash = engine.GetStateHash();
+        assertNull(engine.UpdateApplicationState(order(1, false, 10, 50.01)));
+        assertEquals(hash, engine.GetStateHash());
+        assertEquals(0, engine.UpdateApplicationState(order(2, true, 10, 50.01)).getRestingQuantity());
+    }
+
+    @Test
+    public void testSnapshotRestoresTheBooks() {
+        MatchingEngineSample engine = new MatchingEngineSample("test", 1, "test/out");
+        engine.UpdateApplicationState(order(1, false, 10, 50.02));
+        engine.UpdateApplicationState(order(2, false, 5, 50.01));
+        ByteBuffer snapshot = engine.TakeSnapshot();
+        ByteBuffer copy = ByteBuffer.allocate(snapshot.remaining());
+        copy.put(snapshot).flip();
+
+        MatchingEngineSample restored = new MatchingEngineSample("test", 2, "test/out");
+        restored.RestoreSnapshot(copy);
+        assertEquals(engine.GetStateHash(), restored.GetStateHash());
+        assertNull(restored.UpdateApplicationState(order(2, false, 5, 50.01)));
+
+        AppState expected = engine.UpdateApplicationState(order(3, true, 12, 50.02));
+        AppState actual = restored.UpdateApplicationState(order(3, true, 12, 50.02));
+        assertEquals(2, actual.getFills());
+        assertEquals(expected.getAveragePrice(), actual.getAveragePrice(), 0);
+        assertEquals(expected.getBestAsk(), actual.getBestAsk(), 0);
+        assertEquals(engine.GetStateHash(), restored.GetStateHash());
+    }
+}
@@ -0,0 +1,150 @@
+package com.solacesystems.demo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class OrderBookTest {
+
+    /** Records fills as "maker@price x quantity" */
+    private static class Fills implements OrderBook.FillListener {
+        public void OnFill(long makerOrderId, long price, long quantity) {
+            _fills.add(makerOrderId + "@" + price + "x" + quantity);
+        }
+
+        final List<String> _fills = new ArrayList<String>();
+    }
+
+    @Test
+    public void testMatchesInPriceThenTimePriority() {
+        OrderBook book = new OrderBook("MSFT", 4);
+        Fills fills = new Fills();
+        assertEquals(OrderBook.NO_PRICE, book.BestAsk());
+        assertEquals(10, book.Submit(1, false, 5002, 10, fills));
+        assertEquals(10, book.Submit(2, false, 5001, 10, fills));
+        assertEquals(5, book.Submit(3, false, 5001, 5, fills));
+        assertEquals(7, book.Submit(4, true, 4999, 7, fills));
+        assertEquals(5001, book.BestAsk());
+        assertEquals(4999, book.BestBid());
+        assertEquals(15, book.QuantityAt(false, 5001));
+
+        // Takes the whole best level, oldest order first, then part of the next
+        assertEquals(0, book.Submit(5, true, 5002, 18, fills));
+        assertEquals(3, fills._fills.size());
+        assertEquals("2@5001x10", fills._fills.get(0));
+        assertEquals("3@5001x5", fills._fills.get(1));
+        assertEquals("1@5002x3", fills._fills.get(2));
+        assertEquals(5002, book.BestAsk());
+        assertEquals(7, book.QuantityAt(false, 5002));
+        assertEquals(0, book.QuantityAt(false, 5001));
+        assertEquals(1, book.GetLevelCount(false));
+        assertEquals(2, book.GetOrderCount());
+
+        // Crosses everything, then rests the remainder as the new best bid
+        fills._fills.clear();
+        assertEquals(3, book.Submit(6, true, 5010, 10, fills));
+        assertEquals("1@5002x7", fills._fills.get(0));
+        assertEquals(OrderBook.NO_PRICE, book.BestAsk());
+        assertEquals(5010, book.BestBid());
+        assertEquals(2, book.GetLevelCount(true));
+
+        // A sell that does not cross only rests
+        fills._fills.clear();
+        assertEquals(4, book.Submit(7, false, 5011, 4, fills));
+        assertEquals(0, fills._fills.size());
+        assertEquals(5011, book.BestAsk());
+    }
+
+    @Test
+    public void testLevelsStaySortedAcrossManyPrices() {
+        OrderBook book = new OrderBook("MSFT", 2);
+        Fills fills = new Fills();
+        long[] prices = { 105, 101, 110, 103, 108, 102, 109, 104, 107, 106 };
+        for (int i = 0; i < prices.length; i++)
+            book.Submit(i, false, prices[i], 1, fills);
+        assertEquals(10, book.GetLevelCount(false));
+        for (long price = 101; price <= 110; price++) {
+            assertEquals(price, book.BestAsk());
+            book.Submit(100 + price, true, 200, 1, fills);
+        }
+        assertEquals(OrderBook.NO_PRICE, book.BestAsk());
+        assertEquals(0, book.GetOrderCount());
+        assertEquals(10, fills._fills.size());
+    }
+
+    @Test
+    public void testCancelRemovesRestingOrders() {
+        OrderBook book = new OrderBook("MSFT", 1);
+        Fills fills = new Fills();
+        book.Submit(1, true, 100, 5, fills);
+        book.Submit(2, true, 100, 6, fills);
+        book.Submit(3, true, 99, 7, fills);
+        book.Submit(4, true, 101, 8, fills);
+        assertEquals(6, book.Cancel(2));
+        assertEquals(0, book.Cancel(2));
+        assertEquals(5, book.QuantityAt(true, 100));
+        // Emptying a level behind the best removes it
+        assertEquals(7, book.Cancel(3));
+        assertEquals(2, book.GetLevelCount(true));
+        assertEquals(0, book.QuantityAt(true, 99));
+        assertEquals(8, book.Cancel(4));
+        assertEquals(100, book.BestBid());
+
+        // Cancelled orders are gone from the time priority, and their IDs can be used again
+        assertEquals(0, book.Submit(5, false, 99, 5, fills));
+        assertEquals("1@100x5", fills._fills.get(0));
+        assertEquals(1, fills._fills.size());
+        assertEquals(OrderBook.NO_PRICE, book.BestBid());
+        assertEquals(1, book.Submit(2, false, 99, 1, fills));
+        assertEquals(1, book.GetOrderCount());
+    }
+
+    @Test
+    public void testSnapshotRestoresTimePriority() {
+        OrderBook book = new OrderBook("MSFT", 4);
+        Fills fills = new Fills();
+        book.Submit(1, false, 5002, 10, fills);
+        book.Submit(2, false, 5001, 10, fills);
+        book.Submit(3, false, 5001, 5, fills);
+        book.Submit(4, true, 4999, 7, fills);
+        ByteBuffer snapshot = ByteBuffer.allocate(book.SnapshotSize());
+        book.WriteSnapshot(snapshot).flip();
+        assertEquals(book.SnapshotSize(), snapshot.remaining());
+
+        OrderBook restored = new OrderBook("MSFT", 1);
+        restored.ReadSnapshot(snapshot);
+        assertEquals(0, snapshot.remaining());
+        assertEquals(4, restored.GetOrderCount());
+        assertEquals(4999, restored.BestBid());
+        assertEquals(15, restored.QuantityAt(false, 5001));
+
+        // Matches exactly as the original book would
+        Fills restoredFills = new Fills();
+        assertEquals(0, book.Submit(5, true, 5002, 18, fills));
+        assertEquals(0, restored.Submit(5, true, 5002, 18, restoredFills));
+        assertEquals(fills._fills, restoredFills._fills);
+        assertEquals(7, restored.Cancel(4));
+    }
+
+    @Test
+    public void testLongHashMapRemovalKeepsProbeRunsReachable() {
+        LongHashMap<String> map = new LongHashMap<String>(4);
+        for (long key = 0; key < 1000; key++)
+            assertNull(map.Put(key, "v" + key));
+        for (long key = 0; key < 1000; key += 3)
+            assertEquals("v" + key, map.Remove(key));
+        assertEquals(666, map.Size());
+        for (long key = 0; key < 1000; key++)
+            assertEquals(key % 3 == 0 ? null : "v" + key, map.Get(key));
+        String value = "replaced";
+        assertEquals("v1", map.Put(1, value));
+        assertSame(value, map.Get(1));
+        assertNull(map.Remove(3));
+    }
+}
@@ -0,0 +1,28 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.Ordered;
+import com.solacesystems.ha.SequenceId;
+import com.solacesystems.ha.SerializedField;
+
+/**
+ * Message with a symbol field, paired with {@link QuoteCount} which has none, so that the generated
+ * serializers are compiled with symbols on only one side
+ */
+public class Quote implements Ordered {
+    Quote() {
+    }
+
+    Quote(long seqId, String instrument, double price) {
+        this.seqId = seqId;
+        this.instrument = instrument;
+        this.price = price;
+    }
+
+    public long getSequenceId() {
+        return seqId;
+    }
+
+    @SequenceId long seqId;
+    @SerializedField(symbol = true) String instrument;
+    @SerializedField double price;
+}
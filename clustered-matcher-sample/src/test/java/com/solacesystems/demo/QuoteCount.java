@@ -0,0 +1,25 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.Ordered;
+import com.solacesystems.ha.SequenceId;
+import com.solacesystems.ha.SerializedField;
+
+/**
+ * Message without symbol fields, paired with {@link Quote}
+ */
+public class QuoteCount implements Ordered {
+    QuoteCount() {
+    }
+
+    QuoteCount(long seqId, int count) {
+        this.seqId = seqId;
+        this.count = count;
+    }
+
+    public long getSequenceId() {
+        return seqId;
+    }
+
+    @SequenceId long seqId;
+    @SerializedField int count;
+}
@@ -0,0 +1,11 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ClusteredAppSerializer;
+import com.solacesystems.ha.GenerateSerializer;
+
+/**
+ * Symbols only in the outputs
+ */
+@GenerateSerializer("GeneratedQuoteCountSerializer")
+public interface QuoteCountMessages extends ClusteredAppSerializer<QuoteCount, Quote> {
+}
@@ -0,0 +1,11 @@
+package com.solacesystems.demo;
+
+import com.solacesystems.ha.ClusteredAppSerializer;
+import com.solacesystems.ha.GenerateSerializer;
+
+/**
+ * Symbols only in the inputs
+ */
+@GenerateSerializer("GeneratedQuoteSerializer")
+public interface QuoteMessages extends ClusteredAppSerializer<Quote, QuoteCount> {
+}
@@ -1,20 +1,26 @@
 package com.solacesystems.demo;
 
+import com.solacesystems.ha.ByteBufferSerializer;
+import com.solacesystems.ha.ClusteredAppSerializer;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPFactory;
 import org.junit.Test;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SampleSerializerTest {
 
+    /** Builds the message as it would arrive: only the flipped region is sent */
     private static BytesXMLMessage wrap(ByteBuffer data) {
         BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
-        msg.writeAttachment(data.array());
+        msg.writeAttachment(data.array(), data.arrayOffset() + data.position(), data.remaining());
         return msg;
     }
 
@@ -27,6 +33,9 @@ public class SampleSerializerTest {
         sell.setPrice(5.4321);
         sell.setInstrument("AAPL");
         stack.addOrder(sell);
+        stack.addFill(5.43, 1);
+        stack.addFill(5.44, 3);
+        stack.setBook(2, 5.42, 5.45);
 
         SampleSerializer serializer = new SampleSerializer();
         ByteBuffer dest = serializer.SerializeOutput(stack);
@@ -34,14 +43,43 @@ public class SampleSerializerTest {
 
         BytesXMLMessage msg = wrap(dest);
 
+        // sequence header + instrument length + "AAPL" + fills, filled, average, resting, bid and ask
+        assertEquals(ByteBufferSerializer.SEQUENCE_HEADER_SIZE + 4 + 4 + 4 + 5 * 8, msg.getAttachmentContentLength());
+        assertEquals(AppStateCodec.SizeOf(stack, null), msg.getAttachmentContentLength());
+
         AppState output = serializer.DeserializeOutput(msg);
         assertEquals(sell.getSequenceId(), output.getSequenceId());
         assertEquals(sell.getInstrument(), output.getInstrument());
+        assertEquals(2, output.getFills());
+        assertEquals(4, output.getFilledQuantity());
+        assertEquals(5.4375, output.getAveragePrice(), 1e-9);
+        assertEquals(2, output.getRestingQuantity());
+        assertEquals(5.42, output.getBestBid(), 0);
+        assertEquals(5.45, output.getBestAsk(), 0);
+    }
+
+    @Test
+    public void testDeserializeLegacyAppState() {
+        // Messages from before the versioned header start with a 32-bit sequence ID, and were published
+        // with the whole of a 20-byte buffer, padding and all
+        ByteBuffer legacy = ByteBuffer.allocate(20);
+        ByteBufferSerializer.SerializeInt(legacy, 7);
+        ByteBufferSerializer.SerializeString(legacy, "MSFT");
+        legacy.clear();
+
+        for (ClusteredAppSerializer<?, AppState> serializer : Arrays.<ClusteredAppSerializer<?, AppState>>asList(
+                new SampleSerializer(), new GeneratedSampleSerializer(), new FlyweightSampleSerializer())) {
+            AppState output = serializer.DeserializeOutput(wrap(legacy));
+            assertEquals(7L, output.getSequenceId());
+            assertEquals("MSFT", output.getInstrument());
+            assertEquals(0, output.getFills());
+            assertEquals(0, output.getRestingQuantity());
+        }
     }
 
     @Test
     public void testSerializeClientOrderRoundtrip() throws UnsupportedEncodingException {
-        ClientOrder input = new ClientOrder(5);
+        ClientOrder input = new ClientOrder(Integer.MAX_VALUE + 5L);
         input.setIsBuy(false);
         input.setQuantity(1.2345);
         input.setPrice(5.4321);
@@ -78,4 +116,84 @@ public class SampleSerializerTest {
         assertNull(output.getInstrument());
     }
 
+    @Test
+    public void testGeneratedSerializerWritesTheSameBytes() {
+        ClientOrder input = new ClientOrder(Integer.MAX_VALUE + 5L);
+        input.setIsBuy(true);
+        input.setQuantity(100);
+        input.setPrice(42.42);
+        input.setInstrument("MSFT");
+
+        ByteBuffer handWritten = new SampleSerializer().SerializeInput(input);
+        handWritten.flip();
+        ByteBuffer generated = new GeneratedSampleSerializer().SerializeInput(input);
+        generated.flip();
+        assertEquals(handWritten, generated);
+        assertEquals(ClientOrderCodec.SizeOf(input, null), generated.remaining());
+    }
+
+    @Test
+    public void testGeneratedSerializerSizesLongInstrumentsExactly() {
+        // Longer than the fixed 16 bytes the hand-written buffers used to allow for
+        String instrument = "VERY.LONG.INSTRUMENT.NAME.\u00e9\u20ac";
+        ClientOrder input = new ClientOrder(9);
+        input.setInstrument(instrument);
+        AppState state = new AppState(instrument);
+        state.setSequenceId(9);
+
+        GeneratedSampleSerializer serializer = new GeneratedSampleSerializer(true);
+        ByteBuffer dest = serializer.SerializeInput(input);
+        assertTrue(dest.isDirect());
+        assertEquals(ClientOrderCodec.SizeOf(input, null), dest.position());
+        dest.flip();
+        byte[] bytes = new byte[dest.remaining()];
+        dest.get(bytes);
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.writeAttachment(bytes);
+        assertEquals(instrument, serializer.DeserializeInput(msg).getInstrument());
+        assertEquals(9, serializer.PeekInputSequence(msg));
+
+        ByteBuffer output = new SampleSerializer().SerializeOutput(state);
+        assertEquals(AppStateCodec.SizeOf(state, null), output.position());
+        output.flip();
+        AppState decoded = serializer.DeserializeOutput(wrap(output));
+        assertEquals(9, decoded.getSequenceId());
+        assertEquals(instrument, decoded.getInstrument());
+    }
+
+    @Test
+    public void testDictionaryInstrumentsAreSentAsIds() {
+        GeneratedSampleSerializer publisher = new GeneratedSampleSerializer(false, Instruments.Dictionary());
+        GeneratedSampleSerializer member = new GeneratedSampleSerializer(true, Instruments.Dictionary());
+
+        ClientOrder listed = new ClientOrder(11);
+        listed.setInstrument("AAPL");
+        ByteBuffer data = publisher.SerializeInput(listed);
+        data.flip();
+        // sequence header + side + quantity + price + instrument id
+        assertEquals(ByteBufferSerializer.SEQUENCE_HEADER_SIZE + 1 + 8 + 8 + 4, data.remaining());
+        ClientOrder first = member.DeserializeInput(wrap(data));
+        assertEquals(11, first.getSequenceId());
+        assertEquals("AAPL", first.getInstrument());
+
+        // An unlisted instrument falls back to its name, and decodes to the same String every time
+        ClientOrder unlisted = new ClientOrder(12);
+        unlisted.setInstrument("NFLX");
+        data = publisher.SerializeInput(unlisted);
+        data.flip();
+        assertEquals(ClientOrderCodec.SizeOf(unlisted, null), data.remaining());
+        BytesXMLMessage msg = wrap(data);
+        String instrument = member.DeserializeInput(msg).getInstrument();
+        assertEquals("NFLX", instrument);
+        assertSame(instrument, member.DeserializeInput(msg).getInstrument());
+
+        AppState state = new AppState("MSFT");
+        state.setSequenceId(12);
+        data = publisher.SerializeOutput(state);
+        data.flip();
+        assertEquals(ByteBufferSerializer.SEQUENCE_HEADER_SIZE + 4 + 4 + 5 * 8, data.remaining());
+        msg = wrap(data);
+        assertEquals("MSFT", member.DeserializeOutput(msg).getInstrument());
+        assertEquals("MSFT", new FlyweightSampleSerializer(Instruments.Dictionary()).DeserializeOutput(msg).getInstrument());
+    }
 }